@@ -1,5 +1,5 @@
 /*
- * Copyright 2014, Andrew Lindesay
+ * Copyright 2014-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -14,7 +14,13 @@ package org.haiku.haikudepotserver.api1.support;
 public abstract class AbstractSearchRequest {
 
     public enum ExpressionType {
-        CONTAINS
+        CONTAINS,
+
+        /**
+         * <p>Only supported when searching for packages; results are ordered by how well they match.</p>
+         */
+
+        FULLTEXT
     }
 
     public String expression;
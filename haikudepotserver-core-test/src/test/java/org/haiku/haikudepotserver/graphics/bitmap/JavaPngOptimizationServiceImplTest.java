@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.bitmap;
+
+import com.google.common.io.ByteStreams;
+import org.fest.assertions.Assertions;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class JavaPngOptimizationServiceImplTest {
+
+    private final JavaPngOptimizationServiceImpl optimizationService = new JavaPngOptimizationServiceImpl(9);
+
+    private byte[] getData(String leafname) throws IOException {
+        try (InputStream inputStream = this.getClass().getResourceAsStream(leafname)) {
+            if (null == inputStream) {
+                throw new IllegalStateException("unable to find data for; " + leafname);
+            }
+
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    private static byte[] toPng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * <p>Checks that the two images have the same pixels; the colour of transparent pixels does not
+     * matter.</p>
+     */
+
+    private static void assertSamePixels(byte[] expectedPng, byte[] actualPng) throws IOException {
+        BufferedImage expected = ImageIO.read(new ByteArrayInputStream(expectedPng));
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(actualPng));
+
+        Assertions.assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        Assertions.assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int expectedPixel = expected.getRGB(x, y);
+                int actualPixel = actual.getRGB(x, y);
+
+                if (0 == (expectedPixel >>> 24)) {
+                    Assertions.assertThat(actualPixel >>> 24).isEqualTo(0);
+                }
+                else {
+                    Assertions.assertThat(actualPixel).isEqualTo(expectedPixel);
+                }
+            }
+        }
+    }
+
+    private void assertOptimized(byte[] input) throws IOException {
+        byte[] output = optimizationService.optimize(input);
+        Assertions.assertThat(output.length).isLessThanOrEqualTo(input.length);
+        assertSamePixels(input, output);
+    }
+
+    @Test
+    public void testOptimize_sample() throws IOException {
+        assertOptimized(getData("/sample-16x16-2.png"));
+    }
+
+    /**
+     * <p>This image has more than 256 colours and transparency so it should stay as RGBA.</p>
+     */
+
+    @Test
+    public void testOptimize_rgba() throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < 64; y++) {
+            for (int x = 0; x < 64; x++) {
+                image.setRGB(x, y, ((x * 4) << 24) | ((y * 4) << 16) | ((x + y) << 8) | (x ^ y));
+            }
+        }
+
+        assertOptimized(toPng(image));
+    }
+
+    /**
+     * <p>This image has few colours with some of them partly transparent so it should be written with a
+     * palette.</p>
+     */
+
+    @Test
+    public void testOptimize_palette() throws IOException {
+        BufferedImage image = new BufferedImage(50, 30, BufferedImage.TYPE_INT_ARGB);
+        int[] colors = { 0x00000000, 0x80ff0000, 0xff00ff00, 0xff0000ff, 0xffffffff };
+
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 50; x++) {
+                image.setRGB(x, y, colors[(x / 7 + y / 3) % colors.length]);
+            }
+        }
+
+        byte[] input = toPng(image);
+        byte[] output = optimizationService.optimize(input);
+
+        Assertions.assertThat(output.length).isLessThan(input.length);
+        assertSamePixels(input, output);
+    }
+
+    @Test
+    public void testOptimize_gray() throws IOException {
+        BufferedImage image = new BufferedImage(300, 20, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 300; x++) {
+                int gray = (x + y) % 256;
+                image.setRGB(x, y, (gray << 16) | (gray << 8) | gray);
+            }
+        }
+
+        assertOptimized(toPng(image));
+    }
+
+    /**
+     * <p>Returns the gray levels that are stored in the PNG data.  The levels of a gray image are read
+     * from the raster because converting them through the sRGB colour space would shift them.</p>
+     */
+
+    private static int[] getStoredGrays(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (ColorSpace.TYPE_GRAY == image.getColorModel().getColorSpace().getType()) {
+            Raster raster = image.getRaster();
+            int max = (1 << image.getColorModel().getComponentSize(0)) - 1;
+            int[] result = raster.getSamples(0, 0, width, height, 0, (int[]) null);
+
+            for (int i = 0; i < result.length; i++) {
+                result[i] = result[i] * 0xff / max;
+            }
+
+            return result;
+        }
+
+        int[] result = image.getRGB(0, 0, width, height, null, 0, width);
+
+        for (int i = 0; i < result.length; i++) {
+            Assertions.assertThat(result[i] >>> 24).isEqualTo(0xff);
+            Assertions.assertThat((result[i] >> 16) & 0xff).isEqualTo(result[i] & 0xff);
+            Assertions.assertThat((result[i] >> 8) & 0xff).isEqualTo(result[i] & 0xff);
+            result[i] &= 0xff;
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>The input here is a real grayscale PNG.  The gray levels must not be lightened by the
+     * optimization.</p>
+     */
+
+    @Test
+    public void testOptimize_byteGray() throws IOException {
+        BufferedImage image = new BufferedImage(300, 20, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = image.getRaster();
+
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 300; x++) {
+                raster.setSample(x, y, 0, (x * 7 + y) % 256);
+            }
+        }
+
+        byte[] input = toPng(image);
+        byte[] output = optimizationService.optimize(input);
+
+        Assertions.assertThat(output.length).isLessThan(input.length);
+        Assertions.assertThat(getStoredGrays(output)).isEqualTo(
+                raster.getSamples(0, 0, 300, 20, 0, (int[]) null));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOptimize_notPng() throws IOException {
+        optimizationService.optimize(getData("/sample.hvif"));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.hvif;
+
+import com.google.common.io.ByteStreams;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.graphics.ImageHelper;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class JavaHvifRenderingServiceImplTest {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(JavaHvifRenderingServiceImplTest.class);
+
+    private final JavaHvifRenderingServiceImpl renderingService = new JavaHvifRenderingServiceImpl();
+
+    private byte[] getData(String leafname) throws IOException {
+        try (InputStream inputStream = this.getClass().getResourceAsStream(leafname)) {
+            if (null == inputStream) {
+                throw new IllegalStateException("unable to find data for; " + leafname);
+            }
+
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    private BufferedImage renderAndCheckSize(String leafname, int size) throws IOException {
+        byte[] png = renderingService.render(size, getData(leafname));
+
+        ImageHelper.Size pngSize = new ImageHelper().derivePngSize(png);
+        Assertions.assertThat(pngSize).isNotNull();
+        Assertions.assertThat(pngSize.areSides(size)).isTrue();
+
+        return ImageIO.read(new ByteArrayInputStream(png));
+    }
+
+    /**
+     * <p>The sample icon is an orange blob that covers the middle of the icon.</p>
+     */
+
+    @Test
+    public void testRender_sample() throws IOException {
+        for (int size : new int[] { 16, 32, 64, 512 }) {
+            BufferedImage image = renderAndCheckSize("/sample.hvif", size);
+            int centre = image.getRGB(size / 2, size / 2);
+
+            Assertions.assertThat(centre >>> 24).isEqualTo(0xff);
+            Assertions.assertThat((centre >> 16) & 0xff).isEqualTo(0xff);
+            Assertions.assertThat((centre >> 8) & 0xff).isEqualTo(0xaa);
+            Assertions.assertThat(centre & 0xff).isEqualTo(0x00);
+
+            // the corner is outside of the blob
+            Assertions.assertThat(image.getRGB(0, 0) >>> 24).isEqualTo(0);
+        }
+    }
+
+    /**
+     * <p>The generic icon has gradients with transforms.</p>
+     */
+
+    @Test
+    public void testRender_generic() throws IOException {
+        BufferedImage image = renderAndCheckSize("/sample-generic.hvif", 64);
+        Assertions.assertThat(image.getRGB(32, 32) >>> 24).isEqualTo(0xff);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRender_notHvif() throws IOException {
+        renderingService.render(16, getData("/sample-16x16-2.png"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRender_truncated() throws IOException {
+        byte[] data = getData("/sample.hvif");
+        byte[] truncatedData = new byte[data.length - 4];
+        System.arraycopy(data, 0, truncatedData, 0, truncatedData.length);
+        renderingService.render(16, truncatedData);
+    }
+
+    /**
+     * <p>Renders the icons from a number of threads at once to check that the renderings are the same and
+     * logs the time taken.</p>
+     */
+
+    @Test
+    public void testRender_concurrent() throws Exception {
+        byte[] data = getData("/sample-generic.hvif");
+        byte[] expected = renderingService.render(64, data);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            long startMillis = System.currentTimeMillis();
+
+            for (int i = 0; i < 100; i++) {
+                futures.add(executorService.submit(() -> renderingService.render(64, data)));
+            }
+
+            for (Future<byte[]> future : futures) {
+                Assertions.assertThat(future.get(30, TimeUnit.SECONDS)).isEqualTo(expected);
+            }
+
+            LOGGER.info("did render {} icons in {}ms", futures.size(), System.currentTimeMillis() - startMillis);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+}
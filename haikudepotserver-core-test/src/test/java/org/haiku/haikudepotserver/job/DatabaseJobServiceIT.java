@@ -0,0 +1,384 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.cayenne.ObjectContext;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.AbstractIntegrationTest;
+import org.haiku.haikudepotserver.config.TestConfig;
+import org.haiku.haikudepotserver.dataobjects.JobDataRecord;
+import org.haiku.haikudepotserver.dataobjects.JobRecord;
+import org.haiku.haikudepotserver.job.model.AbstractJobSpecification;
+import org.haiku.haikudepotserver.job.model.JobData;
+import org.haiku.haikudepotserver.job.model.JobDataType;
+import org.haiku.haikudepotserver.job.model.JobDataWithByteSink;
+import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
+import org.haiku.haikudepotserver.storage.model.DataStorageService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Runs two instances of the {@link DatabaseJobServiceImpl} over the same database in order to
+ * simulate two application server nodes sharing the jobs.</p>
+ */
+
+@ContextConfiguration(classes = TestConfig.class)
+public class DatabaseJobServiceIT extends AbstractIntegrationTest {
+
+    private final static long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * <p>A gated job will not complete until this latch is released.  Because the specification is
+     * stored in the database, the latch can not be carried on the specification itself.</p>
+     */
+
+    private static volatile CountDownLatch gate;
+
+    /**
+     * <p>Records the services that have run each job; keyed by the job's GUID.</p>
+     */
+
+    private final static Map<String, List<JobService>> runningJobServicesByGuid = new ConcurrentHashMap<>();
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private DataStorageService dataStorageService;
+
+    private final List<DatabaseJobServiceImpl> jobServices = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        gate = new CountDownLatch(1);
+        runningJobServicesByGuid.clear();
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+
+        for (DatabaseJobServiceImpl jobService : jobServices) {
+            if (jobService.isRunning()) {
+                jobService.stopAsyncAndAwaitTerminated();
+            }
+        }
+    }
+
+    private DatabaseJobServiceImpl createJobService(int maxConcurrency) {
+        DatabaseJobServiceImpl result = new DatabaseJobServiceImpl(
+                serverRuntime,
+                dataStorageService,
+                objectMapper,
+                ImmutableList.of(new TestGateJobRunner()),
+                ImmutableList.of(JobLaneDefinition.createDefault(maxConcurrency, 10)),
+                null);
+        jobServices.add(result);
+        return result;
+    }
+
+    /**
+     * <p>Both nodes are competing to claim the queued jobs; each job should be run exactly once.</p>
+     */
+
+    @Test
+    public void testTwoNodesNeverClaimTheSameJob() {
+        DatabaseJobServiceImpl jobService1 = createJobService(2);
+        DatabaseJobServiceImpl jobService2 = createJobService(2);
+        jobService1.startAsyncAndAwaitRunning();
+        jobService2.startAsyncAndAwaitRunning();
+        gate.countDown();
+        List<String> guids = new ArrayList<>();
+
+        // ---------------------------------
+        for (int i = 0; i < 16; i++) {
+            DatabaseJobServiceImpl jobService = 0 == i % 2 ? jobService1 : jobService2;
+            guids.add(jobService.submit(new TestGateJobSpecification(), JobSnapshot.COALESCE_STATUSES_NONE));
+        }
+
+        jobService1.awaitAllJobsFinishedUninterruptibly(TIMEOUT_MILLIS);
+        // ---------------------------------
+
+        Assertions.assertThat(guids.stream().distinct().count()).isEqualTo(16L);
+
+        for (String guid : guids) {
+            assertStatus(jobService2, guid, JobSnapshot.Status.FINISHED);
+            Assertions.assertThat(runningJobServicesByGuid.get(guid)).hasSize(1);
+            Assertions.assertThat(JobRecord.tryGetByGuid(serverRuntime.newContext(), guid).get().getNodeName())
+                    .isNotNull();
+        }
+    }
+
+    /**
+     * <p>Each node is running one gated job and a third job is queued.  Either node should then
+     * coalesce a new equivalent job with the jobs that were claimed by the nodes.</p>
+     */
+
+    @Test
+    public void testCoalesceWithJobsOnAnotherNode() {
+        DatabaseJobServiceImpl jobService1 = createJobService(1);
+        DatabaseJobServiceImpl jobService2 = createJobService(1);
+        jobService1.startAsyncAndAwaitRunning();
+        jobService2.startAsyncAndAwaitRunning();
+
+        String startedGuid1 = jobService1.submit(
+                new TestGateJobSpecification(true), JobSnapshot.COALESCE_STATUSES_NONE);
+        awaitStatus(jobService1, startedGuid1, JobSnapshot.Status.STARTED);
+        String startedGuid2 = jobService1.submit(
+                new TestGateJobSpecification(true), JobSnapshot.COALESCE_STATUSES_NONE);
+        awaitStatus(jobService1, startedGuid2, JobSnapshot.Status.STARTED);
+        String queuedGuid = jobService1.submit(
+                new TestGateJobSpecification(true), JobSnapshot.COALESCE_STATUSES_NONE);
+
+        // ---------------------------------
+        String coalescedQueuedGuid1 = jobService1.submit(
+                new TestGateJobSpecification(true), JobSnapshot.COALESCE_STATUSES_QUEUED);
+        String coalescedQueuedGuid2 = jobService2.submit(
+                new TestGateJobSpecification(true), JobSnapshot.COALESCE_STATUSES_QUEUED);
+        String coalescedStartedGuid = jobService2.submit(
+                new TestGateJobSpecification(true), JobSnapshot.COALESCE_STATUSES_QUEUED_STARTED);
+        // ---------------------------------
+
+        assertStatus(jobService2, queuedGuid, JobSnapshot.Status.QUEUED);
+        Assertions.assertThat(coalescedQueuedGuid1).isEqualTo(queuedGuid);
+        Assertions.assertThat(coalescedQueuedGuid2).isEqualTo(queuedGuid);
+        Assertions.assertThat(coalescedStartedGuid).isIn(startedGuid1, startedGuid2);
+        Assertions.assertThat(jobService2.totalJobs(null, null)).isEqualTo(3);
+
+        // the two started jobs should be running on different nodes.
+
+        Assertions.assertThat(runningJobServicesByGuid.get(startedGuid1))
+                .isNotEqualTo(runningJobServicesByGuid.get(startedGuid2));
+
+        gate.countDown();
+        jobService1.awaitAllJobsFinishedUninterruptibly(TIMEOUT_MILLIS);
+
+        assertStatus(jobService1, queuedGuid, JobSnapshot.Status.FINISHED);
+    }
+
+    /**
+     * <p>A node has stopped while it was running one job and had claimed another.  The started job
+     * should be failed and the claimed job should be released so that another node is able to claim
+     * and run it.  A job claimed by a node with a current heartbeat should not be touched.</p>
+     */
+
+    @Test
+    public void testJobsReclaimedAfterHeartbeatExpires() {
+        DatabaseJobStore jobStore = new DatabaseJobStore(serverRuntime, objectMapper);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp staleTimestamp = new Timestamp(now.getTime() - TimeUnit.MINUTES.toMillis(11));
+        TestGateJobSpecification startedSpecification = createSpecification();
+        TestGateJobSpecification claimedSpecification = createSpecification();
+        TestGateJobSpecification liveSpecification = createSpecification();
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+
+            JobRecord startedJobRecord = jobStore.createJobRecord(context, startedSpecification);
+            startedJobRecord.setQueuedTimestamp(staleTimestamp);
+            startedJobRecord.setStartTimestamp(staleTimestamp);
+            startedJobRecord.setNodeName("stopped-node");
+            startedJobRecord.setHeartbeatTimestamp(staleTimestamp);
+
+            JobRecord claimedJobRecord = jobStore.createJobRecord(context, claimedSpecification);
+            claimedJobRecord.setQueuedTimestamp(staleTimestamp);
+            claimedJobRecord.setNodeName("stopped-node");
+            claimedJobRecord.setHeartbeatTimestamp(staleTimestamp);
+
+            JobRecord liveJobRecord = jobStore.createJobRecord(context, liveSpecification);
+            liveJobRecord.setQueuedTimestamp(now);
+            liveJobRecord.setNodeName("live-node");
+            liveJobRecord.setHeartbeatTimestamp(now);
+
+            context.commitChanges();
+        }
+
+        DatabaseJobServiceImpl jobService = createJobService(1);
+        gate.countDown();
+
+        // ---------------------------------
+        jobService.clearExpiredJobs();
+        // ---------------------------------
+
+        assertStatus(jobService, startedSpecification.getGuid(), JobSnapshot.Status.FAILED);
+        assertStatus(jobService, claimedSpecification.getGuid(), JobSnapshot.Status.QUEUED);
+        Assertions.assertThat(getNodeName(claimedSpecification.getGuid())).isNull();
+        Assertions.assertThat(getNodeName(liveSpecification.getGuid())).isEqualTo("live-node");
+
+        // now the released job should be claimed and run by the new node.
+
+        jobService.startAsyncAndAwaitRunning();
+        jobService.awaitJobFinishedUninterruptibly(claimedSpecification.getGuid(), TIMEOUT_MILLIS);
+
+        assertStatus(jobService, claimedSpecification.getGuid(), JobSnapshot.Status.FINISHED);
+        Assertions.assertThat(runningJobServicesByGuid.get(claimedSpecification.getGuid()))
+                .containsOnly(jobService);
+        assertStatus(jobService, liveSpecification.getGuid(), JobSnapshot.Status.QUEUED);
+        Assertions.assertThat(runningJobServicesByGuid.containsKey(liveSpecification.getGuid())).isFalse();
+    }
+
+    /**
+     * <p>Jobs that completed longer ago than their time to live should be removed together with their
+     * data.  Supplied data that was never attached to a job should also be removed once it has
+     * expired.</p>
+     */
+
+    @Test
+    public void testClearExpiredJobs() throws Exception {
+        DatabaseJobStore jobStore = new DatabaseJobStore(serverRuntime, objectMapper);
+        DatabaseJobServiceImpl jobService = createJobService(1);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp expiredTimestamp = new Timestamp(now.getTime() - TimeUnit.HOURS.toMillis(3));
+        TestGateJobSpecification expiredSpecification = createSpecification();
+        TestGateJobSpecification currentSpecification = createSpecification();
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+
+            JobRecord expiredJobRecord = jobStore.createJobRecord(context, expiredSpecification);
+            expiredJobRecord.setQueuedTimestamp(expiredTimestamp);
+            expiredJobRecord.setStartTimestamp(expiredTimestamp);
+            expiredJobRecord.setFinishTimestamp(expiredTimestamp);
+
+            JobRecord currentJobRecord = jobStore.createJobRecord(context, currentSpecification);
+            currentJobRecord.setQueuedTimestamp(expiredTimestamp);
+            currentJobRecord.setStartTimestamp(expiredTimestamp);
+            currentJobRecord.setFinishTimestamp(now);
+
+            context.commitChanges();
+        }
+
+        String expiredGeneratedDataGuid = storeGeneratedData(jobService, expiredSpecification.getGuid());
+        String currentGeneratedDataGuid = storeGeneratedData(jobService, currentSpecification.getGuid());
+        String expiredSuppliedDataGuid = storeSuppliedData(jobService);
+        String currentSuppliedDataGuid = storeSuppliedData(jobService);
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            JobDataRecord.tryGetByGuid(context, expiredSuppliedDataGuid).get().setCreateTimestamp(expiredTimestamp);
+            context.commitChanges();
+        }
+
+        // ---------------------------------
+        jobService.clearExpiredJobs();
+        // ---------------------------------
+
+        Assertions.assertThat(jobService.tryGetJob(expiredSpecification.getGuid()).isPresent()).isFalse();
+        Assertions.assertThat(jobService.tryGetData(expiredGeneratedDataGuid).isPresent()).isFalse();
+        Assertions.assertThat(dataStorageService.get(expiredGeneratedDataGuid).isPresent()).isFalse();
+        Assertions.assertThat(jobService.tryGetData(expiredSuppliedDataGuid).isPresent()).isFalse();
+        Assertions.assertThat(dataStorageService.get(expiredSuppliedDataGuid).isPresent()).isFalse();
+
+        assertStatus(jobService, currentSpecification.getGuid(), JobSnapshot.Status.FINISHED);
+        Assertions.assertThat(jobService.tryObtainData(currentGeneratedDataGuid).isPresent()).isTrue();
+        Assertions.assertThat(jobService.tryObtainData(currentSuppliedDataGuid).isPresent()).isTrue();
+
+        jobService.removeJob(currentSpecification.getGuid());
+        dataStorageService.remove(currentSuppliedDataGuid);
+    }
+
+    private String storeGeneratedData(JobService jobService, String jobGuid) throws Exception {
+        JobDataWithByteSink jobDataWithByteSink = jobService.storeGeneratedData(jobGuid, "download", "text/plain");
+        jobDataWithByteSink.getByteSink().write("generated".getBytes(StandardCharsets.UTF_8));
+        return jobDataWithByteSink.getJobData().getGuid();
+    }
+
+    private String storeSuppliedData(JobService jobService) throws Exception {
+        JobData jobData = jobService.storeSuppliedData(
+                "input", "text/plain", ByteSource.wrap("supplied".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertThat(jobData.getDataType()).isEqualTo(JobDataType.SUPPLIED);
+        return jobData.getGuid();
+    }
+
+    private static TestGateJobSpecification createSpecification() {
+        TestGateJobSpecification result = new TestGateJobSpecification();
+        result.setGuid(UUID.randomUUID().toString());
+        return result;
+    }
+
+    private String getNodeName(String guid) {
+        return JobRecord.tryGetByGuid(serverRuntime.newContext(), guid).get().getNodeName();
+    }
+
+    private void awaitStatus(JobService jobService, String guid, JobSnapshot.Status status) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        while (stopwatch.elapsed(TimeUnit.MILLISECONDS) < TIMEOUT_MILLIS
+                && !jobService.tryGetJob(guid).filter(j -> j.getStatus() == status).isPresent()) {
+            Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+        }
+
+        assertStatus(jobService, guid, status);
+    }
+
+    private void assertStatus(JobService jobService, String guid, JobSnapshot.Status status) {
+        Optional<? extends JobSnapshot> jobOptional = jobService.tryGetJob(guid);
+        Assertions.assertThat(jobOptional.isPresent()).isTrue();
+        Assertions.assertThat(jobOptional.get().getStatus()).isEqualTo(status);
+    }
+
+    public static class TestGateJobSpecification extends AbstractJobSpecification {
+
+        private boolean gated;
+
+        public TestGateJobSpecification() {
+            this(false);
+        }
+
+        public TestGateJobSpecification(boolean gated) {
+            this.gated = gated;
+        }
+
+        public boolean isGated() {
+            return gated;
+        }
+
+        public void setGated(boolean gated) {
+            this.gated = gated;
+        }
+
+    }
+
+    public static class TestGateJobRunner extends AbstractJobRunner<TestGateJobSpecification> {
+
+        @Override
+        public void run(JobService jobService, TestGateJobSpecification specification) {
+            runningJobServicesByGuid
+                    .computeIfAbsent(specification.getGuid(), g -> new CopyOnWriteArrayList<>())
+                    .add(jobService);
+
+            if (specification.isGated()) {
+                Uninterruptibles.awaitUninterruptibly(gate);
+            }
+            else {
+                Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+            }
+        }
+
+    }
+
+}
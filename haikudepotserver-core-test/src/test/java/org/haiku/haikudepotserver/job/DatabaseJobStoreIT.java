@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.AbstractIntegrationTest;
+import org.haiku.haikudepotserver.config.TestConfig;
+import org.haiku.haikudepotserver.job.model.Job;
+import org.haiku.haikudepotserver.job.model.JobData;
+import org.haiku.haikudepotserver.job.model.JobDataType;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
+import org.haiku.haikudepotserver.pkg.model.PkgDumpExportJobSpecification;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+
+import javax.annotation.Resource;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+@ContextConfiguration(classes = TestConfig.class)
+public class DatabaseJobStoreIT extends AbstractIntegrationTest {
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private Job createJob(String repositorySourceCode) {
+        PkgDumpExportJobSpecification specification = new PkgDumpExportJobSpecification();
+        specification.setGuid(UUID.randomUUID().toString());
+        specification.setRepositorySourceCode(repositorySourceCode);
+        specification.setNaturalLanguageCode("de");
+        return new Job(specification);
+    }
+
+    /**
+     * <p>Stores some jobs and their data and then checks that they are loaded back again in the order
+     * in which they were stored.</p>
+     */
+
+    @Test
+    public void testStoreAndLoadJobs() {
+        DatabaseJobStore jobStore = new DatabaseJobStore(serverRuntime, objectMapper);
+        Date queuedTimestamp = new Date(System.currentTimeMillis() - 5000L);
+
+        Job job1 = createJob("testreposrc_1");
+        job1.setQueuedTimestamp(queuedTimestamp);
+        job1.setStartTimestamp(new Date(queuedTimestamp.getTime() + 1000L));
+        job1.setFinishTimestamp(new Date(queuedTimestamp.getTime() + 2000L));
+        job1.setProgressPercent(100);
+        Job job2 = createJob("testreposrc_2");
+        job2.setQueuedTimestamp(queuedTimestamp);
+        Job job3 = createJob("testreposrc_3");
+        job3.setQueuedTimestamp(queuedTimestamp);
+
+        JobData jobData = new JobData(
+                UUID.randomUUID().toString(), JobDataType.GENERATED, "download", "application/json");
+
+        // ------------------------------------
+        jobStore.storeJob(job1);
+        jobStore.storeJob(job2);
+        jobStore.storeJob(job3);
+        jobStore.storeData(jobData, job1.getGuid());
+        jobStore.removeJob(job2.getGuid());
+        List<Job> jobs = jobStore.loadJobs();
+        // ------------------------------------
+
+        Assertions.assertThat(jobs.stream().map(Job::getGuid).collect(Collectors.toList()))
+                .containsExactly(job1.getGuid(), job3.getGuid());
+
+        Job loadedJob1 = jobs.get(0);
+        Assertions.assertThat(loadedJob1.getStatus()).isEqualTo(JobSnapshot.Status.FINISHED);
+        Assertions.assertThat(loadedJob1.getQueuedTimestamp().getTime()).isEqualTo(queuedTimestamp.getTime());
+        Assertions.assertThat(loadedJob1.getProgressPercent()).isEqualTo(100);
+        Assertions.assertThat(loadedJob1.getGeneratedDataGuids()).containsOnly(jobData.getGuid());
+
+        PkgDumpExportJobSpecification loadedSpecification =
+                (PkgDumpExportJobSpecification) loadedJob1.getJobSpecification();
+        Assertions.assertThat(loadedSpecification.getGuid()).isEqualTo(job1.getGuid());
+        Assertions.assertThat(loadedSpecification.getRepositorySourceCode()).isEqualTo("testreposrc_1");
+        Assertions.assertThat(loadedSpecification.getNaturalLanguageCode()).isEqualTo("de");
+
+        Assertions.assertThat(jobs.get(1).getStatus()).isEqualTo(JobSnapshot.Status.QUEUED);
+        Assertions.assertThat(jobStore.loadDatas().stream().map(JobData::getGuid).collect(Collectors.toList()))
+                .containsOnly(jobData.getGuid());
+    }
+
+}
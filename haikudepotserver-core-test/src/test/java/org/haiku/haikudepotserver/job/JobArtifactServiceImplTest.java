@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.google.common.collect.ImmutableList;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
+import org.haiku.haikudepotserver.job.model.TestNumberedLinesJobSpecification;
+import org.haiku.haikudepotserver.storage.LocalDataStorageServiceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Tests the {@link JobArtifactServiceImpl} over a {@link LocalJobServiceImpl} without the application
+ * context or database.</p>
+ */
+
+public class JobArtifactServiceImplTest {
+
+    private LocalDataStorageServiceImpl dataStorageService;
+
+    private LocalJobServiceImpl jobService;
+
+    private JobArtifactServiceImpl jobArtifactService;
+
+    private final AtomicReference<Date> lastModifyTimestamp = new AtomicReference<>(new Date(0L));
+
+    @Before
+    public void setUp() {
+        dataStorageService = new LocalDataStorageServiceImpl(false);
+        dataStorageService.init();
+
+        jobService = new LocalJobServiceImpl(
+                dataStorageService,
+                ImmutableList.of(new TestNumberedLinesJobRunner()),
+                null,
+                null,
+                null);
+        jobService.startAsyncAndAwaitRunning();
+        jobArtifactService = new JobArtifactServiceImpl(jobService);
+    }
+
+    @After
+    public void tearDown() {
+        jobService.stopAsyncAndAwaitTerminated();
+    }
+
+    private JobSnapshot getArtifact(long delayPerLineMillis) {
+        return jobArtifactService.getArtifact(
+                () -> new TestNumberedLinesJobSpecification(5, delayPerLineMillis),
+                lastModifyTimestamp::get);
+    }
+
+    /**
+     * <p>If there is no artifact at all then the request has to wait for it to be built.</p>
+     */
+
+    @Test
+    public void testGetArtifact_firstBuild() {
+        // ---------------------------------
+        JobSnapshot jobSnapshot = getArtifact(0L);
+        // ---------------------------------
+
+        Assertions.assertThat(jobSnapshot.getStatus()).isEqualTo(JobSnapshot.Status.FINISHED);
+        Assertions.assertThat(jobSnapshot.getGeneratedDataGuids().size()).isEqualTo(1);
+        Assertions.assertThat(getArtifact(0L).getGuid()).isEqualTo(jobSnapshot.getGuid());
+    }
+
+    /**
+     * <p>Once the data has been modified, the stale artifact should be served while a single rebuild
+     * runs in the background.</p>
+     */
+
+    @Test
+    public void testGetArtifact_staleWhileRebuilding() {
+        JobSnapshot staleJobSnapshot = getArtifact(0L);
+        lastModifyTimestamp.set(new Date());
+
+        // ---------------------------------
+        JobSnapshot firstJobSnapshot = getArtifact(200L);
+        JobSnapshot secondJobSnapshot = getArtifact(200L);
+        // ---------------------------------
+
+        Assertions.assertThat(firstJobSnapshot.getGuid()).isEqualTo(staleJobSnapshot.getGuid());
+        Assertions.assertThat(secondJobSnapshot.getGuid()).isEqualTo(staleJobSnapshot.getGuid());
+        Assertions.assertThat(jobService.totalJobs(null, JobSnapshot.COALESCE_STATUSES_QUEUED_STARTED))
+                .isEqualTo(1);
+
+        jobService.awaitAllJobsFinishedUninterruptibly(TimeUnit.SECONDS.toMillis(10));
+
+        JobSnapshot rebuiltJobSnapshot = getArtifact(200L);
+        Assertions.assertThat(rebuiltJobSnapshot.getGuid()).isNotEqualTo(staleJobSnapshot.getGuid());
+        Assertions.assertThat(rebuiltJobSnapshot.getStartTimestamp().getTime())
+                .isGreaterThanOrEqualTo(lastModifyTimestamp.get().getTime());
+    }
+
+}
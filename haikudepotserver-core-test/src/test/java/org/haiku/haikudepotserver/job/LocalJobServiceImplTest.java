@@ -0,0 +1,253 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.google.common.collect.ImmutableList;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.job.model.Job;
+import org.haiku.haikudepotserver.job.model.JobData;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
+import org.haiku.haikudepotserver.job.model.JobSpecification;
+import org.haiku.haikudepotserver.job.model.JobStore;
+import org.haiku.haikudepotserver.job.model.TestLockableJobSpecification;
+import org.haiku.haikudepotserver.job.model.TestNumberedLinesJobSpecification;
+import org.haiku.haikudepotserver.storage.LocalDataStorageServiceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Tests the {@link LocalJobServiceImpl} without the application context or database.</p>
+ */
+
+public class LocalJobServiceImplTest {
+
+    private LocalDataStorageServiceImpl dataStorageService;
+
+    private LocalJobServiceImpl jobService;
+
+    @Before
+    public void setUp() {
+        dataStorageService = new LocalDataStorageServiceImpl(false);
+        dataStorageService.init();
+
+        jobService = new LocalJobServiceImpl(
+                dataStorageService,
+                ImmutableList.of(new TestLockableJobRunner(), new TestNumberedLinesJobRunner()),
+                ImmutableList.of(
+                        new JobLaneDefinition("lockable", ImmutableList.of("testlockable"), 1, 4),
+                        JobLaneDefinition.createDefault(1, 4)),
+                null,
+                null);
+        jobService.startAsyncAndAwaitRunning();
+    }
+
+    @After
+    public void tearDown() {
+        jobService.stopAsyncAndAwaitTerminated();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoDefaultLane() {
+        new LocalJobServiceImpl(
+                null,
+                ImmutableList.of(new JobLaneDefinition("lockable", ImmutableList.of("testlockable"), 1, 4)),
+                null);
+    }
+
+    @Test
+    public void testLanesRunIndependently() {
+        Lock lock = new ReentrantLock();
+        String lockedGuid;
+        String queuedGuid;
+
+        lock.lock();
+
+        try {
+            lockedGuid = jobService.submit(
+                    new TestLockableJobSpecification(lock), JobSnapshot.COALESCE_STATUSES_NONE);
+            queuedGuid = jobService.submit(
+                    new TestLockableJobSpecification(), JobSnapshot.COALESCE_STATUSES_NONE);
+
+            // ---------------------------------
+            String numberedLinesGuid = jobService.submit(
+                    new TestNumberedLinesJobSpecification(2, 10L), JobSnapshot.COALESCE_STATUSES_NONE);
+            jobService.awaitJobFinishedUninterruptibly(numberedLinesGuid, TimeUnit.SECONDS.toMillis(10));
+            // ---------------------------------
+
+            assertStatus(numberedLinesGuid, JobSnapshot.Status.FINISHED);
+            assertStatus(lockedGuid, JobSnapshot.Status.STARTED);
+            assertStatus(queuedGuid, JobSnapshot.Status.QUEUED);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        jobService.awaitJobFinishedUninterruptibly(queuedGuid, TimeUnit.SECONDS.toMillis(10));
+
+        assertStatus(lockedGuid, JobSnapshot.Status.FINISHED);
+        assertStatus(queuedGuid, JobSnapshot.Status.FINISHED);
+    }
+
+    @Test
+    public void testTryGetJobForData() {
+        String guid = jobService.submit(
+                new TestNumberedLinesJobSpecification(1, 0L), JobSnapshot.COALESCE_STATUSES_NONE);
+        jobService.awaitJobFinishedUninterruptibly(guid, TimeUnit.SECONDS.toMillis(10));
+        assertStatus(guid, JobSnapshot.Status.FINISHED);
+
+        // ---------------------------------
+        String dataGuid = jobService.tryGetJob(guid).get().getGeneratedDataGuids().iterator().next();
+        Optional<? extends JobSnapshot> jobOptional = jobService.tryGetJobForData(dataGuid);
+        // ---------------------------------
+
+        Assertions.assertThat(jobService.tryGetData(dataGuid).isPresent()).isTrue();
+        Assertions.assertThat(jobOptional.isPresent()).isTrue();
+        Assertions.assertThat(jobOptional.get().getGuid()).isEqualTo(guid);
+
+        jobService.removeJob(guid);
+
+        Assertions.assertThat(jobService.tryGetData(dataGuid).isPresent()).isFalse();
+        Assertions.assertThat(jobService.tryGetJobForData(dataGuid).isPresent()).isFalse();
+    }
+
+    /**
+     * <p>Simulates the application server being restarted by running a second instance of the service
+     * over the same durable store.</p>
+     */
+
+    @Test
+    public void testRestoreFromDurableJobStore() throws Exception {
+        MemoryJobStore jobStore = new MemoryJobStore();
+        String finishedGuid;
+        String dataGuid;
+
+        LocalJobServiceImpl priorJobService = createJobServiceWithStore(jobStore);
+        priorJobService.startAsyncAndAwaitRunning();
+
+        try {
+            finishedGuid = priorJobService.submit(
+                    new TestNumberedLinesJobSpecification(3, 0L), JobSnapshot.COALESCE_STATUSES_NONE);
+            priorJobService.awaitJobFinishedUninterruptibly(finishedGuid, TimeUnit.SECONDS.toMillis(10));
+            dataGuid = priorJobService.tryGetJob(finishedGuid).get().getGeneratedDataGuids().iterator().next();
+        }
+        finally {
+            priorJobService.stopAsyncAndAwaitTerminated();
+        }
+
+        Job queuedJob = createStoredJob(new TestNumberedLinesJobSpecification(1, 0L));
+        queuedJob.setQueuedTimestamp();
+        jobStore.storeJob(queuedJob);
+
+        Job startedJob = createStoredJob(new TestLockableJobSpecification());
+        startedJob.setQueuedTimestamp();
+        startedJob.setStartTimestamp();
+        jobStore.storeJob(startedJob);
+
+        // ---------------------------------
+        LocalJobServiceImpl restartedJobService = createJobServiceWithStore(jobStore);
+        restartedJobService.startAsyncAndAwaitRunning();
+
+        try {
+            restartedJobService.awaitJobFinishedUninterruptibly(queuedJob.getGuid(), TimeUnit.SECONDS.toMillis(10));
+            // ---------------------------------
+
+            Assertions.assertThat(restartedJobService.tryGetJob(finishedGuid).get().getStatus())
+                    .isEqualTo(JobSnapshot.Status.FINISHED);
+            Assertions.assertThat(restartedJobService.tryGetJobForData(dataGuid).get().getGuid())
+                    .isEqualTo(finishedGuid);
+            Assertions.assertThat(restartedJobService.tryObtainData(dataGuid).get().getByteSource().read())
+                    .isEqualTo("0\n1\n2\n".getBytes());
+            Assertions.assertThat(restartedJobService.tryGetJob(queuedJob.getGuid()).get().getStatus())
+                    .isEqualTo(JobSnapshot.Status.FINISHED);
+            Assertions.assertThat(restartedJobService.tryGetJob(startedJob.getGuid()).get().getStatus())
+                    .isEqualTo(JobSnapshot.Status.FAILED);
+            Assertions.assertThat(jobStore.jobs.get(startedJob.getGuid()).getStatus())
+                    .isEqualTo(JobSnapshot.Status.FAILED);
+        }
+        finally {
+            restartedJobService.stopAsyncAndAwaitTerminated();
+            dataStorageService.remove(dataGuid);
+        }
+    }
+
+    private LocalJobServiceImpl createJobServiceWithStore(JobStore jobStore) {
+        return new LocalJobServiceImpl(
+                dataStorageService,
+                ImmutableList.of(new TestLockableJobRunner(), new TestNumberedLinesJobRunner()),
+                null,
+                null,
+                jobStore);
+    }
+
+    private static Job createStoredJob(JobSpecification specification) {
+        specification.setGuid(UUID.randomUUID().toString());
+        return new Job(specification);
+    }
+
+    private void assertStatus(String guid, JobSnapshot.Status status) {
+        Assertions.assertThat(jobService.tryGetJob(guid).get().getStatus()).isEqualTo(status);
+    }
+
+    /**
+     * <p>A durable store that keeps copies of the jobs in memory so that they can be restored
+     * into another instance of the service.</p>
+     */
+
+    private static class MemoryJobStore implements JobStore {
+
+        private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+        private final Map<String, JobData> datas = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean isDurable() {
+            return true;
+        }
+
+        @Override
+        public List<Job> loadJobs() {
+            return jobs.values().stream().map(Job::new).collect(Collectors.toList());
+        }
+
+        @Override
+        public List<JobData> loadDatas() {
+            return ImmutableList.copyOf(datas.values());
+        }
+
+        @Override
+        public void storeJob(Job job) {
+            jobs.put(job.getGuid(), new Job(job));
+        }
+
+        @Override
+        public void removeJob(String guid) {
+            jobs.remove(guid);
+        }
+
+        @Override
+        public void storeData(JobData data, String jobGuid) {
+            datas.put(data.getGuid(), data);
+        }
+
+        @Override
+        public void removeData(String guid) {
+            datas.remove(guid);
+        }
+
+    }
+
+}
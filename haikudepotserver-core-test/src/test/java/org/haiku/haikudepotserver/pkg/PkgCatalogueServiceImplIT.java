@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.cayenne.Cayenne;
+import org.apache.cayenne.ObjectContext;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.AbstractIntegrationTest;
+import org.haiku.haikudepotserver.IntegrationTestSupportService;
+import org.haiku.haikudepotserver.config.TestConfig;
+import org.haiku.haikudepotserver.dataobjects.Architecture;
+import org.haiku.haikudepotserver.dataobjects.NaturalLanguage;
+import org.haiku.haikudepotserver.dataobjects.Pkg;
+import org.haiku.haikudepotserver.dataobjects.Repository;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchSpecification;
+import org.haiku.haikudepotserver.pkg.model.PkgService;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchResult;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchRow;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@ContextConfiguration(classes = TestConfig.class)
+public class PkgCatalogueServiceImplIT extends AbstractIntegrationTest {
+
+    @Resource
+    private PkgService pkgService;
+
+    @Resource
+    private DataSource dataSource;
+
+    private PkgCatalogueServiceImpl createPkgCatalogueService() {
+        return new PkgCatalogueServiceImpl(dataSource, true, 600);
+    }
+
+    private PkgSearchSpecification createSearchSpecification(
+            ObjectContext context,
+            String expression,
+            PkgSearchSpecification.SortOrdering sortOrdering) {
+        PkgSearchSpecification specification = new PkgSearchSpecification();
+        specification.setExpression(expression);
+        specification.setExpressionType(PkgSearchSpecification.ExpressionType.CONTAINS);
+        specification.setNaturalLanguage(NaturalLanguage.getEnglish(context));
+        specification.setSortOrdering(sortOrdering);
+        specification.setArchitectures(ImmutableList.of(
+                Architecture.getByCode(context, "any"),
+                Architecture.getByCode(context, "x86_64")));
+        specification.setRepositories(ImmutableList.of(Repository.getByCode(context, "testrepo")));
+        specification.setLimit(10);
+        specification.setOffset(0);
+        return specification;
+    }
+
+    private static List<String> toPkgNames(PkgVersionSearchResult result) {
+        return result.getRows().stream().map(PkgVersionSearchRow::getPkgName).collect(Collectors.toList());
+    }
+
+    /**
+     * <p>Before the snapshot is loaded, the search should not be able to be performed.</p>
+     */
+
+    @Test
+    public void testTrySearch_notLoaded() {
+        ObjectContext context = serverRuntime.newContext();
+        PkgCatalogueServiceImpl pkgCatalogueService = createPkgCatalogueService();
+
+        // ---------------------------------
+        boolean isPresent = pkgCatalogueService.trySearch(
+                createSearchSpecification(context, "pk", PkgSearchSpecification.SortOrdering.NAME)).isPresent();
+        // ---------------------------------
+
+        Assertions.assertThat(isPresent).isFalse();
+        Assertions.assertThat(pkgCatalogueService.tryGetVersion().isPresent()).isFalse();
+    }
+
+    /**
+     * <p>The search performed against the snapshot should produce the same results as the search
+     * performed against the database.</p>
+     */
+
+    @Test
+    public void testTrySearch_sameAsDatabase() {
+        integrationTestSupportService.createStandardTestData();
+        ObjectContext context = serverRuntime.newContext();
+        PkgCatalogueServiceImpl pkgCatalogueService = createPkgCatalogueService();
+        pkgCatalogueService.refreshAll();
+
+        for (String expression : new String[] { null, "pk", "package" }) {
+            for (PkgSearchSpecification.SortOrdering sortOrdering : PkgSearchSpecification.SortOrdering.values()) {
+                PkgSearchSpecification specification = createSearchSpecification(context, expression, sortOrdering);
+
+                // ---------------------------------
+                PkgVersionSearchResult catalogueResult = pkgCatalogueService.trySearch(specification).get();
+                // ---------------------------------
+
+                PkgVersionSearchResult databaseResult = pkgService.searchRows(context, specification);
+
+                Assertions.assertThat(catalogueResult.getTotal()).isEqualTo(databaseResult.getTotal());
+                Assertions.assertThat(toPkgNames(catalogueResult)).isEqualTo(toPkgNames(databaseResult));
+                Assertions.assertThat(catalogueResult.getRows().stream().map(PkgVersionSearchRow::getTitle).collect(Collectors.toList()))
+                        .isEqualTo(databaseResult.getRows().stream().map(PkgVersionSearchRow::getTitle).collect(Collectors.toList()));
+            }
+        }
+    }
+
+    /**
+     * <p>After a package is deactivated, refreshing the snapshot for that package should cause it to
+     * drop out of the search results.</p>
+     */
+
+    @Test
+    public void testRefresh() {
+        IntegrationTestSupportService.StandardTestData data = integrationTestSupportService.createStandardTestData();
+        PkgCatalogueServiceImpl pkgCatalogueService = createPkgCatalogueService();
+        pkgCatalogueService.refreshAll();
+        long versionBefore = pkgCatalogueService.tryGetVersion().get();
+        long pkgSupplementId;
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            Pkg pkg2 = context.localObject(data.pkg2);
+            pkg2.setActive(false);
+            pkgSupplementId = Cayenne.longPKForObject(pkg2.getPkgSupplement());
+            context.commitChanges();
+        }
+
+        // ---------------------------------
+        pkgCatalogueService.refresh(ImmutableSet.of(pkgSupplementId));
+        // ---------------------------------
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            PkgVersionSearchResult result = pkgCatalogueService.trySearch(
+                    createSearchSpecification(context, "pk", PkgSearchSpecification.SortOrdering.NAME)).get();
+            Assertions.assertThat(toPkgNames(result)).excludes("pkg2");
+            Assertions.assertThat(pkgCatalogueService.tryGetVersion().get()).isGreaterThan(versionBefore);
+        }
+    }
+
+}
@@ -29,9 +29,11 @@ import org.springframework.test.context.ContextConfiguration;
 import javax.annotation.Resource;
 import java.io.File;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 @ContextConfiguration(classes = TestConfig.class)
 public class PkgImportServiceImplIT extends AbstractIntegrationTest {
@@ -344,4 +346,69 @@ public class PkgImportServiceImplIT extends AbstractIntegrationTest {
 
     }
 
+    /**
+     * <p>The HPKR ingest skips a package if its fingerprint is known.  If the repository goes back to an
+     * older version that is still active then that version must not be skipped so that it is able to
+     * become the latest version again.</p>
+     */
+
+    @Test
+    public void testImport_regressionIsNotSkippedByFingerprint() {
+
+        integrationTestSupportService.createStandardTestData();
+
+        Pkg importPkgV1 = createPkg("2");
+        Pkg importPkgV2 = createPkg("3");
+        ObjectId repositorySourceObjectId;
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            repositorySourceObjectId = RepositorySource.getByCode(context, "testreposrc_xyz").getObjectId();
+        }
+
+        for (Pkg importPkg : Arrays.asList(importPkgV1, importPkgV2)) {
+            ObjectContext context = serverRuntime.newContext();
+            pkgImportService.importFrom(context, repositorySourceObjectId, importPkg, false);
+            context.commitChanges();
+        }
+
+        // ---------------------------------
+        Set<String> fingerprints;
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            fingerprints = pkgService.fetchImportFingerprintsForRepositorySource(
+                    context, RepositorySource.getByCode(context, "testreposrc_xyz"), false);
+        }
+        // ---------------------------------
+
+        Assertions.assertThat(fingerprints.contains(importPkgV2.getFingerprint())).isTrue();
+        Assertions.assertThat(fingerprints.contains(importPkgV1.getFingerprint())).isFalse();
+
+        // the repository now only has the older version again.
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            pkgImportService.importFrom(context, repositorySourceObjectId, importPkgV1, false);
+            context.commitChanges();
+        }
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            List<org.haiku.haikudepotserver.dataobjects.PkgVersion> pkgVersions =
+                    org.haiku.haikudepotserver.dataobjects.PkgVersion.getForPkg(
+                            context,
+                            org.haiku.haikudepotserver.dataobjects.Pkg.getByName(context, "testpkg"),
+                            true);
+
+            Assertions.assertThat(pkgVersions.size()).isEqualTo(2);
+
+            for (org.haiku.haikudepotserver.dataobjects.PkgVersion pkgVersion : pkgVersions) {
+                boolean isV1 = pkgVersion.getMinor().equals("2");
+                Assertions.assertThat(pkgVersion.getActive()).isEqualTo(isV1);
+                Assertions.assertThat(pkgVersion.getIsLatest()).isEqualTo(isV1);
+            }
+        }
+    }
+
 }
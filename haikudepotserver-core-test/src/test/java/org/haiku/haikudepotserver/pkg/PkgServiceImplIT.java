@@ -0,0 +1,288 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.cayenne.ObjectContext;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.AbstractIntegrationTest;
+import org.haiku.haikudepotserver.IntegrationTestSupportService;
+import org.haiku.haikudepotserver.config.TestConfig;
+import org.haiku.haikudepotserver.dataobjects.Architecture;
+import org.haiku.haikudepotserver.dataobjects.NaturalLanguage;
+import org.haiku.haikudepotserver.dataobjects.PkgVersion;
+import org.haiku.haikudepotserver.dataobjects.Repository;
+import org.haiku.haikudepotserver.dataobjects.RepositorySource;
+import org.haiku.haikudepotserver.pkg.model.PkgImportService;
+import org.haiku.haikudepotserver.pkg.model.PkgLocalizationService;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchIndexService;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchSpecification;
+import org.haiku.haikudepotserver.pkg.model.PkgService;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchResult;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchRow;
+import org.haiku.pkg.model.PkgArchitecture;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.context.ContextConfiguration;
+
+import javax.annotation.Resource;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@ContextConfiguration(classes = TestConfig.class)
+public class PkgServiceImplIT extends AbstractIntegrationTest {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(PkgServiceImplIT.class);
+
+    @Resource
+    private PkgService pkgService;
+
+    @Resource
+    private PkgLocalizationService pkgLocalizationService;
+
+    @Resource
+    private PkgImportService pkgImportService;
+
+    @Resource
+    private PkgSearchIndexService pkgSearchIndexService;
+
+    @Resource
+    private DataSource dataSource;
+
+    private PkgSearchSpecification createSearchSpecification(ObjectContext context, int offset) {
+        return createSearchSpecification(context, "pk", PkgSearchSpecification.ExpressionType.CONTAINS, offset);
+    }
+
+    private PkgSearchSpecification createSearchSpecification(
+            ObjectContext context,
+            String expression,
+            PkgSearchSpecification.ExpressionType expressionType,
+            int offset) {
+        PkgSearchSpecification specification = new PkgSearchSpecification();
+        specification.setExpression(expression);
+        specification.setExpressionType(expressionType);
+        specification.setNaturalLanguage(NaturalLanguage.getEnglish(context));
+        specification.setSortOrdering(PkgSearchSpecification.SortOrdering.NAME);
+        specification.setArchitectures(ImmutableList.of(
+                Architecture.getByCode(context, "any"),
+                Architecture.getByCode(context, "x86_64")));
+        specification.setRepositories(ImmutableList.of(Repository.getByCode(context, "testrepo")));
+        specification.setLimit(2);
+        specification.setOffset(offset);
+        return specification;
+    }
+
+    /**
+     * <p>Checks that the single query produces the same page and total as the separate queries
+     * for the total and the page.  The time taken for each is logged.</p>
+     */
+
+    @Test
+    public void testSearchRows_sameAsTotalAndSearch() {
+        integrationTestSupportService.createStandardTestData();
+        ObjectContext context = serverRuntime.newContext();
+        PkgSearchSpecification specification = createSearchSpecification(context, 0);
+
+        long twoQueryStartNanos = System.nanoTime();
+        long total = pkgService.total(context, specification);
+        List<PkgVersion> pkgVersions = pkgService.search(context, specification);
+        long twoQueryNanos = System.nanoTime() - twoQueryStartNanos;
+
+        long singleQueryStartNanos = System.nanoTime();
+        // ---------------------------------
+        PkgVersionSearchResult result = pkgService.searchRows(context, specification);
+        // ---------------------------------
+        long singleQueryNanos = System.nanoTime() - singleQueryStartNanos;
+
+        LOGGER.info("search; two queries {}us, single query {}us",
+                twoQueryNanos / 1000, singleQueryNanos / 1000);
+
+        Assertions.assertThat(result.getTotal()).isEqualTo(total);
+        Assertions.assertThat(result.getRows().stream().map(PkgVersionSearchRow::getPkgName).collect(Collectors.toList()))
+                .isEqualTo(pkgVersions.stream().map(pv -> pv.getPkg().getName()).collect(Collectors.toList()));
+    }
+
+    /**
+     * <p>If the offset is beyond the end of the results then there are no rows to carry the total so
+     * the total is obtained separately.</p>
+     */
+
+    @Test
+    public void testSearchRows_offsetBeyondEnd() {
+        integrationTestSupportService.createStandardTestData();
+        ObjectContext context = serverRuntime.newContext();
+
+        // ---------------------------------
+        PkgVersionSearchResult result = pkgService.searchRows(context, createSearchSpecification(context, 100));
+        // ---------------------------------
+
+        Assertions.assertThat(result.getRows()).isEmpty();
+        Assertions.assertThat(result.getTotal()).isEqualTo(4);
+    }
+
+    /**
+     * <p>The word "packages" should match the title "Package 1" because the words are stemmed.</p>
+     */
+
+    @Test
+    public void testSearchRows_fullText() {
+        integrationTestSupportService.createStandardTestData();
+        ObjectContext context = serverRuntime.newContext();
+
+        // ---------------------------------
+        PkgVersionSearchResult result = pkgService.searchRows(context, createSearchSpecification(
+                context, "packages", PkgSearchSpecification.ExpressionType.FULLTEXT, 0));
+        // ---------------------------------
+
+        Assertions.assertThat(result.getTotal()).isEqualTo(1);
+        Assertions.assertThat(result.getRows().get(0).getPkgName()).isEqualTo("pkg1");
+    }
+
+    /**
+     * <p>Checks that the search data is updated when a localization is changed.</p>
+     */
+
+    @Test
+    public void testSearchRows_afterLocalizationChange() {
+        IntegrationTestSupportService.StandardTestData data = integrationTestSupportService.createStandardTestData();
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            Assertions.assertThat(pkgService.searchRows(context, createSearchSpecification(
+                    context, "flamingo", PkgSearchSpecification.ExpressionType.CONTAINS, 0)).getTotal()).isEqualTo(0);
+        }
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            pkgLocalizationService.updatePkgVersionLocalization(
+                    context,
+                    context.localObject(data.pkg2Version1),
+                    NaturalLanguage.getEnglish(context),
+                    "Flamingo Viewer",
+                    "sample summary pkg2",
+                    "sample description pkg2");
+            context.commitChanges();
+        }
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+
+            // ---------------------------------
+            PkgVersionSearchResult result = pkgService.searchRows(context, createSearchSpecification(
+                    context, "flamingo", PkgSearchSpecification.ExpressionType.CONTAINS, 0));
+            // ---------------------------------
+
+            Assertions.assertThat(result.getTotal()).isEqualTo(1);
+            Assertions.assertThat(result.getRows().get(0).getPkgName()).isEqualTo("pkg2");
+            Assertions.assertThat(result.getRows().get(0).getTitle()).isEqualTo("Flamingo Viewer");
+        }
+    }
+
+    /**
+     * <p>The import of packages happens in a transaction that spans many commits.  The search data
+     * should be updated once that transaction has committed.</p>
+     */
+
+    @Test
+    public void testSearchRows_afterImportInTransaction() {
+        integrationTestSupportService.createStandardTestData();
+
+        org.haiku.pkg.model.Pkg importPkg = new org.haiku.pkg.model.Pkg(
+                "flamingo",
+                new org.haiku.pkg.model.PkgVersion("1", "0", null, null, 1),
+                PkgArchitecture.X86_64,
+                null,
+                Collections.emptyList(),
+                Collections.emptyList(),
+                "Flamingo summary",
+                "Flamingo description",
+                null);
+
+        // ---------------------------------
+        serverRuntime.performInTransaction(() -> {
+            ObjectContext context = serverRuntime.newContext();
+            pkgImportService.importFrom(
+                    context,
+                    RepositorySource.getByCode(context, "testreposrc_xyz").getObjectId(),
+                    importPkg,
+                    false);
+            context.commitChanges();
+            return null;
+        });
+        // ---------------------------------
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            PkgVersionSearchResult result = pkgService.searchRows(context, createSearchSpecification(
+                    context, "flamingo", PkgSearchSpecification.ExpressionType.CONTAINS, 0));
+
+            Assertions.assertThat(result.getTotal()).isEqualTo(1);
+            Assertions.assertThat(result.getRows().get(0).getPkgName()).isEqualTo("flamingo");
+        }
+    }
+
+    /**
+     * <p>The full reindex should produce the same search results.</p>
+     */
+
+    @Test
+    public void testSearchRows_afterReindexAll() {
+        integrationTestSupportService.createStandardTestData();
+
+        // ---------------------------------
+        pkgSearchIndexService.reindexAll();
+        // ---------------------------------
+
+        ObjectContext context = serverRuntime.newContext();
+        PkgVersionSearchResult result = pkgService.searchRows(context, createSearchSpecification(
+                context, "packages", PkgSearchSpecification.ExpressionType.FULLTEXT, 0));
+
+        Assertions.assertThat(result.getTotal()).isEqualTo(1);
+        Assertions.assertThat(result.getRows().get(0).getPkgName()).isEqualTo("pkg1");
+    }
+
+    /**
+     * <p>Damages the search data for one package and then checks that only that package is reindexed and
+     * that it is then able to be found again.</p>
+     */
+
+    @Test
+    public void testReindexDrifted() throws SQLException {
+        integrationTestSupportService.createStandardTestData();
+        Assertions.assertThat(pkgSearchIndexService.reindexDrifted()).isEqualTo(0);
+
+        try (
+                Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE haikudepot.pkg_version_search SET search_text = 'drifted'\n"
+                    + "WHERE pkg_version_id IN (SELECT pv.id FROM haikudepot.pkg_version pv\n"
+                    + "JOIN haikudepot.pkg p ON p.id = pv.pkg_id WHERE p.name = 'pkg1')");
+        }
+
+        // ---------------------------------
+        int reindexed = pkgSearchIndexService.reindexDrifted();
+        // ---------------------------------
+
+        Assertions.assertThat(reindexed).isEqualTo(1);
+        Assertions.assertThat(pkgSearchIndexService.reindexDrifted()).isEqualTo(0);
+
+        // the contains search is matched against the search text that was damaged.
+
+        ObjectContext context = serverRuntime.newContext();
+        PkgVersionSearchResult result = pkgService.searchRows(context, createSearchSpecification(
+                context, "pkg1", PkgSearchSpecification.ExpressionType.CONTAINS, 0));
+
+        Assertions.assertThat(result.getRows().stream().map(PkgVersionSearchRow::getPkgName)
+                .collect(Collectors.toList())).contains("pkg1");
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.query.SelectById;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.AbstractIntegrationTest;
+import org.haiku.haikudepotserver.IntegrationTestSupportService;
+import org.haiku.haikudepotserver.config.TestConfig;
+import org.haiku.haikudepotserver.dataobjects.PkgVersion;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionViewCounterService;
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+
+import javax.annotation.Resource;
+
+@ContextConfiguration(classes = TestConfig.class)
+public class PkgVersionViewCounterServiceImplIT extends AbstractIntegrationTest {
+
+    @Resource
+    private PkgVersionViewCounterService pkgVersionViewCounterService;
+
+    @Test
+    public void testIncrementAndFlush() {
+        IntegrationTestSupportService.StandardTestData data = integrationTestSupportService.createStandardTestData();
+        long viewCounterBefore = data.pkg1Version2x86_64.getViewCounter();
+
+        // ---------------------------------
+        pkgVersionViewCounterService.increment(data.pkg1Version2x86_64.getObjectId());
+        pkgVersionViewCounterService.increment(data.pkg1Version2x86_64.getObjectId());
+        pkgVersionViewCounterService.increment(data.pkg1Version2x86_64.getObjectId());
+        // ---------------------------------
+
+        Assertions.assertThat(pkgVersionViewCounterService.getPendingIncrements()).isEqualTo(3L);
+
+        // ---------------------------------
+        pkgVersionViewCounterService.flush();
+        // ---------------------------------
+
+        Assertions.assertThat(pkgVersionViewCounterService.getPendingIncrements()).isEqualTo(0L);
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            PkgVersion pkgVersion = SelectById.query(PkgVersion.class, data.pkg1Version2x86_64.getObjectId())
+                    .selectOne(context);
+            Assertions.assertThat(pkgVersion.getViewCounter()).isEqualTo(viewCounterBefore + 3L);
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import org.fest.assertions.Assertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Optional;
+
+public class RenderedImageDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static byte[] data(int length, int value) {
+        byte[] result = new byte[length];
+        Arrays.fill(result, (byte) value);
+        return result;
+    }
+
+    private RenderedImageDiskCache createCache(File directory, long maxBytes) {
+        RenderedImageDiskCache cache = new RenderedImageDiskCache(directory, maxBytes);
+        cache.init();
+        return cache;
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        RenderedImageDiskCache cache = createCache(temporaryFolder.newFolder(), 1000);
+
+        // ---------------------------------
+        cache.put(data(10, 1), "pkg1", 16, 1234L);
+        // ---------------------------------
+
+        Optional<byte[]> dataOptional = cache.tryGet("pkg1", 16, 1234L);
+        Assertions.assertThat(dataOptional.isPresent()).isTrue();
+        Assertions.assertThat(dataOptional.get()).isEqualTo(data(10, 1));
+
+        // a different size or a changed icon should not be found.
+
+        Assertions.assertThat(cache.tryGet("pkg1", 32, 1234L).isPresent()).isFalse();
+        Assertions.assertThat(cache.tryGet("pkg1", 16, 5678L).isPresent()).isFalse();
+    }
+
+    @Test
+    public void testInit_survivesRestart() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        createCache(directory, 1000).put(data(10, 1), "pkg1", 16, 1234L);
+
+        // ---------------------------------
+        RenderedImageDiskCache cache = createCache(directory, 1000);
+        // ---------------------------------
+
+        Assertions.assertThat(cache.getCount()).isEqualTo(1);
+        Assertions.assertThat(cache.getTotalBytes()).isEqualTo(10L);
+        Assertions.assertThat(cache.tryGet("pkg1", 16, 1234L).get()).isEqualTo(data(10, 1));
+    }
+
+    /**
+     * <p>The icon that was used least recently should be removed when the cache is full.</p>
+     */
+
+    @Test
+    public void testPut_trimsLeastRecentlyUsed() throws Exception {
+        RenderedImageDiskCache cache = createCache(temporaryFolder.newFolder(), 30);
+        cache.put(data(10, 1), "pkg1", 16, 1L);
+        cache.put(data(10, 2), "pkg2", 16, 1L);
+        cache.put(data(10, 3), "pkg3", 16, 1L);
+        cache.tryGet("pkg1", 16, 1L);
+
+        // ---------------------------------
+        cache.put(data(10, 4), "pkg4", 16, 1L);
+        // ---------------------------------
+
+        Assertions.assertThat(cache.getTotalBytes()).isEqualTo(30L);
+        Assertions.assertThat(cache.tryGet("pkg1", 16, 1L).isPresent()).isTrue();
+        Assertions.assertThat(cache.tryGet("pkg2", 16, 1L).isPresent()).isFalse();
+        Assertions.assertThat(cache.tryGet("pkg3", 16, 1L).isPresent()).isTrue();
+        Assertions.assertThat(cache.tryGet("pkg4", 16, 1L).isPresent()).isTrue();
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        RenderedImageDiskCache cache = createCache(directory, 1000);
+        cache.put(data(10, 1), "pkg1", 16, 1L);
+        cache.put(data(10, 1), "pkg1", 32, 1L);
+        cache.put(data(10, 2), "pkg1_x", 16, 1L);
+
+        // ---------------------------------
+        cache.evict("pkg1");
+        // ---------------------------------
+
+        Assertions.assertThat(cache.getCount()).isEqualTo(1);
+        Assertions.assertThat(cache.tryGet("pkg1_x", 16, 1L).isPresent()).isTrue();
+        Assertions.assertThat(directory.listFiles().length).isEqualTo(1);
+    }
+
+    @Test
+    public void testTryGetLength() throws Exception {
+        RenderedImageDiskCache cache = createCache(temporaryFolder.newFolder(), 1000);
+        cache.put(data(12, 1), "code1", "abcd", 320, 240);
+
+        // ---------------------------------
+        Optional<Long> lengthOptional = cache.tryGetLength("code1", "abcd", 320, 240);
+        // ---------------------------------
+
+        Assertions.assertThat(lengthOptional.get()).isEqualTo(12L);
+        Assertions.assertThat(cache.tryGetLength("code1", "efgh", 320, 240).isPresent()).isFalse();
+    }
+
+}
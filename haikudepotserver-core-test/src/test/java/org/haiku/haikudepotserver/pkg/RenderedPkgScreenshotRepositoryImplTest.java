@@ -0,0 +1,299 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import org.apache.cayenne.ObjectContext;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.dataobjects.MediaType;
+import org.haiku.haikudepotserver.dataobjects.PkgScreenshot;
+import org.haiku.haikudepotserver.dataobjects.PkgScreenshotImage;
+import org.haiku.haikudepotserver.graphics.bitmap.PngOptimizationService;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Tests the {@link RenderedPkgScreenshotRepositoryImpl} with a PNG optimization service that counts
+ * the renders; every render of a scaled screenshot is optimized once.  The screenshots are not stored
+ * in a database and the object context fails if it is used.</p>
+ */
+
+public class RenderedPkgScreenshotRepositoryImplTest {
+
+    private final static String CODE = "a9dcd5ab-2a72-4e19-bcd6-5d8d2b1e3a0c";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<RenderedPkgScreenshotRepositoryImpl> repositories = new ArrayList<>();
+
+    private final ObjectContext context = (ObjectContext) Proxy.newProxyInstance(
+            ObjectContext.class.getClassLoader(),
+            new Class<?>[] { ObjectContext.class },
+            (proxy, method, args) -> {
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    @After
+    public void tearDown() {
+        repositories.forEach(RenderedPkgScreenshotRepositoryImpl::tearDown);
+    }
+
+    private static class CountingPngOptimizationService implements PngOptimizationService {
+
+        private final AtomicInteger optimizations = new AtomicInteger();
+
+        int getRenders() {
+            return optimizations.get();
+        }
+
+        @Override
+        public boolean identityOptimization() {
+            return true;
+        }
+
+        @Override
+        public byte[] optimize(byte[] input) {
+            optimizations.incrementAndGet();
+            return input;
+        }
+
+    }
+
+    private RenderedPkgScreenshotRepositoryImpl createRepository(
+            PngOptimizationService pngOptimizationService,
+            MetricRegistry metricRegistry,
+            File diskDirectory,
+            String prewarmSizes) {
+        RenderedPkgScreenshotRepositoryImpl repository = new RenderedPkgScreenshotRepositoryImpl(
+                pngOptimizationService,
+                metricRegistry,
+                1024 * 1024,
+                null == diskDirectory ? 0L : 1024 * 1024,
+                null == diskDirectory ? "" : diskDirectory.getAbsolutePath(),
+                prewarmSizes);
+        repository.init();
+        repositories.add(repository);
+        return repository;
+    }
+
+    private static long getMetric(MetricRegistry metricRegistry, String suffix) {
+        String name = MetricRegistry.name(RenderedPkgScreenshotRepository.class, suffix);
+
+        if (metricRegistry.getCounters().containsKey(name)) {
+            return metricRegistry.getCounters().get(name).getCount();
+        }
+
+        Gauge<?> gauge = metricRegistry.getGauges().get(name);
+        return ((Number) gauge.getValue()).longValue();
+    }
+
+    private static byte[] createPngData(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * <p>Creates a screenshot that is not registered with an object context.</p>
+     */
+
+    private static PkgScreenshot createScreenshot(String hashSha256, int width, int height) throws IOException {
+        MediaType mediaType = new MediaType();
+        mediaType.writePropertyDirectly(MediaType.CODE.getName(), com.google.common.net.MediaType.PNG.toString());
+
+        byte[] data = createPngData(width, height);
+        PkgScreenshotImage image = new PkgScreenshotImage();
+        image.writePropertyDirectly(PkgScreenshotImage.DATA.getName(), data);
+        image.writePropertyDirectly(PkgScreenshotImage.MEDIA_TYPE.getName(), mediaType);
+
+        PkgScreenshot screenshot = new PkgScreenshot();
+        screenshot.setCode(CODE);
+        screenshot.setHashSha256(hashSha256);
+        screenshot.setWidth(width);
+        screenshot.setHeight(height);
+        screenshot.setLength(data.length);
+        screenshot.writePropertyDirectly(PkgScreenshot.PKG_SCREENSHOT_IMAGES.getName(), Lists.newArrayList(image));
+        return screenshot;
+    }
+
+    /**
+     * <p>Once a size has been rendered, the length is answered from the length cache; neither the data
+     * in the memory cache is used nor is the screenshot rendered again.</p>
+     */
+
+    @Test
+    public void testRenderLength_fromLengthCache() throws Exception {
+        CountingPngOptimizationService pngOptimizationService = new CountingPngOptimizationService();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RenderedPkgScreenshotRepositoryImpl repository = createRepository(
+                pngOptimizationService, metricRegistry, null, "");
+        PkgScreenshot screenshot = createScreenshot("hash1", 100, 80);
+        byte[] data = repository.render(context, screenshot, 50, 50);
+
+        // ---------------------------------
+        long length = repository.renderLength(context, screenshot, 50, 50);
+        // ---------------------------------
+
+        Assertions.assertThat(length).isEqualTo(data.length);
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(1);
+        Assertions.assertThat(getMetric(metricRegistry, "misses")).isEqualTo(1L);
+        Assertions.assertThat(getMetric(metricRegistry, "memoryhits")).isEqualTo(0L);
+    }
+
+    /**
+     * <p>After a restart the memory caches are empty but the length is able to be answered from the
+     * index of the disk cache without loading or rendering the data.</p>
+     */
+
+    @Test
+    public void testRenderLength_fromDiskIndex() throws Exception {
+        File diskDirectory = temporaryFolder.newFolder();
+        PkgScreenshot screenshot = createScreenshot("hash1", 100, 80);
+        byte[] data = createRepository(
+                new CountingPngOptimizationService(), new MetricRegistry(), diskDirectory, "")
+                .render(context, screenshot, 50, 50);
+
+        CountingPngOptimizationService pngOptimizationService = new CountingPngOptimizationService();
+        MetricRegistry metricRegistry = new MetricRegistry();
+        RenderedPkgScreenshotRepositoryImpl restartedRepository = createRepository(
+                pngOptimizationService, metricRegistry, diskDirectory, "");
+
+        // ---------------------------------
+        long length = restartedRepository.renderLength(context, screenshot, 50, 50);
+        // ---------------------------------
+
+        Assertions.assertThat(length).isEqualTo(data.length);
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(0);
+        Assertions.assertThat(getMetric(metricRegistry, "misses")).isEqualTo(0L);
+        Assertions.assertThat(getMetric(metricRegistry, "diskhits")).isEqualTo(0L);
+    }
+
+    /**
+     * <p>When the screenshot's data changes, so does its hash and the scaled image from the old data
+     * must not be served from any of the tiers.</p>
+     */
+
+    @Test
+    public void testRender_changedHashIsRenderedAgain() throws Exception {
+        CountingPngOptimizationService pngOptimizationService = new CountingPngOptimizationService();
+        RenderedPkgScreenshotRepositoryImpl repository = createRepository(
+                pngOptimizationService, new MetricRegistry(), temporaryFolder.newFolder(), "");
+        byte[] originalData = repository.render(context, createScreenshot("hash1", 100, 80), 50, 50);
+        PkgScreenshot changedScreenshot = createScreenshot("hash2", 120, 60);
+
+        // ---------------------------------
+        long changedLength = repository.renderLength(context, changedScreenshot, 50, 50);
+        byte[] changedData = repository.render(context, changedScreenshot, 50, 50);
+        // ---------------------------------
+
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(2);
+        Assertions.assertThat(changedData).isNotEqualTo(originalData);
+        Assertions.assertThat(changedLength).isEqualTo(changedData.length);
+    }
+
+    /**
+     * <p>After an eviction none of the memory cache, the length cache and the disk cache are able to
+     * supply the scaled image so it has to be rendered again.</p>
+     */
+
+    @Test
+    public void testEvict_clearsAllTiers() throws Exception {
+        File diskDirectory = temporaryFolder.newFolder();
+        CountingPngOptimizationService pngOptimizationService = new CountingPngOptimizationService();
+        RenderedPkgScreenshotRepositoryImpl repository = createRepository(
+                pngOptimizationService, new MetricRegistry(), diskDirectory, "");
+        PkgScreenshot screenshot = createScreenshot("hash1", 100, 80);
+        repository.render(context, screenshot, 50, 50);
+        Assertions.assertThat(diskDirectory.list().length).isEqualTo(1);
+
+        // ---------------------------------
+        repository.evict(CODE);
+        // ---------------------------------
+
+        Assertions.assertThat(diskDirectory.list().length).isEqualTo(0);
+
+        repository.renderLength(context, screenshot, 50, 50);
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(2);
+
+        repository.render(context, screenshot, 50, 50);
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(2);
+    }
+
+    /**
+     * <p>Prewarming renders each of the configured sizes once so that the subsequent requests for those
+     * sizes are served from the caches.</p>
+     */
+
+    @Test
+    public void testPrewarm_fillsConfiguredSizes() throws Exception {
+        CountingPngOptimizationService pngOptimizationService = new CountingPngOptimizationService();
+        RenderedPkgScreenshotRepositoryImpl repository = createRepository(
+                pngOptimizationService, new MetricRegistry(), temporaryFolder.newFolder(), "50x50,40x30");
+        PkgScreenshot screenshot = createScreenshot("hash1", 100, 80);
+
+        // ---------------------------------
+        repository.prewarm(context, screenshot);
+        // ---------------------------------
+
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(2);
+
+        repository.renderLength(context, screenshot, 50, 50);
+        repository.renderLength(context, screenshot, 40, 30);
+        repository.render(context, screenshot, 50, 50);
+        repository.render(context, screenshot, 40, 30);
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(2);
+
+        repository.render(context, screenshot, 60, 60);
+        Assertions.assertThat(pngOptimizationService.getRenders()).isEqualTo(3);
+    }
+
+    @Test
+    public void testParseSizes() {
+
+        // ---------------------------------
+        List<int[]> sizes = RenderedPkgScreenshotRepositoryImpl.parseSizes(" 180x180, 320x240,,640 x 480");
+        // ---------------------------------
+
+        Assertions.assertThat(sizes.size()).isEqualTo(3);
+        Assertions.assertThat(sizes.get(0)).isEqualTo(new int[] { 180, 180 });
+        Assertions.assertThat(sizes.get(1)).isEqualTo(new int[] { 320, 240 });
+        Assertions.assertThat(sizes.get(2)).isEqualTo(new int[] { 640, 480 });
+    }
+
+    @Test
+    public void testParseSizes_empty() {
+        Assertions.assertThat(RenderedPkgScreenshotRepositoryImpl.parseSizes("").isEmpty()).isTrue();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParseSizes_malformed() {
+        RenderedPkgScreenshotRepositoryImpl.parseSizes("180x");
+    }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -7,9 +7,12 @@ package org.haiku.haikudepotserver.pkg.job;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.cayenne.ObjectContext;
 import org.haiku.haikudepotserver.AbstractIntegrationTest;
 import org.haiku.haikudepotserver.IntegrationTestSupportService;
 import org.haiku.haikudepotserver.config.TestConfig;
+import org.haiku.haikudepotserver.dataobjects.Pkg;
 import org.haiku.haikudepotserver.job.model.JobDataWithByteSource;
 import org.haiku.haikudepotserver.job.model.JobService;
 import org.haiku.haikudepotserver.job.model.JobSnapshot;
@@ -24,7 +27,11 @@ import javax.annotation.Resource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -62,10 +69,75 @@ public class PkgDumpExportJobRunnerIT extends AbstractIntegrationTest {
         specification.setNaturalLanguageCode("es");
 
         // ------------------------------------
+        JsonNode rootNode = runAndReadDump(specification);
+        // ------------------------------------
+
+        JsonNode dataModifiedTimestampNode = rootNode.at("/info/dataModifiedTimestamp");
+        Assert.assertTrue(dataModifiedTimestampNode.asLong() >= now);
+
+        JsonNode repositoryCode = rootNode.at("/items/0/name");
+        Assert.assertThat(repositoryCode.asText(), CoreMatchers.is("pkg1"));
+
+        JsonNode derivedRating = rootNode.at("/items/0/derivedRating");
+        Assert.assertThat(derivedRating.asText(), CoreMatchers.is("3.5"));
+
+        JsonNode pkgScreenshots = rootNode.at("/items/0/pkgScreenshots/0/length");
+        Assert.assertThat(pkgScreenshots.asLong(), CoreMatchers.is(41296L));
+
+        JsonNode pkgCategories = rootNode.at("/items/0/pkgCategories/0/code");
+        Assert.assertThat(pkgCategories.asText(), CoreMatchers.is("graphics"));
+
+        JsonNode pv0Summary = rootNode.at("/items/0/pkgVersions/0/summary");
+        Assert.assertThat(pv0Summary.asText(), CoreMatchers.is("pkg1Version2SummarySpanish_feijoa"));
+
+    }
+
+    /**
+     * <p>Modifies one package and removes another after the watermark and checks that those two
+     * packages appear in the delta.</p>
+     */
+
+    @Test
+    public void testRun_delta() throws IOException {
+        integrationTestSupportService.createStandardTestData();
+
+        // the delta overlaps the watermark by a second so wait for that to pass.
+        Uninterruptibles.sleepUninterruptibly(1500, TimeUnit.MILLISECONDS);
+        long sinceModifyTimestamp = System.currentTimeMillis();
+
+        {
+            ObjectContext context = serverRuntime.newContext();
+            Pkg.getByName(context, "pkg1").setModifyTimestamp();
+            Pkg.getByName(context, "pkg2").setActive(false);
+            context.commitChanges();
+        }
+
+        PkgDumpExportJobSpecification specification = new PkgDumpExportJobSpecification();
+        specification.setRepositorySourceCode("testreposrc_xyz");
+        specification.setNaturalLanguageCode("en");
+        specification.setSinceModifyTimestamp(sinceModifyTimestamp);
+
+        // ------------------------------------
+        JsonNode rootNode = runAndReadDump(specification);
+        // ------------------------------------
+
+        Assert.assertThat(rootNode.at("/sinceModifyTimestamp").asLong(), CoreMatchers.is(sinceModifyTimestamp));
+
+        // other packages may have been modified in the background by derivations so only check for these.
+
+        Map<String, JsonNode> items = StreamSupport.stream(rootNode.at("/items").spliterator(), false)
+                .collect(Collectors.toMap(n -> n.at("/name").asText(), n -> n));
+
+        Assert.assertTrue(items.get("pkg1").at("/removed").isMissingNode());
+        Assert.assertFalse(items.get("pkg1").at("/pkgVersions").isMissingNode());
+        Assert.assertTrue(items.get("pkg2").at("/removed").asBoolean());
+        Assert.assertTrue(items.get("pkg2").at("/pkgVersions").isMissingNode());
+    }
+
+    private JsonNode runAndReadDump(PkgDumpExportJobSpecification specification) throws IOException {
         String guid = jobService.submit(
                 specification,
                 JobSnapshot.COALESCE_STATUSES_NONE);
-        // ------------------------------------
 
         jobService.awaitJobFinishedUninterruptibly(guid, 10000);
         Optional<? extends JobSnapshot> snapshotOptional = jobService.tryGetJob(guid);
@@ -80,27 +152,8 @@ public class PkgDumpExportJobRunnerIT extends AbstractIntegrationTest {
                 final InputStream inputStream = jobSource.getByteSource().openBufferedStream();
                 final GZIPInputStream gzipInputStream = new GZIPInputStream(inputStream)
         ) {
-            JsonNode rootNode = objectMapper.readTree(gzipInputStream);
-
-            JsonNode dataModifiedTimestampNode = rootNode.at("/info/dataModifiedTimestamp");
-            Assert.assertTrue(dataModifiedTimestampNode.asLong() >= now);
-
-            JsonNode repositoryCode = rootNode.at("/items/0/name");
-            Assert.assertThat(repositoryCode.asText(), CoreMatchers.is("pkg1"));
-
-            JsonNode derivedRating = rootNode.at("/items/0/derivedRating");
-            Assert.assertThat(derivedRating.asText(), CoreMatchers.is("3.5"));
-
-            JsonNode pkgScreenshots = rootNode.at("/items/0/pkgScreenshots/0/length");
-            Assert.assertThat(pkgScreenshots.asLong(), CoreMatchers.is(41296L));
-
-            JsonNode pkgCategories = rootNode.at("/items/0/pkgCategories/0/code");
-            Assert.assertThat(pkgCategories.asText(), CoreMatchers.is("graphics"));
-
-            JsonNode pv0Summary = rootNode.at("/items/0/pkgVersions/0/summary");
-            Assert.assertThat(pv0Summary.asText(), CoreMatchers.is("pkg1Version2SummarySpanish_feijoa"));
+            return objectMapper.readTree(gzipInputStream);
         }
-
     }
 
 }
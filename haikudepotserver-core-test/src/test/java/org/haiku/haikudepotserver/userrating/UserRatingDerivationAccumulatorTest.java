@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.userrating;
+
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.support.VersionCoordinates;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Optional;
+
+public class UserRatingDerivationAccumulatorTest {
+
+    private static VersionCoordinates coordinates(int micro, Integer revision) {
+        return new VersionCoordinates("1", "0", Integer.toString(micro), null, revision);
+    }
+
+    /**
+     * <p>This mirrors the data in {@link UserRatingOrchestrationServiceIT}.  The rating on 0.0.9 is too
+     * old to be included and user 1's latest rating is the one that is counted.</p>
+     */
+
+    @Test
+    public void testDerive_mixed() {
+        UserRatingDerivationAccumulator accumulator = new UserRatingDerivationAccumulator();
+        VersionCoordinates v009 = new VersionCoordinates("0", "0", "9", null, null);
+        accumulator.addVersion(v009);
+        accumulator.addVersion(coordinates(0, null));
+        accumulator.addVersion(coordinates(1, null));
+        accumulator.addVersion(coordinates(1, 1));
+        accumulator.addVersion(coordinates(2, null));
+
+        accumulator.addUserRating(5L, v009, new Date(1000L), "x86_64", (short) 2);
+        accumulator.addUserRating(1L, coordinates(1, 1), new Date(1000L), "x86_64", (short) 3);
+        accumulator.addUserRating(3L, coordinates(0, null), new Date(1000L), "x86_64", (short) 2);
+        accumulator.addUserRating(2L, coordinates(2, null), new Date(1000L), "x86_64", (short) 3);
+        accumulator.addUserRating(4L, coordinates(1, null), new Date(1000L), "x86_64", (short) 1);
+        accumulator.addUserRating(1L, coordinates(2, null), new Date(3000L), "x86_gcc2", (short) 1);
+        accumulator.addUserRating(1L, coordinates(2, null), new Date(2000L), "x86_64", (short) 4);
+
+        // ----------------------------
+        Optional<UserRatingServiceImpl.DerivedUserRating> result = accumulator.derive(2, 3);
+        // ----------------------------
+
+        Assertions.assertThat(result.isPresent()).isTrue();
+        Assertions.assertThat(result.get().getRating()).isEqualTo(1.75f);
+        Assertions.assertThat(result.get().getSampleSize()).isEqualTo(4);
+    }
+
+    /**
+     * <p>If the user's latest user rating has no rating value then the user does not contribute even if an
+     * earlier user rating has a rating value.</p>
+     */
+
+    @Test
+    public void testDerive_latestWithoutRating() {
+        UserRatingDerivationAccumulator accumulator = new UserRatingDerivationAccumulator();
+        accumulator.addVersion(coordinates(1, null));
+        accumulator.addVersion(coordinates(2, null));
+
+        accumulator.addUserRating(1L, coordinates(2, null), new Date(1000L), "x86_64", null);
+        accumulator.addUserRating(1L, coordinates(1, null), new Date(2000L), "x86_64", (short) 5);
+        accumulator.addUserRating(2L, coordinates(1, null), new Date(1000L), "x86_64", (short) 2);
+
+        // ----------------------------
+        Optional<UserRatingServiceImpl.DerivedUserRating> result = accumulator.derive(2, 1);
+        // ----------------------------
+
+        Assertions.assertThat(result.get().getRating()).isEqualTo(2f);
+        Assertions.assertThat(result.get().getSampleSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDerive_tooFewRatings() {
+        UserRatingDerivationAccumulator accumulator = new UserRatingDerivationAccumulator();
+        accumulator.addVersion(coordinates(1, null));
+        accumulator.addUserRating(1L, coordinates(1, null), new Date(1000L), "x86_64", (short) 5);
+        accumulator.addUserRating(2L, coordinates(1, null), new Date(1000L), "x86_64", (short) 4);
+
+        // ----------------------------
+        Optional<UserRatingServiceImpl.DerivedUserRating> result = accumulator.derive(2, 3);
+        // ----------------------------
+
+        Assertions.assertThat(result.isPresent()).isFalse();
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.userrating;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.fest.assertions.Assertions;
+import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationJobSpecification;
+import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationTriggerService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>Tests the {@link UserRatingDerivationTriggerServiceImpl} with a job service that only records the
+ * submitted job specifications.</p>
+ */
+
+public class UserRatingDerivationTriggerServiceImplTest {
+
+    private final List<UserRatingDerivationJobSpecification> submittedSpecifications = new CopyOnWriteArrayList<>();
+
+    private volatile boolean rejectSubmissions = false;
+
+    private MetricRegistry metricRegistry;
+
+    private UserRatingDerivationTriggerServiceImpl triggerService;
+
+    @Before
+    public void setUp() {
+        JobService jobService = (JobService) Proxy.newProxyInstance(
+                JobService.class.getClassLoader(),
+                new Class<?>[] { JobService.class },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("submit")) {
+                        if (rejectSubmissions) {
+                            throw new RejectedExecutionException("the queue is full");
+                        }
+
+                        submittedSpecifications.add((UserRatingDerivationJobSpecification) args[0]);
+                        return UUID.randomUUID().toString();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        metricRegistry = new MetricRegistry();
+        // the debounce period is long so that the flush only happens when the test calls for it.
+        triggerService = new UserRatingDerivationTriggerServiceImpl(jobService, metricRegistry, 60 * 1000, 3);
+        triggerService.init();
+    }
+
+    @After
+    public void tearDown() {
+        triggerService.tearDown();
+    }
+
+    private long getCount(String suffix) {
+        Counter counter = metricRegistry.getCounters().get(
+                MetricRegistry.name(UserRatingDerivationTriggerService.class, suffix));
+        return counter.getCount();
+    }
+
+    @Test
+    public void testTrigger_coalescesIntoOneJob() {
+        triggerService.trigger(ImmutableList.of("pkg1"));
+        triggerService.trigger(ImmutableList.of("pkg2", "pkg1"));
+        triggerService.trigger(ImmutableList.of("pkg1"));
+
+        Assertions.assertThat(triggerService.getPendingPkgs()).isEqualTo(2);
+        Assertions.assertThat(submittedSpecifications).isEmpty();
+
+        // ---------------------------------
+        triggerService.flush();
+        // ---------------------------------
+
+        Assertions.assertThat(submittedSpecifications.size()).isEqualTo(1);
+        Assertions.assertThat(submittedSpecifications.get(0).getPkgNames())
+                .isEqualTo(ImmutableSet.of("pkg1", "pkg2"));
+        Assertions.assertThat(submittedSpecifications.get(0).appliesToAllPkgs()).isFalse();
+        Assertions.assertThat(triggerService.getPendingPkgs()).isEqualTo(0);
+        Assertions.assertThat(getCount("duplicates")).isEqualTo(2);
+        Assertions.assertThat(getCount("submissions")).isEqualTo(1);
+    }
+
+    @Test
+    public void testTrigger_overflow() {
+        triggerService.trigger(ImmutableList.of("pkg1", "pkg2", "pkg3", "pkg4"));
+        triggerService.trigger(ImmutableList.of("pkg5"));
+
+        // ---------------------------------
+        triggerService.flush();
+        // ---------------------------------
+
+        Assertions.assertThat(submittedSpecifications.size()).isEqualTo(1);
+        Assertions.assertThat(submittedSpecifications.get(0).appliesToAllPkgs()).isTrue();
+        Assertions.assertThat(getCount("overflows")).isEqualTo(1);
+    }
+
+    @Test
+    public void testFlush_nothingPending() {
+
+        // ---------------------------------
+        triggerService.flush();
+        // ---------------------------------
+
+        Assertions.assertThat(submittedSpecifications).isEmpty();
+    }
+
+    /**
+     * <p>If the job is not able to be submitted then the package names should still be pending so that
+     * they are submitted later.</p>
+     */
+
+    @Test
+    public void testFlush_rejectedSubmissionIsRestored() {
+        triggerService.trigger(ImmutableList.of("pkg1", "pkg2"));
+        rejectSubmissions = true;
+
+        try {
+            // ---------------------------------
+            triggerService.flush();
+            // ---------------------------------
+            Assert.fail("expected the submission to be rejected");
+        }
+        catch (RejectedExecutionException ree) {
+            // expected
+        }
+
+        Assertions.assertThat(triggerService.getPendingPkgs()).isEqualTo(2);
+        Assertions.assertThat(submittedSpecifications).isEmpty();
+
+        rejectSubmissions = false;
+        triggerService.trigger(ImmutableList.of("pkg3"));
+        triggerService.flush();
+
+        Assertions.assertThat(submittedSpecifications.size()).isEqualTo(1);
+        Assertions.assertThat(submittedSpecifications.get(0).getPkgNames())
+                .isEqualTo(ImmutableSet.of("pkg1", "pkg2", "pkg3"));
+        Assertions.assertThat(getCount("submissions")).isEqualTo(1);
+    }
+
+    @Test
+    public void testFlush_rejectedAllPkgsSubmissionIsRestored() {
+        triggerService.trigger(ImmutableList.of("pkg1", "pkg2", "pkg3", "pkg4"));
+        rejectSubmissions = true;
+
+        try {
+            triggerService.flush();
+            Assert.fail("expected the submission to be rejected");
+        }
+        catch (RejectedExecutionException ree) {
+            // expected
+        }
+
+        rejectSubmissions = false;
+
+        // ---------------------------------
+        triggerService.flush();
+        // ---------------------------------
+
+        Assertions.assertThat(submittedSpecifications.size()).isEqualTo(1);
+        Assertions.assertThat(submittedSpecifications.get(0).appliesToAllPkgs()).isTrue();
+    }
+
+}
@@ -134,6 +134,52 @@ public class UserRatingOrchestrationServiceIT extends AbstractIntegrationTest {
 
     }
 
+    /**
+     * <p>Checks that the bulk derivation stores the same user rating as is derived for the single package
+     * and that the aggregate is removed once the user ratings no longer support a derivation.</p>
+     */
+
+    @Test
+    public void testUpdateUserRatingDerivationsForAllPkgs() {
+
+        integrationTestSupportService.createStandardTestData();
+        ObjectContext context = serverRuntime.newContext();
+        UserRatingTestData userRatingData = createTestUserRatingData(context);
+        context.commitChanges();
+
+        createUserRating(context, userRatingData.pkgVersion_1_0_2__x86_gcc2, userRatingData.user1, (short) 4);
+        createUserRating(context, userRatingData.pkgVersion_1_0_2__x86_gcc2, userRatingData.user2, (short) 3);
+        UserRating userRating3 = createUserRating(context, userRatingData.pkgVersion_1_0_1__x86_gcc2, userRatingData.user3, (short) 2);
+        context.commitChanges();
+
+        // ----------------------------
+        userRatingServiceImpl.updateUserRatingDerivationsForAllPkgs();
+        // ----------------------------
+
+        {
+            ObjectContext checkContext = serverRuntime.newContext();
+            Pkg pkg = Pkg.getByName(checkContext, "urtestpkg");
+            PkgUserRatingAggregate aggregate = pkg.getPkgUserRatingAggregate(
+                    Repository.tryGetByCode(checkContext, "testrepo").get()).get();
+            Assertions.assertThat(aggregate.getDerivedRating()).isEqualTo(3f);
+            Assertions.assertThat(aggregate.getDerivedRatingSampleSize()).isEqualTo(3);
+        }
+
+        userRating3.setActive(false);
+        context.commitChanges();
+
+        // ----------------------------
+        userRatingServiceImpl.updateUserRatingDerivationsForAllPkgs();
+        // ----------------------------
+
+        {
+            ObjectContext checkContext = serverRuntime.newContext();
+            Pkg pkg = Pkg.getByName(checkContext, "urtestpkg");
+            Assertions.assertThat(pkg.getPkgUserRatingAggregate(
+                    Repository.tryGetByCode(checkContext, "testrepo").get()).isPresent()).isFalse();
+        }
+    }
+
     public static class UserRatingTestData {
 
         public Pkg pkg;
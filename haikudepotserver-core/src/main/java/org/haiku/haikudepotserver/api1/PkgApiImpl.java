@@ -26,7 +26,6 @@ import org.haiku.haikudepotserver.dataobjects.PkgScreenshot;
 import org.haiku.haikudepotserver.dataobjects.PkgVersionLocalization;
 import org.haiku.haikudepotserver.dataobjects.*;
 import org.haiku.haikudepotserver.dataobjects.auto._PkgVersion;
-import org.haiku.haikudepotserver.pkg.FixedPkgLocalizationLookupServiceImpl;
 import org.haiku.haikudepotserver.pkg.model.*;
 import org.haiku.haikudepotserver.security.model.AuthorizationService;
 import org.haiku.haikudepotserver.security.model.Permission;
@@ -62,6 +61,7 @@ public class PkgApiImpl extends AbstractApiImpl implements PkgApi {
     private final PkgScreenshotService pkgScreenshotService;
     private final PkgService pkgService;
     private final PkgLocalizationService pkgLocalizationService;
+    private final PkgVersionViewCounterService pkgVersionViewCounterService;
     private final ClientIdentifierSupplier clientIdentifierSupplier;
 
     private final Boolean shouldProtectPkgVersionViewCounterFromRecurringIncrementFromSameClient = true;
@@ -84,6 +84,7 @@ public class PkgApiImpl extends AbstractApiImpl implements PkgApi {
             PkgScreenshotService pkgScreenshotService,
             PkgService pkgService,
             PkgLocalizationService pkgLocalizationService,
+            PkgVersionViewCounterService pkgVersionViewCounterService,
             ClientIdentifierSupplier clientIdentifierSupplier) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.authorizationService = Preconditions.checkNotNull(authorizationService);
@@ -91,6 +92,7 @@ public class PkgApiImpl extends AbstractApiImpl implements PkgApi {
         this.pkgScreenshotService = Preconditions.checkNotNull(pkgScreenshotService);
         this.pkgService = Preconditions.checkNotNull(pkgService);
         this.pkgLocalizationService = Preconditions.checkNotNull(pkgLocalizationService);
+        this.pkgVersionViewCounterService = Preconditions.checkNotNull(pkgVersionViewCounterService);
         this.clientIdentifierSupplier = Preconditions.checkNotNull(clientIdentifierSupplier);
     }
 
@@ -217,7 +219,7 @@ public class PkgApiImpl extends AbstractApiImpl implements PkgApi {
                     PkgSearchSpecification.ExpressionType.valueOf(request.expressionType.name()));
         }
 
-        specification.setNaturalLanguage(getNaturalLanguage(context, request.naturalLanguageCode));
+        specification.setNaturalLanguage(naturalLanguage);
         specification.setDaysSinceLatestVersion(request.daysSinceLatestVersion);
         specification.setSortOrdering(PkgSearchSpecification.SortOrdering.valueOf(request.sortOrdering.name()));
         specification.setArchitectures(transformCodesToArchitectures(context, request.architectureCodes));
@@ -227,56 +229,38 @@ public class PkgApiImpl extends AbstractApiImpl implements PkgApi {
 
         SearchPkgsResult result = new SearchPkgsResult();
 
-        // if there are more than we asked for then there must be more available.
+        // the rows carry the total, derived rating, icon presence, localization and so on so that
+        // nothing needs to be fetched for each row.
 
-        result.total = pkgService.total(context, specification);
-        result.items = Collections.emptyList();
-
-        if (result.total > 0) {
-
-            List<PkgVersion> searchedPkgVersions = pkgService.search(context, specification);
-
-            // if there is a pattern then it is not possible to use the fixed lookup (which
-            // is faster).
+        PkgVersionSearchResult searchResult = pkgService.searchRows(context, specification);
 
-            final PkgLocalizationLookupService localPkgLocalizationLookupService =
-                    null != specification.getExpressionAsPattern()
-                        ? pkgLocalizationService
-                            : new FixedPkgLocalizationLookupServiceImpl(context, searchedPkgVersions, naturalLanguage);
+        result.total = searchResult.getTotal();
+        result.items = Collections.emptyList();
 
-            result.items = searchedPkgVersions
+        if (!searchResult.getRows().isEmpty()) {
+            result.items = searchResult.getRows()
                     .stream()
-                    .map(spv -> {
-                        Optional<PkgUserRatingAggregate> pkgUserRatingAggregateOptional =
-                                PkgUserRatingAggregate.getByPkgAndRepository(
-                                        context,
-                                        spv.getPkg(),
-                                        spv.getRepositorySource().getRepository());
-
+                    .map(row -> {
                         SearchPkgsResult.Pkg resultPkg = new SearchPkgsResult.Pkg();
-                        resultPkg.name = spv.getPkg().getName();
-                        resultPkg.modifyTimestamp = spv.getPkg().getModifyTimestamp().getTime();
-                        resultPkg.derivedRating = pkgUserRatingAggregateOptional.isPresent() ? pkgUserRatingAggregateOptional.get().getDerivedRating() : null;
-                        resultPkg.hasAnyPkgIcons = !PkgIconImage.findForPkg(context, spv.getPkg()).isEmpty();
-
-                        ResolvedPkgVersionLocalization resolvedPkgVersionLocalization =
-                                localPkgLocalizationLookupService.resolvePkgVersionLocalization(
-                                    context, spv, specification.getExpressionAsPattern(), naturalLanguage);
+                        resultPkg.name = row.getPkgName();
+                        resultPkg.modifyTimestamp = row.getPkgModifyTimestamp().getTime();
+                        resultPkg.derivedRating = row.getDerivedRating();
+                        resultPkg.hasAnyPkgIcons = row.hasAnyPkgIcons();
 
                         SearchPkgsResult.PkgVersion resultVersion = new SearchPkgsResult.PkgVersion();
-                        resultVersion.major = spv.getMajor();
-                        resultVersion.minor = spv.getMinor();
-                        resultVersion.micro = spv.getMicro();
-                        resultVersion.preRelease = spv.getPreRelease();
-                        resultVersion.revision = spv.getRevision();
-                        resultVersion.createTimestamp = spv.getCreateTimestamp().getTime();
-                        resultVersion.viewCounter = spv.getViewCounter();
-                        resultVersion.architectureCode = spv.getArchitecture().getCode();
-                        resultVersion.payloadLength = spv.getPayloadLength();
-                        resultVersion.title = resolvedPkgVersionLocalization.getTitle();
-                        resultVersion.summary = resolvedPkgVersionLocalization.getSummary();
-                        resultVersion.repositorySourceCode = spv.getRepositorySource().getCode();
-                        resultVersion.repositoryCode = spv.getRepositorySource().getRepository().getCode();
+                        resultVersion.major = row.getMajor();
+                        resultVersion.minor = row.getMinor();
+                        resultVersion.micro = row.getMicro();
+                        resultVersion.preRelease = row.getPreRelease();
+                        resultVersion.revision = row.getRevision();
+                        resultVersion.createTimestamp = row.getCreateTimestamp().getTime();
+                        resultVersion.viewCounter = row.getViewCounter();
+                        resultVersion.architectureCode = row.getArchitectureCode();
+                        resultVersion.payloadLength = row.getPayloadLength();
+                        resultVersion.title = row.getTitle();
+                        resultVersion.summary = row.getSummary();
+                        resultVersion.repositorySourceCode = row.getRepositorySourceCode();
+                        resultVersion.repositoryCode = row.getRepositoryCode();
 
                         resultPkg.versions = Collections.singletonList(resultVersion);
 
@@ -367,7 +351,7 @@ public class PkgApiImpl extends AbstractApiImpl implements PkgApi {
         }
 
         if (shouldIncrement) {
-            pkgService.incrementViewCounter(serverRuntime, pkgVersion.getObjectId());
+            pkgVersionViewCounterService.increment(pkgVersion.getObjectId());
         }
 
         if (null!=cacheKey) {
@@ -19,8 +19,6 @@ import org.haiku.haikudepotserver.captcha.model.CaptchaService;
 import org.haiku.haikudepotserver.dataobjects.User;
 import org.haiku.haikudepotserver.dataobjects.UserUsageConditions;
 import org.haiku.haikudepotserver.dataobjects.UserUsageConditionsAgreement;
-import org.haiku.haikudepotserver.job.model.JobService;
-import org.haiku.haikudepotserver.job.model.JobSnapshot;
 import org.haiku.haikudepotserver.passwordreset.model.PasswordResetService;
 import org.haiku.haikudepotserver.pkg.model.PkgSearchSpecification;
 import org.haiku.haikudepotserver.security.model.AuthenticationService;
@@ -28,7 +26,7 @@ import org.haiku.haikudepotserver.security.model.AuthorizationService;
 import org.haiku.haikudepotserver.security.model.Permission;
 import org.haiku.haikudepotserver.user.model.UserSearchSpecification;
 import org.haiku.haikudepotserver.user.model.UserService;
-import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationJobSpecification;
+import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationTriggerService;
 import org.haiku.haikudepotserver.userrating.model.UserRatingService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,7 +52,7 @@ public class UserApiImpl extends AbstractApiImpl implements UserApi {
     private final UserService userService;
     private final UserRatingService userRatingService;
     private final PasswordResetService passwordResetService;
-    private final JobService jobService;
+    private final UserRatingDerivationTriggerService userRatingDerivationTriggerService;
 
     public UserApiImpl(
             ServerRuntime serverRuntime,
@@ -64,7 +62,7 @@ public class UserApiImpl extends AbstractApiImpl implements UserApi {
             UserService userService,
             UserRatingService userRatingService,
             PasswordResetService passwordResetService,
-            JobService jobService) {
+            UserRatingDerivationTriggerService userRatingDerivationTriggerService) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.authorizationService = Preconditions.checkNotNull(authorizationService);
         this.captchaService = Preconditions.checkNotNull(captchaService);
@@ -72,7 +70,7 @@ public class UserApiImpl extends AbstractApiImpl implements UserApi {
         this.userService = Preconditions.checkNotNull(userService);
         this.userRatingService = Preconditions.checkNotNull(userRatingService);
         this.passwordResetService = Preconditions.checkNotNull(passwordResetService);
-        this.jobService = Preconditions.checkNotNull(jobService);
+        this.userRatingDerivationTriggerService = Preconditions.checkNotNull(userRatingDerivationTriggerService);
     }
 
     @Override
@@ -145,11 +143,7 @@ public class UserApiImpl extends AbstractApiImpl implements UserApi {
                         pkgNames.size(),
                         user.toString());
 
-                for (String pkgName : pkgNames) {
-                    jobService.submit(
-                            new UserRatingDerivationJobSpecification(pkgName),
-                            JobSnapshot.COALESCE_STATUSES_QUEUED);
-                }
+                userRatingDerivationTriggerService.trigger(pkgNames);
             }
 
         }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -60,8 +60,10 @@ public class BasicConfig {
 
     @Bean
     public PngOptimizationService pngOptimizationService(
-            @Value("${optipng.path:}") String optiPngPath) {
-        return new PngOptimizationServiceFactory(optiPngPath).getObject();
+            @Value("${optipng.path:}") String optiPngPath,
+            @Value("${png.optimization.enabled:true}") boolean enabled,
+            @Value("${png.optimization.deflatelevel:9}") int deflateLevel) {
+        return new PngOptimizationServiceFactory(optiPngPath, enabled, deflateLevel).getObject();
     }
 
     @Bean
@@ -63,6 +63,15 @@ public class PersistenceConfig {
         return createManagedDatabase(dataSource, "captcha", flywayMigrate, validateOnMigrate);
     }
 
+    @Bean(initMethod = "init")
+    public ManagedDatabase jobManagedDatabase(
+            DataSource dataSource,
+            @Value("${flyway.migrate}") Boolean flywayMigrate,
+            @Value("${flyway.validateOnMigrate:true}") Boolean validateOnMigrate
+    ) {
+        return createManagedDatabase(dataSource, "job", flywayMigrate, validateOnMigrate);
+    }
+
     @Bean(initMethod = "init")
     @DependsOn({"haikuDepotManagedDatabase"})
     public UserUsageConditionsInitializer userUsageConditionsInitializer(
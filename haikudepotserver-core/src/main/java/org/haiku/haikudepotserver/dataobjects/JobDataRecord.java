@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.dataobjects;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.query.ObjectSelect;
+import org.haiku.haikudepotserver.dataobjects.auto._JobDataRecord;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <p>This is the persisted form of the job data so that the data of a job is able to
+ * be found after the application server has been restarted.</p>
+ */
+
+public class JobDataRecord extends _JobDataRecord {
+
+    public static Optional<JobDataRecord> tryGetByGuid(ObjectContext context, String guid) {
+        Preconditions.checkArgument(null != context, "the context must be supplied");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid must be supplied");
+        return Optional.ofNullable(ObjectSelect
+                .query(JobDataRecord.class)
+                .where(GUID.eq(guid))
+                .selectOne(context));
+    }
+
+    public static List<JobDataRecord> findAll(ObjectContext context) {
+        Preconditions.checkArgument(null != context, "the context must be supplied");
+        return ObjectSelect.query(JobDataRecord.class).select(context);
+    }
+
+    public static List<JobDataRecord> findByJobGuids(ObjectContext context, Collection<String> jobGuids) {
+        Preconditions.checkArgument(null != context, "the context must be supplied");
+        Preconditions.checkArgument(null != jobGuids, "the job guids must be supplied");
+
+        if (jobGuids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return ObjectSelect.query(JobDataRecord.class).where(JOB_GUID.in(jobGuids)).select(context);
+    }
+
+}
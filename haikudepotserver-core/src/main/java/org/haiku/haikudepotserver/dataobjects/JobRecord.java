@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.dataobjects;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.SortOrder;
+import org.haiku.haikudepotserver.dataobjects.auto._JobRecord;
+import org.haiku.haikudepotserver.dataobjects.support.MutableCreateAndModifyTimestamped;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <p>This is the persisted form of a job so that the job is able to survive the
+ * application server being restarted.</p>
+ */
+
+public class JobRecord extends _JobRecord implements MutableCreateAndModifyTimestamped {
+
+    public static Optional<JobRecord> tryGetByGuid(ObjectContext context, String guid) {
+        Preconditions.checkArgument(null != context, "the context must be supplied");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid must be supplied");
+        return Optional.ofNullable(ObjectSelect
+                .query(JobRecord.class)
+                .where(GUID.eq(guid))
+                .selectOne(context));
+    }
+
+    /**
+     * <p>The jobs are returned in the order in which they were stored.  The primary key is not an
+     * attribute of the object and so the ordering is on the database path.</p>
+     */
+
+    public static List<JobRecord> findAll(ObjectContext context) {
+        Preconditions.checkArgument(null != context, "the context must be supplied");
+        return ObjectSelect
+                .query(JobRecord.class)
+                .orderBy(new Ordering(ExpressionFactory.dbPathExp(ID_PK_COLUMN), SortOrder.ASCENDING))
+                .select(context);
+    }
+
+    /**
+     * <p>The status of a job is derived from which of the timestamps have been set.  This will
+     * return an expression that matches the jobs with any of the supplied statuses.</p>
+     */
+
+    public static Expression createExpressionForStatuses(Collection<JobSnapshot.Status> statuses) {
+        Preconditions.checkArgument(null != statuses, "the statuses must be supplied");
+
+        if (statuses.isEmpty()) {
+            return ExpressionFactory.expFalse();
+        }
+
+        return ExpressionFactory.or(statuses.stream()
+                .map(JobRecord::createExpressionForStatus)
+                .toArray(Expression[]::new));
+    }
+
+    private static Expression createExpressionForStatus(JobSnapshot.Status status) {
+        switch (status) {
+            case CANCELLED:
+                return CANCEL_TIMESTAMP.isNotNull();
+            case FAILED:
+                return CANCEL_TIMESTAMP.isNull()
+                        .andExp(FAIL_TIMESTAMP.isNotNull());
+            case FINISHED:
+                return CANCEL_TIMESTAMP.isNull()
+                        .andExp(FAIL_TIMESTAMP.isNull())
+                        .andExp(FINISH_TIMESTAMP.isNotNull());
+            case STARTED:
+                return CANCEL_TIMESTAMP.isNull()
+                        .andExp(FAIL_TIMESTAMP.isNull())
+                        .andExp(FINISH_TIMESTAMP.isNull())
+                        .andExp(START_TIMESTAMP.isNotNull());
+            case QUEUED:
+                return CANCEL_TIMESTAMP.isNull()
+                        .andExp(FAIL_TIMESTAMP.isNull())
+                        .andExp(FINISH_TIMESTAMP.isNull())
+                        .andExp(START_TIMESTAMP.isNull())
+                        .andExp(QUEUED_TIMESTAMP.isNotNull());
+            case INDETERMINATE:
+                return CANCEL_TIMESTAMP.isNull()
+                        .andExp(FAIL_TIMESTAMP.isNull())
+                        .andExp(FINISH_TIMESTAMP.isNull())
+                        .andExp(START_TIMESTAMP.isNull())
+                        .andExp(QUEUED_TIMESTAMP.isNull());
+            default:
+                throw new IllegalStateException("unknown job status; " + status);
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.haiku.haikudepotserver.dataobjects.auto;
+
+import java.sql.Timestamp;
+
+import org.apache.cayenne.exp.Property;
+import org.haiku.haikudepotserver.dataobjects.support.AbstractDataObject;
+
+/**
+ * Class _JobDataRecord was generated by Cayenne.
+ * It is probably a good idea to avoid changing this class manually,
+ * since it may be overwritten next time code is regenerated.
+ * If you need to make any customizations, please use subclass.
+ */
+public abstract class _JobDataRecord extends AbstractDataObject {
+
+    private static final long serialVersionUID = 1L; 
+
+    public static final String ID_PK_COLUMN = "id";
+
+    public static final Property<Timestamp> CREATE_TIMESTAMP = Property.create("createTimestamp", Timestamp.class);
+    public static final Property<String> DATA_TYPE = Property.create("dataType", String.class);
+    public static final Property<String> GUID = Property.create("guid", String.class);
+    public static final Property<String> JOB_GUID = Property.create("jobGuid", String.class);
+    public static final Property<String> MEDIA_TYPE_CODE = Property.create("mediaTypeCode", String.class);
+    public static final Property<String> USE_CODE = Property.create("useCode", String.class);
+
+    public void setCreateTimestamp(Timestamp createTimestamp) {
+        writeProperty("createTimestamp", createTimestamp);
+    }
+    public Timestamp getCreateTimestamp() {
+        return (Timestamp)readProperty("createTimestamp");
+    }
+
+    public void setDataType(String dataType) {
+        writeProperty("dataType", dataType);
+    }
+    public String getDataType() {
+        return (String)readProperty("dataType");
+    }
+
+    public void setGuid(String guid) {
+        writeProperty("guid", guid);
+    }
+    public String getGuid() {
+        return (String)readProperty("guid");
+    }
+
+    public void setJobGuid(String jobGuid) {
+        writeProperty("jobGuid", jobGuid);
+    }
+    public String getJobGuid() {
+        return (String)readProperty("jobGuid");
+    }
+
+    public void setMediaTypeCode(String mediaTypeCode) {
+        writeProperty("mediaTypeCode", mediaTypeCode);
+    }
+    public String getMediaTypeCode() {
+        return (String)readProperty("mediaTypeCode");
+    }
+
+    public void setUseCode(String useCode) {
+        writeProperty("useCode", useCode);
+    }
+    public String getUseCode() {
+        return (String)readProperty("useCode");
+    }
+
+}
@@ -0,0 +1,141 @@
+package org.haiku.haikudepotserver.dataobjects.auto;
+
+import java.sql.Timestamp;
+
+import org.apache.cayenne.exp.Property;
+import org.haiku.haikudepotserver.dataobjects.support.AbstractDataObject;
+
+/**
+ * Class _JobRecord was generated by Cayenne.
+ * It is probably a good idea to avoid changing this class manually,
+ * since it may be overwritten next time code is regenerated.
+ * If you need to make any customizations, please use subclass.
+ */
+public abstract class _JobRecord extends AbstractDataObject {
+
+    private static final long serialVersionUID = 1L; 
+
+    public static final String ID_PK_COLUMN = "id";
+
+    public static final Property<Timestamp> CANCEL_TIMESTAMP = Property.create("cancelTimestamp", Timestamp.class);
+    public static final Property<Timestamp> CREATE_TIMESTAMP = Property.create("createTimestamp", Timestamp.class);
+    public static final Property<Timestamp> FAIL_TIMESTAMP = Property.create("failTimestamp", Timestamp.class);
+    public static final Property<Timestamp> FINISH_TIMESTAMP = Property.create("finishTimestamp", Timestamp.class);
+    public static final Property<String> GUID = Property.create("guid", String.class);
+    public static final Property<Timestamp> HEARTBEAT_TIMESTAMP = Property.create("heartbeatTimestamp", Timestamp.class);
+    public static final Property<String> JOB_TYPE_CODE = Property.create("jobTypeCode", String.class);
+    public static final Property<Timestamp> MODIFY_TIMESTAMP = Property.create("modifyTimestamp", Timestamp.class);
+    public static final Property<String> NODE_NAME = Property.create("nodeName", String.class);
+    public static final Property<String> OWNER_USER_NICKNAME = Property.create("ownerUserNickname", String.class);
+    public static final Property<Integer> PROGRESS_PERCENT = Property.create("progressPercent", Integer.class);
+    public static final Property<Timestamp> QUEUED_TIMESTAMP = Property.create("queuedTimestamp", Timestamp.class);
+    public static final Property<String> SPECIFICATION_CLASS_NAME = Property.create("specificationClassName", String.class);
+    public static final Property<String> SPECIFICATION_JSON = Property.create("specificationJson", String.class);
+    public static final Property<Timestamp> START_TIMESTAMP = Property.create("startTimestamp", Timestamp.class);
+
+    public void setCancelTimestamp(Timestamp cancelTimestamp) {
+        writeProperty("cancelTimestamp", cancelTimestamp);
+    }
+    public Timestamp getCancelTimestamp() {
+        return (Timestamp)readProperty("cancelTimestamp");
+    }
+
+    public void setCreateTimestamp(Timestamp createTimestamp) {
+        writeProperty("createTimestamp", createTimestamp);
+    }
+    public Timestamp getCreateTimestamp() {
+        return (Timestamp)readProperty("createTimestamp");
+    }
+
+    public void setFailTimestamp(Timestamp failTimestamp) {
+        writeProperty("failTimestamp", failTimestamp);
+    }
+    public Timestamp getFailTimestamp() {
+        return (Timestamp)readProperty("failTimestamp");
+    }
+
+    public void setFinishTimestamp(Timestamp finishTimestamp) {
+        writeProperty("finishTimestamp", finishTimestamp);
+    }
+    public Timestamp getFinishTimestamp() {
+        return (Timestamp)readProperty("finishTimestamp");
+    }
+
+    public void setGuid(String guid) {
+        writeProperty("guid", guid);
+    }
+    public String getGuid() {
+        return (String)readProperty("guid");
+    }
+
+    public void setHeartbeatTimestamp(Timestamp heartbeatTimestamp) {
+        writeProperty("heartbeatTimestamp", heartbeatTimestamp);
+    }
+    public Timestamp getHeartbeatTimestamp() {
+        return (Timestamp)readProperty("heartbeatTimestamp");
+    }
+
+    public void setJobTypeCode(String jobTypeCode) {
+        writeProperty("jobTypeCode", jobTypeCode);
+    }
+    public String getJobTypeCode() {
+        return (String)readProperty("jobTypeCode");
+    }
+
+    public void setModifyTimestamp(Timestamp modifyTimestamp) {
+        writeProperty("modifyTimestamp", modifyTimestamp);
+    }
+    public Timestamp getModifyTimestamp() {
+        return (Timestamp)readProperty("modifyTimestamp");
+    }
+
+    public void setNodeName(String nodeName) {
+        writeProperty("nodeName", nodeName);
+    }
+    public String getNodeName() {
+        return (String)readProperty("nodeName");
+    }
+
+    public void setOwnerUserNickname(String ownerUserNickname) {
+        writeProperty("ownerUserNickname", ownerUserNickname);
+    }
+    public String getOwnerUserNickname() {
+        return (String)readProperty("ownerUserNickname");
+    }
+
+    public void setProgressPercent(Integer progressPercent) {
+        writeProperty("progressPercent", progressPercent);
+    }
+    public Integer getProgressPercent() {
+        return (Integer)readProperty("progressPercent");
+    }
+
+    public void setQueuedTimestamp(Timestamp queuedTimestamp) {
+        writeProperty("queuedTimestamp", queuedTimestamp);
+    }
+    public Timestamp getQueuedTimestamp() {
+        return (Timestamp)readProperty("queuedTimestamp");
+    }
+
+    public void setSpecificationClassName(String specificationClassName) {
+        writeProperty("specificationClassName", specificationClassName);
+    }
+    public String getSpecificationClassName() {
+        return (String)readProperty("specificationClassName");
+    }
+
+    public void setSpecificationJson(String specificationJson) {
+        writeProperty("specificationJson", specificationJson);
+    }
+    public String getSpecificationJson() {
+        return (String)readProperty("specificationJson");
+    }
+
+    public void setStartTimestamp(Timestamp startTimestamp) {
+        writeProperty("startTimestamp", startTimestamp);
+    }
+    public Timestamp getStartTimestamp() {
+        return (Timestamp)readProperty("startTimestamp");
+    }
+
+}
@@ -27,6 +27,7 @@ public abstract class _PkgVersion extends AbstractDataObject {
 
     public static final Property<Boolean> ACTIVE = Property.create("active", Boolean.class);
     public static final Property<Timestamp> CREATE_TIMESTAMP = Property.create("createTimestamp", Timestamp.class);
+    public static final Property<String> IMPORT_FINGERPRINT = Property.create("importFingerprint", String.class);
     public static final Property<Boolean> IS_LATEST = Property.create("isLatest", Boolean.class);
     public static final Property<String> MAJOR = Property.create("major", String.class);
     public static final Property<String> MICRO = Property.create("micro", String.class);
@@ -58,6 +59,13 @@ public abstract class _PkgVersion extends AbstractDataObject {
         return (Timestamp)readProperty("createTimestamp");
     }
 
+    public void setImportFingerprint(String importFingerprint) {
+        writeProperty("importFingerprint", importFingerprint);
+    }
+    public String getImportFingerprint() {
+        return (String)readProperty("importFingerprint");
+    }
+
     public void setIsLatest(Boolean isLatest) {
         writeProperty("isLatest", isLatest);
     }
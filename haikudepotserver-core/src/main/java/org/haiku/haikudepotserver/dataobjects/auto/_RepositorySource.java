@@ -24,6 +24,7 @@ public abstract class _RepositorySource extends AbstractDataObject {
     public static final Property<String> CODE = Property.create("code", String.class);
     public static final Property<String> FORCED_INTERNAL_BASE_URL = Property.create("forcedInternalBaseUrl", String.class);
     public static final Property<String> IDENTIFIER = Property.create("identifier", String.class);
+    public static final Property<String> LAST_IMPORT_HPKR_SHA256 = Property.create("lastImportHpkrSha256", String.class);
     public static final Property<Timestamp> LAST_IMPORT_TIMESTAMP = Property.create("lastImportTimestamp", Timestamp.class);
     public static final Property<Repository> REPOSITORY = Property.create("repository", Repository.class);
     public static final Property<List<RepositorySourceMirror>> REPOSITORY_SOURCE_MIRRORS = Property.create("repositorySourceMirrors", List.class);
@@ -56,6 +57,13 @@ public abstract class _RepositorySource extends AbstractDataObject {
         return (String)readProperty("identifier");
     }
 
+    public void setLastImportHpkrSha256(String lastImportHpkrSha256) {
+        writeProperty("lastImportHpkrSha256", lastImportHpkrSha256);
+    }
+    public String getLastImportHpkrSha256() {
+        return (String)readProperty("lastImportHpkrSha256");
+    }
+
     public void setLastImportTimestamp(Timestamp lastImportTimestamp) {
         writeProperty("lastImportTimestamp", lastImportTimestamp);
     }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.bitmap;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Iterator;
+
+/**
+ * <p>Optimizes PNG images within the JVM using the {@link PngEncoder}.  Unlike the &quot;optipng&quot;
+ * tool, this does not need to start a process or to write temporary files.  The service holds no state
+ * for an optimization and so many images are able to be optimized at the same time.</p>
+ */
+
+class JavaPngOptimizationServiceImpl implements PngOptimizationService {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(JavaPngOptimizationServiceImpl.class);
+
+    private final PngEncoder pngEncoder;
+
+    JavaPngOptimizationServiceImpl(int deflateLevel) {
+        this.pngEncoder = new PngEncoder(deflateLevel, EnumSet.allOf(PngEncoder.FilterStrategy.class));
+    }
+
+    public boolean identityOptimization() {
+        return false;
+    }
+
+    /**
+     * <p>If the image has more than eight bits for a sample then it is not able to be re-encoded without
+     * loss and so it is returned unchanged.  This is also the case if the image is in a colour space that
+     * the encoder does not support.  The input is also returned unchanged if the optimization
+     * would not make it smaller.</p>
+     */
+
+    @Override
+    public byte[] optimize(byte[] input) throws IOException {
+        Preconditions.checkArgument(null != input && 0 != input.length, "the input is not specified");
+
+        BufferedImage image = read(input);
+
+        for (int componentSize : image.getColorModel().getComponentSize()) {
+            if (componentSize > 8) {
+                LOGGER.debug("png has {} bit samples; will not optimize", componentSize);
+                return input;
+            }
+        }
+
+        if (!PngEncoder.isSupported(image)) {
+            LOGGER.debug("png has an unsupported colour model; will not optimize");
+            return input;
+        }
+
+        byte[] out = pngEncoder.encode(image);
+
+        if (out.length >= input.length) {
+            LOGGER.debug("png was not able to be optimized");
+            return input;
+        }
+
+        LOGGER.debug("png optimized by {}%", (out.length * 100 / input.length));
+        return out;
+    }
+
+    /**
+     * <p>The image is read through a memory cache so that the image library does not write a temporary
+     * file.</p>
+     */
+
+    private static BufferedImage read(byte[] input) throws IOException {
+        Iterator<ImageReader> imageReaders = ImageIO.getImageReadersByFormatName("png");
+
+        if (!imageReaders.hasNext()) {
+            throw new IllegalStateException("unable to find an image reader for png");
+        }
+
+        ImageReader imageReader = imageReaders.next();
+
+        try (ImageInputStream imageInputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(input))) {
+            imageReader.setInput(imageInputStream, true, true);
+            return imageReader.read(0);
+        }
+        finally {
+            imageReader.dispose();
+        }
+    }
+
+}
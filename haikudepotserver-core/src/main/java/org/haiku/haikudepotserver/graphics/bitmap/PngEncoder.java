@@ -0,0 +1,645 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.bitmap;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Writes images as compact PNG data.  The image is first analyzed to find the smallest colour type
+ * and bit depth that is able to represent it without loss; for example an image with few colours is written
+ * with a palette and an image with only grays is written as grayscale.  Each of the layouts that might suit
+ * the image is then compressed with each of the filter strategies and the smallest result is kept.</p>
+ *
+ * <p>Images in the sRGB colour space and gray images are supported; see {@link #isSupported(BufferedImage)}.</p>
+ *
+ * <p>Instances hold only configuration and so are able to be used from many threads at once.</p>
+ */
+
+final class PngEncoder {
+
+    private final static byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    private final static int COLOR_TYPE_GRAY = 0;
+    private final static int COLOR_TYPE_RGB = 2;
+    private final static int COLOR_TYPE_PALETTE = 3;
+    private final static int COLOR_TYPE_GRAY_ALPHA = 4;
+    private final static int COLOR_TYPE_RGBA = 6;
+
+    private final static int FILTER_NONE = 0;
+    private final static int FILTER_SUB = 1;
+    private final static int FILTER_UP = 2;
+    private final static int FILTER_AVERAGE = 3;
+    private final static int FILTER_PAETH = 4;
+
+    private final static int PALETTE_SIZE_MAX = 256;
+
+    /**
+     * <p>The filter strategy decides which of the PNG filters is applied to each row before
+     * compression.  The adaptive strategy chooses the filter for each row that yields the smallest sum of
+     * absolute differences; a heuristic that is also used by libpng.</p>
+     */
+
+    enum FilterStrategy {
+        NONE(FILTER_NONE),
+        SUB(FILTER_SUB),
+        UP(FILTER_UP),
+        AVERAGE(FILTER_AVERAGE),
+        PAETH(FILTER_PAETH),
+        ADAPTIVE(-1);
+
+        private final int filter;
+
+        FilterStrategy(int filter) {
+            this.filter = filter;
+        }
+    }
+
+    private final int deflateLevel;
+
+    private final List<FilterStrategy> filterStrategies;
+
+    PngEncoder(int deflateLevel, Collection<FilterStrategy> filterStrategies) {
+        Preconditions.checkArgument(deflateLevel >= Deflater.NO_COMPRESSION && deflateLevel <= Deflater.BEST_COMPRESSION,
+                "bad deflate level; " + deflateLevel);
+        Preconditions.checkArgument(null != filterStrategies && !filterStrategies.isEmpty(),
+                "at least one filter strategy is required");
+        this.deflateLevel = deflateLevel;
+        this.filterStrategies = ImmutableList.copyOf(filterStrategies);
+    }
+
+    /**
+     * <p>Gray images are read by the image library into a linear gray colour space and so their pixels
+     * are not able to be obtained through {@link BufferedImage#getRGB(int, int)} without the levels being
+     * shifted.  For this reason the samples of a gray image are read directly from the raster.  Images in
+     * other colour spaces are not supported.</p>
+     */
+
+    static boolean isSupported(BufferedImage image) {
+        ColorModel colorModel = image.getColorModel();
+
+        if (colorModel.getColorSpace().isCS_sRGB()) {
+            return true;
+        }
+
+        return colorModel instanceof ComponentColorModel
+                && ColorSpace.TYPE_GRAY == colorModel.getColorSpace().getType()
+                && !colorModel.isAlphaPremultiplied()
+                && image.getRaster().getNumBands() == colorModel.getNumComponents();
+    }
+
+    byte[] encode(BufferedImage image) throws IOException {
+        Preconditions.checkArgument(null != image, "the image must be supplied");
+        Preconditions.checkArgument(isSupported(image), "the colour model of the image is not supported");
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = readArgb(image);
+        List<Layout> layouts = createLayouts(argb);
+        Deflater deflater = new Deflater(deflateLevel);
+        byte[] bestIdat = null;
+        Layout bestLayout = null;
+
+        try {
+            for (Layout layout : layouts) {
+                byte[][] rows = layout.createRows(argb, width, height);
+
+                for (FilterStrategy filterStrategy : filterStrategies) {
+                    byte[] idat = deflate(deflater, filter(rows, layout.getBytesPerPixel(), filterStrategy));
+
+                    if (null == bestIdat || idat.length < bestIdat.length) {
+                        bestIdat = idat;
+                        bestLayout = layout;
+                    }
+                }
+            }
+        }
+        finally {
+            deflater.end();
+        }
+
+        return write(bestLayout, width, height, bestIdat);
+    }
+
+    // ------------------------------
+    // ANALYSIS
+
+    private static int[] readArgb(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ColorModel colorModel = image.getColorModel();
+
+        if (colorModel.getColorSpace().isCS_sRGB()) {
+            return image.getRGB(0, 0, width, height, null, 0, width);
+        }
+
+        Raster raster = image.getRaster();
+        int[] grays = scale(raster.getSamples(0, 0, width, height, 0, (int[]) null), colorModel.getComponentSize(0));
+        int[] alphas = colorModel.hasAlpha()
+                ? scale(raster.getSamples(0, 0, width, height, 1, (int[]) null), colorModel.getComponentSize(1))
+                : null;
+        int[] result = new int[grays.length];
+
+        for (int i = 0; i < grays.length; i++) {
+            int alpha = null == alphas ? 0xff : alphas[i];
+            result[i] = (alpha << 24) | (grays[i] << 16) | (grays[i] << 8) | grays[i];
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>Scales the samples from the supplied bit depth up to eight bits.</p>
+     */
+
+    private static int[] scale(int[] samples, int bitDepth) {
+        if (8 != bitDepth) {
+            int max = (1 << bitDepth) - 1;
+
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (samples[i] * 0xff + max / 2) / max;
+            }
+        }
+
+        return samples;
+    }
+
+    /**
+     * <p>Pixels that are entirely transparent are made the same so that they are able to share a palette
+     * entry and compress well.  The colour of such a pixel is not visible.</p>
+     */
+
+    private static List<Layout> createLayouts(int[] argb) {
+        boolean opaque = true;
+        boolean gray = true;
+        Map<Integer, Integer> palette = new LinkedHashMap<>();
+
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = argb[i];
+            int alpha = pixel >>> 24;
+
+            if (0 == alpha) {
+                pixel = argb[i] = 0;
+            }
+
+            opaque &= 0xff == alpha;
+            gray &= ((pixel >> 16) & 0xff) == (pixel & 0xff) && ((pixel >> 8) & 0xff) == (pixel & 0xff);
+
+            if (palette.size() <= PALETTE_SIZE_MAX) {
+                palette.putIfAbsent(pixel, palette.size());
+            }
+        }
+
+        List<Layout> result = new ArrayList<>();
+
+        if (palette.size() <= PALETTE_SIZE_MAX) {
+            result.add(new PaletteLayout(palette.keySet()));
+        }
+
+        if (gray) {
+            result.add(opaque ? new GrayLayout(grayBitDepth(argb)) : new DirectLayout(COLOR_TYPE_GRAY_ALPHA));
+        }
+
+        if (result.isEmpty()) {
+            result.add(new DirectLayout(opaque ? COLOR_TYPE_RGB : COLOR_TYPE_RGBA));
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>Returns the smallest bit depth at which all of the gray levels are able to be stored exactly.</p>
+     */
+
+    private static int grayBitDepth(int[] argb) {
+        for (int bitDepth = 1; bitDepth < 8; bitDepth <<= 1) {
+            int step = 0xff / ((1 << bitDepth) - 1);
+            boolean fits = true;
+
+            for (int i = 0; i < argb.length && fits; i++) {
+                fits = 0 == (argb[i] & 0xff) % step;
+            }
+
+            if (fits) {
+                return bitDepth;
+            }
+        }
+
+        return 8;
+    }
+
+    private static int paletteBitDepth(int paletteSize) {
+        if (paletteSize <= 2) {
+            return 1;
+        }
+        if (paletteSize <= 4) {
+            return 2;
+        }
+        if (paletteSize <= 16) {
+            return 4;
+        }
+        return 8;
+    }
+
+    // ------------------------------
+    // FILTERING
+
+    private static byte[] filter(byte[][] rows, int bytesPerPixel, FilterStrategy filterStrategy) {
+        int rowLength = 0 == rows.length ? 0 : rows[0].length;
+        byte[] result = new byte[rows.length * (rowLength + 1)];
+        byte[] previousRow = new byte[rowLength];
+        byte[] candidate = new byte[rowLength];
+
+        for (int y = 0; y < rows.length; y++) {
+            int offset = y * (rowLength + 1);
+            int filter = filterStrategy.filter;
+
+            if (FilterStrategy.ADAPTIVE == filterStrategy) {
+                long bestSum = Long.MAX_VALUE;
+
+                for (int f = FILTER_NONE; f <= FILTER_PAETH; f++) {
+                    filterRow(f, rows[y], previousRow, bytesPerPixel, candidate, 0);
+                    long sum = sumAbsolute(candidate);
+
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        filter = f;
+                    }
+                }
+            }
+
+            result[offset] = (byte) filter;
+            filterRow(filter, rows[y], previousRow, bytesPerPixel, result, offset + 1);
+            previousRow = rows[y];
+        }
+
+        return result;
+    }
+
+    private static long sumAbsolute(byte[] data) {
+        long result = 0;
+
+        for (byte b : data) {
+            result += Math.abs((int) b);
+        }
+
+        return result;
+    }
+
+    private static void filterRow(
+            int filter, byte[] row, byte[] previousRow, int bytesPerPixel, byte[] out, int outOffset) {
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xff;
+            int a = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xff : 0;
+            int b = previousRow[i] & 0xff;
+            int c = i >= bytesPerPixel ? previousRow[i - bytesPerPixel] & 0xff : 0;
+            int predictor;
+
+            switch (filter) {
+                case FILTER_NONE:
+                    predictor = 0;
+                    break;
+                case FILTER_SUB:
+                    predictor = a;
+                    break;
+                case FILTER_UP:
+                    predictor = b;
+                    break;
+                case FILTER_AVERAGE:
+                    predictor = (a + b) >>> 1;
+                    break;
+                case FILTER_PAETH:
+                    predictor = paeth(a, b, c);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown filter; " + filter);
+            }
+
+            out[outOffset + i] = (byte) (x - predictor);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+
+        return pb <= pc ? b : c;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] buffer = new byte[64 * 1024];
+
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            outputStream.write(buffer, 0, length);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    // ------------------------------
+    // WRITING
+
+    private static byte[] write(Layout layout, int width, int height, byte[] idat) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(idat.length + 1024);
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+
+        dataOutputStream.write(SIGNATURE);
+
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        DataOutputStream ihdrDataOutputStream = new DataOutputStream(ihdr);
+        ihdrDataOutputStream.writeInt(width);
+        ihdrDataOutputStream.writeInt(height);
+        ihdrDataOutputStream.writeByte(layout.getBitDepth());
+        ihdrDataOutputStream.writeByte(layout.getColorType());
+        ihdrDataOutputStream.writeByte(0); // compression method
+        ihdrDataOutputStream.writeByte(0); // filter method
+        ihdrDataOutputStream.writeByte(0); // no interlace
+        writeChunk(dataOutputStream, "IHDR", ihdr.toByteArray());
+
+        layout.writeAncillaryChunks(dataOutputStream);
+
+        writeChunk(dataOutputStream, "IDAT", idat);
+        writeChunk(dataOutputStream, "IEND", new byte[0]);
+        dataOutputStream.flush();
+
+        return outputStream.toByteArray();
+    }
+
+    private static void writeChunk(DataOutputStream outputStream, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(Charsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        outputStream.writeInt(data.length);
+        outputStream.write(typeBytes);
+        outputStream.write(data);
+        outputStream.writeInt((int) crc.getValue());
+    }
+
+    // ------------------------------
+    // LAYOUTS
+
+    /**
+     * <p>A layout is a combination of colour type and bit depth together with the logic to convert the
+     * pixels of the image into rows of PNG sample data.</p>
+     */
+
+    private static abstract class Layout {
+
+        abstract int getColorType();
+
+        abstract int getBitDepth();
+
+        /**
+         * <p>The filters operate on whole bytes; for bit depths less than eight this is one.</p>
+         */
+
+        abstract int getBytesPerPixel();
+
+        abstract byte[][] createRows(int[] argb, int width, int height);
+
+        void writeAncillaryChunks(DataOutputStream outputStream) throws IOException {
+        }
+
+        static byte[][] packRows(int[] samples, int width, int height, int bitDepth) {
+            byte[][] rows = new byte[height][(width * bitDepth + 7) / 8];
+
+            for (int y = 0; y < height; y++) {
+                byte[] row = rows[y];
+
+                for (int x = 0; x < width; x++) {
+                    int bitOffset = x * bitDepth;
+                    int shift = 8 - bitDepth - (bitOffset % 8);
+                    row[bitOffset / 8] |= (byte) (samples[y * width + x] << shift);
+                }
+            }
+
+            return rows;
+        }
+
+    }
+
+    private static class PaletteLayout extends Layout {
+
+        private final int[] palette;
+
+        private final int bitDepth;
+
+        /**
+         * <p>The colours with transparency are placed first in the palette so that the transparency chunk
+         * is as short as possible.</p>
+         */
+
+        PaletteLayout(Collection<Integer> colors) {
+            List<Integer> ordered = new ArrayList<>(colors);
+            ordered.sort((c1, c2) -> Boolean.compare((c1 >>> 24) == 0xff, (c2 >>> 24) == 0xff));
+            palette = ordered.stream().mapToInt(Integer::intValue).toArray();
+            bitDepth = paletteBitDepth(palette.length);
+        }
+
+        @Override
+        int getColorType() {
+            return COLOR_TYPE_PALETTE;
+        }
+
+        @Override
+        int getBitDepth() {
+            return bitDepth;
+        }
+
+        @Override
+        int getBytesPerPixel() {
+            return 1;
+        }
+
+        @Override
+        byte[][] createRows(int[] argb, int width, int height) {
+            Map<Integer, Integer> indexes = new LinkedHashMap<>();
+
+            for (int i = 0; i < palette.length; i++) {
+                indexes.put(palette[i], i);
+            }
+
+            int[] samples = new int[argb.length];
+
+            for (int i = 0; i < argb.length; i++) {
+                samples[i] = indexes.get(argb[i]);
+            }
+
+            return packRows(samples, width, height, bitDepth);
+        }
+
+        @Override
+        void writeAncillaryChunks(DataOutputStream outputStream) throws IOException {
+            byte[] plte = new byte[palette.length * 3];
+            int transparentCount = 0;
+
+            for (int i = 0; i < palette.length; i++) {
+                plte[i * 3] = (byte) (palette[i] >> 16);
+                plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+                plte[i * 3 + 2] = (byte) palette[i];
+
+                if ((palette[i] >>> 24) != 0xff) {
+                    transparentCount = i + 1;
+                }
+            }
+
+            writeChunk(outputStream, "PLTE", plte);
+
+            if (0 != transparentCount) {
+                byte[] trns = new byte[transparentCount];
+
+                for (int i = 0; i < transparentCount; i++) {
+                    trns[i] = (byte) (palette[i] >>> 24);
+                }
+
+                writeChunk(outputStream, "tRNS", trns);
+            }
+        }
+
+    }
+
+    private static class GrayLayout extends Layout {
+
+        private final int bitDepth;
+
+        GrayLayout(int bitDepth) {
+            this.bitDepth = bitDepth;
+        }
+
+        @Override
+        int getColorType() {
+            return COLOR_TYPE_GRAY;
+        }
+
+        @Override
+        int getBitDepth() {
+            return bitDepth;
+        }
+
+        @Override
+        int getBytesPerPixel() {
+            return 1;
+        }
+
+        @Override
+        byte[][] createRows(int[] argb, int width, int height) {
+            int step = 0xff / ((1 << bitDepth) - 1);
+            int[] samples = new int[argb.length];
+
+            for (int i = 0; i < argb.length; i++) {
+                samples[i] = (argb[i] & 0xff) / step;
+            }
+
+            return packRows(samples, width, height, bitDepth);
+        }
+
+    }
+
+    /**
+     * <p>Stores eight bit samples for each channel directly.</p>
+     */
+
+    private static class DirectLayout extends Layout {
+
+        private final int colorType;
+
+        DirectLayout(int colorType) {
+            this.colorType = colorType;
+        }
+
+        @Override
+        int getColorType() {
+            return colorType;
+        }
+
+        @Override
+        int getBitDepth() {
+            return 8;
+        }
+
+        @Override
+        int getBytesPerPixel() {
+            switch (colorType) {
+                case COLOR_TYPE_GRAY_ALPHA:
+                    return 2;
+                case COLOR_TYPE_RGB:
+                    return 3;
+                case COLOR_TYPE_RGBA:
+                    return 4;
+                default:
+                    throw new IllegalStateException("unsupported colour type; " + colorType);
+            }
+        }
+
+        @Override
+        byte[][] createRows(int[] argb, int width, int height) {
+            int bytesPerPixel = getBytesPerPixel();
+            byte[][] rows = new byte[height][width * bytesPerPixel];
+
+            for (int y = 0; y < height; y++) {
+                byte[] row = rows[y];
+
+                for (int x = 0; x < width; x++) {
+                    int pixel = argb[y * width + x];
+                    int offset = x * bytesPerPixel;
+
+                    switch (colorType) {
+                        case COLOR_TYPE_GRAY_ALPHA:
+                            row[offset] = (byte) pixel;
+                            row[offset + 1] = (byte) (pixel >>> 24);
+                            break;
+                        case COLOR_TYPE_RGB:
+                            row[offset] = (byte) (pixel >> 16);
+                            row[offset + 1] = (byte) (pixel >> 8);
+                            row[offset + 2] = (byte) pixel;
+                            break;
+                        default:
+                            row[offset] = (byte) (pixel >> 16);
+                            row[offset + 1] = (byte) (pixel >> 8);
+                            row[offset + 2] = (byte) pixel;
+                            row[offset + 3] = (byte) (pixel >>> 24);
+                            break;
+                    }
+                }
+            }
+
+            return rows;
+        }
+
+    }
+
+}
@@ -1,19 +1,19 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.haikudepotserver.graphics.bitmap;
 
-import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.FactoryBean;
-import org.springframework.beans.factory.annotation.Value;
 
 /**
- * <p>This will create a PNG optimization service based on the configuration.</p>
+ * <p>This will create a PNG optimization service based on the configuration.  If the path to the
+ * &quot;optipng&quot; tool is configured then the tool is used.  Otherwise the PNG images are optimized
+ * within the JVM unless this has been disabled.</p>
  */
 
 public class PngOptimizationServiceFactory implements FactoryBean<PngOptimizationService> {
@@ -22,8 +22,14 @@ public class PngOptimizationServiceFactory implements FactoryBean<PngOptimizatio
 
     private final String optiPngPath;
 
-    public PngOptimizationServiceFactory(String optiPngPath) {
+    private final boolean enabled;
+
+    private final int deflateLevel;
+
+    public PngOptimizationServiceFactory(String optiPngPath, boolean enabled, int deflateLevel) {
         this.optiPngPath = optiPngPath;
+        this.enabled = enabled;
+        this.deflateLevel = deflateLevel;
     }
 
     @Override
@@ -33,6 +39,11 @@ public class PngOptimizationServiceFactory implements FactoryBean<PngOptimizatio
             return new OptipngPngOptimizationServiceImpl(optiPngPath);
         }
 
+        if (enabled) {
+            LOGGER.info("will use java png optimization; deflate level {}", deflateLevel);
+            return new JavaPngOptimizationServiceImpl(deflateLevel);
+        }
+
         LOGGER.info("will no-op png optimization");
         return new NoOpPngOptimizationServiceImpl();
     }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.hvif;
+
+import com.google.common.base.Preconditions;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.List;
+
+/**
+ * <p>The gradients in HVIF are not all able to be expressed with the paints that are supplied with Java2D
+ * and so this paint implements all of the gradient types.  Each device pixel is mapped back into the
+ * gradient's own space where the gradient function yields a position into a table of colours.  As with
+ * Haiku's renderer, the colour is padded beyond the ends of the gradient.</p>
+ */
+
+final class HvifGradientPaint implements Paint {
+
+    private final static int SIZE_COLOR_TABLE = 256;
+
+    private final HvifIcon.GradientType type;
+
+    /**
+     * <p>Maps from the gradient's space into device space.</p>
+     */
+
+    private final AffineTransform transform;
+
+    private final int[] colorTable;
+
+    HvifGradientPaint(HvifIcon.GradientStyle style, AffineTransform transform) {
+        Preconditions.checkNotNull(style);
+        this.type = style.getType();
+        this.transform = new AffineTransform(Preconditions.checkNotNull(transform));
+        this.colorTable = createColorTable(style.getStops());
+    }
+
+    private static int interpolate(int argb0, int argb1, float fraction) {
+        int result = 0;
+
+        for (int shift = 0; shift <= 24; shift += 8) {
+            int c0 = (argb0 >>> shift) & 0xff;
+            int c1 = (argb1 >>> shift) & 0xff;
+            result |= (Math.round(c0 + (c1 - c0) * fraction) & 0xff) << shift;
+        }
+
+        return result;
+    }
+
+    private static int[] createColorTable(List<HvifIcon.GradientStop> stops) {
+        int[] result = new int[SIZE_COLOR_TABLE];
+
+        if (stops.isEmpty()) {
+            return result;
+        }
+
+        for (int i = 0; i < SIZE_COLOR_TABLE; i++) {
+            float offset = (float) i / (SIZE_COLOR_TABLE - 1);
+            HvifIcon.GradientStop first = stops.get(0);
+            HvifIcon.GradientStop last = stops.get(stops.size() - 1);
+
+            if (offset <= first.getOffset()) {
+                result[i] = first.getArgb();
+            }
+            else if (offset >= last.getOffset()) {
+                result[i] = last.getArgb();
+            }
+            else {
+                for (int s = 1; s < stops.size(); s++) {
+                    HvifIcon.GradientStop stop0 = stops.get(s - 1);
+                    HvifIcon.GradientStop stop1 = stops.get(s);
+
+                    if (offset <= stop1.getOffset()) {
+                        float span = stop1.getOffset() - stop0.getOffset();
+                        float fraction = span <= 0f ? 1f : (offset - stop0.getOffset()) / span;
+                        result[i] = interpolate(stop0.getArgb(), stop1.getArgb(), fraction);
+                        break;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>Returns a position in the colour table for a point in the gradient's space.  The linear gradient
+     * runs from -64 to 64 and the others from 0 to 64.</p>
+     */
+
+    private int colorTableIndex(double x, double y) {
+        double value;
+        double min = 0.0;
+        double max = HvifIcon.SIZE_CANVAS;
+
+        switch (type) {
+            case LINEAR:
+                value = x;
+                min = -HvifIcon.SIZE_CANVAS;
+                break;
+
+            case CIRCULAR:
+                value = Math.sqrt(x * x + y * y);
+                break;
+
+            case DIAMOND:
+                value = Math.max(Math.abs(x), Math.abs(y));
+                break;
+
+            case CONIC:
+                value = Math.abs(Math.atan2(y, x)) * HvifIcon.SIZE_CANVAS / Math.PI;
+                break;
+
+            case XY:
+                value = Math.abs(x) * Math.abs(y) / HvifIcon.SIZE_CANVAS;
+                break;
+
+            case SQRT_XY:
+                value = Math.sqrt(Math.abs(x) * Math.abs(y));
+                break;
+
+            default:
+                throw new IllegalStateException("unknown gradient type; " + type);
+        }
+
+        int index = (int) ((value - min) * (SIZE_COLOR_TABLE - 1) / (max - min));
+        return Math.max(0, Math.min(SIZE_COLOR_TABLE - 1, index));
+    }
+
+    @Override
+    public PaintContext createContext(
+            ColorModel cm,
+            Rectangle deviceBounds,
+            Rectangle2D userBounds,
+            AffineTransform xform,
+            RenderingHints hints) {
+        AffineTransform deviceToGradient;
+
+        try {
+            AffineTransform gradientToDevice = new AffineTransform(xform);
+            gradientToDevice.concatenate(transform);
+            deviceToGradient = gradientToDevice.createInverse();
+        }
+        catch (NoninvertibleTransformException nte) {
+            deviceToGradient = null;
+        }
+
+        return new GradientPaintContext(deviceToGradient);
+    }
+
+    /**
+     * <p>Gradients may have transparent stops.</p>
+     */
+
+    @Override
+    public int getTransparency() {
+        return TRANSLUCENT;
+    }
+
+    private class GradientPaintContext implements PaintContext {
+
+        /**
+         * <p>If the gradient's transform is degenerate then this is null and the first colour is used.</p>
+         */
+
+        private final AffineTransform deviceToGradient;
+
+        GradientPaintContext(AffineTransform deviceToGradient) {
+            this.deviceToGradient = deviceToGradient;
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return ColorModel.getRGBdefault();
+        }
+
+        @Override
+        public Raster getRaster(int x, int y, int w, int h) {
+            WritableRaster raster = getColorModel().createCompatibleWritableRaster(w, h);
+            int[] pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            double[] point = new double[2];
+
+            for (int j = 0; j < h; j++) {
+                for (int i = 0; i < w; i++) {
+                    int argb;
+
+                    if (null == deviceToGradient) {
+                        argb = colorTable[0];
+                    }
+                    else {
+                        point[0] = x + i + 0.5;
+                        point[1] = y + j + 0.5;
+                        deviceToGradient.transform(point, 0, point, 0, 1);
+                        argb = colorTable[colorTableIndex(point[0], point[1])];
+                    }
+
+                    pixels[j * scanlineStride + i] = argb;
+                }
+            }
+
+            return raster;
+        }
+
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.hvif;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.awt.geom.AffineTransform;
+import java.util.List;
+
+/**
+ * <p>This is the parsed form of a Haiku Vector Icon Format (HVIF) icon.  An icon consists of styles, paths
+ * and shapes; each shape brings together one style with a number of paths.  The coordinates are in a space
+ * that is 64 units on each side.  Instances are immutable and so are able to be shared between
+ * threads.</p>
+ */
+
+final class HvifIcon {
+
+    /**
+     * <p>The size of the coordinate space of the icon.</p>
+     */
+
+    final static int SIZE_CANVAS = 64;
+
+    private final List<Style> styles;
+    private final List<Path> paths;
+    private final List<Shape> shapes;
+
+    HvifIcon(List<Style> styles, List<Path> paths, List<Shape> shapes) {
+        this.styles = ImmutableList.copyOf(styles);
+        this.paths = ImmutableList.copyOf(paths);
+        this.shapes = ImmutableList.copyOf(shapes);
+    }
+
+    List<Style> getStyles() {
+        return styles;
+    }
+
+    List<Path> getPaths() {
+        return paths;
+    }
+
+    List<Shape> getShapes() {
+        return shapes;
+    }
+
+    // ------------------------------
+    // STYLES
+
+    interface Style {
+    }
+
+    static final class SolidStyle implements Style {
+
+        private final int argb;
+
+        SolidStyle(int argb) {
+            this.argb = argb;
+        }
+
+        int getArgb() {
+            return argb;
+        }
+
+    }
+
+    enum GradientType {
+        LINEAR,
+        CIRCULAR,
+        DIAMOND,
+        CONIC,
+        XY,
+        SQRT_XY
+    }
+
+    static final class GradientStop {
+
+        private final float offset;
+        private final int argb;
+
+        GradientStop(float offset, int argb) {
+            this.offset = offset;
+            this.argb = argb;
+        }
+
+        float getOffset() {
+            return offset;
+        }
+
+        int getArgb() {
+            return argb;
+        }
+
+    }
+
+    /**
+     * <p>The gradient's transform maps from the gradient's own space into the space of the shape.</p>
+     */
+
+    static final class GradientStyle implements Style {
+
+        private final GradientType type;
+        private final AffineTransform transform;
+        private final List<GradientStop> stops;
+
+        GradientStyle(GradientType type, AffineTransform transform, List<GradientStop> stops) {
+            this.type = Preconditions.checkNotNull(type);
+            this.transform = new AffineTransform(Preconditions.checkNotNull(transform));
+            this.stops = ImmutableList.copyOf(stops);
+        }
+
+        GradientType getType() {
+            return type;
+        }
+
+        AffineTransform getTransform() {
+            return new AffineTransform(transform);
+        }
+
+        List<GradientStop> getStops() {
+            return stops;
+        }
+
+    }
+
+    // ------------------------------
+    // PATHS
+
+    /**
+     * <p>Each point on a path has control points for the curve coming into the point and for the curve going
+     * out of the point.  Where the segment between two points is a straight line, the control points are the
+     * same as the point.  The coordinates are stored as x, y pairs.</p>
+     */
+
+    static final class Path {
+
+        private final boolean closed;
+        private final float[] points;
+        private final float[] pointsIn;
+        private final float[] pointsOut;
+
+        Path(boolean closed, float[] points, float[] pointsIn, float[] pointsOut) {
+            Preconditions.checkArgument(points.length == pointsIn.length && points.length == pointsOut.length);
+            this.closed = closed;
+            this.points = points.clone();
+            this.pointsIn = pointsIn.clone();
+            this.pointsOut = pointsOut.clone();
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        int getPointCount() {
+            return points.length / 2;
+        }
+
+        float getX(int i) {
+            return points[i * 2];
+        }
+
+        float getY(int i) {
+            return points[i * 2 + 1];
+        }
+
+        float getInX(int i) {
+            return pointsIn[i * 2];
+        }
+
+        float getInY(int i) {
+            return pointsIn[i * 2 + 1];
+        }
+
+        float getOutX(int i) {
+            return pointsOut[i * 2];
+        }
+
+        float getOutY(int i) {
+            return pointsOut[i * 2 + 1];
+        }
+
+    }
+
+    // ------------------------------
+    // TRANSFORMERS
+
+    interface Transformer {
+    }
+
+    static final class AffineTransformer implements Transformer {
+
+        private final AffineTransform transform;
+
+        AffineTransformer(AffineTransform transform) {
+            this.transform = new AffineTransform(transform);
+        }
+
+        AffineTransform getTransform() {
+            return new AffineTransform(transform);
+        }
+
+    }
+
+    /**
+     * <p>Grows the outline of the shape by the width or shrinks it if the width is negative.</p>
+     */
+
+    static final class ContourTransformer implements Transformer {
+
+        private final float width;
+        private final int lineJoin;
+        private final float miterLimit;
+
+        ContourTransformer(float width, int lineJoin, float miterLimit) {
+            this.width = width;
+            this.lineJoin = lineJoin;
+            this.miterLimit = miterLimit;
+        }
+
+        float getWidth() {
+            return width;
+        }
+
+        int getLineJoin() {
+            return lineJoin;
+        }
+
+        float getMiterLimit() {
+            return miterLimit;
+        }
+
+    }
+
+    static final class StrokeTransformer implements Transformer {
+
+        private final float width;
+        private final int lineJoin;
+        private final int lineCap;
+        private final float miterLimit;
+
+        StrokeTransformer(float width, int lineJoin, int lineCap, float miterLimit) {
+            this.width = width;
+            this.lineJoin = lineJoin;
+            this.lineCap = lineCap;
+            this.miterLimit = miterLimit;
+        }
+
+        float getWidth() {
+            return width;
+        }
+
+        int getLineJoin() {
+            return lineJoin;
+        }
+
+        int getLineCap() {
+            return lineCap;
+        }
+
+        float getMiterLimit() {
+            return miterLimit;
+        }
+
+    }
+
+    // ------------------------------
+    // SHAPES
+
+    static final class Shape {
+
+        private final int styleIndex;
+        private final int[] pathIndexes;
+        private final AffineTransform transform;
+        private final boolean hinting;
+        private final float minVisibilityScale;
+        private final float maxVisibilityScale;
+        private final List<Transformer> transformers;
+
+        Shape(
+                int styleIndex,
+                int[] pathIndexes,
+                AffineTransform transform,
+                boolean hinting,
+                float minVisibilityScale,
+                float maxVisibilityScale,
+                List<Transformer> transformers) {
+            this.styleIndex = styleIndex;
+            this.pathIndexes = pathIndexes.clone();
+            this.transform = new AffineTransform(Preconditions.checkNotNull(transform));
+            this.hinting = hinting;
+            this.minVisibilityScale = minVisibilityScale;
+            this.maxVisibilityScale = maxVisibilityScale;
+            this.transformers = ImmutableList.copyOf(transformers);
+        }
+
+        int getStyleIndex() {
+            return styleIndex;
+        }
+
+        int[] getPathIndexes() {
+            return pathIndexes.clone();
+        }
+
+        AffineTransform getTransform() {
+            return new AffineTransform(transform);
+        }
+
+        boolean isHinting() {
+            return hinting;
+        }
+
+        List<Transformer> getTransformers() {
+            return transformers;
+        }
+
+        /**
+         * <p>Some shapes are only drawn when the icon is rendered within a range of scales; this allows for
+         * more detail to be shown on larger renderings.  A maximum of 4 means that there is no maximum.</p>
+         */
+
+        boolean isVisible(double scale) {
+            return scale >= minVisibilityScale && (maxVisibilityScale >= 4f || scale < maxVisibilityScale);
+        }
+
+    }
+
+}
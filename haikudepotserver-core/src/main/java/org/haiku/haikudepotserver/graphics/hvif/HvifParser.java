@@ -0,0 +1,419 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.hvif;
+
+import com.google.common.base.Preconditions;
+
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <p>Parses the binary Haiku Vector Icon Format (HVIF) data into an {@link HvifIcon}.  This follows the
+ * &quot;FlatIconImporter&quot; in the Haiku source code.  The parser holds the position in the data and so
+ * an instance should only be used for one parse.</p>
+ */
+
+final class HvifParser {
+
+    private final static int[] MAGIC = { 'n', 'c', 'i', 'f' };
+
+    private final static int STYLE_TYPE_SOLID_COLOR = 1;
+    private final static int STYLE_TYPE_GRADIENT = 2;
+    private final static int STYLE_TYPE_SOLID_COLOR_NO_ALPHA = 3;
+    private final static int STYLE_TYPE_SOLID_GRAY = 4;
+    private final static int STYLE_TYPE_SOLID_GRAY_NO_ALPHA = 5;
+
+    private final static int GRADIENT_FLAG_TRANSFORM = 1 << 1;
+    private final static int GRADIENT_FLAG_NO_ALPHA = 1 << 2;
+    private final static int GRADIENT_FLAG_GRAYS = 1 << 4;
+
+    private final static int PATH_FLAG_CLOSED = 1 << 1;
+    private final static int PATH_FLAG_USES_COMMANDS = 1 << 2;
+    private final static int PATH_FLAG_NO_CURVES = 1 << 3;
+
+    private final static int PATH_COMMAND_H_LINE = 0;
+    private final static int PATH_COMMAND_V_LINE = 1;
+    private final static int PATH_COMMAND_LINE = 2;
+    private final static int PATH_COMMAND_CURVE = 3;
+
+    private final static int SHAPE_TYPE_PATH_SOURCE = 10;
+
+    private final static int SHAPE_FLAG_TRANSFORM = 1 << 1;
+    private final static int SHAPE_FLAG_HINTING = 1 << 2;
+    private final static int SHAPE_FLAG_LOD_SCALE = 1 << 3;
+    private final static int SHAPE_FLAG_HAS_TRANSFORMERS = 1 << 4;
+    private final static int SHAPE_FLAG_TRANSLATION = 1 << 5;
+
+    private final static int TRANSFORMER_TYPE_AFFINE = 20;
+    private final static int TRANSFORMER_TYPE_CONTOUR = 21;
+    private final static int TRANSFORMER_TYPE_PERSPECTIVE = 22;
+    private final static int TRANSFORMER_TYPE_STROKE = 23;
+
+    private final byte[] data;
+
+    private int offset = 0;
+
+    HvifParser(byte[] data) {
+        this.data = Preconditions.checkNotNull(data);
+    }
+
+    HvifIcon parse() throws IOException {
+        for (int magicByte : MAGIC) {
+            if (readUint8() != magicByte) {
+                throw new IOException("the data does not start with the hvif magic");
+            }
+        }
+
+        List<HvifIcon.Style> styles = new ArrayList<>();
+        List<HvifIcon.Path> paths = new ArrayList<>();
+        List<HvifIcon.Shape> shapes = new ArrayList<>();
+
+        for (int i = readUint8(); i > 0; i--) {
+            styles.add(readStyle());
+        }
+
+        for (int i = readUint8(); i > 0; i--) {
+            paths.add(readPath());
+        }
+
+        for (int i = readUint8(); i > 0; i--) {
+            shapes.add(readShape(styles.size(), paths.size()));
+        }
+
+        return new HvifIcon(styles, paths, shapes);
+    }
+
+    // ------------------------------
+    // PRIMITIVES
+
+    private int readUint8() throws IOException {
+        if (offset >= data.length) {
+            throw new IOException("unexpected end of the hvif data at " + offset);
+        }
+
+        return 0xff & data[offset++];
+    }
+
+    /**
+     * <p>A coordinate is stored in one byte for whole numbers in the range -32 to 95 and otherwise in two
+     * bytes with a finer resolution and a greater range.</p>
+     */
+
+    private float readCoord() throws IOException {
+        int value = readUint8();
+
+        if (0 != (value & 0x80)) {
+            int coordValue = ((value & 0x7f) << 8) | readUint8();
+            return coordValue / 102f - 128f;
+        }
+
+        return value - 32f;
+    }
+
+    /**
+     * <p>This is a 24 bit floating point number with one sign bit, six exponent bits and seventeen mantissa
+     * bits.  The value is converted into an IEEE 754 single precision number.</p>
+     */
+
+    private float readFloat24() throws IOException {
+        int value = (readUint8() << 16) | (readUint8() << 8) | readUint8();
+
+        if (0 == value) {
+            return 0f;
+        }
+
+        int sign = (value & 0x800000) >> 23;
+        int exponent = ((value & 0x7e0000) >> 17) - 32;
+        int mantissa = (value & 0x01ffff) << 6;
+
+        return Float.intBitsToFloat((sign << 31) | ((exponent + 127) << 23) | mantissa);
+    }
+
+    /**
+     * <p>The matrix is stored in the order; scale x, shear y, shear x, scale y, translate x and translate y.
+     * This is the same order as is used by the {@link AffineTransform} constructor.</p>
+     */
+
+    private AffineTransform readTransform() throws IOException {
+        float[] matrix = new float[6];
+
+        for (int i = 0; i < matrix.length; i++) {
+            matrix[i] = readFloat24();
+        }
+
+        return new AffineTransform(matrix);
+    }
+
+    private static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    // ------------------------------
+    // STYLES
+
+    private HvifIcon.Style readStyle() throws IOException {
+        int styleType = readUint8();
+
+        switch (styleType) {
+            case STYLE_TYPE_SOLID_COLOR: {
+                int red = readUint8();
+                int green = readUint8();
+                int blue = readUint8();
+                return new HvifIcon.SolidStyle(argb(readUint8(), red, green, blue));
+            }
+
+            case STYLE_TYPE_SOLID_COLOR_NO_ALPHA:
+                return new HvifIcon.SolidStyle(argb(0xff, readUint8(), readUint8(), readUint8()));
+
+            case STYLE_TYPE_SOLID_GRAY: {
+                int gray = readUint8();
+                return new HvifIcon.SolidStyle(argb(readUint8(), gray, gray, gray));
+            }
+
+            case STYLE_TYPE_SOLID_GRAY_NO_ALPHA: {
+                int gray = readUint8();
+                return new HvifIcon.SolidStyle(argb(0xff, gray, gray, gray));
+            }
+
+            case STYLE_TYPE_GRADIENT:
+                return readGradient();
+
+            default:
+                throw new IOException("unknown hvif style type; " + styleType);
+        }
+    }
+
+    private HvifIcon.GradientStyle readGradient() throws IOException {
+        int gradientType = readUint8();
+        int gradientFlags = readUint8();
+        int stopCount = readUint8();
+
+        if (gradientType >= HvifIcon.GradientType.values().length) {
+            throw new IOException("unknown hvif gradient type; " + gradientType);
+        }
+
+        AffineTransform transform = 0 != (gradientFlags & GRADIENT_FLAG_TRANSFORM)
+                ? readTransform()
+                : new AffineTransform();
+        boolean alpha = 0 == (gradientFlags & GRADIENT_FLAG_NO_ALPHA);
+        boolean gray = 0 != (gradientFlags & GRADIENT_FLAG_GRAYS);
+        List<HvifIcon.GradientStop> stops = new ArrayList<>();
+
+        for (int i = 0; i < stopCount; i++) {
+            float stopOffset = readUint8() / 255f;
+            int red;
+            int green;
+            int blue;
+
+            if (gray) {
+                red = green = blue = readUint8();
+            }
+            else {
+                red = readUint8();
+                green = readUint8();
+                blue = readUint8();
+            }
+
+            int alphaValue = alpha ? readUint8() : 0xff;
+            stops.add(new HvifIcon.GradientStop(stopOffset, argb(alphaValue, red, green, blue)));
+        }
+
+        return new HvifIcon.GradientStyle(HvifIcon.GradientType.values()[gradientType], transform, stops);
+    }
+
+    // ------------------------------
+    // PATHS
+
+    private HvifIcon.Path readPath() throws IOException {
+        int pathFlags = readUint8();
+        boolean closed = 0 != (pathFlags & PATH_FLAG_CLOSED);
+
+        if (0 != (pathFlags & PATH_FLAG_USES_COMMANDS)) {
+            return readPathWithCommands(closed);
+        }
+
+        int pointCount = readUint8();
+        float[] points = new float[pointCount * 2];
+        float[] pointsIn = new float[pointCount * 2];
+        float[] pointsOut = new float[pointCount * 2];
+        boolean curves = 0 == (pathFlags & PATH_FLAG_NO_CURVES);
+
+        for (int i = 0; i < pointCount * 2; i += 2) {
+            points[i] = readCoord();
+            points[i + 1] = readCoord();
+
+            if (curves) {
+                pointsIn[i] = readCoord();
+                pointsIn[i + 1] = readCoord();
+                pointsOut[i] = readCoord();
+                pointsOut[i + 1] = readCoord();
+            }
+            else {
+                pointsIn[i] = pointsOut[i] = points[i];
+                pointsIn[i + 1] = pointsOut[i + 1] = points[i + 1];
+            }
+        }
+
+        return new HvifIcon.Path(closed, points, pointsIn, pointsOut);
+    }
+
+    /**
+     * <p>The commands are packed four to a byte with two bits each, starting from the low bits.  The
+     * commands for all of the points come before the coordinates.</p>
+     */
+
+    private HvifIcon.Path readPathWithCommands(boolean closed) throws IOException {
+        int pointCount = readUint8();
+        int[] commandBytes = new int[(pointCount + 3) / 4];
+
+        for (int i = 0; i < commandBytes.length; i++) {
+            commandBytes[i] = readUint8();
+        }
+
+        float[] points = new float[pointCount * 2];
+        float[] pointsIn = new float[pointCount * 2];
+        float[] pointsOut = new float[pointCount * 2];
+        float lastX = 0f;
+        float lastY = 0f;
+
+        for (int p = 0; p < pointCount; p++) {
+            int command = (commandBytes[p / 4] >> ((p % 4) * 2)) & 0x03;
+            int i = p * 2;
+
+            switch (command) {
+                case PATH_COMMAND_H_LINE:
+                    lastX = readCoord();
+                    break;
+
+                case PATH_COMMAND_V_LINE:
+                    lastY = readCoord();
+                    break;
+
+                case PATH_COMMAND_LINE:
+                    lastX = readCoord();
+                    lastY = readCoord();
+                    break;
+
+                case PATH_COMMAND_CURVE:
+                    lastX = readCoord();
+                    lastY = readCoord();
+                    points[i] = lastX;
+                    points[i + 1] = lastY;
+                    pointsIn[i] = readCoord();
+                    pointsIn[i + 1] = readCoord();
+                    pointsOut[i] = readCoord();
+                    pointsOut[i + 1] = readCoord();
+                    continue;
+            }
+
+            points[i] = pointsIn[i] = pointsOut[i] = lastX;
+            points[i + 1] = pointsIn[i + 1] = pointsOut[i + 1] = lastY;
+        }
+
+        return new HvifIcon.Path(closed, points, pointsIn, pointsOut);
+    }
+
+    // ------------------------------
+    // SHAPES
+
+    private HvifIcon.Shape readShape(int styleCount, int pathCount) throws IOException {
+        int shapeType = readUint8();
+
+        if (SHAPE_TYPE_PATH_SOURCE != shapeType) {
+            throw new IOException("unknown hvif shape type; " + shapeType);
+        }
+
+        int styleIndex = readUint8();
+
+        if (styleIndex >= styleCount) {
+            throw new IOException("the hvif shape references a missing style; " + styleIndex);
+        }
+
+        int[] pathIndexes = new int[readUint8()];
+
+        for (int i = 0; i < pathIndexes.length; i++) {
+            pathIndexes[i] = readUint8();
+
+            if (pathIndexes[i] >= pathCount) {
+                throw new IOException("the hvif shape references a missing path; " + pathIndexes[i]);
+            }
+        }
+
+        int shapeFlags = readUint8();
+        AffineTransform transform = new AffineTransform();
+        float minVisibilityScale = 0f;
+        float maxVisibilityScale = 4f;
+        List<HvifIcon.Transformer> transformers = new ArrayList<>();
+
+        if (0 != (shapeFlags & SHAPE_FLAG_TRANSFORM)) {
+            transform = readTransform();
+        }
+        else if (0 != (shapeFlags & SHAPE_FLAG_TRANSLATION)) {
+            float x = readCoord();
+            float y = readCoord();
+            transform = AffineTransform.getTranslateInstance(x, y);
+        }
+
+        if (0 != (shapeFlags & SHAPE_FLAG_LOD_SCALE)) {
+            minVisibilityScale = readUint8() / 63.75f;
+            maxVisibilityScale = readUint8() / 63.75f;
+        }
+
+        if (0 != (shapeFlags & SHAPE_FLAG_HAS_TRANSFORMERS)) {
+            for (int i = readUint8(); i > 0; i--) {
+                readTransformer().ifPresent(transformers::add);
+            }
+        }
+
+        return new HvifIcon.Shape(
+                styleIndex,
+                pathIndexes,
+                transform,
+                0 != (shapeFlags & SHAPE_FLAG_HINTING),
+                minVisibilityScale,
+                maxVisibilityScale,
+                transformers);
+    }
+
+    /**
+     * <p>The perspective transformer has no data and is not supported by Haiku's renderer either so it is
+     * skipped.</p>
+     */
+
+    private Optional<HvifIcon.Transformer> readTransformer() throws IOException {
+        int transformerType = readUint8();
+
+        switch (transformerType) {
+            case TRANSFORMER_TYPE_AFFINE:
+                return Optional.of(new HvifIcon.AffineTransformer(readTransform()));
+
+            case TRANSFORMER_TYPE_CONTOUR: {
+                float width = readUint8() - 128f;
+                int lineJoin = readUint8();
+                float miterLimit = readUint8();
+                return Optional.of(new HvifIcon.ContourTransformer(width, lineJoin, miterLimit));
+            }
+
+            case TRANSFORMER_TYPE_PERSPECTIVE:
+                return Optional.empty();
+
+            case TRANSFORMER_TYPE_STROKE: {
+                float width = readUint8() - 128f;
+                int lineOptions = readUint8();
+                float miterLimit = readUint8();
+                return Optional.of(new HvifIcon.StrokeTransformer(
+                        width, lineOptions & 0x0f, lineOptions >> 4, miterLimit));
+            }
+
+            default:
+                throw new IOException("unknown hvif transformer type; " + transformerType);
+        }
+    }
+
+}
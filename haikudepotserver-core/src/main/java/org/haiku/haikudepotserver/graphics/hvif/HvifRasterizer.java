@@ -0,0 +1,245 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.hvif;
+
+import com.google.common.base.Preconditions;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+
+/**
+ * <p>Draws an {@link HvifIcon} into a bitmap with anti-aliasing.  The shapes are drawn in order so that
+ * later shapes are painted over earlier ones.  Each rendering draws into a new image so this class is able
+ * to be used from many threads at once.</p>
+ */
+
+final class HvifRasterizer {
+
+    private HvifRasterizer() {
+    }
+
+    static BufferedImage render(HvifIcon icon, int size) {
+        Preconditions.checkNotNull(icon);
+        Preconditions.checkArgument(size > 0, "the size must be positive");
+
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+
+            double scale = (double) size / HvifIcon.SIZE_CANVAS;
+            AffineTransform globalTransform = AffineTransform.getScaleInstance(scale, scale);
+
+            for (HvifIcon.Shape shape : icon.getShapes()) {
+                if (shape.isVisible(scale)) {
+                    renderShape(graphics, icon, shape, globalTransform);
+                }
+            }
+        }
+        finally {
+            graphics.dispose();
+        }
+
+        return image;
+    }
+
+    private static void renderShape(
+            Graphics2D graphics,
+            HvifIcon icon,
+            HvifIcon.Shape shape,
+            AffineTransform globalTransform) {
+        AffineTransform shapeToDevice = new AffineTransform(globalTransform);
+        shapeToDevice.concatenate(shape.getTransform());
+
+        java.awt.Shape outline = createOutline(icon, shape);
+
+        for (HvifIcon.Transformer transformer : shape.getTransformers()) {
+            outline = applyTransformer(transformer, outline);
+        }
+
+        Path2D deviceOutline = new Path2D.Float(outline, shapeToDevice);
+
+        if (shape.isHinting()) {
+            deviceOutline = hint(deviceOutline);
+        }
+
+        HvifIcon.Style style = icon.getStyles().get(shape.getStyleIndex());
+
+        if (style instanceof HvifIcon.SolidStyle) {
+            graphics.setPaint(new Color(((HvifIcon.SolidStyle) style).getArgb(), true));
+        }
+        else if (style instanceof HvifIcon.GradientStyle) {
+            HvifIcon.GradientStyle gradientStyle = (HvifIcon.GradientStyle) style;
+            AffineTransform gradientToDevice = new AffineTransform(shapeToDevice);
+            gradientToDevice.concatenate(gradientStyle.getTransform());
+            graphics.setPaint(new HvifGradientPaint(gradientStyle, gradientToDevice));
+        }
+        else {
+            throw new IllegalStateException("unknown style; " + style.getClass().getSimpleName());
+        }
+
+        graphics.fill(deviceOutline);
+    }
+
+    /**
+     * <p>Each segment of a path is a cubic curve from a point, through the point's outgoing control point
+     * and the next point's incoming control point, to the next point.</p>
+     */
+
+    private static Path2D createOutline(HvifIcon icon, HvifIcon.Shape shape) {
+        Path2D result = new Path2D.Float(Path2D.WIND_NON_ZERO);
+
+        for (int pathIndex : shape.getPathIndexes()) {
+            HvifIcon.Path path = icon.getPaths().get(pathIndex);
+            int pointCount = path.getPointCount();
+
+            if (0 == pointCount) {
+                continue;
+            }
+
+            result.moveTo(path.getX(0), path.getY(0));
+
+            for (int i = 1; i < pointCount; i++) {
+                curveTo(result, path, i - 1, i);
+            }
+
+            if (path.isClosed()) {
+                curveTo(result, path, pointCount - 1, 0);
+                result.closePath();
+            }
+        }
+
+        return result;
+    }
+
+    private static void curveTo(Path2D result, HvifIcon.Path path, int from, int to) {
+        result.curveTo(
+                path.getOutX(from), path.getOutY(from),
+                path.getInX(to), path.getInY(to),
+                path.getX(to), path.getY(to));
+    }
+
+    private static java.awt.Shape applyTransformer(HvifIcon.Transformer transformer, java.awt.Shape outline) {
+        if (transformer instanceof HvifIcon.AffineTransformer) {
+            return new Path2D.Float(outline, ((HvifIcon.AffineTransformer) transformer).getTransform());
+        }
+
+        if (transformer instanceof HvifIcon.StrokeTransformer) {
+            HvifIcon.StrokeTransformer stroke = (HvifIcon.StrokeTransformer) transformer;
+            return new BasicStroke(
+                    Math.abs(stroke.getWidth()),
+                    mapLineCap(stroke.getLineCap()),
+                    mapLineJoin(stroke.getLineJoin()),
+                    Math.max(1f, stroke.getMiterLimit())).createStrokedShape(outline);
+        }
+
+        if (transformer instanceof HvifIcon.ContourTransformer) {
+            return applyContour((HvifIcon.ContourTransformer) transformer, outline);
+        }
+
+        throw new IllegalStateException("unknown transformer; " + transformer.getClass().getSimpleName());
+    }
+
+    /**
+     * <p>A contour moves the outline of the shape outwards or inwards by the width.  This is done by adding
+     * or removing a stroke along the outline that extends by the width on each side.</p>
+     */
+
+    private static java.awt.Shape applyContour(HvifIcon.ContourTransformer contour, java.awt.Shape outline) {
+        if (0f == contour.getWidth()) {
+            return outline;
+        }
+
+        Area result = new Area(outline);
+        Area border = new Area(new BasicStroke(
+                Math.abs(contour.getWidth()) * 2f,
+                BasicStroke.CAP_BUTT,
+                mapLineJoin(contour.getLineJoin()),
+                Math.max(1f, contour.getMiterLimit())).createStrokedShape(outline));
+
+        if (contour.getWidth() > 0f) {
+            result.add(border);
+        }
+        else {
+            result.subtract(border);
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>Hinting moves the points of the outline onto whole pixels so that edges which are horizontal or
+     * vertical appear sharp.</p>
+     */
+
+    private static Path2D hint(Path2D outline) {
+        Path2D result = new Path2D.Float(outline.getWindingRule());
+        float[] coords = new float[6];
+
+        for (PathIterator iterator = outline.getPathIterator(null); !iterator.isDone(); iterator.next()) {
+            int segmentType = iterator.currentSegment(coords);
+
+            for (int i = 0; i < coords.length; i++) {
+                coords[i] = Math.round(coords[i]);
+            }
+
+            switch (segmentType) {
+                case PathIterator.SEG_MOVETO:
+                    result.moveTo(coords[0], coords[1]);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    result.lineTo(coords[0], coords[1]);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    result.quadTo(coords[0], coords[1], coords[2], coords[3]);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    result.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    result.closePath();
+                    break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>The line join values are those of the AGG library that Haiku uses to render icons.</p>
+     */
+
+    private static int mapLineJoin(int lineJoin) {
+        switch (lineJoin) {
+            case 2:
+                return BasicStroke.JOIN_ROUND;
+            case 3:
+                return BasicStroke.JOIN_BEVEL;
+            default:
+                return BasicStroke.JOIN_MITER;
+        }
+    }
+
+    private static int mapLineCap(int lineCap) {
+        switch (lineCap) {
+            case 1:
+                return BasicStroke.CAP_SQUARE;
+            case 2:
+                return BasicStroke.CAP_ROUND;
+            default:
+                return BasicStroke.CAP_BUTT;
+        }
+    }
+
+}
@@ -1,11 +1,10 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.haikudepotserver.graphics.hvif;
 
-import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,7 +12,9 @@ import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.annotation.Value;
 
 /**
- * <p>Produces an HVIF rendering service depending on the configuration of the application server.</p>
+ * <p>Produces an HVIF rendering service depending on the configuration of the application server.  The
+ * icons are rendered within the JVM unless the path to the &quot;hvif2png&quot; tool has been configured
+ * in which case the tool is used instead; this may be useful to compare the output of the two.</p>
  */
 
 public class HvifRenderingServiceFactory implements FactoryBean<HvifRenderingService> {
@@ -35,8 +36,8 @@ public class HvifRenderingServiceFactory implements FactoryBean<HvifRenderingSer
             return new Hvif2PngHvifRenderingServiceImpl(hvif2pngPath);
         }
 
-        LOGGER.info("will fallback hvif rendering that produces generic images");
-        return new FallbackHvifRenderingServiceImpl();
+        LOGGER.info("will use java hvif rendering");
+        return new JavaHvifRenderingServiceImpl();
     }
 
     @Override
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.graphics.hvif;
+
+import com.google.common.base.Preconditions;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * <p>Renders the HVIF vector icon to PNG within the JVM.  Unlike the &quot;hvif2png&quot; tool, this does
+ * not need to start a process or to write temporary files.  The PNG data is encoded in memory.</p>
+ */
+
+class JavaHvifRenderingServiceImpl implements HvifRenderingService {
+
+    /**
+     * <p>This is a guard against requests that would allocate a very large image.</p>
+     */
+
+    private final static int SIZE_MAX = 1024;
+
+    @Override
+    public byte[] render(int size, byte[] input) throws IOException {
+        Preconditions.checkArgument(size > 0 && size <= SIZE_MAX, "bad size; " + size);
+        Preconditions.checkArgument(null != input, "the input must be supplied");
+
+        HvifIcon icon = new HvifParser(input).parse();
+        return encodePng(HvifRasterizer.render(icon, size));
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("png");
+
+        if (!imageWriters.hasNext()) {
+            throw new IllegalStateException("unable to find an image writer for png");
+        }
+
+        ImageWriter imageWriter = imageWriters.next();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream)) {
+            imageWriter.setOutput(imageOutputStream);
+            imageWriter.write(image);
+        }
+        finally {
+            imageWriter.dispose();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+}
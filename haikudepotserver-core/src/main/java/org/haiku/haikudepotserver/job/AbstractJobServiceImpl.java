@@ -0,0 +1,428 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Strings;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.AbstractService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.commons.lang3.StringUtils;
+import org.haiku.haikudepotserver.job.model.*;
+import org.haiku.haikudepotserver.support.DateTimeHelper;
+import org.haiku.haikudepotserver.support.SingleCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>This abstract superclass contains the logic that is shared between the implementations of
+ * {@link JobService}; finding the {@link JobRunner} for a job, running the jobs in lanes and
+ * deciding if a job can be coalesced with an existing job.</p>
+ */
+
+public abstract class AbstractJobServiceImpl
+        extends AbstractService
+        implements JobService, ApplicationContextAware {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(JobService.class);
+
+    private final static int SIZE_QUEUE = 10;
+
+    protected final static long TTL_DEFAULT = TimeUnit.HOURS.toMillis(2);
+
+    /**
+     * <p>This gets setup through an query into the {@link ApplicationContext}.
+     * </p>
+     */
+
+    private Collection<JobRunner> jobRunners;
+
+    private final List<JobLaneDefinition> laneDefinitions;
+
+    /**
+     * <p>This is optional; if it is present then metrics about the lanes will be registered.</p>
+     */
+
+    private final MetricRegistry metricRegistry;
+
+    private volatile List<JobLane> lanes = null;
+
+    private ApplicationContext applicationContext;
+
+    AbstractJobServiceImpl(
+            Collection<JobRunner> jobRunners,
+            List<JobLaneDefinition> laneDefinitions,
+            MetricRegistry metricRegistry) {
+        this.jobRunners = jobRunners;
+        this.laneDefinitions = ensureDefaultLaneDefinition(laneDefinitions);
+        this.metricRegistry = metricRegistry;
+    }
+
+    private static List<JobLaneDefinition> ensureDefaultLaneDefinition(List<JobLaneDefinition> laneDefinitions) {
+        if (null == laneDefinitions || laneDefinitions.isEmpty()) {
+            return ImmutableList.of(JobLaneDefinition.createDefault(1, SIZE_QUEUE));
+        }
+
+        Preconditions.checkArgument(
+                1 == laneDefinitions.stream().filter(JobLaneDefinition::isDefault).count(),
+                "exactly one default lane must be configured");
+        Preconditions.checkArgument(
+                laneDefinitions.size() == laneDefinitions.stream().map(JobLaneDefinition::getName).distinct().count(),
+                "the names of the lanes must be unique");
+        Preconditions.checkArgument(
+                laneDefinitions.stream().mapToInt(ld -> ld.getJobTypeCodes().size()).sum()
+                        == laneDefinitions.stream().flatMap(ld -> ld.getJobTypeCodes().stream()).distinct().count(),
+                "a job type code may only be configured into one lane");
+
+        return ImmutableList.copyOf(laneDefinitions);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (null == jobRunners) {
+            jobRunners = applicationContext.getBeansOfType(JobRunner.class).values();
+            LOGGER.info("configured {} job runners from the application context",
+                    jobRunners.size());
+        } else {
+            LOGGER.info("{} job runners were already configured - will not "
+                    + "populate any from the application context",
+                    jobRunners.size());
+        }
+        startAsyncAndAwaitRunning();
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        stopAsyncAndAwaitTerminated();
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.applicationContext = applicationContext;
+    }
+
+    public void startAsyncAndAwaitRunning() {
+        startAsync();
+        awaitRunning();
+    }
+
+    public void stopAsyncAndAwaitTerminated() {
+        stopAsync();
+        awaitTerminated();
+    }
+
+    // ------------------------------
+    // AWAIT
+
+    @Override
+    public boolean awaitAllJobsFinishedUninterruptibly(long timeout) {
+        Preconditions.checkArgument(timeout > 0);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        EnumSet<JobSnapshot.Status> earlyStatuses = EnumSet.of(JobSnapshot.Status.QUEUED, JobSnapshot.Status.STARTED);
+
+        while (stopwatch.elapsed(TimeUnit.MILLISECONDS) < timeout
+            && 0 != totalJobs(null, earlyStatuses)) {
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+        }
+
+        return 0 == totalJobs(null, earlyStatuses);
+    }
+
+    @Override
+    public boolean awaitJobFinishedUninterruptibly(String guid, long timeout) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "a guid must be supplied");
+        Preconditions.checkArgument(timeout > 0);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        EnumSet<JobSnapshot.Status> earlyStatuses = EnumSet.of(JobSnapshot.Status.QUEUED, JobSnapshot.Status.STARTED);
+
+        while(stopwatch.elapsed(TimeUnit.MILLISECONDS) < timeout
+                && tryGetJob(guid).filter((j) -> earlyStatuses.contains(j.getStatus())).isPresent()) {
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+        }
+
+        return tryGetJob(guid).filter((j) -> earlyStatuses.contains(j.getStatus())).isPresent();
+    }
+
+    // ------------------------------
+    // RUN JOBS
+
+    Optional<JobRunner> getJobRunner(final String jobTypeCode) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(jobTypeCode));
+        Preconditions.checkState(null!=jobRunners,"the job runners must be configured - was this started up properly?");
+        return jobRunners.stream().filter(j -> j.getJobTypeCode().equals(jobTypeCode)).collect(SingleCollector.optional());
+    }
+
+    /**
+     * <p>Checks that the specification is able to be run and gives it a GUID if it does not already
+     * have one.</p>
+     */
+
+    void validateSpecification(JobSpecification specification) {
+        Preconditions.checkState(null != lanes,
+                "the lanes have not been configured; was this service started correctly?");
+        Preconditions.checkArgument(null != specification);
+
+        getJobRunner(specification.getJobTypeCode()).orElseThrow(() ->
+                new IllegalStateException("unable to run a job runner for the job type code; "
+                        + specification.getJobTypeCode()));
+
+        for (String guid : specification.getSuppliedDataGuids()) {
+            if (!tryGetData(guid).isPresent()) {
+                throw new IllegalStateException(
+                        "unable to run a job specification because the specified data "
+                                + guid + " was not able to be found");
+            }
+        }
+
+        if (null == specification.getGuid()) {
+            specification.setGuid(UUID.randomUUID().toString());
+        } else {
+            if (tryGetJob(specification.getGuid()).isPresent()) {
+                throw new IllegalStateException(
+                        "a specification has been submitted for which there is already a job running; "
+                                + specification.getGuid());
+            }
+        }
+    }
+
+    /**
+     * <p>If there is an existing job that can be used then this will return it.  The sorting below is
+     * to get the best job to re-use (the most recent) from all of the possible ones.  Expired jobs are
+     * not considered.  The jobs supplied should be copies so that their state does not change while
+     * they are sorted.</p>
+     */
+
+    static Optional<String> tryFindCoalescingJobGuid(
+            Stream<Job> jobs,
+            JobSpecification specification,
+            Set<JobSnapshot.Status> coalesceForStatuses) {
+        Preconditions.checkArgument(null != coalesceForStatuses,
+                "the statuses over which coalescing should occur must be supplied");
+        long nowMillis = System.currentTimeMillis();
+
+        return jobs
+                .filter((j) -> !isExpired(j, nowMillis))
+                .filter((j) -> coalesceForStatuses.contains(j.getStatus()))
+                .filter((j) -> specification.isEquivalent(j.getJobSpecification()))
+                .sorted((j1, j2) -> ComparisonChain.start()
+                        .compare(j1.getStatus(), j2.getStatus(),
+                                Ordering.explicit(
+                                        JobSnapshot.Status.FINISHED,
+                                        JobSnapshot.Status.STARTED,
+                                        JobSnapshot.Status.QUEUED
+                                )
+                        )
+                        .compare(j1.getFinishTimestamp(), j2.getFinishTimestamp(), Ordering.natural().nullsLast())
+                        .compare(j1.getStartTimestamp(), j2.getStartTimestamp(), Ordering.natural().nullsLast())
+                        .compare(j1.getQueuedTimestamp(), j2.getQueuedTimestamp(), Ordering.natural().nullsLast())
+                        .compare(j1.getFailTimestamp(), j2.getFailTimestamp(), Ordering.natural().nullsLast())
+                        .compare(j1.getCancelTimestamp(), j2.getCancelTimestamp(), Ordering.natural().nullsLast())
+                        .result()
+                )
+                .map(Job::getGuid)
+                .findFirst();
+    }
+
+    static boolean isExpired(Job job, long nowMillis) {
+        Long ttl = job.tryGetTimeToLiveMillis().orElse(TTL_DEFAULT);
+        Date quiesenceTimestamp = null;
+
+        switch (job.getStatus()) {
+
+            case CANCELLED:
+                quiesenceTimestamp = job.getCancelTimestamp();
+                break;
+
+            case FINISHED:
+                quiesenceTimestamp = job.getFinishTimestamp();
+                break;
+
+            case FAILED:
+                quiesenceTimestamp = job.getFailTimestamp();
+                break;
+
+        }
+
+        return null != quiesenceTimestamp && nowMillis - quiesenceTimestamp.getTime() > ttl;
+    }
+
+    // ------------------------------
+    // LANES
+
+    JobLane getLane(final String jobTypeCode) {
+        List<JobLane> lanesLocal = lanes;
+        Preconditions.checkState(null != lanesLocal, "the lanes are not configured - was this started up properly?");
+        return lanesLocal.stream()
+                .filter(l -> l.accepts(jobTypeCode))
+                .findFirst()
+                .orElseGet(() -> lanesLocal.stream()
+                        .filter(l -> l.getDefinition().isDefault())
+                        .collect(SingleCollector.single()));
+    }
+
+    List<JobLane> getLanes() {
+        List<JobLane> lanesLocal = lanes;
+        Preconditions.checkState(null != lanesLocal, "the lanes are not configured - was this started up properly?");
+        return lanesLocal;
+    }
+
+    /**
+     * <p>Submits the job to the lane that the job belongs to.  The job should already be queued.</p>
+     */
+
+    void submitToLane(final JobSpecification specification, final Date queuedTimestamp) {
+        JobLane lane = getLane(specification.getJobTypeCode());
+
+        LOGGER.debug("{}; will submit job to {}", specification.toString(), lane);
+
+        lane.submit(() -> {
+            String threadNamePrior = Thread.currentThread().getName();
+
+            try {
+                Thread.currentThread().setName("job-run-" + StringUtils.abbreviate(specification.getGuid(), 4));
+                lane.recordWait(System.currentTimeMillis() - queuedTimestamp.getTime());
+                runSpecificationInCurrentThread(specification);
+            }
+            finally {
+                Thread.currentThread().setName(threadNamePrior);
+            }
+        });
+    }
+
+    void startLanes() {
+        Preconditions.checkState(null == lanes);
+
+        List<JobLane> newLanes = laneDefinitions
+                .stream()
+                .map(JobLane::new)
+                .collect(Collectors.toList());
+
+        for (JobLane lane : newLanes) {
+            LOGGER.info("did configure lane; {}", lane.getDefinition());
+
+            if (null != metricRegistry) {
+                lane.registerMetrics(metricRegistry);
+            }
+        }
+
+        lanes = newLanes;
+    }
+
+    void stopLanes() throws InterruptedException {
+        Preconditions.checkNotNull(lanes);
+
+        lanes.forEach(JobLane::shutdown);
+
+        for (JobLane lane : lanes) {
+            lane.awaitTermination(2, TimeUnit.MINUTES);
+
+            if (null != metricRegistry) {
+                lane.unregisterMetrics(metricRegistry);
+            }
+        }
+
+        lanes = null;
+    }
+
+    /**
+     * <p>This will actually run the job.  This does not need to be locked.</p>
+     */
+
+    void runSpecificationInCurrentThread(JobSpecification specification) {
+        Preconditions.checkArgument(null != specification, "the job specification must be supplied to run the job");
+        Optional<JobRunner> jobRunnerOptional = getJobRunner(specification.getJobTypeCode());
+
+        if(!jobRunnerOptional.isPresent()) {
+            LOGGER.error(
+                    "{}; there is no job runner available for job type code '{}'; - failing",
+                    specification.toString(),
+                    specification.getJobTypeCode());
+
+            setJobFailTimestamp(specification.getGuid());
+        }
+
+        try {
+            setJobStartTimestamp(specification.getGuid());
+            //noinspection unchecked
+            jobRunnerOptional.get().run(this, specification);
+            setJobFinishTimestamp(specification.getGuid());
+        }
+        catch(Throwable th) {
+            LOGGER.error(specification.getGuid() + "; failure to run the job", th);
+            setJobFailTimestamp(specification.getGuid());
+        }
+    }
+
+    abstract void setJobStartTimestamp(String guid);
+
+    abstract void setJobFinishTimestamp(String guid);
+
+    // ------------------------------
+    // DATA INPUT AND OUTPUT
+
+    @Override
+    public String deriveDataFilename(String jobDataGuid) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(jobDataGuid));
+
+        String descriptor = "jobdata";
+        String extension = "dat";
+
+        Optional<JobData> jobDataOptional = tryGetData(jobDataGuid);
+
+        if(jobDataOptional.isPresent()) {
+
+            JobData jobData = jobDataOptional.get();
+            Optional<? extends JobSnapshot> jobOptional = tryGetJobForData(jobDataGuid);
+
+            if(jobOptional.isPresent()) {
+               descriptor = jobOptional.get().getJobTypeCode();
+            }
+
+            // TODO; get the extensions from a file etc...
+            if (!Strings.isNullOrEmpty(jobData.getMediaTypeCode())) {
+                if (jobData.getMediaTypeCode().startsWith(MediaType.CSV_UTF_8.withoutParameters().toString())) {
+                    extension = "csv";
+                }
+
+                if(jobData.getMediaTypeCode().equals(MediaType.ZIP.withoutParameters().toString())) {
+                    extension = "zip";
+                }
+
+                if(jobData.getMediaTypeCode().equals(MediaType.TAR.withoutParameters().toString())) {
+                    extension = "tgz";
+                }
+
+                if(jobData.getMediaTypeCode().equals(MediaType.PLAIN_TEXT_UTF_8.withoutParameters().toString())) {
+                    extension = "txt";
+                }
+            }
+        }
+
+        return String.format(
+                "hds_%s_%s_%s.%s",
+                descriptor,
+                DateTimeHelper.create14DigitDateTimeFormat().format(Instant.now()),
+                jobDataGuid.substring(0,4),
+                extension);
+    }
+
+}
@@ -0,0 +1,780 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.query.EJBQLQuery;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.SQLTemplate;
+import org.apache.commons.lang3.StringUtils;
+import org.haiku.haikudepotserver.dataobjects.JobDataRecord;
+import org.haiku.haikudepotserver.dataobjects.JobRecord;
+import org.haiku.haikudepotserver.dataobjects.User;
+import org.haiku.haikudepotserver.job.model.*;
+import org.haiku.haikudepotserver.storage.model.DataStorageService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>This implementation of {@link JobService} keeps the state of the jobs in the database so that a
+ * number of application server nodes are able to share the jobs.  A job that is submitted on any node
+ * is queued into the database.  Each node then claims queued jobs from the database when one of its
+ * lanes has capacity to run the job.  The claim uses &quot;SELECT ... FOR UPDATE SKIP LOCKED&quot;
+ * so that a job is only ever claimed by one node.</p>
+ *
+ * <p>Coalescing of equivalent jobs happens across all of the nodes; the check for an equivalent job
+ * and the queueing of a new job are serialized across the nodes with a database lock on the job type
+ * code.</p>
+ *
+ * <p>While a node is running jobs, it will periodically update a heartbeat on those jobs.  If a node
+ * stops without finishing its jobs then the heartbeat will become stale; any node will then fail the
+ * started jobs and release the claimed jobs so that they can be claimed again.</p>
+ *
+ * <p>The job data is stored into the {@link DataStorageService}; for this to work across a number of
+ * nodes, the storage must be shared between the nodes.</p>
+ */
+
+public class DatabaseJobServiceImpl extends AbstractJobServiceImpl {
+
+    private final static long PERIOD_CLAIM_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private final static long PERIOD_HEARTBEAT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final static long PERIOD_EXPIRY_SWEEP_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * <p>If a job has not had a heartbeat for this long then the node running it is assumed to have
+     * stopped.</p>
+     */
+
+    private final static long TIMEOUT_HEARTBEAT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final static int LENGTH_NODE_NAME = 255;
+
+    private final ServerRuntime serverRuntime;
+
+    private final DataStorageService dataStorageService;
+
+    private final DatabaseJobStore jobStore;
+
+    /**
+     * <p>Identifies this node in the claims that it makes on the queued jobs.</p>
+     */
+
+    private final String nodeName;
+
+    /**
+     * <p>Runs the claiming of jobs, the heartbeat and the expiry sweep.  There is only one thread
+     * so these activities do not run concurrently with themselves.</p>
+     */
+
+    private ScheduledExecutorService scheduledExecutor = null;
+
+    /**
+     * <p>The jobs that this node has claimed and which have not yet completed mapped to the name
+     * of the lane that they are running in.</p>
+     */
+
+    private final Map<String, String> claimedLaneNamesByJobGuid = new ConcurrentHashMap<>();
+
+    /**
+     * <p>Avoids writing to the database if the progress of a job running on this node has not
+     * changed.</p>
+     */
+
+    private final Map<String, Integer> progressPercentsByJobGuid = new ConcurrentHashMap<>();
+
+    public DatabaseJobServiceImpl(
+            ServerRuntime serverRuntime,
+            DataStorageService dataStorageService,
+            ObjectMapper objectMapper,
+            List<JobLaneDefinition> laneDefinitions,
+            MetricRegistry metricRegistry) {
+        this(serverRuntime, dataStorageService, objectMapper, null, laneDefinitions, metricRegistry);
+    }
+
+    public DatabaseJobServiceImpl(
+            ServerRuntime serverRuntime,
+            DataStorageService dataStorageService,
+            ObjectMapper objectMapper,
+            Collection<JobRunner> jobRunners,
+            List<JobLaneDefinition> laneDefinitions,
+            MetricRegistry metricRegistry) {
+        super(jobRunners, laneDefinitions, metricRegistry);
+        this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
+        this.dataStorageService = Preconditions.checkNotNull(dataStorageService);
+        this.jobStore = new DatabaseJobStore(serverRuntime, objectMapper);
+        this.nodeName = StringUtils.abbreviate(
+                ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString(),
+                LENGTH_NODE_NAME);
+    }
+
+    // ------------------------------
+    // RUN JOBS
+
+    @Override
+    public String submit(
+            JobSpecification specification,
+            Set<JobSnapshot.Status> coalesceForStatuses) {
+        String guid = validateAndCoalesceOrQueueJob(specification, coalesceForStatuses, false);
+
+        if (guid.equals(specification.getGuid())) {
+            scheduledExecutor.execute(this::tryClaimQueuedJobs);
+        }
+
+        return guid;
+    }
+
+    @Override
+    public String immediate(
+            JobSpecification specification, boolean coalesceFinished) {
+        String guid = validateAndCoalesceOrQueueJob(
+                specification, EnumSet.of(JobSnapshot.Status.FINISHED), true);
+
+        if (guid.equals(specification.getGuid())) {
+            LOGGER.debug("{}; will run job immediately", specification.toString());
+            runSpecificationInCurrentThread(specification);
+            LOGGER.debug("{}; did run job immediately", specification.toString());
+        }
+
+        return guid;
+    }
+
+    /**
+     * <p>Either finds an existing equivalent job or queues a new one.  If the job is to be run
+     * immediately then it is claimed by this node as it is queued so that another node does not
+     * claim it.</p>
+     * @return the GUID of the job; if this is the GUID of the specification then a new job was queued.
+     */
+
+    private String validateAndCoalesceOrQueueJob(
+            JobSpecification specification,
+            Set<JobSnapshot.Status> coalesceForStatuses,
+            boolean claim) {
+        Preconditions.checkArgument(null != coalesceForStatuses,
+                "the statuses over which coalescing should occur must be supplied");
+        validateSpecification(specification);
+
+        return serverRuntime.performInTransaction(() -> {
+            ObjectContext context = serverRuntime.newContext();
+
+            lockJobTypeCode(context, specification.getJobTypeCode());
+
+            Optional<String> coalescingJobGuidOptional = tryFindCoalescingJobGuid(
+                    createJobs(context, ObjectSelect.query(JobRecord.class)
+                            .where(JobRecord.JOB_TYPE_CODE.eq(specification.getJobTypeCode()))
+                            .and(JobRecord.createExpressionForStatuses(coalesceForStatuses))
+                            .select(context)).stream(),
+                    specification,
+                    coalesceForStatuses);
+
+            if (coalescingJobGuidOptional.isPresent()) {
+                return coalescingJobGuidOptional.get();
+            }
+
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            JobRecord jobRecord = jobStore.createJobRecord(context, specification);
+            jobRecord.setQueuedTimestamp(now);
+
+            if (claim) {
+                jobRecord.setNodeName(nodeName);
+                jobRecord.setHeartbeatTimestamp(now);
+            }
+
+            for (String dataGuid : specification.getSuppliedDataGuids()) {
+                JobDataRecord.tryGetByGuid(context, dataGuid).ifPresent(jdr -> jdr.setJobGuid(specification.getGuid()));
+            }
+
+            context.commitChanges();
+
+            LOGGER.info("{}; queued", specification.toString());
+
+            return specification.getGuid();
+        });
+    }
+
+    /**
+     * <p>Holds a database lock for the job type code until the end of the current transaction.</p>
+     */
+
+    private void lockJobTypeCode(ObjectContext context, String jobTypeCode) {
+        SQLTemplate sqlTemplate = (SQLTemplate) context.getEntityResolver()
+                .getQueryDescriptor("LockJobTypeCode").buildQuery();
+        context.performQuery(sqlTemplate.createQuery(ImmutableMap.of("jobTypeCode", jobTypeCode)));
+    }
+
+    private void tryClaimQueuedJobs() {
+        try {
+            claimQueuedJobs();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to claim queued jobs", th);
+        }
+    }
+
+    /**
+     * <p>For each lane, this will claim as many jobs as the lane has capacity to run.  Jobs are only
+     * claimed if they can be run straight away so that other nodes are able to run the remaining
+     * queued jobs.</p>
+     */
+
+    private void claimQueuedJobs() {
+        List<JobLane> lanes = getLanes();
+        Set<String> laneJobTypeCodes = lanes.stream()
+                .flatMap(l -> l.getDefinition().getJobTypeCodes().stream())
+                .collect(Collectors.toSet());
+
+        for (JobLane lane : lanes) {
+            while (getClaimedCount(lane) < lane.getDefinition().getMaxConcurrency()) {
+                Optional<Job> jobOptional = tryClaimQueuedJob(lane, laneJobTypeCodes);
+
+                if (!jobOptional.isPresent()) {
+                    break;
+                }
+
+                Job job = jobOptional.get();
+                claimedLaneNamesByJobGuid.put(job.getGuid(), lane.getName());
+
+                try {
+                    submitToLane(job.getJobSpecification(), job.getQueuedTimestamp());
+                }
+                catch (Throwable th) {
+                    claimedLaneNamesByJobGuid.remove(job.getGuid());
+                    throw th;
+                }
+            }
+        }
+    }
+
+    private long getClaimedCount(JobLane lane) {
+        return claimedLaneNamesByJobGuid.values().stream().filter(n -> n.equals(lane.getName())).count();
+    }
+
+    private Optional<Job> tryClaimQueuedJob(JobLane lane, Set<String> laneJobTypeCodes) {
+        ObjectContext context = serverRuntime.newContext();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("nodeName", nodeName);
+        parameters.put("now", new Timestamp(System.currentTimeMillis()));
+
+        if (lane.getDefinition().isDefault()) {
+            if (!laneJobTypeCodes.isEmpty()) {
+                parameters.put("excludeJobTypeCodes", laneJobTypeCodes);
+            }
+        } else {
+            parameters.put("includeJobTypeCodes", lane.getDefinition().getJobTypeCodes());
+        }
+
+        SQLTemplate sqlTemplate = (SQLTemplate) context.getEntityResolver()
+                .getQueryDescriptor("ClaimQueuedJob").buildQuery();
+        List<DataRow> dataRows = (List<DataRow>) context.performQuery(sqlTemplate.createQuery(parameters));
+
+        if (dataRows.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String guid = (String) dataRows.get(0).get("guid");
+        Optional<Job> jobOptional = JobRecord.tryGetByGuid(context, guid).flatMap(jobStore::tryCreateJob);
+
+        if (!jobOptional.isPresent()) {
+            LOGGER.error("unable to restore the claimed job [{}] - will fail it", guid);
+            updateJob(guid, "j.failTimestamp = :now", EnumSet.of(JobSnapshot.Status.QUEUED), ImmutableMap.of());
+            return Optional.empty();
+        }
+
+        LOGGER.info("{}; claimed for {}", jobOptional.get().getJobSpecification().toString(), lane);
+
+        return jobOptional;
+    }
+
+    @Override
+    void runSpecificationInCurrentThread(JobSpecification specification) {
+        try {
+            super.runSpecificationInCurrentThread(specification);
+        }
+        finally {
+            claimedLaneNamesByJobGuid.remove(specification.getGuid());
+            progressPercentsByJobGuid.remove(specification.getGuid());
+        }
+    }
+
+    // ------------------------------
+    // GET JOBS / LIST / SEARCH
+
+    /**
+     * <p>Creates the jobs from the records and populates the generated data for each job.</p>
+     */
+
+    private List<Job> createJobs(ObjectContext context, List<JobRecord> jobRecords) {
+        Map<String, List<String>> generatedDataGuidsByJobGuid = JobDataRecord.findByJobGuids(
+                context,
+                jobRecords.stream().map(JobRecord::getGuid).collect(Collectors.toList()))
+                .stream()
+                .filter(jdr -> JobDataType.GENERATED.name().equals(jdr.getDataType()))
+                .collect(Collectors.groupingBy(
+                        JobDataRecord::getJobGuid,
+                        Collectors.mapping(JobDataRecord::getGuid, Collectors.toList())));
+
+        List<Job> result = new ArrayList<>();
+
+        for (JobRecord jobRecord : jobRecords) {
+            jobStore.tryCreateJob(jobRecord).ifPresent(j -> {
+                generatedDataGuidsByJobGuid
+                        .getOrDefault(j.getGuid(), Collections.emptyList())
+                        .forEach(j::addGeneratedDataGuid);
+                result.add(j);
+            });
+        }
+
+        return result;
+    }
+
+    private ObjectSelect<JobRecord> createJobRecordQuery(User user, Set<JobSnapshot.Status> statuses) {
+        ObjectSelect<JobRecord> query = ObjectSelect.query(JobRecord.class);
+
+        if (null != user) {
+            query.and(JobRecord.OWNER_USER_NICKNAME.eq(user.getNickname()));
+        }
+
+        if (null != statuses) {
+            query.and(JobRecord.createExpressionForStatuses(statuses));
+        }
+
+        return query;
+    }
+
+    @Override
+    public List<? extends JobSnapshot> findJobs(
+            final User user,
+            final Set<JobSnapshot.Status> statuses,
+            int offset,
+            int limit) {
+
+        Preconditions.checkArgument(offset >= 0, "illegal offset value");
+        Preconditions.checkArgument(limit >= 1, "illegal limit value");
+
+        if(null!=statuses && statuses.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        ObjectContext context = serverRuntime.newContext();
+        return createJobs(context, createJobRecordQuery(user, statuses)
+                .orderBy(JobRecord.QUEUED_TIMESTAMP.desc(), JobRecord.GUID.asc())
+                .offset(offset)
+                .limit(limit)
+                .select(context));
+    }
+
+    @Override
+    public int totalJobs(User user, Set<JobSnapshot.Status> statuses) {
+        if(null!=statuses && statuses.isEmpty()) {
+            return 0;
+        }
+
+        return (int) createJobRecordQuery(user, statuses).selectCount(serverRuntime.newContext());
+    }
+
+    @Override
+    public Optional<? extends JobSnapshot> tryGetJob(String guid) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid));
+        ObjectContext context = serverRuntime.newContext();
+        return JobRecord.tryGetByGuid(context, guid)
+                .map(jr -> createJobs(context, Collections.singletonList(jr)))
+                .flatMap(js -> js.stream().findFirst());
+    }
+
+    @Override
+    public void removeJob(String guid) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid));
+        ObjectContext context = serverRuntime.newContext();
+        Optional<JobRecord> jobRecordOptional = JobRecord.tryGetByGuid(context, guid);
+
+        if (jobRecordOptional.isPresent()) {
+            for (JobDataRecord jobDataRecord : JobDataRecord.findByJobGuids(context, Collections.singleton(guid))) {
+                if (dataStorageService.remove(jobDataRecord.getGuid())) {
+                    LOGGER.info("did delete the job data; {}", jobDataRecord.getGuid());
+                    context.deleteObject(jobDataRecord);
+                } else {
+                    LOGGER.error("was not able to delete the job data; {} - data will remain in situ",
+                            jobDataRecord.getGuid());
+                }
+            }
+
+            context.deleteObject(jobRecordOptional.get());
+            context.commitChanges();
+        }
+    }
+
+    // ------------------------------
+    // PURGE
+
+    @Override
+    public void clearExpiredJobs() {
+        clearStaleJobs();
+        clearExpiredInternalJobs();
+        clearExpiredDatas();
+    }
+
+    private void tryClearExpiredJobs() {
+        try {
+            clearExpiredJobs();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to clear expired jobs", th);
+        }
+    }
+
+    /**
+     * <p>If a node has stopped while it was running jobs then those jobs will no longer have a heartbeat.
+     * Jobs that were started are failed and jobs that were claimed, but not started, are released so that
+     * another node is able to claim them.</p>
+     */
+
+    private void clearStaleJobs() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp staleTimestamp = new Timestamp(now.getTime() - TIMEOUT_HEARTBEAT_MILLIS);
+
+        int failed = performUpdate(
+                "j.failTimestamp = :now",
+                "j.heartbeatTimestamp < :staleTimestamp",
+                EnumSet.of(JobSnapshot.Status.STARTED),
+                ImmutableMap.of("now", now, "staleTimestamp", staleTimestamp));
+
+        int released = performUpdate(
+                "j.nodeName = NULL, j.heartbeatTimestamp = NULL",
+                "j.nodeName IS NOT NULL AND j.heartbeatTimestamp < :staleTimestamp",
+                EnumSet.of(JobSnapshot.Status.QUEUED),
+                ImmutableMap.of("now", now, "staleTimestamp", staleTimestamp));
+
+        if (0 != failed || 0 != released) {
+            LOGGER.warn("did fail {} started jobs and release {} queued jobs with a stale heartbeat", failed, released);
+        }
+    }
+
+    private void clearExpiredInternalJobs() {
+        ObjectContext context = serverRuntime.newContext();
+        long nowMillis = System.currentTimeMillis();
+        List<Job> jobs = createJobs(context, createJobRecordQuery(null, EnumSet.of(
+                JobSnapshot.Status.CANCELLED,
+                JobSnapshot.Status.FAILED,
+                JobSnapshot.Status.FINISHED)).select(context));
+
+        for (Job job : jobs) {
+            if (isExpired(job, nowMillis)) {
+                removeJob(job.getGuid());
+
+                LOGGER.info(
+                        "{} purged expired job for ttl; {}ms",
+                        job.getJobSpecification().toString(),
+                        job.tryGetTimeToLiveMillis().orElse(TTL_DEFAULT));
+            }
+        }
+    }
+
+    /**
+     * <p>Job data may be stored ready to be attached to a job.  If the attachment never
+     * happens then the job data may hang around indefinitely.  This clearing process will
+     * cull those job datas that have not been used before time reasonable timeout.</p>
+     */
+
+    private void clearExpiredDatas() {
+        ObjectContext context = serverRuntime.newContext();
+        List<JobDataRecord> jobDataRecords = ObjectSelect.query(JobDataRecord.class)
+                .where(JobDataRecord.JOB_GUID.isNull())
+                .and(JobDataRecord.CREATE_TIMESTAMP.lt(new Timestamp(System.currentTimeMillis() - TTL_DEFAULT)))
+                .select(context);
+
+        for (JobDataRecord jobDataRecord : jobDataRecords) {
+            if (dataStorageService.remove(jobDataRecord.getGuid())) {
+                LOGGER.info("did delete the expired unassociated job data; [{}]", jobDataRecord.getGuid());
+                context.deleteObject(jobDataRecord);
+            } else {
+                LOGGER.error("was not able to delete the expired unassociated job data; [{}] - data will remain in situ",
+                        jobDataRecord.getGuid());
+            }
+        }
+
+        context.commitChanges();
+    }
+
+    private void tryHeartbeat() {
+        try {
+            performUpdate(
+                    "j.heartbeatTimestamp = :now",
+                    "j.nodeName = :nodeName",
+                    EnumSet.of(JobSnapshot.Status.QUEUED, JobSnapshot.Status.STARTED),
+                    ImmutableMap.of("now", new Timestamp(System.currentTimeMillis()), "nodeName", nodeName));
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to update the heartbeat of the claimed jobs", th);
+        }
+    }
+
+    // ------------------------------
+    // SET STATUS
+
+    /**
+     * <p>Updates the jobs that match the where clause and that are in one of the supplied statuses.</p>
+     * @return the number of jobs that were updated.
+     */
+
+    private int performUpdate(
+            String setClause,
+            String whereClause,
+            Set<JobSnapshot.Status> fromStatuses,
+            Map<String, Object> parameters) {
+        EJBQLQuery query = new EJBQLQuery(String.join(" ",
+                "UPDATE", JobRecord.class.getSimpleName(), "j SET",
+                setClause + ", j.modifyTimestamp = :now",
+                "WHERE", whereClause,
+                "AND (" + JobRecord.createExpressionForStatuses(fromStatuses).toEJBQL("j") + ")"));
+        parameters.forEach(query::setParameter);
+        int[] updateCounts = serverRuntime.newContext().performGenericQuery(query).firstUpdateCount();
+        return null == updateCounts ? 0 : Arrays.stream(updateCounts).sum();
+    }
+
+    /**
+     * <p>Updates the job with the supplied GUID so long as it is in one of the supplied statuses.</p>
+     */
+
+    private boolean updateJob(
+            String guid,
+            String setClause,
+            Set<JobSnapshot.Status> fromStatuses,
+            Map<String, Object> parameters) {
+        Map<String, Object> allParameters = new HashMap<>(parameters);
+        allParameters.put("guid", guid);
+        allParameters.put("now", new Timestamp(System.currentTimeMillis()));
+        return 0 != performUpdate(setClause, "j.guid = :guid", fromStatuses, allParameters);
+    }
+
+    private void transitionJob(
+            String guid,
+            String setClause,
+            Set<JobSnapshot.Status> fromStatuses,
+            String description) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid));
+
+        if (!updateJob(guid, setClause, fromStatuses, ImmutableMap.of())) {
+            JobSnapshot job = tryGetJob(guid).orElseThrow(
+                    () -> new IllegalStateException("no job run state exists for; " + guid));
+            throw new IllegalStateException(
+                    "it is not possible to " + description + " a job from status; " + job.getStatus());
+        }
+
+        LOGGER.info("{}; {}", guid, description);
+    }
+
+    @Override
+    void setJobStartTimestamp(String guid) {
+        transitionJob(
+                guid,
+                "j.startTimestamp = :now, j.heartbeatTimestamp = :now",
+                EnumSet.of(JobSnapshot.Status.QUEUED),
+                "start");
+    }
+
+    @Override
+    void setJobFinishTimestamp(String guid) {
+        transitionJob(guid, "j.finishTimestamp = :now", EnumSet.of(JobSnapshot.Status.STARTED), "finish");
+    }
+
+    @Override
+    public void setJobFailTimestamp(String guid) {
+        transitionJob(guid, "j.failTimestamp = :now", EnumSet.of(JobSnapshot.Status.STARTED), "fail");
+    }
+
+    @Override
+    public void setJobCancelTimestamp(String guid) {
+        transitionJob(
+                guid,
+                "j.cancelTimestamp = :now",
+                EnumSet.of(JobSnapshot.Status.QUEUED, JobSnapshot.Status.STARTED),
+                "cancel");
+    }
+
+    @Override
+    public void setJobProgressPercent(String guid, Integer progressPercent) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid));
+        Preconditions.checkArgument(null==progressPercent || (progressPercent >= 0 && progressPercent <= 100), "bad progress percent value");
+
+        if (null != progressPercent && progressPercent.equals(progressPercentsByJobGuid.get(guid))) {
+            return;
+        }
+
+        if (!updateJob(
+                guid,
+                "j.progressPercent = :progressPercent",
+                EnumSet.of(JobSnapshot.Status.STARTED),
+                Collections.singletonMap("progressPercent", progressPercent))) {
+            throw new IllegalStateException("it is not possible to set the progress percent for the job; " + guid);
+        }
+
+        if (null != progressPercent) {
+            progressPercentsByJobGuid.put(guid, progressPercent);
+            LOGGER.info("{}; progress {}%", guid, progressPercent);
+        }
+        else {
+            progressPercentsByJobGuid.remove(guid);
+        }
+    }
+
+    // ------------------------------
+    // SERVICE START / STOP LIFECYCLE
+
+    @Override
+    public void doStart() {
+        try {
+            LOGGER.info("will start service as node [{}]", nodeName);
+
+            startLanes();
+
+            scheduledExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("job-coordination-%d")
+                            .setDaemon(true)
+                            .build());
+            scheduledExecutor.scheduleWithFixedDelay(
+                    this::tryClaimQueuedJobs,
+                    0L,
+                    PERIOD_CLAIM_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            scheduledExecutor.scheduleWithFixedDelay(
+                    this::tryHeartbeat,
+                    PERIOD_HEARTBEAT_MILLIS,
+                    PERIOD_HEARTBEAT_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            scheduledExecutor.scheduleWithFixedDelay(
+                    this::tryClearExpiredJobs,
+                    PERIOD_EXPIRY_SWEEP_MILLIS,
+                    PERIOD_EXPIRY_SWEEP_MILLIS,
+                    TimeUnit.MILLISECONDS);
+
+            notifyStarted();
+
+            LOGGER.info("did start service");
+        }
+        catch(Throwable th) {
+            notifyFailed(th);
+        }
+    }
+
+    @Override
+    public void doStop() {
+        try {
+            LOGGER.info("will stop service");
+
+            scheduledExecutor.shutdown();
+            scheduledExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            scheduledExecutor = null;
+
+            stopLanes();
+            notifyStopped();
+
+            LOGGER.info("did stop service");
+        }
+        catch(Throwable th) {
+            notifyFailed(th);
+        }
+    }
+
+    // ------------------------------
+    // DATA INPUT AND OUTPUT
+
+    @Override
+    public Optional<? extends JobSnapshot> tryGetJobForData(String jobDataGuid) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(jobDataGuid));
+        return JobDataRecord.tryGetByGuid(serverRuntime.newContext(), jobDataGuid)
+                .map(JobDataRecord::getJobGuid)
+                .flatMap(this::tryGetJob);
+    }
+
+    @Override
+    public Optional<JobData> tryGetData(String guid) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid must be supplied");
+        return JobDataRecord.tryGetByGuid(serverRuntime.newContext(), guid)
+                .map(DatabaseJobStore::createJobData);
+    }
+
+    @Override
+    public JobDataWithByteSink storeGeneratedData(
+            String jobGuid,
+            String useCode,
+            String mediaTypeCode) throws IOException {
+
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(jobGuid));
+
+        if (!JobRecord.tryGetByGuid(serverRuntime.newContext(), jobGuid).isPresent()) {
+            throw new IllegalStateException("no job run state exists for; " + jobGuid);
+        }
+
+        String guid = UUID.randomUUID().toString();
+        JobData data = new JobData(guid, JobDataType.GENERATED, useCode, mediaTypeCode);
+        JobDataWithByteSink result = new JobDataWithByteSink(data, dataStorageService.put(guid));
+
+        jobStore.storeData(data, jobGuid);
+
+        return result;
+    }
+
+    @Override
+    public JobData storeSuppliedData(String useCode, String mediaTypeCode, ByteSource byteSource) throws IOException {
+        Preconditions.checkArgument(null!=byteSource, "the byte source must be supplied to provide data");
+        String guid = UUID.randomUUID().toString();
+        JobData data = new JobData(guid, JobDataType.SUPPLIED, useCode, mediaTypeCode);
+        long len;
+
+        try(InputStream inputStream = byteSource.openStream()) {
+
+            // TODO; constrain this to a sensible size
+
+            len = dataStorageService.put(guid).writeFrom(inputStream);
+        }
+
+        jobStore.storeData(data, null);
+
+        LOGGER.info("did supply {}b job data; {}", len, data);
+
+        return data;
+    }
+
+    @Override
+    public Optional<JobDataWithByteSource> tryObtainData(String guid) throws IOException {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid for the data must be supplied");
+        Optional<JobData> jobDataOptional = tryGetData(guid);
+
+        if(jobDataOptional.isPresent()) {
+            Optional<? extends ByteSource> byteSourceOptional = dataStorageService.get(guid);
+
+            if(byteSourceOptional.isPresent()) {
+                return Optional.of(new JobDataWithByteSource(
+                        jobDataOptional.get(),
+                        byteSourceOptional.get(),
+                        dataStorageService.tryGetPath(guid).orElse(null)));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+}
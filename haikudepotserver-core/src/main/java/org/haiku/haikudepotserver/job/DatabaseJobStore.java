@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.haiku.haikudepotserver.dataobjects.JobDataRecord;
+import org.haiku.haikudepotserver.dataobjects.JobRecord;
+import org.haiku.haikudepotserver.job.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <p>This {@link JobStore} persists the jobs and the job data into the &quot;job&quot; schema of the
+ * database.  The {@link JobSpecification} of a job is stored as JSON together with the name of the
+ * class of the specification so that it can be re-created when the jobs are loaded.</p>
+ */
+
+public class DatabaseJobStore implements JobStore {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(DatabaseJobStore.class);
+
+    private final ServerRuntime serverRuntime;
+
+    private final ObjectMapper objectMapper;
+
+    public DatabaseJobStore(ServerRuntime serverRuntime, ObjectMapper objectMapper) {
+        this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
+        this.objectMapper = Preconditions.checkNotNull(objectMapper).copy()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(MapperFeature.USE_GETTERS_AS_SETTERS, false);
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public List<Job> loadJobs() {
+        ObjectContext context = serverRuntime.newContext();
+        List<Job> result = new ArrayList<>();
+
+        for (JobRecord jobRecord : JobRecord.findAll(context)) {
+            Optional<Job> jobOptional = tryCreateJob(jobRecord);
+
+            if (jobOptional.isPresent()) {
+                result.add(jobOptional.get());
+            } else {
+                LOGGER.warn("unable to restore the stored job [{}] ({}) - will remove it",
+                        jobRecord.getGuid(), jobRecord.getJobTypeCode());
+                context.deleteObject(jobRecord);
+            }
+        }
+
+        context.commitChanges();
+
+        for (JobDataRecord jobDataRecord : JobDataRecord.findAll(context)) {
+            if (!Strings.isNullOrEmpty(jobDataRecord.getJobGuid())
+                    && JobDataType.GENERATED.name().equals(jobDataRecord.getDataType())) {
+                result.stream()
+                        .filter(j -> j.getGuid().equals(jobDataRecord.getJobGuid()))
+                        .findFirst()
+                        .ifPresent(j -> j.addGeneratedDataGuid(jobDataRecord.getGuid()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>Creates the job from the record; the generated data of the job is not populated.  If the
+     * specification of the job is not able to be restored then this will return an empty
+     * {@link Optional}.</p>
+     */
+
+    Optional<Job> tryCreateJob(JobRecord jobRecord) {
+        return tryDeserializeSpecification(jobRecord).map(s -> createJob(jobRecord, s));
+    }
+
+    private Job createJob(JobRecord jobRecord, JobSpecification specification) {
+        Job job = new Job(specification);
+        job.setQueuedTimestamp(jobRecord.getQueuedTimestamp());
+        job.setStartTimestamp(jobRecord.getStartTimestamp());
+        job.setFinishTimestamp(jobRecord.getFinishTimestamp());
+        job.setFailTimestamp(jobRecord.getFailTimestamp());
+        job.setCancelTimestamp(jobRecord.getCancelTimestamp());
+        job.setProgressPercent(jobRecord.getProgressPercent());
+        return job;
+    }
+
+    private Optional<JobSpecification> tryDeserializeSpecification(JobRecord jobRecord) {
+        try {
+            Class<?> specificationClass = Class.forName(jobRecord.getSpecificationClassName());
+
+            if (!JobSpecification.class.isAssignableFrom(specificationClass)) {
+                LOGGER.error("the stored job [{}] has a specification class that is not a job specification; {}",
+                        jobRecord.getGuid(), specificationClass.getName());
+                return Optional.empty();
+            }
+
+            JobSpecification specification = (JobSpecification) objectMapper.readValue(
+                    jobRecord.getSpecificationJson(), specificationClass);
+            specification.setGuid(jobRecord.getGuid());
+            return Optional.of(specification);
+        }
+        catch (ClassNotFoundException | IOException e) {
+            LOGGER.error("unable to deserialize the specification of the stored job [" + jobRecord.getGuid() + "]", e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public List<JobData> loadDatas() {
+        ObjectContext context = serverRuntime.newContext();
+        List<JobData> result = new ArrayList<>();
+
+        for (JobDataRecord jobDataRecord : JobDataRecord.findAll(context)) {
+            result.add(createJobData(jobDataRecord));
+        }
+
+        return result;
+    }
+
+    static JobData createJobData(JobDataRecord jobDataRecord) {
+        return new JobData(
+                jobDataRecord.getGuid(),
+                JobDataType.valueOf(jobDataRecord.getDataType()),
+                jobDataRecord.getUseCode(),
+                jobDataRecord.getMediaTypeCode(),
+                jobDataRecord.getCreateTimestamp());
+    }
+
+    @Override
+    public void storeJob(Job job) {
+        Preconditions.checkArgument(null != job, "the job must be supplied");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(job.getGuid()), "the job must have a guid");
+
+        ObjectContext context = serverRuntime.newContext();
+        JobRecord jobRecord = JobRecord.tryGetByGuid(context, job.getGuid())
+                .orElseGet(() -> createJobRecord(context, job.getJobSpecification()));
+
+        jobRecord.setQueuedTimestamp(toTimestamp(job.getQueuedTimestamp()));
+        jobRecord.setStartTimestamp(toTimestamp(job.getStartTimestamp()));
+        jobRecord.setFinishTimestamp(toTimestamp(job.getFinishTimestamp()));
+        jobRecord.setFailTimestamp(toTimestamp(job.getFailTimestamp()));
+        jobRecord.setCancelTimestamp(toTimestamp(job.getCancelTimestamp()));
+        jobRecord.setProgressPercent(job.getProgressPercent());
+
+        context.commitChanges();
+    }
+
+    JobRecord createJobRecord(ObjectContext context, JobSpecification specification) {
+        JobRecord result = context.newObject(JobRecord.class);
+        result.setGuid(specification.getGuid());
+        result.setJobTypeCode(specification.getJobTypeCode());
+        result.setOwnerUserNickname(specification.getOwnerUserNickname());
+        result.setSpecificationClassName(specification.getClass().getName());
+        result.setSpecificationJson(serializeSpecification(specification));
+        return result;
+    }
+
+    private String serializeSpecification(JobSpecification specification) {
+        try {
+            return objectMapper.writeValueAsString(specification);
+        }
+        catch (JsonProcessingException jpe) {
+            throw new IllegalStateException("unable to serialize the job specification; " + specification, jpe);
+        }
+    }
+
+    @Override
+    public void removeJob(String guid) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid must be supplied");
+        ObjectContext context = serverRuntime.newContext();
+        JobRecord.tryGetByGuid(context, guid).ifPresent(jr -> {
+            context.deleteObject(jr);
+            context.commitChanges();
+        });
+    }
+
+    @Override
+    public void storeData(JobData data, String jobGuid) {
+        Preconditions.checkArgument(null != data, "the data must be supplied");
+        ObjectContext context = serverRuntime.newContext();
+        JobDataRecord jobDataRecord = JobDataRecord.tryGetByGuid(context, data.getGuid())
+                .orElseGet(() -> context.newObject(JobDataRecord.class));
+
+        jobDataRecord.setGuid(data.getGuid());
+        jobDataRecord.setJobGuid(jobGuid);
+        jobDataRecord.setDataType(data.getDataType().name());
+        jobDataRecord.setUseCode(data.getUseCode());
+        jobDataRecord.setMediaTypeCode(data.getMediaTypeCode());
+        jobDataRecord.setCreateTimestamp(toTimestamp(data.getCreateTimestamp()));
+
+        context.commitChanges();
+    }
+
+    @Override
+    public void removeData(String guid) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid must be supplied");
+        ObjectContext context = serverRuntime.newContext();
+        JobDataRecord.tryGetByGuid(context, guid).ifPresent(jdr -> {
+            context.deleteObject(jdr);
+            context.commitChanges();
+        });
+    }
+
+    static Timestamp toTimestamp(Date date) {
+        return null == date ? null : new Timestamp(date.getTime());
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.google.common.base.Preconditions;
+import org.haiku.haikudepotserver.job.model.JobArtifactService;
+import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
+import org.haiku.haikudepotserver.job.model.JobSpecification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+@Service
+public class JobArtifactServiceImpl implements JobArtifactService {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(JobArtifactServiceImpl.class);
+
+    /**
+     * <p>This is how long a request will wait for an artifact if there is no complete artifact at all.</p>
+     */
+
+    private final static long TIMEOUT_FIRST_BUILD_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * <p>An artifact that has not been requested for this long is no longer revalidated in the
+     * background.</p>
+     */
+
+    private final static long IDLE_MILLIS = TimeUnit.HOURS.toMillis(2);
+
+    private final JobService jobService;
+
+    /**
+     * <p>There are only a small number of artifacts so a list is searched.  Guarded by itself.</p>
+     */
+
+    private final List<Artifact> artifacts = new ArrayList<>();
+
+    public JobArtifactServiceImpl(JobService jobService) {
+        this.jobService = Preconditions.checkNotNull(jobService);
+    }
+
+    @Override
+    public JobSnapshot getArtifact(
+            Supplier<? extends JobSpecification> specificationSupplier,
+            Supplier<Date> lastModifyTimestampSupplier) {
+        Preconditions.checkArgument(null != specificationSupplier, "the specification supplier must be provided");
+        Preconditions.checkArgument(null != lastModifyTimestampSupplier, "the last modify timestamp supplier must be provided");
+
+        Artifact artifact = getOrCreateArtifact(specificationSupplier, lastModifyTimestampSupplier);
+        Date lastModifyTimestamp = lastModifyTimestampSupplier.get();
+        Optional<JobSnapshot> publishedOptional;
+        String rebuildJobGuid;
+
+        synchronized (artifact) {
+            artifact.lastRequestedMillis = System.currentTimeMillis();
+            publishedOptional = revalidate(artifact, lastModifyTimestamp);
+            rebuildJobGuid = artifact.rebuildJobGuid;
+        }
+
+        if (publishedOptional.isPresent()) {
+            return publishedOptional.get();
+        }
+
+        // there is no complete artifact at all so the only option is to wait for one to be built.
+
+        LOGGER.info("no complete artifact for [{}]; will wait for the build", artifact);
+
+        jobService.awaitJobFinishedUninterruptibly(rebuildJobGuid, TIMEOUT_FIRST_BUILD_MILLIS);
+
+        synchronized (artifact) {
+            return revalidate(artifact, lastModifyTimestamp).orElseThrow(() ->
+                    new IllegalStateException("unable to build the artifact [" + artifact + "] in time"));
+        }
+    }
+
+    @Scheduled(initialDelay = 60 * 1000, fixedDelay = 60 * 1000)
+    @Override
+    public void revalidate() {
+        long nowMillis = System.currentTimeMillis();
+        List<Artifact> artifactsToRevalidate;
+
+        synchronized (artifacts) {
+            artifacts.removeIf(a -> nowMillis - a.lastRequestedMillis > IDLE_MILLIS);
+            artifactsToRevalidate = new ArrayList<>(artifacts);
+        }
+
+        for (Artifact artifact : artifactsToRevalidate) {
+            try {
+                Date lastModifyTimestamp = artifact.lastModifyTimestampSupplier.get();
+
+                synchronized (artifact) {
+                    revalidate(artifact, lastModifyTimestamp);
+                }
+            }
+            catch (RuntimeException re) {
+                LOGGER.error("unable to revalidate the artifact [" + artifact + "]", re);
+            }
+        }
+    }
+
+    private Artifact getOrCreateArtifact(
+            Supplier<? extends JobSpecification> specificationSupplier,
+            Supplier<Date> lastModifyTimestampSupplier) {
+        JobSpecification specification = specificationSupplier.get();
+
+        synchronized (artifacts) {
+            Optional<Artifact> artifactOptional = artifacts
+                    .stream()
+                    .filter(a -> a.specification.isEquivalent(specification))
+                    .findFirst();
+
+            if (artifactOptional.isPresent()) {
+                Artifact artifact = artifactOptional.get();
+                artifact.specificationSupplier = specificationSupplier;
+                artifact.lastModifyTimestampSupplier = lastModifyTimestampSupplier;
+                return artifact;
+            }
+
+            Artifact artifact = new Artifact(specification, specificationSupplier, lastModifyTimestampSupplier);
+            artifact.publishedJobGuid = tryFindNewestFinishedJob(specification).map(JobSnapshot::getGuid).orElse(null);
+            artifacts.add(artifact);
+            return artifact;
+        }
+    }
+
+    /**
+     * <p>This will pick up an artifact that was built before this service was started; for example,
+     * from a job service that persists jobs.</p>
+     */
+
+    private Optional<JobSnapshot> tryFindNewestFinishedJob(JobSpecification specification) {
+        return jobService.findJobs(null, EnumSet.of(JobSnapshot.Status.FINISHED), 0, Integer.MAX_VALUE)
+                .stream()
+                .filter(j -> null != j.getJobSpecification())
+                .filter(j -> specification.isEquivalent(j.getJobSpecification()))
+                .filter(j -> 1 == j.getGeneratedDataGuids().size())
+                .max(Comparator.comparing(JobSnapshot::getStartTimestamp))
+                .map(j -> (JobSnapshot) j);
+    }
+
+    /**
+     * <p>Promotes a finished rebuild to be the published artifact and then starts a rebuild if the
+     * published artifact is stale or is missing.  Must be called holding the artifact's monitor.</p>
+     * @return the published artifact if there is one.
+     */
+
+    private Optional<JobSnapshot> revalidate(Artifact artifact, Date lastModifyTimestamp) {
+        promoteRebuild(artifact);
+
+        Optional<JobSnapshot> publishedOptional = tryGetPublished(artifact);
+
+        if (!publishedOptional.isPresent() || isStale(publishedOptional.get(), lastModifyTimestamp)) {
+            startRebuild(artifact);
+        }
+
+        return publishedOptional;
+    }
+
+    private void promoteRebuild(Artifact artifact) {
+        if (null != artifact.rebuildJobGuid) {
+            Optional<? extends JobSnapshot> rebuildOptional = jobService.tryGetJob(artifact.rebuildJobGuid);
+
+            if (!rebuildOptional.isPresent()) {
+                artifact.rebuildJobGuid = null;
+                return;
+            }
+
+            switch (rebuildOptional.get().getStatus()) {
+                case FINISHED:
+                    LOGGER.info("did publish artifact [{}] from job [{}]", artifact, artifact.rebuildJobGuid);
+                    artifact.publishedJobGuid = artifact.rebuildJobGuid;
+                    artifact.rebuildJobGuid = null;
+                    break;
+
+                case FAILED:
+                case CANCELLED:
+                    LOGGER.warn("the rebuild of artifact [{}] in job [{}] did not finish",
+                            artifact, artifact.rebuildJobGuid);
+                    artifact.rebuildJobGuid = null;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    private Optional<JobSnapshot> tryGetPublished(Artifact artifact) {
+        if (null == artifact.publishedJobGuid) {
+            return Optional.empty();
+        }
+
+        Optional<JobSnapshot> publishedOptional = jobService.tryGetJob(artifact.publishedJobGuid)
+                .filter(j -> JobSnapshot.Status.FINISHED == j.getStatus())
+                .map(j -> (JobSnapshot) j);
+
+        if (!publishedOptional.isPresent()) {
+            artifact.publishedJobGuid = null;
+        }
+
+        return publishedOptional;
+    }
+
+    /**
+     * <p>The artifact is stale if the data has been modified since the job started or if the job
+     * is going to expire soon.  By rebuilding the artifact before it expires, there is always a complete
+     * artifact to serve for an artifact that is in use.</p>
+     */
+
+    private static boolean isStale(JobSnapshot published, Date lastModifyTimestamp) {
+        if (published.getStartTimestamp().getTime() < lastModifyTimestamp.getTime()) {
+            return true;
+        }
+
+        long ttlMillis = published.getJobSpecification().tryGetTimeToLiveMillis()
+                .orElse(AbstractJobServiceImpl.TTL_DEFAULT);
+        return System.currentTimeMillis() - published.getFinishTimestamp().getTime() > ttlMillis / 2;
+    }
+
+    /**
+     * <p>The job service will also coalesce the submission with an equivalent queued or started job so
+     * there is at most one rebuild in flight for each artifact.</p>
+     */
+
+    private void startRebuild(Artifact artifact) {
+        if (null == artifact.rebuildJobGuid) {
+            artifact.rebuildJobGuid = jobService.submit(
+                    artifact.specificationSupplier.get(),
+                    JobSnapshot.COALESCE_STATUSES_QUEUED_STARTED);
+            LOGGER.info("did start rebuild of artifact [{}] in job [{}]", artifact, artifact.rebuildJobGuid);
+        }
+    }
+
+    /**
+     * <p>The job guids are guarded by the artifact's monitor.</p>
+     */
+
+    private static class Artifact {
+
+        private final JobSpecification specification;
+
+        private volatile Supplier<? extends JobSpecification> specificationSupplier;
+
+        private volatile Supplier<Date> lastModifyTimestampSupplier;
+
+        private String publishedJobGuid;
+
+        private String rebuildJobGuid;
+
+        private volatile long lastRequestedMillis = System.currentTimeMillis();
+
+        Artifact(
+                JobSpecification specification,
+                Supplier<? extends JobSpecification> specificationSupplier,
+                Supplier<Date> lastModifyTimestampSupplier) {
+            this.specification = specification;
+            this.specificationSupplier = specificationSupplier;
+            this.lastModifyTimestampSupplier = lastModifyTimestampSupplier;
+        }
+
+        @Override
+        public String toString() {
+            return specification.getJobTypeCode();
+        }
+
+    }
+
+}
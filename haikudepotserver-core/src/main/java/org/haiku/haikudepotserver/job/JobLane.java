@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.haiku.haikudepotserver.job.model.JobService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>This is the running form of a {@link JobLaneDefinition}.  It owns an executor which is
+ * bounded both in terms of the threads and in terms of the queue.  If the queue is full
+ * then the submitting thread will be held until there is space in the queue or until a
+ * timeout has elapsed.</p>
+ */
+
+class JobLane {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(JobService.class);
+
+    private final static long TIMEOUT_ENQUEUE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private final JobLaneDefinition definition;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Timer waitTimer = new Timer();
+
+    JobLane(JobLaneDefinition definition) {
+        this.definition = Preconditions.checkNotNull(definition);
+        this.executor = new ThreadPoolExecutor(
+                definition.getMaxConcurrency(), // core pool size
+                definition.getMaxConcurrency(), // max pool size
+                1L, // time to shutdown threads
+                TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(definition.getQueueSize()),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("job-lane-" + definition.getName() + "-%d")
+                        .setDaemon(true)
+                        .build(),
+                new BlockingEnqueuePolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    JobLaneDefinition getDefinition() {
+        return definition;
+    }
+
+    String getName() {
+        return definition.getName();
+    }
+
+    boolean accepts(String jobTypeCode) {
+        return definition.getJobTypeCodes().contains(jobTypeCode);
+    }
+
+    /**
+     * <p>The number of jobs that are waiting in the lane for a thread to become available.</p>
+     */
+
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * <p>This should be invoked by the job as it starts in order to record how long the
+     * job had to wait in the lane before it was able to start.</p>
+     */
+
+    void recordWait(long waitMillis) {
+        waitTimer.update(Math.max(0L, waitMillis), TimeUnit.MILLISECONDS);
+    }
+
+    void submit(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    // ------------------------------
+    // METRICS
+
+    private String metricName(String suffix) {
+        return MetricRegistry.name(JobService.class, "lane", definition.getName(), suffix);
+    }
+
+    void registerMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.register(metricName("queued"), (Gauge<Integer>) this::getQueueDepth);
+        metricRegistry.register(metricName("active"), (Gauge<Integer>) this::getActiveCount);
+        metricRegistry.register(metricName("wait"), waitTimer);
+    }
+
+    void unregisterMetrics(MetricRegistry metricRegistry) {
+        metricRegistry.remove(metricName("queued"));
+        metricRegistry.remove(metricName("active"));
+        metricRegistry.remove(metricName("wait"));
+    }
+
+    @Override
+    public String toString() {
+        return "job-lane <" + definition.getName() + ">";
+    }
+
+    /**
+     * <p>Rather than aborting a job when the queue is full, this policy will hold the
+     * submitting thread until there is space in the queue.  This provides back-pressure
+     * to the submitter.</p>
+     */
+
+    private class BlockingEnqueuePolicy implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            if (e.isShutdown()) {
+                throw new RejectedExecutionException(JobLane.this + " is shutdown");
+            }
+
+            LOGGER.info("{} is full; will wait to enqueue job", JobLane.this);
+
+            try {
+                if (!e.getQueue().offer(r, TIMEOUT_ENQUEUE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new RejectedExecutionException(
+                            JobLane.this + " remained full for " + TIMEOUT_ENQUEUE_MILLIS + "ms");
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(
+                        "interrupted while waiting to enqueue into " + JobLane.this, ie);
+            }
+        }
+
+    }
+
+}
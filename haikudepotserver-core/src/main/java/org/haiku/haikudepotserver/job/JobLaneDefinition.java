@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * <p>The {@link LocalJobServiceImpl} runs jobs in &quot;lanes&quot;.  Each lane has its own
+ * limit on the number of jobs that can run concurrently and its own limit on the number of
+ * jobs that can be queued.  This means that a long-running job such as the ingest of a
+ * repository does not hold up the production of a spreadsheet.  This object describes such
+ * a lane.  A lane that has no job type codes is the default lane and it will take any jobs
+ * that are not explicitly taken by another lane.</p>
+ */
+
+public class JobLaneDefinition {
+
+    public final static String NAME_DEFAULT = "default";
+
+    private final String name;
+
+    private final Set<String> jobTypeCodes;
+
+    private final int maxConcurrency;
+
+    private final int queueSize;
+
+    public JobLaneDefinition(
+            String name,
+            Collection<String> jobTypeCodes,
+            int maxConcurrency,
+            int queueSize) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "the name of the lane must be supplied");
+        Preconditions.checkArgument(null != jobTypeCodes, "the job type codes must be supplied");
+        Preconditions.checkArgument(maxConcurrency > 0, "the max concurrency must be a positive value");
+        Preconditions.checkArgument(queueSize > 0, "the queue size must be a positive value");
+        this.name = name;
+        this.jobTypeCodes = ImmutableSet.copyOf(jobTypeCodes);
+        this.maxConcurrency = maxConcurrency;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * <p>Creates a lane that will take all of the jobs that are not taken by another lane.</p>
+     */
+
+    public static JobLaneDefinition createDefault(int maxConcurrency, int queueSize) {
+        return new JobLaneDefinition(NAME_DEFAULT, ImmutableSet.of(), maxConcurrency, queueSize);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<String> getJobTypeCodes() {
+        return jobTypeCodes;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public boolean isDefault() {
+        return jobTypeCodes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("name", name)
+                .append("jobTypeCodes", jobTypeCodes)
+                .append("maxConcurrency", maxConcurrency)
+                .append("queueSize", queueSize)
+                .build();
+    }
+
+}
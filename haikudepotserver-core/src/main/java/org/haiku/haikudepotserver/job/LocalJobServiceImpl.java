@@ -1,38 +1,27 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.haikudepotserver.job;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
-import com.google.common.collect.*;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteSource;
-import com.google.common.net.MediaType;
-import com.google.common.util.concurrent.AbstractService;
-import com.google.common.util.concurrent.Uninterruptibles;
-import org.apache.commons.lang3.StringUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.haiku.haikudepotserver.dataobjects.User;
 import org.haiku.haikudepotserver.job.model.*;
 import org.haiku.haikudepotserver.storage.model.DataStorageService;
-import org.haiku.haikudepotserver.support.DateTimeHelper;
-import org.haiku.haikudepotserver.support.SingleCollector;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.BeansException;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.ApplicationContextAware;
-
-import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -41,119 +30,100 @@ import java.util.stream.Collectors;
  * <p>This concrete implementation of the {@link JobService}
  * is able to run jobs locally in the virtual machine; it does not distribute or coordinate the run-state of the
  * jobs across virtual machines etc...</p>
+ *
+ * <p>Jobs are run in &quot;lanes&quot; which are configured with {@link JobLaneDefinition}s.  Each lane
+ * has its own concurrency and queue size so that, for example, a long running import does not hold up
+ * the production of a spreadsheet.  If no lanes are configured then there is a single default lane
+ * that will run one job at a time.</p>
+ *
+ * <p>The jobs and the job data are held in concurrent maps keyed by GUID so that reading the status of a
+ * job is cheap and does not contend with running jobs that are reporting their progress.  An index from
+ * the GUID of job data to the GUID of the owning job is also maintained.  Jobs that have expired are
+ * removed by a periodic sweep rather than as part of reading.</p>
+ *
+ * <p>Changes to the state of jobs and job data are written through to a {@link JobStore}.  If the store
+ * is durable then the jobs and job data are loaded from the store as the service starts; jobs that were
+ * queued are re-queued and jobs that were running when the service stopped are failed.</p>
  */
 
-public class LocalJobServiceImpl
-        extends AbstractService
-        implements JobService, ApplicationContextAware {
+public class LocalJobServiceImpl extends AbstractJobServiceImpl {
 
-    protected static Logger LOGGER = LoggerFactory.getLogger(JobService.class);
+    private final static long PERIOD_EXPIRY_SWEEP_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
-    private final static int SIZE_QUEUE = 10;
+    private final DataStorageService dataStorageService;
 
-    private final static long TTL_DEFAULT = TimeUnit.HOURS.toMillis(2);
+    private final JobStore jobStore;
 
-    private final DataStorageService dataStorageService;
+    private ScheduledExecutorService expirySweepExecutor = null;
 
     /**
-     * <p>This gets setup through an query into the {@link ApplicationContext}.
-     * </p>
+     * <p>Contains a mapping from the GUID to the job.</p>
      */
 
-    private Collection<JobRunner> jobRunners = null;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
 
-    private ThreadPoolExecutor executor = null;
-
-    private ApplicationContext applicationContext;
+    /**
+     * <p>Job data that the system knows about keyed by the GUID of the data.</p>
+     */
 
-    private final ArrayBlockingQueue<Runnable> runnables = Queues.newArrayBlockingQueue(SIZE_QUEUE);
+    private final Map<String, JobData> datas = new ConcurrentHashMap<>();
 
     /**
-     * <p>Contains a mapping from the GUID to the job.</p>
+     * <p>Maps from the GUID of job data to the GUID of the job that owns the data.</p>
      */
 
-    private Map<String, Job> jobs;
+    private final Map<String, String> jobGuidsByDataGuid = new ConcurrentHashMap<>();
 
     /**
-     * <p>Job data that the system knows about.</p>
+     * <p>Ensures that only one sweep of expired jobs and data is happening at any one time.</p>
      */
 
-    private final Set<JobData> datas = Sets.newHashSet();
+    private final Object expirySweepLock = new Object();
 
     public LocalJobServiceImpl(
             DataStorageService dataStorageService) {
-        this.dataStorageService = dataStorageService;
+        this(dataStorageService, null, null, null, null);
     }
 
     public LocalJobServiceImpl(
             DataStorageService dataStorageService,
             Collection<JobRunner> jobRunners) {
-        this.dataStorageService = dataStorageService;
-        this.jobRunners = jobRunners;
+        this(dataStorageService, jobRunners, null, null, null);
     }
 
-    @PostConstruct
-    public void init() {
-        if (null == jobRunners) {
-            jobRunners = applicationContext.getBeansOfType(JobRunner.class).values();
-            LOGGER.info("configured {} job runners from the application context",
-                    jobRunners.size());
-        } else {
-            LOGGER.info("{} job runners were already configured - will not "
-                    + "populate any from the application context",
-                    jobRunners.size());
-        }
-        startAsyncAndAwaitRunning();
+    public LocalJobServiceImpl(
+            DataStorageService dataStorageService,
+            List<JobLaneDefinition> laneDefinitions,
+            MetricRegistry metricRegistry) {
+        this(dataStorageService, null, laneDefinitions, metricRegistry, null);
     }
 
-    @PreDestroy
-    public void tearDown() {
-        stopAsyncAndAwaitTerminated();
+    public LocalJobServiceImpl(
+            DataStorageService dataStorageService,
+            List<JobLaneDefinition> laneDefinitions,
+            MetricRegistry metricRegistry,
+            JobStore jobStore) {
+        this(dataStorageService, null, laneDefinitions, metricRegistry, jobStore);
     }
 
-    @Override
-    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
-        this.applicationContext = applicationContext;
+    /**
+     * @param jobStore is optional; if it is not supplied then the state of the jobs will not be stored.
+     */
+
+    public LocalJobServiceImpl(
+            DataStorageService dataStorageService,
+            Collection<JobRunner> jobRunners,
+            List<JobLaneDefinition> laneDefinitions,
+            MetricRegistry metricRegistry,
+            JobStore jobStore) {
+        super(jobRunners, laneDefinitions, metricRegistry);
+        this.dataStorageService = dataStorageService;
+        this.jobStore = null != jobStore ? jobStore : new TransientJobStore();
     }
 
     // ------------------------------
     // RUN JOBS
 
-    @Override
-    public boolean awaitAllJobsFinishedUninterruptibly(long timeout) {
-        Preconditions.checkArgument(timeout > 0);
-        Stopwatch stopwatch = Stopwatch.createStarted();
-        EnumSet<JobSnapshot.Status> earlyStatuses = EnumSet.of(JobSnapshot.Status.QUEUED, JobSnapshot.Status.STARTED);
-
-        while (stopwatch.elapsed(TimeUnit.MILLISECONDS) < timeout
-            && !filteredInternalJobs(null, earlyStatuses).isEmpty()) {
-            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
-        }
-
-        return filteredInternalJobs(null, earlyStatuses).isEmpty();
-    }
-
-    @Override
-    public boolean awaitJobFinishedUninterruptibly(String guid, long timeout) {
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "a guid must be supplied");
-        Preconditions.checkArgument(timeout > 0);
-        Stopwatch stopwatch = Stopwatch.createStarted();
-        EnumSet<JobSnapshot.Status> earlyStatuses = EnumSet.of(JobSnapshot.Status.QUEUED, JobSnapshot.Status.STARTED);
-
-        while(stopwatch.elapsed(TimeUnit.MILLISECONDS) < timeout
-                && tryGetJob(guid).filter((j) -> earlyStatuses.contains(j.getStatus())).isPresent()) {
-            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
-        }
-
-        return tryGetJob(guid).filter((j) -> earlyStatuses.contains(j.getStatus())).isPresent();
-    }
-
-    private Optional<JobRunner> getJobRunner(final String jobTypeCode) {
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(jobTypeCode));
-        Preconditions.checkState(null!=jobRunners,"the job runners must be configured - was this started up properly?");
-        return jobRunners.stream().filter(j -> j.getJobTypeCode().equals(jobTypeCode)).collect(SingleCollector.optional());
-    }
-
     @Override
     public String submit(
             JobSpecification specification,
@@ -174,91 +144,37 @@ public class LocalJobServiceImpl
             JobSpecification specification,
             Set<JobSnapshot.Status> coalesceForStatuses,
             Function<JobSpecification, Job> createJobFunction) {
-
-        Preconditions.checkState(null != executor,
-                "the executor has not been configured; was this service started correctly?");
-        Preconditions.checkArgument(null != specification);
         Preconditions.checkArgument(null != coalesceForStatuses,
                 "the statuses over which coalescing should occur must be supplied");
+        validateSpecification(specification);
+        return tryFindCoalescingJobGuid(
+                jobs.values().stream().map(Job::new), // copies so that the state does not change while sorting
+                specification,
+                coalesceForStatuses)
+                .orElseGet(() -> createJobFunction.apply(specification).getGuid());
+    }
 
-        getJobRunner(specification.getJobTypeCode()).orElseThrow(() ->
-                new IllegalStateException("unable to run a job runner for the job type code; "
-                        + specification.getJobTypeCode()));
-
-        for (String guid : specification.getSuppliedDataGuids()) {
-            if (!tryGetData(guid).isPresent()) {
-                throw new IllegalStateException(
-                        "unable to run a job specification because the specified data "
-                                + guid + " was not able to be found");
-            }
-        }
+    private void putInternalJob(Job job) {
+        jobs.put(job.getGuid(), job);
 
-        if (null==specification.getGuid()) {
-            specification.setGuid(UUID.randomUUID().toString());
-        } else {
-            synchronized (this) {
-               if (tryGetJob(specification.getGuid()).isPresent()) {
-                   throw new IllegalStateException(
-                           "a specification has been submitted for which there is already a job running; "
-                                   + specification.getGuid());
-               }
-            }
+        for (String dataGuid : job.getJobSpecification().getSuppliedDataGuids()) {
+            jobGuidsByDataGuid.put(dataGuid, job.getGuid());
         }
-
-        // first clear out any expired jobs
-
-        clearExpiredInternalJobs();
-
-        // if there is an existing report that can be used then use it; otherwise make a new one.
-        // The use of sorting below is to get the best job to re-use (the most recent) from all
-        // of the possible ones.
-
-        Optional<String> firstMatchingJobGuidOptional;
-
-        synchronized (this) {
-            firstMatchingJobGuidOptional = ImmutableList.copyOf(jobs.values())
-                    .stream()
-                    .filter((j) -> coalesceForStatuses.contains(j.getStatus()))
-                    .filter((j) -> specification.isEquivalent(j.getJobSpecification()))
-                    .sorted((j1, j2) -> ComparisonChain.start()
-                            .compare(j1.getStatus(), j2.getStatus(),
-                                    Ordering.explicit(
-                                            JobSnapshot.Status.FINISHED,
-                                            JobSnapshot.Status.STARTED,
-                                            JobSnapshot.Status.QUEUED
-                                    )
-                            )
-                            .compare(j1.getFinishTimestamp(), j2.getFinishTimestamp(), Ordering.natural().nullsLast())
-                            .compare(j1.getStartTimestamp(), j2.getStartTimestamp(), Ordering.natural().nullsLast())
-                            .compare(j1.getQueuedTimestamp(), j2.getQueuedTimestamp(), Ordering.natural().nullsLast())
-                            .compare(j1.getFailTimestamp(), j2.getFailTimestamp(), Ordering.natural().nullsLast())
-                            .compare(j1.getCancelTimestamp(), j2.getCancelTimestamp(), Ordering.natural().nullsLast())
-                            .result()
-                    )
-                    .map(Job::getGuid)
-                    .findFirst();
-        }
-
-        return firstMatchingJobGuidOptional.orElseGet(() -> createJobFunction.apply(specification).getGuid());
     }
 
     private Job createInternalJobBySubmittingToExecutor(final JobSpecification specification) {
         Job job = new Job(specification);
 
-        LOGGER.debug("{}; will submit job", specification.toString());
-        jobs.put(job.getGuid(), job);
+        putInternalJob(job);
         setInternalJobRunQueuedTimestamp(specification.getGuid());
-        executor.submit(() -> {
-            String threadNamePrior = Thread.currentThread().getName();
 
-            try {
-                Thread.currentThread().setName("job-run-" + StringUtils.abbreviate(specification.getGuid(), 4));
-                runSpecificationInCurrentThread(specification);
-            }
-            finally {
-                Thread.currentThread().setName(threadNamePrior);
-            }
-        });
+        try {
+            submitToLane(job.getJobSpecification(), job.getQueuedTimestamp());
+        }
+        catch (RejectedExecutionException ree) {
+            removeInternalJob(job);
+            throw ree;
+        }
 
         return job;
     }
@@ -267,7 +183,7 @@ public class LocalJobServiceImpl
         Job job = new Job(specification);
 
         LOGGER.debug("{}; will run job immediately", specification.toString());
-        jobs.put(job.getGuid(), job);
+        putInternalJob(job);
         setInternalJobRunQueuedTimestamp(specification.getGuid());
         runSpecificationInCurrentThread(specification);
         LOGGER.debug("{}; did run job immediately", specification.toString());
@@ -275,45 +191,12 @@ public class LocalJobServiceImpl
         return job;
     }
 
-    /**
-     * <p>This will actually run the job.  This does not need to be locked.</p>
-     */
-
-    private void runSpecificationInCurrentThread(JobSpecification specification) {
-        Preconditions.checkArgument(null != specification, "the job specification must be supplied to run the job");
-        Optional<JobRunner> jobRunnerOptional = getJobRunner(specification.getJobTypeCode());
-
-        if(!jobRunnerOptional.isPresent()) {
-            LOGGER.error(
-                    "{}; there is no job runner available for job type code '{}'; - failing",
-                    specification.toString(),
-                    specification.getJobTypeCode());
-
-            setJobFailTimestamp(specification.getGuid());
-        }
-
-        try {
-            setInternalJobStartTimestamp(specification.getGuid());
-            //noinspection unchecked
-            jobRunnerOptional.get().run(this, specification);
-            setInternalJobFinishTimestamp(specification.getGuid());
-        }
-        catch(Throwable th) {
-            LOGGER.error(specification.getGuid() + "; failure to run the job", th);
-            setJobFailTimestamp(specification.getGuid());
-        }
-    }
-
     // ------------------------------
     // PURGE
 
-    private synchronized Optional<Job> tryFindInternalJobOwningJobData(final JobData data) {
+    private Optional<Job> tryFindInternalJobOwningJobData(final JobData data) {
         Preconditions.checkArgument(null != data, "the data must be provided");
-        return jobs
-                .values()
-                .stream()
-                .filter(v -> v.getDataGuids().contains(data.getGuid()))
-                .collect(SingleCollector.optional());
+        return Optional.ofNullable(jobGuidsByDataGuid.get(data.getGuid())).map(jobs::get);
     }
 
     /**
@@ -322,15 +205,19 @@ public class LocalJobServiceImpl
      * cull those job datas that have not been used before time reasonable timeout.</p>
      */
 
-    private synchronized void clearExpiredDatas() {
-        ImmutableList.copyOf(datas)
+    private void clearExpiredDatas() {
+        long nowMillis = System.currentTimeMillis();
+
+        datas.values()
                 .stream()
-                .filter((d) -> System.currentTimeMillis() - d.getCreateTimestamp().getTime() > TTL_DEFAULT)
+                .filter((d) -> nowMillis - d.getCreateTimestamp().getTime() > TTL_DEFAULT)
                 .filter((d) -> !tryFindInternalJobOwningJobData(d).isPresent())
+                .collect(Collectors.toList())
                 .forEach((d) -> {
                     if(dataStorageService.remove(d.getGuid())) {
                         LOGGER.info("did delete the expired unassociated job data; [{}]", d);
-                        datas.remove(d);
+                        datas.remove(d.getGuid());
+                        tryStore(() -> jobStore.removeData(d.getGuid()));
                     }
                     else {
                         LOGGER.error("was not able to delete the expired unassociated job data; [{}] - data will remain in situ", d);
@@ -342,16 +229,20 @@ public class LocalJobServiceImpl
      * <p>Removes the job and any data associated with the job.</p>
      */
 
-    private synchronized void removeInternalJob(Job job) {
+    private void removeInternalJob(Job job) {
         Preconditions.checkArgument(null!=job, "the job must be supplied to remove a job");
 
+        jobs.remove(job.getGuid());
+        tryStore(() -> jobStore.removeJob(job.getGuid()));
+
         for(String guid : job.getDataGuids()) {
-            Optional<JobData> jobDataOptional = tryGetData(guid);
+            jobGuidsByDataGuid.remove(guid, job.getGuid());
 
-            if(jobDataOptional.isPresent()) {
+            if(datas.containsKey(guid)) {
                 if (dataStorageService.remove(guid)) {
                     LOGGER.info("did delete the job data; {}", guid);
-                    datas.remove(jobDataOptional.get());
+                    datas.remove(guid);
+                    tryStore(() -> jobStore.removeData(guid));
                 } else {
                     LOGGER.error("was not able to delete the job data; {} - data will remain in situ", guid);
                 }
@@ -360,8 +251,6 @@ public class LocalJobServiceImpl
                 LOGGER.info("the orchestration service does not know about the job data; {} - data will remain in situ", guid);
             }
         }
-
-        jobs.remove(job.getGuid());
     }
 
     @Override
@@ -369,59 +258,46 @@ public class LocalJobServiceImpl
         clearExpiredInternalJobs();
     }
 
-    private synchronized void clearExpiredInternalJobs() {
-        long nowMillis = System.currentTimeMillis();
-
-        synchronized (this) {
-
-            for (Job job : ImmutableList.copyOf(jobs.values())) {
-
-                Long ttl = job.tryGetTimeToLiveMillis().orElse(TTL_DEFAULT);
-                Date quiesenceTimestamp = null;
-
-                switch (job.getStatus()) {
-
-                    case CANCELLED:
-                        quiesenceTimestamp = job.getCancelTimestamp();
-                        break;
-
-                    case FINISHED:
-                        quiesenceTimestamp = job.getFinishTimestamp();
-                        break;
-
-                    case FAILED:
-                        quiesenceTimestamp = job.getFailTimestamp();
-                        break;
+    /**
+     * <p>This is run periodically in the background so that reads of the jobs do not
+     * need to remove expired jobs.</p>
+     */
 
-                }
+    private void tryClearExpiredInternalJobs() {
+        try {
+            clearExpiredInternalJobs();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to clear expired jobs", th);
+        }
+    }
 
-                if (null != quiesenceTimestamp) {
-                    if (nowMillis - quiesenceTimestamp.getTime() > ttl) {
+    private void clearExpiredInternalJobs() {
+        synchronized (expirySweepLock) {
+            long nowMillis = System.currentTimeMillis();
 
-                        removeInternalJob(job);
+            for (Job job : ImmutableList.copyOf(jobs.values())) {
+                if (isExpired(job, nowMillis)) {
+                    removeInternalJob(job);
 
-                        LOGGER.info(
-                                "{} purged expired job for ttl; {}ms",
-                                job.getJobSpecification().toString(),
-                                ttl);
-                    }
+                    LOGGER.info(
+                            "{} purged expired job for ttl; {}ms",
+                            job.getJobSpecification().toString(),
+                            job.tryGetTimeToLiveMillis().orElse(TTL_DEFAULT));
                 }
-
             }
-        }
 
-        clearExpiredDatas();
+            clearExpiredDatas();
+        }
     }
 
     // ------------------------------
     // GET JOBS / LIST / SEARCH
 
-    private synchronized List<Job> filteredInternalJobs(
+    private List<Job> filteredInternalJobs(
             final User user,
             final Set<JobSnapshot.Status> statuses) {
 
-        clearExpiredInternalJobs();
-
         if(null!=statuses && statuses.isEmpty()) {
             return Collections.emptyList();
         }
@@ -431,6 +307,7 @@ public class LocalJobServiceImpl
                 .stream()
                 .filter(v -> null == user || user.getNickname().equals(v.getOwnerUserNickname()))
                 .filter(v -> null == statuses || statuses.contains(v.getStatus()))
+                .map(Job::new)
                 .collect(Collectors.toList());
 
     }
@@ -475,7 +352,7 @@ public class LocalJobServiceImpl
      */
 
     @Override
-    public synchronized Optional<? extends JobSnapshot> tryGetJob(String guid) {
+    public Optional<? extends JobSnapshot> tryGetJob(String guid) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(guid));
         JobSnapshot job = jobs.get(guid);
 
@@ -487,7 +364,7 @@ public class LocalJobServiceImpl
     }
 
     @Override
-    public synchronized void removeJob(String guid) {
+    public void removeJob(String guid) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(guid));
         Job job = jobs.get(guid);
 
@@ -517,107 +394,210 @@ public class LocalJobServiceImpl
     // SET STATUS
 
     @Override
-    public synchronized void setJobProgressPercent(String guid, Integer progressPercent) {
+    public void setJobProgressPercent(String guid, Integer progressPercent) {
         setInternalJobProgressPercent(guid, progressPercent);
     }
 
     @Override
-    public synchronized void setJobFailTimestamp(String guid) {
+    public void setJobFailTimestamp(String guid) {
         setInternalJobFailTimestamp(guid);
     }
 
     @Override
-    public synchronized void setJobCancelTimestamp(String guid) {
+    public void setJobCancelTimestamp(String guid) {
         setInternalJobCancelTimestamp(guid);
     }
 
-    private synchronized void setInternalJobStartTimestamp(String guid) {
+    @Override
+    void setJobStartTimestamp(String guid) {
+        setInternalJobStartTimestamp(guid);
+    }
+
+    @Override
+    void setJobFinishTimestamp(String guid) {
+        setInternalJobFinishTimestamp(guid);
+    }
+
+    /**
+     * <p>The state transitions below lock on the job itself rather than on the service so that
+     * the transitions of one job do not contend with those of another job or with readers.</p>
+     */
+
+    private void setInternalJobStartTimestamp(String guid) {
         Job job = getInternalJob(guid);
 
-        if(job.getStatus() != JobSnapshot.Status.QUEUED) {
-            throw new IllegalStateException("it is not possible to start a job from status; " + job.getStatus());
+        synchronized (job) {
+            if (job.getStatus() != JobSnapshot.Status.QUEUED) {
+                throw new IllegalStateException("it is not possible to start a job from status; " + job.getStatus());
+            }
+
+            job.setStartTimestamp();
+            storeInternalJob(job);
         }
 
-        job.setStartTimestamp();
         LOGGER.info("{}; start", job.getJobSpecification().toString());
-
-        notifyAll();
     }
 
-    private synchronized void setInternalJobFinishTimestamp(String guid) {
+    private void setInternalJobFinishTimestamp(String guid) {
         Job job = getInternalJob(guid);
 
-        if(job.getStatus() != JobSnapshot.Status.STARTED) {
-            throw new IllegalStateException("it is not possible to finish a job from status; " + job.getStatus());
+        synchronized (job) {
+            if (job.getStatus() != JobSnapshot.Status.STARTED) {
+                throw new IllegalStateException("it is not possible to finish a job from status; " + job.getStatus());
+            }
+
+            job.setFinishTimestamp();
+            storeInternalJob(job);
         }
 
-        job.setFinishTimestamp();
         LOGGER.info("{}; finish", job.getJobSpecification().toString());
-
-        notifyAll();
     }
 
-    private synchronized void setInternalJobRunQueuedTimestamp(String guid) {
+    private void setInternalJobRunQueuedTimestamp(String guid) {
         Job job = getInternalJob(guid);
 
-        if(job.getStatus() != JobSnapshot.Status.INDETERMINATE) {
-            throw new IllegalStateException("it is not possible to queue a job from status; " + job.getStatus());
+        synchronized (job) {
+            if (job.getStatus() != JobSnapshot.Status.INDETERMINATE) {
+                throw new IllegalStateException("it is not possible to queue a job from status; " + job.getStatus());
+            }
+
+            job.setQueuedTimestamp();
+            storeInternalJob(job);
         }
 
-        job.setQueuedTimestamp();
         LOGGER.info("{}; queued", job.getJobSpecification().toString());
-
-        notifyAll();
     }
 
-    private synchronized void setInternalJobFailTimestamp(String guid) {
+    private void setInternalJobFailTimestamp(String guid) {
         Job job = getInternalJob(guid);
 
-        if(job.getStatus() != JobSnapshot.Status.STARTED) {
-            throw new IllegalStateException("it is not possible to fail a job from status; " + job.getStatus());
+        synchronized (job) {
+            if (job.getStatus() != JobSnapshot.Status.STARTED) {
+                throw new IllegalStateException("it is not possible to fail a job from status; " + job.getStatus());
+            }
+
+            job.setFailTimestamp();
+            storeInternalJob(job);
         }
 
-        job.setFailTimestamp();
         LOGGER.info("{}; fail", job.getJobSpecification().toString());
-
-        notifyAll();
     }
 
-    private synchronized void setInternalJobCancelTimestamp(String guid) {
+    private void setInternalJobCancelTimestamp(String guid) {
         Job job = getInternalJob(guid);
 
-        switch (job.getStatus()) {
-            case QUEUED:
-            case STARTED:
-                job.setCancelTimestamp();
-                LOGGER.info("{}; cancelled", job.getJobSpecification().toString());
-                notifyAll();
-                break;
+        synchronized (job) {
+            switch (job.getStatus()) {
+                case QUEUED:
+                case STARTED:
+                    job.setCancelTimestamp();
+                    storeInternalJob(job);
+                    break;
 
-            default:
-                throw new IllegalStateException("it is not possible to cancel a job from status; " + job.getStatus());
+                default:
+                    throw new IllegalStateException("it is not possible to cancel a job from status; " + job.getStatus());
+            }
         }
+
+        LOGGER.info("{}; cancelled", job.getJobSpecification().toString());
     }
 
-    private synchronized void setInternalJobProgressPercent(String guid, Integer progressPercent) {
+    private void setInternalJobProgressPercent(String guid, Integer progressPercent) {
         Preconditions.checkArgument(null==progressPercent || (progressPercent >= 0 && progressPercent <= 100), "bad progress percent value");
         Job job = getInternalJob(guid);
+        Integer priorProgressPercent;
 
-        if(job.getStatus() != JobSnapshot.Status.STARTED) {
-            throw new IllegalStateException("it is not possible to set the progress percent for a job from status; " + job.getStatus());
-        }
+        synchronized (job) {
+            if (job.getStatus() != JobSnapshot.Status.STARTED) {
+                throw new IllegalStateException("it is not possible to set the progress percent for a job from status; " + job.getStatus());
+            }
+
+            priorProgressPercent = job.getProgressPercent();
+            job.setProgressPercent(progressPercent);
 
-        Integer priorProgressPercent = job.getProgressPercent();
+            if (!Objects.equals(priorProgressPercent, progressPercent)) {
+                storeInternalJob(job);
+            }
+        }
 
         if(null!=progressPercent) {
             if(null==priorProgressPercent || priorProgressPercent.intValue() != progressPercent.intValue()) {
                 LOGGER.info("{}; progress {}%", job.getJobSpecification().toString(), progressPercent);
             }
         }
+    }
+
+    // ------------------------------
+    // STORE
+
+    /**
+     * <p>This should be invoked while holding the lock on the job.</p>
+     */
+
+    private void storeInternalJob(Job job) {
+        tryStore(() -> jobStore.storeJob(job));
+    }
+
+    /**
+     * <p>The in-memory state is what the service runs from so a failure to write through to the
+     * store is logged, but it does not stop the job from being run.</p>
+     */
+
+    private void tryStore(Runnable runnable) {
+        try {
+            runnable.run();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to write the job state through to the job store", th);
+        }
+    }
+
+    /**
+     * <p>Loads the jobs and the job data from the store.  This should be run once the lanes are
+     * available so that the jobs that were queued can be submitted to the lanes again.</p>
+     */
+
+    private void restoreFromJobStore() {
+        for (JobData data : jobStore.loadDatas()) {
+            datas.put(data.getGuid(), data);
+        }
+
+        List<Job> storedJobs = jobStore.loadJobs();
+
+        for (Job job : storedJobs) {
+            putInternalJob(job);
+
+            for (String dataGuid : job.getGeneratedDataGuids()) {
+                jobGuidsByDataGuid.put(dataGuid, job.getGuid());
+            }
+        }
+
+        for (Job job : storedJobs) {
+            switch (job.getStatus()) {
 
-        job.setProgressPercent(progressPercent);
+                case STARTED:
+                    LOGGER.info("{}; was running when the service stopped", job.getJobSpecification().toString());
+                    setInternalJobFailTimestamp(job.getGuid());
+                    break;
+
+                case QUEUED:
+                    try {
+                        submitToLane(job.getJobSpecification(), job.getQueuedTimestamp());
+                        LOGGER.info("{}; re-queued", job.getJobSpecification().toString());
+                    }
+                    catch (RejectedExecutionException ree) {
+                        LOGGER.error(job.getGuid() + "; unable to re-queue the job", ree);
+                        synchronized (job) {
+                            job.setFailTimestamp();
+                            storeInternalJob(job);
+                        }
+                    }
+                    break;
 
-        notifyAll();
+            }
+        }
+
+        LOGGER.info("did restore {} jobs and {} job data from the store", storedJobs.size(), datas.size());
     }
 
     // ------------------------------
@@ -626,19 +606,28 @@ public class LocalJobServiceImpl
     @Override
     public void doStart() {
         try {
-            Preconditions.checkState(null == executor);
-
             LOGGER.info("will start service");
 
-            jobs = Maps.newHashMap();
+            jobs.clear();
+            datas.clear();
+            jobGuidsByDataGuid.clear();
+
+            startLanes();
 
-            executor = new ThreadPoolExecutor(
-                    0, // core pool size
-                    1, // max pool size
-                    1L, // time to shutdown threads
-                    TimeUnit.MINUTES,
-                    runnables,
-                    new ThreadPoolExecutor.AbortPolicy());
+            if (jobStore.isDurable()) {
+                restoreFromJobStore();
+            }
+
+            expirySweepExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("job-expiry-sweep-%d")
+                            .setDaemon(true)
+                            .build());
+            expirySweepExecutor.scheduleWithFixedDelay(
+                    this::tryClearExpiredInternalJobs,
+                    PERIOD_EXPIRY_SWEEP_MILLIS,
+                    PERIOD_EXPIRY_SWEEP_MILLIS,
+                    TimeUnit.MILLISECONDS);
 
             notifyStarted();
 
@@ -652,16 +641,17 @@ public class LocalJobServiceImpl
     @Override
     public void doStop() {
         try {
-            Preconditions.checkNotNull(executor);
-
             LOGGER.info("will stop service");
 
-            executor.shutdown();
-            executor.awaitTermination(2, TimeUnit.MINUTES);
-            executor = null;
+            expirySweepExecutor.shutdownNow();
+            expirySweepExecutor = null;
+
+            stopLanes();
             notifyStopped();
 
-            jobs = null;
+            jobs.clear();
+            datas.clear();
+            jobGuidsByDataGuid.clear();
 
             LOGGER.info("did stop service");
         }
@@ -670,16 +660,22 @@ public class LocalJobServiceImpl
         }
     }
 
+    @Override
     public void startAsyncAndAwaitRunning() {
-        tryClearDataStorageService();
-        startAsync();
-        awaitRunning();
+        if (!jobStore.isDurable()) {
+            tryClearDataStorageService();
+        }
+
+        super.startAsyncAndAwaitRunning();
     }
 
+    @Override
     public void stopAsyncAndAwaitTerminated() {
-        tryClearDataStorageService();
-        stopAsync();
-        awaitTerminated();
+        if (!jobStore.isDurable()) {
+            tryClearDataStorageService();
+        }
+
+        super.stopAsyncAndAwaitTerminated();
     }
 
     // ------------------------------
@@ -698,55 +694,9 @@ public class LocalJobServiceImpl
     }
 
     @Override
-    public String deriveDataFilename(String jobDataGuid) {
-        Preconditions.checkArgument(!Strings.isNullOrEmpty(jobDataGuid));
-
-        String descriptor = "jobdata";
-        String extension = "dat";
-
-        Optional<JobData> jobDataOptional = tryGetData(jobDataGuid);
-
-        if(jobDataOptional.isPresent()) {
-
-            JobData jobData = jobDataOptional.get();
-            Optional<? extends JobSnapshot> jobOptional = tryGetJobForData(jobDataGuid);
-
-            if(jobOptional.isPresent()) {
-               descriptor = jobOptional.get().getJobTypeCode();
-            }
-
-            // TODO; get the extensions from a file etc...
-            if (!Strings.isNullOrEmpty(jobData.getMediaTypeCode())) {
-                if (jobData.getMediaTypeCode().startsWith(MediaType.CSV_UTF_8.withoutParameters().toString())) {
-                    extension = "csv";
-                }
-
-                if(jobData.getMediaTypeCode().equals(MediaType.ZIP.withoutParameters().toString())) {
-                    extension = "zip";
-                }
-
-                if(jobData.getMediaTypeCode().equals(MediaType.TAR.withoutParameters().toString())) {
-                    extension = "tgz";
-                }
-
-                if(jobData.getMediaTypeCode().equals(MediaType.PLAIN_TEXT_UTF_8.withoutParameters().toString())) {
-                    extension = "txt";
-                }
-            }
-        }
-
-        return String.format(
-                "hds_%s_%s_%s.%s",
-                descriptor,
-                DateTimeHelper.create14DigitDateTimeFormat().format(Instant.now()),
-                jobDataGuid.substring(0,4),
-                extension);
-    }
-
-    @Override
-    public synchronized Optional<JobData> tryGetData(final String guid) {
+    public Optional<JobData> tryGetData(final String guid) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid must be supplied");
-        return datas.stream().filter(d -> d.getGuid().equals(guid)).collect(SingleCollector.optional());
+        return Optional.ofNullable(datas.get(guid));
     }
 
     @Override
@@ -763,11 +713,10 @@ public class LocalJobServiceImpl
         JobData data = new JobData(guid, JobDataType.GENERATED,useCode,mediaTypeCode);
         JobDataWithByteSink result = new JobDataWithByteSink(data,dataStorageService.put(guid));
 
-        synchronized(this) {
-            datas.add(data);
-        }
-
+        datas.put(guid, data);
+        jobGuidsByDataGuid.put(guid, jobGuid);
         job.addGeneratedDataGuid(guid);
+        tryStore(() -> jobStore.storeData(data, jobGuid));
 
         return result;
     }
@@ -776,7 +725,7 @@ public class LocalJobServiceImpl
     public JobData storeSuppliedData(String useCode, String mediaTypeCode, ByteSource byteSource) throws IOException {
         Preconditions.checkArgument(null!=byteSource, "the byte source must be supplied to provide data");
         String guid = UUID.randomUUID().toString();
-        JobData data;
+        JobData data = new JobData(guid, JobDataType.SUPPLIED, useCode, mediaTypeCode);
         long len;
 
         try(InputStream inputStream = byteSource.openStream()) {
@@ -784,13 +733,11 @@ public class LocalJobServiceImpl
             // TODO; constrain this to a sensible size
 
             len = dataStorageService.put(guid).writeFrom(inputStream);
-            data = new JobData(guid, JobDataType.SUPPLIED, useCode, mediaTypeCode);
-
-            synchronized (this) {
-                datas.add(data);
-            }
+            datas.put(guid, data);
         }
 
+        tryStore(() -> jobStore.storeData(data, null));
+
         LOGGER.info("did supply {}b job data; {}", len, data);
 
         return data;
@@ -806,7 +753,9 @@ public class LocalJobServiceImpl
 
             if(byteSourceOptional.isPresent()) {
                 return Optional.of(new JobDataWithByteSource(
-                        jobDataOptional.get(), byteSourceOptional.get()));
+                        jobDataOptional.get(),
+                        byteSourceOptional.get(),
+                        dataStorageService.tryGetPath(guid).orElse(null)));
             }
         }
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job;
+
+import org.haiku.haikudepotserver.job.model.Job;
+import org.haiku.haikudepotserver.job.model.JobData;
+import org.haiku.haikudepotserver.job.model.JobStore;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>This {@link JobStore} does not store anything so the jobs will only exist in memory and will
+ * be lost when the application server is restarted.  This is useful for testing.</p>
+ */
+
+public class TransientJobStore implements JobStore {
+
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    @Override
+    public List<Job> loadJobs() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<JobData> loadDatas() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void storeJob(Job job) {
+    }
+
+    @Override
+    public void removeJob(String guid) {
+    }
+
+    @Override
+    public void storeData(JobData data, String jobGuid) {
+    }
+
+    @Override
+    public void removeData(String guid) {
+    }
+
+}
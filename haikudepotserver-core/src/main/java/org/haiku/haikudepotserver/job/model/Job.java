@@ -17,25 +17,28 @@ import java.util.Set;
 
 /**
  * <p>The job run state is used to convey data about the running of a job; has it started, was it cancelled etc...</p>
+ *
+ * <p>The state is held in volatile fields so that the status of a job can be read by other threads without
+ * locking.  Writers that need to check the status before changing it should synchronize on the instance.</p>
  */
 
 public class Job implements Comparable<JobSnapshot>, JobSnapshot {
 
-    private Date startTimestamp;
-    private Date finishTimestamp;
-    private Date queuedTimestamp;
-    private Date failTimestamp;
-    private Date cancelTimestamp;
-    private Integer progressPercent;
+    private volatile Date startTimestamp;
+    private volatile Date finishTimestamp;
+    private volatile Date queuedTimestamp;
+    private volatile Date failTimestamp;
+    private volatile Date cancelTimestamp;
+    private volatile Integer progressPercent;
 
     /**
      * <p>This is the {@link JobSpecification} that this instance is
      * conveying the run state for.</p>
      */
 
-    private JobSpecification jobSpecification;
+    private volatile JobSpecification jobSpecification;
 
-    private Set<String> generatedDataGuids = Sets.newHashSet();
+    private Set<String> generatedDataGuids = Sets.newConcurrentHashSet();
 
     public Job() {
         super();
@@ -51,7 +54,7 @@ public class Job implements Comparable<JobSnapshot>, JobSnapshot {
         this.cancelTimestamp = other.getCancelTimestamp();
         this.progressPercent = other.getProgressPercent();
         this.jobSpecification = other.getJobSpecification();
-        this.generatedDataGuids = Sets.newHashSet(other.getGeneratedDataGuids());
+        this.generatedDataGuids.addAll(other.getGeneratedDataGuids());
     }
 
     public Job(JobSpecification jobSpecification) {
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job.model;
+
+import java.util.Date;
+import java.util.function.Supplier;
+
+/**
+ * <p>An artifact is the data from a job that is downloaded in bulk by clients such as the dump of
+ * all of the packages in a repository source.  This service keeps the newest complete artifact for
+ * each equivalent {@link JobSpecification} and rebuilds it in the background when the data that it
+ * was generated from has been modified.  A client is served the newest complete artifact straight
+ * away even if a rebuild is in progress.</p>
+ */
+
+public interface JobArtifactService {
+
+    /**
+     * <p>Returns the job for the newest complete artifact.  If the artifact is stale then a rebuild
+     * will be started, but the stale artifact is returned.  Only if there is no complete artifact at
+     * all does this method wait for the artifact to be built.</p>
+     *
+     * @param specificationSupplier provides a new specification each time the artifact is to be built.
+     * @param lastModifyTimestampSupplier provides the last modify timestamp of the data from which the
+     *                                    artifact is generated.  This is also used in the background to
+     *                                    check if the artifact has become stale.
+     */
+
+    JobSnapshot getArtifact(
+            Supplier<? extends JobSpecification> specificationSupplier,
+            Supplier<Date> lastModifyTimestampSupplier);
+
+    /**
+     * <p>Checks each of the artifacts that has been requested recently and starts a rebuild of those
+     * that are stale so that they are ready before they are next requested.</p>
+     */
+
+    void revalidate();
+
+}
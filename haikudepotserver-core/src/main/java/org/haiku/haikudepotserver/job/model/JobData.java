@@ -27,13 +27,18 @@ public class JobData {
     private Date createTimestamp;
 
     public JobData(String guid, JobDataType dataType, String useCode, String mediaTypeCode) {
+        this(guid, dataType, useCode, mediaTypeCode, new Date());
+    }
+
+    public JobData(
+            String guid, JobDataType dataType, String useCode, String mediaTypeCode, Date createTimestamp) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(guid), "the guid must be supplied to identify the data");
         Preconditions.checkArgument(null!=dataType, "the data type must be provided");
         this.guid = guid;
         this.dataType = dataType;
         this.useCode = useCode;
         this.mediaTypeCode = mediaTypeCode;
-        this.createTimestamp = new Date();
+        this.createTimestamp = Preconditions.checkNotNull(createTimestamp);
     }
 
     public String getUseCode() {
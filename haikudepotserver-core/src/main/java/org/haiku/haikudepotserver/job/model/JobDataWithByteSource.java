@@ -1,5 +1,5 @@
 /*
- * Copyright 2014, Andrew Lindesay
+ * Copyright 2014-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -8,21 +8,31 @@ package org.haiku.haikudepotserver.job.model;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteSource;
 
+import java.nio.file.Path;
+import java.util.Optional;
+
 /**
  * <p>Couples a {@link JobData} with a {@link com.google.common.io.ByteSource}
- * such that data generated by a job can be obtained.</p>
+ * such that data generated by a job can be obtained.  If the data is stored in a local file then the
+ * path to the file is also available.</p>
  */
 
 public class JobDataWithByteSource {
 
     private JobData jobData;
     private ByteSource byteSource;
+    private Path path;
 
     public JobDataWithByteSource(JobData jobData, ByteSource byteSource) {
+        this(jobData, byteSource, null);
+    }
+
+    public JobDataWithByteSource(JobData jobData, ByteSource byteSource, Path path) {
         Preconditions.checkArgument(null!=jobData, "job data must be supplied");
         Preconditions.checkArgument(null!=byteSource, "byte source must be supplied");
         this.jobData = jobData;
         this.byteSource = byteSource;
+        this.path = path;
     }
 
     public JobData getJobData() {
@@ -32,4 +42,8 @@ public class JobDataWithByteSource {
     public ByteSource getByteSource() {
         return byteSource;
     }
+
+    public Optional<Path> tryGetPath() {
+        return Optional.ofNullable(path);
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.job.model;
+
+import java.util.List;
+
+/**
+ * <p>The {@link JobService} keeps the state of the jobs and the job data in memory, but it will
+ * also write the state through to an instance of this interface.  A durable store allows the
+ * jobs and their data to be recovered after the application server has been restarted so that
+ * jobs that were queued are able to be run and data that was generated is able to be downloaded.
+ * </p>
+ */
+
+public interface JobStore {
+
+    /**
+     * <p>If the store is durable then the state of the jobs will survive the application server
+     * being restarted.  In this case, the data storage should not be cleared when the service
+     * starts or stops.</p>
+     */
+
+    boolean isDurable();
+
+    /**
+     * <p>Returns all of the jobs that are stored.  The generated data associated with each job
+     * will be populated.</p>
+     */
+
+    List<Job> loadJobs();
+
+    List<JobData> loadDatas();
+
+    void storeJob(Job job);
+
+    void removeJob(String guid);
+
+    /**
+     * @param jobGuid is the job that generated the data; this is null if the data was supplied.
+     */
+
+    void storeData(JobData data, String jobGuid);
+
+    void removeData(String guid);
+
+}
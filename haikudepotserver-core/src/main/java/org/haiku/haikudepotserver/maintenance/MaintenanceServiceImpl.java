@@ -8,9 +8,14 @@ import org.haiku.haikudepotserver.job.model.JobService;
 import org.haiku.haikudepotserver.job.model.JobSnapshot;
 import org.haiku.haikudepotserver.maintenance.model.MaintenanceService;
 import org.haiku.haikudepotserver.passwordreset.model.PasswordResetMaintenanceJobSpecification;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchIndexService;
+import org.haiku.haikudepotserver.pkg.model.RenderedPkgImagePrewarmService;
 import org.haiku.haikudepotserver.repository.model.RepositoryHpkrIngressJobSpecification;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
@@ -27,12 +32,37 @@ public class MaintenanceServiceImpl implements MaintenanceService {
 
     private final ServerRuntime serverRuntime;
     private final JobService jobService;
+    private final PkgSearchIndexService pkgSearchIndexService;
+    private final RenderedPkgImagePrewarmService renderedPkgImagePrewarmService;
+    private final boolean prewarmPkgIcons;
 
     public MaintenanceServiceImpl(
             ServerRuntime serverRuntime,
-            JobService jobService) {
+            JobService jobService,
+            PkgSearchIndexService pkgSearchIndexService,
+            RenderedPkgImagePrewarmService renderedPkgImagePrewarmService,
+            @Value("${pkg.icon.cache.prewarm:true}") boolean prewarmPkgIcons) {
         this.serverRuntime = serverRuntime;
         this.jobService = jobService;
+        this.pkgSearchIndexService = pkgSearchIndexService;
+        this.renderedPkgImagePrewarmService = renderedPkgImagePrewarmService;
+        this.prewarmPkgIcons = prewarmPkgIcons;
+    }
+
+    /**
+     * <p>The rendered icons are cached on each node so each node prewarms its own cache rather than
+     * submitting a job that may run on, and coalesce with, another node.  The event may arrive more
+     * than once if there are child application contexts, but a prewarm that is already queued will
+     * absorb the later requests.</p>
+     */
+
+    @EventListener(ContextRefreshedEvent.class)
+    @Override
+    public void startup() {
+        if (prewarmPkgIcons) {
+            renderedPkgImagePrewarmService.prewarmPkgIcons();
+            LOGGER.info("did trigger startup maintenance");
+        }
     }
 
     // note the hour is GMT0
@@ -75,6 +105,16 @@ public class MaintenanceServiceImpl implements MaintenanceService {
             }
         }
 
+        // the search data is maintained as packages change, but as a mop-up in case any changes were
+        // missed, the packages whose search data has drifted are re-derived.
+
+        try {
+            pkgSearchIndexService.reindexDrifted();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to reindex the drifted pkg search data", th);
+        }
+
         LOGGER.info("did trigger hourly maintenance");
     }
 }
@@ -7,6 +7,12 @@ package org.haiku.haikudepotserver.maintenance.model;
 
 public interface MaintenanceService {
 
+    /**
+     * <p>This is run once the application has started.</p>
+     */
+
+    void startup();
+
     void daily();
 
     void hourly();
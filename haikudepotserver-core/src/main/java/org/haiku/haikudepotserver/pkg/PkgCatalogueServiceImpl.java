@@ -0,0 +1,370 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.haiku.haikudepotserver.pkg.model.PkgCatalogueService;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchSpecification;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The snapshot is loaded in full when the application starts and then periodically after that.  This
+ * periodic reload picks up changes that are not made through Cayenne such as the view counters.  Changes
+ * that are committed through Cayenne cause only the affected packages to be reloaded.  The data is loaded
+ * with a small number of statements in a single transaction so that the snapshot is consistent.</p>
+ *
+ * <p>Searches use the snapshot only if it is enabled; it is otherwise still possible to load it.</p>
+ */
+
+@Service
+@DependsOn({"haikuDepotManagedDatabase"})
+public class PkgCatalogueServiceImpl implements PkgCatalogueService {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(PkgCatalogueServiceImpl.class);
+
+    private final static String STATEMENT_PKG_VERSIONS = "SELECT\n"
+            + "pv.id, p.pkg_supplement_id, p.name, p.modify_timestamp, p.active, pv.active,\n"
+            + "pv.major, pv.minor, pv.micro, pv.pre_release, pv.revision,\n"
+            + "pv.create_timestamp, pv.view_counter, pv.payload_length,\n"
+            + "a.code, r.code, rs.code, pura.derived_rating, pr.ordering,\n"
+            + "EXISTS(\n"
+            + "  SELECT pii.id FROM haikudepot.pkg_icon_image pii\n"
+            + "  JOIN haikudepot.pkg_icon pi ON pi.id = pii.pkg_icon_id\n"
+            + "  WHERE pi.pkg_supplement_id = p.pkg_supplement_id)\n"
+            + "FROM haikudepot.pkg_version pv\n"
+            + "JOIN haikudepot.pkg p ON p.id = pv.pkg_id\n"
+            + "JOIN haikudepot.architecture a ON a.id = pv.architecture_id\n"
+            + "JOIN haikudepot.repository_source rs ON rs.id = pv.repository_source_id\n"
+            + "JOIN haikudepot.repository r ON r.id = rs.repository_id\n"
+            + "LEFT JOIN haikudepot.pkg_user_rating_aggregate pura ON pura.pkg_id = p.id AND pura.repository_id = r.id\n"
+            + "LEFT JOIN haikudepot.pkg_prominence ppr ON ppr.pkg_id = p.id AND ppr.repository_id = r.id\n"
+            + "LEFT JOIN haikudepot.prominence pr ON pr.id = ppr.prominence_id\n"
+            + "WHERE pv.is_latest = true";
+
+    private final static String STATEMENT_PKG_VERSION_LOCALIZATIONS = "SELECT\n"
+            + "pv.id, nl.code, tlc.content, slc.content\n"
+            + "FROM haikudepot.pkg_version_localization pvl\n"
+            + "JOIN haikudepot.pkg_version pv ON pv.id = pvl.pkg_version_id\n"
+            + "JOIN haikudepot.pkg p ON p.id = pv.pkg_id\n"
+            + "JOIN haikudepot.natural_language nl ON nl.id = pvl.natural_language_id\n"
+            + "LEFT JOIN haikudepot.localization_content tlc ON tlc.id = pvl.title_localization_content_id\n"
+            + "LEFT JOIN haikudepot.localization_content slc ON slc.id = pvl.summary_localization_content_id\n"
+            + "WHERE pv.is_latest = true";
+
+    private final static String STATEMENT_PKG_LOCALIZATIONS = "SELECT\n"
+            + "pl.pkg_supplement_id, nl.code, pl.title, pl.summary\n"
+            + "FROM haikudepot.pkg_localization pl\n"
+            + "JOIN haikudepot.natural_language nl ON nl.id = pl.natural_language_id\n"
+            + "WHERE true";
+
+    private final static String STATEMENT_PKG_CATEGORIES = "SELECT\n"
+            + "ppc.pkg_supplement_id, pc.code\n"
+            + "FROM haikudepot.pkg_pkg_category ppc\n"
+            + "JOIN haikudepot.pkg_category pc ON pc.id = ppc.pkg_category_id\n"
+            + "WHERE true";
+
+    private final DataSource dataSource;
+
+    private final boolean enabled;
+
+    private final long refreshPeriodSeconds;
+
+    private final AtomicLong versionCounter = new AtomicLong(0);
+
+    private volatile PkgCatalogueSnapshot snapshot = null;
+
+    private ScheduledExecutorService scheduledExecutor = null;
+
+    public PkgCatalogueServiceImpl(
+            DataSource dataSource,
+            @Value("${pkg.catalogue.enabled:false}") boolean enabled,
+            @Value("${pkg.catalogue.refreshperiodseconds:600}") long refreshPeriodSeconds) {
+        Preconditions.checkArgument(refreshPeriodSeconds > 0, "the refresh period must be positive");
+        this.dataSource = Preconditions.checkNotNull(dataSource);
+        this.enabled = enabled;
+        this.refreshPeriodSeconds = refreshPeriodSeconds;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            scheduledExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("pkg-catalogue-%d")
+                            .setDaemon(true)
+                            .build());
+            scheduledExecutor.scheduleWithFixedDelay(
+                    this::tryRefreshAll,
+                    0,
+                    refreshPeriodSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        if (null != scheduledExecutor) {
+            scheduledExecutor.shutdownNow();
+            scheduledExecutor = null;
+        }
+    }
+
+    @Override
+    public Optional<PkgVersionSearchResult> trySearch(PkgSearchSpecification search) {
+        Preconditions.checkArgument(null != search, "the search must be provided");
+        PkgCatalogueSnapshot currentSnapshot = snapshot;
+
+        if (!enabled || null == currentSnapshot) {
+            return Optional.empty();
+        }
+
+        if (null != search.getExpression()
+                && PkgSearchSpecification.ExpressionType.CONTAINS != search.getExpressionType()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(currentSnapshot.search(search));
+    }
+
+    @Override
+    public Optional<Long> tryGetVersion() {
+        return Optional.ofNullable(snapshot).map(PkgCatalogueSnapshot::getVersion);
+    }
+
+    private void tryRefreshAll() {
+        try {
+            refreshAll();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to refresh the pkg catalogue", th);
+        }
+    }
+
+    /**
+     * <p>If there is no snapshot yet then there is nothing to refresh; the full load will pick up the
+     * changes.</p>
+     */
+
+    @Override
+    public synchronized void refresh(Collection<Long> pkgSupplementIds) {
+        Preconditions.checkArgument(null != pkgSupplementIds, "the pkg supplement ids must be provided");
+
+        if (null == snapshot || pkgSupplementIds.isEmpty()) {
+            return;
+        }
+
+        long startMs = System.currentTimeMillis();
+        Set<Long> pkgSupplementIdsSet = ImmutableSet.copyOf(pkgSupplementIds);
+        List<PkgCatalogueSnapshot.Entry> entries = load(pkgSupplementIdsSet);
+        snapshot = snapshot.withReplacedPkgSupplements(
+                versionCounter.incrementAndGet(), pkgSupplementIdsSet, entries);
+
+        LOGGER.debug("did refresh {} entries for {} pkg supplements in the pkg catalogue in {}ms; version {}",
+                entries.size(), pkgSupplementIdsSet.size(), System.currentTimeMillis() - startMs,
+                snapshot.getVersion());
+    }
+
+    @Override
+    public synchronized void refreshAll() {
+        long startMs = System.currentTimeMillis();
+        snapshot = new PkgCatalogueSnapshot(versionCounter.incrementAndGet(), load(null));
+        LOGGER.info("did load {} entries into the pkg catalogue in {}ms; version {}",
+                snapshot.size(), System.currentTimeMillis() - startMs, snapshot.getVersion());
+    }
+
+    // ------------------------------
+    // LOAD
+
+    /**
+     * <p>If the array of package supplement ids is supplied then the statement is restricted to those
+     * using the supplied column.</p>
+     */
+
+    private PreparedStatement prepareStatement(
+            Connection connection,
+            String sql,
+            String pkgSupplementIdColumn,
+            Array pkgSupplementIdsArray) throws SQLException {
+        if (null == pkgSupplementIdsArray) {
+            return connection.prepareStatement(sql);
+        }
+
+        PreparedStatement statement = connection.prepareStatement(
+                sql + " AND " + pkgSupplementIdColumn + " = ANY(?)");
+        statement.setArray(1, pkgSupplementIdsArray);
+        return statement;
+    }
+
+    /**
+     * <p>Loads the entries for the supplied package supplements or for all package supplements if the
+     * supplied set is null.</p>
+     */
+
+    private List<PkgCatalogueSnapshot.Entry> load(Set<Long> pkgSupplementIds) {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            int transactionIsolation = connection.getTransactionIsolation();
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+
+            try {
+                List<PkgCatalogueSnapshot.Entry> result = load(connection, pkgSupplementIds);
+                connection.commit();
+                return result;
+            }
+            catch (SQLException se) {
+                connection.rollback();
+                throw se;
+            }
+            finally {
+                connection.setTransactionIsolation(transactionIsolation);
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        catch (SQLException se) {
+            throw new IllegalStateException("unable to load the pkg catalogue", se);
+        }
+    }
+
+    private List<PkgCatalogueSnapshot.Entry> load(
+            Connection connection,
+            Set<Long> pkgSupplementIds) throws SQLException {
+        Array pkgSupplementIdsArray = null == pkgSupplementIds
+                ? null
+                : connection.createArrayOf("bigint", pkgSupplementIds.toArray());
+
+        Map<Long, Map<String, PkgCatalogueSnapshot.Localization>> pkgLocalizationsByPkgSupplementId = new HashMap<>();
+        Map<Long, Map<String, PkgCatalogueSnapshot.Localization>> localizationsByPkgVersionId = new HashMap<>();
+        Map<Long, Set<String>> pkgCategoryCodesByPkgSupplementId = new HashMap<>();
+        List<PkgCatalogueSnapshot.Entry> entries = new ArrayList<>();
+
+        try (PreparedStatement statement = prepareStatement(connection, STATEMENT_PKG_LOCALIZATIONS, "pl.pkg_supplement_id", pkgSupplementIdsArray);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                pkgLocalizationsByPkgSupplementId
+                        .computeIfAbsent(resultSet.getLong(1), k -> new HashMap<>())
+                        .put(resultSet.getString(2), new PkgCatalogueSnapshot.Localization(
+                                null, null, resultSet.getString(3), resultSet.getString(4)));
+            }
+        }
+
+        try (PreparedStatement statement = prepareStatement(connection, STATEMENT_PKG_VERSION_LOCALIZATIONS, "p.pkg_supplement_id", pkgSupplementIdsArray);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                localizationsByPkgVersionId
+                        .computeIfAbsent(resultSet.getLong(1), k -> new HashMap<>())
+                        .put(resultSet.getString(2), new PkgCatalogueSnapshot.Localization(
+                                resultSet.getString(3), resultSet.getString(4), null, null));
+            }
+        }
+
+        try (PreparedStatement statement = prepareStatement(connection, STATEMENT_PKG_CATEGORIES, "ppc.pkg_supplement_id", pkgSupplementIdsArray);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                pkgCategoryCodesByPkgSupplementId
+                        .computeIfAbsent(resultSet.getLong(1), k -> new HashSet<>())
+                        .add(resultSet.getString(2));
+            }
+        }
+
+        try (PreparedStatement statement = prepareStatement(connection, STATEMENT_PKG_VERSIONS, "p.pkg_supplement_id", pkgSupplementIdsArray);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                PkgCatalogueSnapshot.Entry entry = new PkgCatalogueSnapshot.Entry();
+                entry.setPkgVersionId(resultSet.getLong(1));
+                entry.setPkgSupplementId(resultSet.getLong(2));
+                entry.setPkgName(resultSet.getString(3));
+                entry.setPkgModifyTimestamp(resultSet.getTimestamp(4));
+                entry.setPkgActive(resultSet.getBoolean(5));
+                entry.setActive(resultSet.getBoolean(6));
+                entry.setMajor(resultSet.getString(7));
+                entry.setMinor(resultSet.getString(8));
+                entry.setMicro(resultSet.getString(9));
+                entry.setPreRelease(resultSet.getString(10));
+                entry.setRevision(getInteger(resultSet, 11));
+                entry.setCreateTimestamp(resultSet.getTimestamp(12));
+                entry.setViewCounter(resultSet.getLong(13));
+                entry.setPayloadLength(getLong(resultSet, 14));
+                entry.setArchitectureCode(resultSet.getString(15));
+                entry.setRepositoryCode(resultSet.getString(16));
+                entry.setRepositorySourceCode(resultSet.getString(17));
+                entry.setDerivedRating(getFloat(resultSet, 18));
+                entry.setProminenceOrdering(getInteger(resultSet, 19));
+                entry.setHasAnyPkgIcons(resultSet.getBoolean(20));
+                entry.setPkgCategoryCodes(pkgCategoryCodesByPkgSupplementId.getOrDefault(
+                        entry.getPkgSupplementId(), Collections.emptySet()));
+                entry.setLocalizations(mergeLocalizations(
+                        pkgLocalizationsByPkgSupplementId.get(entry.getPkgSupplementId()),
+                        localizationsByPkgVersionId.get(entry.getPkgVersionId())));
+                entries.add(entry);
+            }
+        }
+
+        return entries;
+    }
+
+    private static Integer getInteger(ResultSet resultSet, int column) throws SQLException {
+        Number value = (Number) resultSet.getObject(column);
+        return null == value ? null : value.intValue();
+    }
+
+    private static Long getLong(ResultSet resultSet, int column) throws SQLException {
+        Number value = (Number) resultSet.getObject(column);
+        return null == value ? null : value.longValue();
+    }
+
+    private static Float getFloat(ResultSet resultSet, int column) throws SQLException {
+        Number value = (Number) resultSet.getObject(column);
+        return null == value ? null : value.floatValue();
+    }
+
+    private static Map<String, PkgCatalogueSnapshot.Localization> mergeLocalizations(
+            Map<String, PkgCatalogueSnapshot.Localization> pkgLocalizations,
+            Map<String, PkgCatalogueSnapshot.Localization> pkgVersionLocalizations) {
+        Map<String, PkgCatalogueSnapshot.Localization> result = new HashMap<>();
+
+        if (null != pkgLocalizations) {
+            result.putAll(pkgLocalizations);
+        }
+
+        if (null != pkgVersionLocalizations) {
+            pkgVersionLocalizations.forEach((code, pvl) -> result.merge(
+                    code, pvl, (pl, v) -> pl.withVersion(v.getVersionTitle(), v.getVersionSummary())));
+        }
+
+        return result;
+    }
+
+}
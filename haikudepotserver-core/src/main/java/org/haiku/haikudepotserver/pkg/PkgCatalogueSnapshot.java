@@ -0,0 +1,526 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.haiku.haikudepotserver.dataobjects.Architecture;
+import org.haiku.haikudepotserver.dataobjects.NaturalLanguage;
+import org.haiku.haikudepotserver.dataobjects.Repository;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchSpecification;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchResult;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchRow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * <p>This is an immutable copy of the data about the latest package versions that is required to perform a
+ * package search.  The entries are held in an array ordered by the package version's id and there is an index
+ * of the positions in that array for each combination of repository and architecture.  A new snapshot is
+ * created when the data changes.</p>
+ *
+ * <p>The search logic follows the SQL of the &quot;SearchPkgVersions&quot; query so that the results are
+ * the same as if the search were performed in the database; the exception is that the strings are compared
+ * in Java rather than with the database's collation.</p>
+ */
+
+public final class PkgCatalogueSnapshot {
+
+    private final long version;
+
+    private final Entry[] entries;
+
+    private final Map<String, int[]> entryIndexesByRepositoryAndArchitecture;
+
+    public PkgCatalogueSnapshot(long version, Collection<Entry> entries) {
+        Preconditions.checkArgument(null != entries, "the entries must be provided");
+        this.version = version;
+        this.entries = entries.stream()
+                .sorted(Comparator.comparingLong(Entry::getPkgVersionId))
+                .toArray(Entry[]::new);
+
+        Map<String, List<Integer>> indexes = new HashMap<>();
+
+        for (int i = 0; i < this.entries.length; i++) {
+            indexes.computeIfAbsent(
+                    repositoryAndArchitectureKey(this.entries[i].getRepositoryCode(), this.entries[i].getArchitectureCode()),
+                    k -> new ArrayList<>()).add(i);
+        }
+
+        this.entryIndexesByRepositoryAndArchitecture = indexes.entrySet()
+                .stream()
+                .collect(ImmutableMap.toImmutableMap(
+                        Map.Entry::getKey,
+                        e -> e.getValue().stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    private static String repositoryAndArchitectureKey(String repositoryCode, String architectureCode) {
+        return repositoryCode + "/" + architectureCode;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * <p>Creates a new snapshot in which the entries for the supplied package supplements are replaced with
+     * those supplied.</p>
+     */
+
+    public PkgCatalogueSnapshot withReplacedPkgSupplements(
+            long version,
+            Set<Long> pkgSupplementIds,
+            Collection<Entry> replacementEntries) {
+        Preconditions.checkArgument(null != pkgSupplementIds, "the pkg supplement ids must be provided");
+        Preconditions.checkArgument(null != replacementEntries, "the replacement entries must be provided");
+        List<Entry> result = Arrays.stream(entries)
+                .filter(e -> !pkgSupplementIds.contains(e.getPkgSupplementId()))
+                .collect(Collectors.toCollection(ArrayList::new));
+        result.addAll(replacementEntries);
+        return new PkgCatalogueSnapshot(version, result);
+    }
+
+    // ------------------------------
+    // SEARCH
+
+    private IntStream candidateEntryIndexes(PkgSearchSpecification search) {
+        List<String> repositoryCodes = null == search.getRepositories() || search.getRepositories().isEmpty()
+                ? null
+                : search.getRepositories().stream().map(Repository::getCode).collect(Collectors.toList());
+        List<String> architectureCodes = null == search.getArchitectures() || search.getArchitectures().isEmpty()
+                ? null
+                : search.getArchitectures().stream().map(Architecture::getCode).collect(Collectors.toList());
+
+        if (null == repositoryCodes && null == architectureCodes) {
+            return IntStream.range(0, entries.length);
+        }
+
+        return entryIndexesByRepositoryAndArchitecture.entrySet()
+                .stream()
+                .filter(e -> {
+                    String[] parts = e.getKey().split("/", 2);
+                    return (null == repositoryCodes || repositoryCodes.contains(parts[0]))
+                            && (null == architectureCodes || architectureCodes.contains(parts[1]));
+                })
+                .flatMapToInt(e -> Arrays.stream(e.getValue()));
+    }
+
+    /**
+     * <p>Only searches where the expression, if present, is of type
+     * {@link PkgSearchSpecification.ExpressionType#CONTAINS} are able to be performed.</p>
+     */
+
+    public PkgVersionSearchResult search(PkgSearchSpecification search) {
+        Preconditions.checkArgument(null != search, "the search must be provided");
+        Preconditions.checkArgument(null == search.getExpression()
+                || PkgSearchSpecification.ExpressionType.CONTAINS == search.getExpressionType(),
+                "only the contains expression type is supported");
+
+        String naturalLanguageCode = null == search.getNaturalLanguage()
+                ? NaturalLanguage.CODE_ENGLISH
+                : search.getNaturalLanguage().getCode();
+        String expression = search.getExpression();
+        Date minimumCreateTimestamp = null == search.getDaysSinceLatestVersion()
+                ? null
+                : new Date(System.currentTimeMillis()
+                    - TimeUnit.DAYS.toMillis(search.getDaysSinceLatestVersion().longValue()));
+        String pkgCategoryCode = null == search.getPkgCategory() ? null : search.getPkgCategory().getCode();
+        Set<String> pkgNames = null == search.getPkgNames() ? null : ImmutableSet.copyOf(search.getPkgNames());
+
+        List<Entry> matches = candidateEntryIndexes(search)
+                .mapToObj(i -> entries[i])
+                .filter(e -> search.getIncludeInactive() || (e.getPkgActive() && e.getActive()))
+                .filter(e -> null == minimumCreateTimestamp || !e.getCreateTimestamp().before(minimumCreateTimestamp))
+                .filter(e -> null == pkgCategoryCode || e.getPkgCategoryCodes().contains(pkgCategoryCode))
+                .filter(e -> null == pkgNames || pkgNames.contains(e.getPkgName()))
+                .filter(e -> null == expression || e.matches(naturalLanguageCode, expression))
+                .collect(Collectors.toList());
+
+        Map<Entry, String> orderingTitles = matches
+                .stream()
+                .collect(Collectors.toMap(e -> e, e -> e.getOrderingTitle(naturalLanguageCode, expression)));
+
+        List<PkgVersionSearchRow> rows = matches
+                .stream()
+                .sorted(createComparator(search.getSortOrdering())
+                        .thenComparing(orderingTitles::get)
+                        .thenComparingLong(Entry::getPkgVersionId))
+                .skip(search.getOffset())
+                .limit(search.getLimit())
+                .map(e -> e.toPkgVersionSearchRow(naturalLanguageCode, expression))
+                .collect(Collectors.toList());
+
+        return new PkgVersionSearchResult(rows, matches.size());
+    }
+
+    private static Comparator<Entry> createComparator(PkgSearchSpecification.SortOrdering sortOrdering) {
+        if (null != sortOrdering) {
+            switch (sortOrdering) {
+                case PROMINENCE:
+                    return Comparator.comparing(
+                            Entry::getProminenceOrdering,
+                            Comparator.nullsLast(Comparator.naturalOrder()));
+                case VERSIONVIEWCOUNTER:
+                    return Comparator.comparingLong(Entry::getViewCounter).reversed();
+                case VERSIONCREATETIMESTAMP:
+                    return Comparator.comparing(Entry::getCreateTimestamp).reversed();
+            }
+        }
+
+        return (e1, e2) -> 0;
+    }
+
+    // ------------------------------
+    // DATA
+
+    /**
+     * <p>The title and summary in one natural language from the package version's localization as well as
+     * from the package's localization.</p>
+     */
+
+    public static final class Localization {
+
+        private final String versionTitle;
+        private final String versionSummary;
+        private final String pkgTitle;
+        private final String pkgSummary;
+
+        public Localization(String versionTitle, String versionSummary, String pkgTitle, String pkgSummary) {
+            this.versionTitle = versionTitle;
+            this.versionSummary = versionSummary;
+            this.pkgTitle = pkgTitle;
+            this.pkgSummary = pkgSummary;
+        }
+
+        public String getVersionTitle() {
+            return versionTitle;
+        }
+
+        public String getVersionSummary() {
+            return versionSummary;
+        }
+
+        public Localization withVersion(String versionTitle, String versionSummary) {
+            return new Localization(versionTitle, versionSummary, pkgTitle, pkgSummary);
+        }
+
+    }
+
+    private final static Localization LOCALIZATION_NONE = new Localization(null, null, null, null);
+
+    /**
+     * <p>An entry in the snapshot for the latest version of a package in a repository for an architecture.
+     * Once an entry is in a snapshot it is not modified.</p>
+     */
+
+    public static final class Entry {
+
+        private long pkgVersionId;
+        private long pkgSupplementId;
+        private String pkgName;
+        private Date pkgModifyTimestamp;
+        private boolean pkgActive;
+        private boolean active;
+        private String major;
+        private String minor;
+        private String micro;
+        private String preRelease;
+        private Integer revision;
+        private Date createTimestamp;
+        private long viewCounter;
+        private Long payloadLength;
+        private String architectureCode;
+        private String repositoryCode;
+        private String repositorySourceCode;
+        private Float derivedRating;
+        private Integer prominenceOrdering;
+        private boolean hasAnyPkgIcons;
+        private Set<String> pkgCategoryCodes = ImmutableSet.of();
+        private Map<String, Localization> localizations = ImmutableMap.of();
+
+        public long getPkgVersionId() {
+            return pkgVersionId;
+        }
+
+        public void setPkgVersionId(long pkgVersionId) {
+            this.pkgVersionId = pkgVersionId;
+        }
+
+        public long getPkgSupplementId() {
+            return pkgSupplementId;
+        }
+
+        public void setPkgSupplementId(long pkgSupplementId) {
+            this.pkgSupplementId = pkgSupplementId;
+        }
+
+        public String getPkgName() {
+            return pkgName;
+        }
+
+        public void setPkgName(String pkgName) {
+            this.pkgName = pkgName;
+        }
+
+        public void setPkgModifyTimestamp(Date pkgModifyTimestamp) {
+            this.pkgModifyTimestamp = pkgModifyTimestamp;
+        }
+
+        public boolean getPkgActive() {
+            return pkgActive;
+        }
+
+        public void setPkgActive(boolean pkgActive) {
+            this.pkgActive = pkgActive;
+        }
+
+        public boolean getActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public void setMajor(String major) {
+            this.major = major;
+        }
+
+        public void setMinor(String minor) {
+            this.minor = minor;
+        }
+
+        public void setMicro(String micro) {
+            this.micro = micro;
+        }
+
+        public void setPreRelease(String preRelease) {
+            this.preRelease = preRelease;
+        }
+
+        public void setRevision(Integer revision) {
+            this.revision = revision;
+        }
+
+        public Date getCreateTimestamp() {
+            return createTimestamp;
+        }
+
+        public void setCreateTimestamp(Date createTimestamp) {
+            this.createTimestamp = createTimestamp;
+        }
+
+        public long getViewCounter() {
+            return viewCounter;
+        }
+
+        public void setViewCounter(long viewCounter) {
+            this.viewCounter = viewCounter;
+        }
+
+        public void setPayloadLength(Long payloadLength) {
+            this.payloadLength = payloadLength;
+        }
+
+        public String getArchitectureCode() {
+            return architectureCode;
+        }
+
+        public void setArchitectureCode(String architectureCode) {
+            this.architectureCode = architectureCode;
+        }
+
+        public String getRepositoryCode() {
+            return repositoryCode;
+        }
+
+        public void setRepositoryCode(String repositoryCode) {
+            this.repositoryCode = repositoryCode;
+        }
+
+        public void setRepositorySourceCode(String repositorySourceCode) {
+            this.repositorySourceCode = repositorySourceCode;
+        }
+
+        public void setDerivedRating(Float derivedRating) {
+            this.derivedRating = derivedRating;
+        }
+
+        public Integer getProminenceOrdering() {
+            return prominenceOrdering;
+        }
+
+        public void setProminenceOrdering(Integer prominenceOrdering) {
+            this.prominenceOrdering = prominenceOrdering;
+        }
+
+        public void setHasAnyPkgIcons(boolean hasAnyPkgIcons) {
+            this.hasAnyPkgIcons = hasAnyPkgIcons;
+        }
+
+        public Set<String> getPkgCategoryCodes() {
+            return pkgCategoryCodes;
+        }
+
+        public void setPkgCategoryCodes(Set<String> pkgCategoryCodes) {
+            this.pkgCategoryCodes = ImmutableSet.copyOf(pkgCategoryCodes);
+        }
+
+        public Map<String, Localization> getLocalizations() {
+            return localizations;
+        }
+
+        /**
+         * <p>The localizations are keyed by the code of the natural language.</p>
+         */
+
+        public void setLocalizations(Map<String, Localization> localizations) {
+            this.localizations = ImmutableMap.copyOf(localizations);
+        }
+
+        private Localization getLocalization(String naturalLanguageCode) {
+            return localizations.getOrDefault(naturalLanguageCode, LOCALIZATION_NONE);
+        }
+
+        private static String coalesce(String... values) {
+            for (String value : values) {
+                if (null != value) {
+                    return value;
+                }
+            }
+
+            return null;
+        }
+
+        private static boolean containsLowerCase(String value, String expression) {
+            return null != value && value.toLowerCase().contains(expression);
+        }
+
+        /**
+         * <p>This is the equivalent of the SQL expression <code>NULLIF(value,'') LIKE '%expression%'</code>
+         * and so is case sensitive.</p>
+         */
+
+        private static String ifContains(String value, String expression) {
+            return !Strings.isNullOrEmpty(value) && value.contains(expression) ? value : null;
+        }
+
+        boolean matches(String naturalLanguageCode, String expression) {
+            Localization nl = getLocalization(naturalLanguageCode);
+            Localization en = getLocalization(NaturalLanguage.CODE_ENGLISH);
+            return containsLowerCase(pkgName, expression)
+                    || containsLowerCase(coalesce(nl.versionTitle, nl.pkgTitle), expression)
+                    || containsLowerCase(coalesce(nl.versionSummary, nl.pkgSummary), expression)
+                    || containsLowerCase(coalesce(en.versionTitle, en.pkgTitle), expression)
+                    || containsLowerCase(coalesce(en.versionSummary, en.pkgSummary), expression);
+        }
+
+        String getOrderingTitle(String naturalLanguageCode, String expression) {
+            Localization nl = getLocalization(naturalLanguageCode);
+            Localization en = getLocalization(NaturalLanguage.CODE_ENGLISH);
+
+            if (null != expression) {
+                String nlTitle = coalesce(nl.versionTitle, nl.pkgTitle);
+
+                if (containsLowerCase(nlTitle, expression)) {
+                    return nlTitle.toLowerCase();
+                }
+
+                String enTitle = coalesce(en.versionTitle, en.pkgTitle, pkgName);
+
+                if (containsLowerCase(enTitle, expression)) {
+                    return enTitle.toLowerCase();
+                }
+            }
+
+            return coalesce(nl.versionTitle, nl.pkgTitle, en.versionTitle, en.pkgTitle, pkgName).toLowerCase();
+        }
+
+        private String getTitle(Localization nl, Localization en, String expression) {
+            if (null != expression) {
+                String result = coalesce(
+                        ifContains(nl.versionTitle, expression),
+                        ifContains(nl.pkgTitle, expression),
+                        ifContains(en.versionTitle, expression),
+                        ifContains(en.pkgTitle, expression));
+
+                if (null != result) {
+                    return result;
+                }
+            }
+
+            return coalesce(
+                    Strings.emptyToNull(nl.versionTitle),
+                    Strings.emptyToNull(nl.pkgTitle),
+                    Strings.emptyToNull(en.versionTitle),
+                    Strings.emptyToNull(en.pkgTitle));
+        }
+
+        private String getSummary(Localization nl, Localization en, String expression) {
+            if (null != expression) {
+                String result = coalesce(
+                        ifContains(nl.versionSummary, expression),
+                        ifContains(nl.pkgSummary, expression),
+                        ifContains(en.versionSummary, expression),
+                        ifContains(en.pkgSummary, expression));
+
+                if (null != result) {
+                    return result;
+                }
+            }
+
+            return coalesce(
+                    Strings.emptyToNull(nl.versionSummary),
+                    Strings.emptyToNull(nl.pkgSummary),
+                    Strings.emptyToNull(en.versionSummary),
+                    Strings.emptyToNull(en.pkgSummary));
+        }
+
+        PkgVersionSearchRow toPkgVersionSearchRow(String naturalLanguageCode, String expression) {
+            Localization nl = getLocalization(naturalLanguageCode);
+            Localization en = getLocalization(NaturalLanguage.CODE_ENGLISH);
+            PkgVersionSearchRow row = new PkgVersionSearchRow();
+            row.setPkgVersionId(pkgVersionId);
+            row.setMajor(major);
+            row.setMinor(minor);
+            row.setMicro(micro);
+            row.setPreRelease(preRelease);
+            row.setRevision(revision);
+            row.setCreateTimestamp(createTimestamp);
+            row.setViewCounter(viewCounter);
+            row.setPayloadLength(payloadLength);
+            row.setPkgName(pkgName);
+            row.setPkgModifyTimestamp(pkgModifyTimestamp);
+            row.setArchitectureCode(architectureCode);
+            row.setRepositorySourceCode(repositorySourceCode);
+            row.setRepositoryCode(repositoryCode);
+            row.setDerivedRating(derivedRating);
+            row.setHasAnyPkgIcons(hasAnyPkgIcons);
+            row.setTitle(getTitle(nl, en, expression));
+            row.setSummary(getSummary(nl, en, expression));
+            return row;
+        }
+
+    }
+
+}
@@ -10,6 +10,8 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
 import org.apache.commons.lang.StringUtils;
 import org.haiku.haikudepotserver.dataobjects.*;
 import org.haiku.haikudepotserver.pkg.model.PkgImportService;
@@ -24,8 +26,11 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -53,8 +58,22 @@ public class PkgImportServiceImpl implements PkgImportService {
             ObjectId repositorySourceObjectId,
             org.haiku.pkg.model.Pkg pkg,
             boolean shouldPopulatePayloadLength) {
-
         Preconditions.checkArgument(null != pkg, "the package must be provided");
+        importFrom(
+                objectContext,
+                repositorySourceObjectId,
+                Collections.singletonList(pkg),
+                shouldPopulatePayloadLength);
+    }
+
+    @Override
+    public void importFrom(
+            ObjectContext objectContext,
+            ObjectId repositorySourceObjectId,
+            List<org.haiku.pkg.model.Pkg> pkgs,
+            boolean shouldPopulatePayloadLength) {
+
+        Preconditions.checkArgument(null != pkgs, "the packages must be provided");
         Preconditions.checkArgument(null != repositorySourceObjectId, "the repository source is must be provided");
 
         RepositorySource repositorySource = RepositorySource.get(
@@ -69,9 +88,27 @@ public class PkgImportServiceImpl implements PkgImportService {
             throw new IllegalStateException("it is not possible to import from a repository that is not active; " + repositorySource.getRepository());
         }
 
+        if (!pkgs.isEmpty()) {
+            ImportBatch batch = new ImportBatch(objectContext, repositorySource.getRepository(), pkgs);
+
+            for (org.haiku.pkg.model.Pkg pkg : pkgs) {
+                importFrom(objectContext, repositorySource, batch, pkg, shouldPopulatePayloadLength);
+            }
+        }
+    }
+
+    private void importFrom(
+            ObjectContext objectContext,
+            RepositorySource repositorySource,
+            ImportBatch batch,
+            org.haiku.pkg.model.Pkg pkg,
+            boolean shouldPopulatePayloadLength) {
+
+        Preconditions.checkArgument(null != pkg, "the package must be provided");
+
         // first, check to see if the package is there or not.
 
-        Optional<Pkg> persistedPkgOptional = Pkg.tryGetByName(objectContext, pkg.getName());
+        Optional<Pkg> persistedPkgOptional = batch.tryGetPkg(pkg.getName());
         Pkg persistedPkg;
         Optional<PkgVersion> persistedLatestExistingPkgVersion = Optional.empty();
         Architecture architecture = Architecture.tryGetByCode(objectContext, pkg.getArchitecture().name().toLowerCase())
@@ -80,6 +117,7 @@ public class PkgImportServiceImpl implements PkgImportService {
 
         if (!persistedPkgOptional.isPresent()) {
             persistedPkg = createPkg(objectContext, pkg.getName());
+            batch.addPkg(persistedPkg);
             pkgServiceImpl.ensurePkgProminence(objectContext, persistedPkg, repositorySource.getRepository());
             LOGGER.info("the package [{}] did not exist; will create", pkg.getName());
         } else {
@@ -89,18 +127,12 @@ public class PkgImportServiceImpl implements PkgImportService {
 
             // if we know that the package exists then we should look for the version.
 
-            persistedPkgVersion = PkgVersion.getForPkg(
-                    objectContext,
-                    persistedPkg,
-                    repositorySource.getRepository(),
+            persistedPkgVersion = batch.tryGetPkgVersion(
+                    pkg.getName(),
                     architecture,
                     new VersionCoordinates(pkg.getVersion())).orElse(null);
 
-            persistedLatestExistingPkgVersion = pkgServiceImpl.getLatestPkgVersionForPkg(
-                    objectContext,
-                    persistedPkg,
-                    repositorySource.getRepository(),
-                    Collections.singletonList(architecture));
+            persistedLatestExistingPkgVersion = batch.tryGetLatestPkgVersion(pkg.getName(), architecture);
         }
 
         if (null == persistedPkgVersion) {
@@ -114,6 +146,7 @@ public class PkgImportServiceImpl implements PkgImportService {
             persistedPkgVersion.setRepositorySource(repositorySource);
             persistedPkgVersion.setArchitecture(architecture);
             persistedPkgVersion.setPkg(persistedPkg);
+            batch.addPkgVersion(persistedPkgVersion);
 
             LOGGER.info(
                     "the version [{}] of package [{}] did not exist; will create",
@@ -128,6 +161,7 @@ public class PkgImportServiceImpl implements PkgImportService {
         }
 
         persistedPkgVersion.setActive(Boolean.TRUE);
+        persistedPkgVersion.setImportFingerprint(pkg.getFingerprint());
 
         importCopyrights(objectContext, pkg, persistedPkgVersion);
         importLicenses(objectContext, pkg, persistedPkgVersion);
@@ -145,7 +179,7 @@ public class PkgImportServiceImpl implements PkgImportService {
 
         // now possibly switch the latest flag over to the new one from the old one.
         possiblyReconfigurePersistedPkgVersionToBeLatest(
-                objectContext,
+                batch,
                 persistedLatestExistingPkgVersion.orElse(null),
                 persistedPkgVersion);
 
@@ -272,7 +306,7 @@ public class PkgImportServiceImpl implements PkgImportService {
     }
 
     private void possiblyReconfigurePersistedPkgVersionToBeLatest(
-            ObjectContext objectContext,
+            ImportBatch batch,
             PkgVersion persistedLatestExistingPkgVersion,
             PkgVersion persistedPkgVersion) {
 
@@ -307,11 +341,8 @@ public class PkgImportServiceImpl implements PkgImportService {
                         // then a regression has occurred.  In this case make the imported one be the latest and mark
                         // the later ones as "inactive".
 
-                        List<PkgVersion> pkgVersionsToDeactivate = PkgVersion.getForPkg(
-                                objectContext,
-                                persistedPkgVersion.getPkg(),
-                                persistedPkgVersion.getRepositorySource().getRepository(),
-                                false)
+                        List<PkgVersion> pkgVersionsToDeactivate = batch.getActivePkgVersions(
+                                persistedPkgVersion.getPkg().getName())
                                 .stream()
                                 .filter((pv) -> pv.getArchitecture().equals(persistedPkgVersion.getArchitecture()))
                                 .filter((pv) -> versionCoordinatesComparator.compare(
@@ -345,4 +376,110 @@ public class PkgImportServiceImpl implements PkgImportService {
     }
 
 
+    /**
+     * <p>This object holds the existing packages and package versions for a batch of packages that
+     * are being imported.  These are fetched with a small number of set-based queries up-front rather
+     * than with a number of queries for each package.  As packages and package versions are created
+     * during the import, they are added so that later packages in the same batch are able to see
+     * them.</p>
+     */
+
+    private static class ImportBatch {
+
+        private final Map<String, Pkg> pkgsByName = new HashMap<>();
+
+        private final Map<String, List<PkgVersion>> pkgVersionsByPkgName = new HashMap<>();
+
+        ImportBatch(
+                ObjectContext objectContext,
+                Repository repository,
+                List<org.haiku.pkg.model.Pkg> pkgs) {
+
+            List<String> names = pkgs.stream()
+                    .map(org.haiku.pkg.model.Pkg::getName)
+                    .distinct()
+                    .collect(Collectors.toList());
+
+            ObjectSelect.query(Pkg.class)
+                    .where(Pkg.NAME.in(names))
+                    .prefetch(Pkg.PKG_PROMINENCES.disjointById())
+                    .select(objectContext)
+                    .forEach(this::addPkg);
+
+            ObjectSelect.query(PkgVersion.class)
+                    .where(PkgVersion.PKG.dot(Pkg.NAME).in(names))
+                    .and(PkgVersion.REPOSITORY_SOURCE.dot(RepositorySource.REPOSITORY).eq(repository))
+                    .select(objectContext)
+                    .forEach(this::addPkgVersion);
+
+            // the package versions that will be updated by the import need their related licenses,
+            // copyrights and so on.  Fetch those again with all of the related objects.
+
+            List<PkgVersion> matchingPkgVersions = pkgs.stream()
+                    .map(p -> Architecture.tryGetByCode(objectContext, p.getArchitecture().name().toLowerCase())
+                            .flatMap(a -> tryGetPkgVersion(p.getName(), a, new VersionCoordinates(p.getVersion()))))
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .collect(Collectors.toList());
+
+            if (!matchingPkgVersions.isEmpty()) {
+                ObjectSelect.query(PkgVersion.class)
+                        .where(ExpressionFactory.matchAnyExp(matchingPkgVersions))
+                        .prefetch(PkgVersion.PKG_VERSION_COPYRIGHTS.disjointById())
+                        .prefetch(PkgVersion.PKG_VERSION_LICENSES.disjointById())
+                        .prefetch(PkgVersion.PKG_VERSION_URLS.disjointById())
+                        .prefetch(PkgVersion.PKG_VERSION_LOCALIZATIONS.disjointById())
+                        .select(objectContext);
+            }
+        }
+
+        void addPkg(Pkg pkg) {
+            pkgsByName.put(pkg.getName(), pkg);
+        }
+
+        void addPkgVersion(PkgVersion pkgVersion) {
+            pkgVersionsByPkgName
+                    .computeIfAbsent(pkgVersion.getPkg().getName(), n -> new ArrayList<>())
+                    .add(pkgVersion);
+        }
+
+        Optional<Pkg> tryGetPkg(String name) {
+            return Optional.ofNullable(pkgsByName.get(name));
+        }
+
+        private List<PkgVersion> getPkgVersions(String pkgName) {
+            return pkgVersionsByPkgName.getOrDefault(pkgName, Collections.emptyList());
+        }
+
+        Optional<PkgVersion> tryGetPkgVersion(
+                String pkgName,
+                Architecture architecture,
+                VersionCoordinates versionCoordinates) {
+            return getPkgVersions(pkgName)
+                    .stream()
+                    .filter(pv -> pv.getArchitecture().equals(architecture))
+                    .filter(pv -> pv.toVersionCoordinates().equals(versionCoordinates))
+                    .findFirst();
+        }
+
+        Optional<PkgVersion> tryGetLatestPkgVersion(String pkgName, Architecture architecture) {
+            return getPkgVersions(pkgName)
+                    .stream()
+                    .filter(pv -> Boolean.TRUE.equals(pv.getActive()))
+                    .filter(pv -> Boolean.TRUE.equals(pv.getIsLatest()))
+                    .filter(pv -> pv.getArchitecture().equals(architecture))
+                    .filter(pv -> pv.getRepositorySource().getActive())
+                    .findFirst();
+        }
+
+        List<PkgVersion> getActivePkgVersions(String pkgName) {
+            return getPkgVersions(pkgName)
+                    .stream()
+                    .filter(pv -> Boolean.TRUE.equals(pv.getActive()))
+                    .filter(pv -> pv.getRepositorySource().getRepository().getActive())
+                    .collect(Collectors.toList());
+        }
+
+    }
+
 }
@@ -20,14 +20,10 @@ import org.haiku.haikudepotserver.graphics.ImageHelper;
 import org.haiku.haikudepotserver.graphics.bitmap.PngOptimizationService;
 import org.haiku.haikudepotserver.pkg.model.BadPkgScreenshotException;
 import org.haiku.haikudepotserver.pkg.model.PkgScreenshotService;
-import org.imgscalr.Scalr;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -43,9 +39,13 @@ public class PkgScreenshotServiceImpl implements PkgScreenshotService {
 
     private final ImageHelper imageHelper;
     private final PngOptimizationService pngOptimizationService;
+    private final RenderedPkgScreenshotRepository renderedPkgScreenshotRepository;
 
-    public PkgScreenshotServiceImpl(PngOptimizationService pngOptimizationService) {
+    public PkgScreenshotServiceImpl(
+            PngOptimizationService pngOptimizationService,
+            RenderedPkgScreenshotRepository renderedPkgScreenshotRepository) {
         this.pngOptimizationService = Preconditions.checkNotNull(pngOptimizationService);
+        this.renderedPkgScreenshotRepository = Preconditions.checkNotNull(renderedPkgScreenshotRepository);
         imageHelper = new ImageHelper();
     }
 
@@ -98,7 +98,7 @@ public class PkgScreenshotServiceImpl implements PkgScreenshotService {
 
     /**
      * <p>This method will write the package's screenshot to the output stream.  It will constrain the output to the
-     * size given by scaling the image.  The output is a PNG image.</p>
+     * size given by scaling the image.  The output is a PNG image.  The scaled images are cached.</p>
      */
 
     @Override
@@ -115,28 +115,22 @@ public class PkgScreenshotServiceImpl implements PkgScreenshotService {
         Preconditions.checkArgument(targetHeight > 0, "the target height is <= 0");
         Preconditions.checkArgument(targetWidth > 0, "the target width is <= 0");
 
-        Optional<PkgScreenshotImage> pkgScreenshotImageOptional = screenshot.tryGetPkgScreenshotImage();
-
-        if (!pkgScreenshotImageOptional.isPresent()) {
-            throw new IllegalStateException("the screenshot " + screenshot.getCode() + " is missing a screenshot image");
-        }
+        output.write(renderedPkgScreenshotRepository.render(context, screenshot, targetWidth, targetHeight));
+    }
 
-        if (!pkgScreenshotImageOptional.get().getMediaType().getCode().equals(com.google.common.net.MediaType.PNG.toString())) {
-            throw new IllegalStateException("the screenshot system only supports png images at the present time");
-        }
+    @Override
+    public long derivePkgScreenshotImageLength(
+            ObjectContext context,
+            PkgScreenshot screenshot,
+            int targetWidth,
+            int targetHeight) {
 
-        byte[] data = pkgScreenshotImageOptional.get().getData();
-        ImageHelper.Size size = imageHelper.derivePngSize(data);
+        Preconditions.checkArgument(null != context, "the context must be provided");
+        Preconditions.checkArgument(null != screenshot, "the screenshot must be provided");
+        Preconditions.checkArgument(targetHeight > 0, "the target height is <= 0");
+        Preconditions.checkArgument(targetWidth > 0, "the target width is <= 0");
 
-        // check to see if the screenshot needs to be resized to fit.
-        if (size.width > targetWidth || size.height > targetHeight) {
-            ByteArrayInputStream imageInputStream = new ByteArrayInputStream(data);
-            BufferedImage bufferedImage = ImageIO.read(imageInputStream);
-            BufferedImage scaledBufferedImage = Scalr.resize(bufferedImage, targetWidth, targetHeight);
-            ImageIO.write(scaledBufferedImage, "png", output);
-        } else {
-            output.write(data);
-        }
+        return renderedPkgScreenshotRepository.renderLength(context, screenshot, targetWidth, targetHeight);
     }
 
     /**
@@ -215,6 +209,7 @@ public class PkgScreenshotServiceImpl implements PkgScreenshotService {
     public void deleteScreenshot(
             ObjectContext context,
             PkgScreenshot screenshot) {
+        renderedPkgScreenshotRepository.evict(screenshot.getCode());
         screenshot.setPkgSupplement(null);
         Optional<PkgScreenshotImage> image = screenshot.tryGetPkgScreenshotImage();
         image.ifPresent(context::deleteObjects);
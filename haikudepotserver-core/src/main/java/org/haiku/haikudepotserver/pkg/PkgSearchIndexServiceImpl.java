@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.google.common.base.Preconditions;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchIndexService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>The search data is derived with a statement that selects from the package and localization tables so
+ * that the data is the same as if the search were to be performed against those tables directly.  A row is
+ * present for English and for each natural language in which the package has a localization.  The name and
+ * the title are weighted more heavily than the summary in the full-text vector.</p>
+ */
+
+@Service
+public class PkgSearchIndexServiceImpl implements PkgSearchIndexService {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(PkgSearchIndexServiceImpl.class);
+
+    private final static String STATEMENT_DELETE =
+            "DELETE FROM haikudepot.pkg_version_search pvs\n"
+            + "USING haikudepot.pkg_version pv, haikudepot.pkg p\n"
+            + "WHERE pvs.pkg_version_id = pv.id AND pv.pkg_id = p.id\n"
+            + "AND p.pkg_supplement_id = ANY(?)";
+
+    private final static String STATEMENT_DELETE_ALL =
+            "DELETE FROM haikudepot.pkg_version_search";
+
+    /**
+     * <p>Selects the name, title and summary from which the search data for each of the latest package
+     * versions and natural languages is derived.</p>
+     */
+
+    private final static String STATEMENT_SOURCE =
+            "  SELECT\n"
+            + "    pv.id AS pkg_version_id,\n"
+            + "    nl.id AS natural_language_id,\n"
+            + "    CAST(nl.text_search_config AS REGCONFIG) AS text_search_config,\n"
+            + "    p.name AS name,\n"
+            + "    COALESCE(pvl_title_lc.content, pl.title) AS title,\n"
+            + "    COALESCE(pvl_summary_lc.content, pl.summary) AS summary\n"
+            + "  FROM haikudepot.pkg_version pv\n"
+            + "  JOIN haikudepot.pkg p ON p.id = pv.pkg_id\n"
+            + "  CROSS JOIN haikudepot.natural_language nl\n"
+            + "  LEFT JOIN haikudepot.pkg_localization pl ON pl.pkg_supplement_id = p.pkg_supplement_id\n"
+            + "    AND pl.natural_language_id = nl.id\n"
+            + "  LEFT JOIN haikudepot.pkg_version_localization pvl ON pvl.pkg_version_id = pv.id\n"
+            + "    AND pvl.natural_language_id = nl.id\n"
+            + "  LEFT JOIN haikudepot.localization_content pvl_title_lc ON pvl_title_lc.id = pvl.title_localization_content_id\n"
+            + "  LEFT JOIN haikudepot.localization_content pvl_summary_lc ON pvl_summary_lc.id = pvl.summary_localization_content_id\n"
+            + "  WHERE pv.is_latest = true\n"
+            + "  AND (pl.id IS NOT NULL OR pvl.id IS NOT NULL OR nl.code = 'en')\n";
+
+    private final static String EXPRESSION_SEARCH_TEXT =
+            "LOWER(CONCAT_WS(E'\\n', x.name, x.title, x.summary))";
+
+    private final static String STATEMENT_INSERT_PREFIX =
+            "INSERT INTO haikudepot.pkg_version_search (\n"
+            + "  pkg_version_id, natural_language_id, search_text, search_vector)\n"
+            + "SELECT\n"
+            + "  x.pkg_version_id,\n"
+            + "  x.natural_language_id,\n"
+            + "  " + EXPRESSION_SEARCH_TEXT + ",\n"
+            + "  SETWEIGHT(TO_TSVECTOR('simple', x.name), 'A')\n"
+            + "    || SETWEIGHT(TO_TSVECTOR(x.text_search_config, COALESCE(x.title, '')), 'A')\n"
+            + "    || SETWEIGHT(TO_TSVECTOR(x.text_search_config, COALESCE(x.summary, '')), 'B')\n"
+            + "FROM (\n"
+            + STATEMENT_SOURCE;
+
+    private final static String STATEMENT_INSERT_ALL = STATEMENT_INSERT_PREFIX + ") x";
+
+    private final static String STATEMENT_INSERT = STATEMENT_INSERT_PREFIX
+            + "  AND p.pkg_supplement_id = ANY(?)\n"
+            + ") x";
+
+    /**
+     * <p>Finds the package supplements that have a row of search data that is missing, is surplus or has
+     * search text that differs from the text that would be derived now.  The search vector is derived
+     * from the same values as the search text and so is not compared; this saves deriving the vectors
+     * for every package.</p>
+     */
+
+    private final static String STATEMENT_SELECT_DRIFTED =
+            "WITH expected AS (\n"
+            + "  SELECT x.pkg_version_id, x.natural_language_id,\n"
+            + "    " + EXPRESSION_SEARCH_TEXT + " AS search_text\n"
+            + "  FROM (\n"
+            + STATEMENT_SOURCE
+            + "  ) x\n"
+            + "),\n"
+            + "actual AS (\n"
+            + "  SELECT pvs.pkg_version_id, pvs.natural_language_id, pvs.search_text\n"
+            + "  FROM haikudepot.pkg_version_search pvs\n"
+            + "),\n"
+            + "drifted AS (\n"
+            + "  (SELECT * FROM expected EXCEPT SELECT * FROM actual)\n"
+            + "  UNION\n"
+            + "  (SELECT * FROM actual EXCEPT SELECT * FROM expected)\n"
+            + ")\n"
+            + "SELECT DISTINCT p.pkg_supplement_id\n"
+            + "FROM drifted d\n"
+            + "JOIN haikudepot.pkg_version pv ON pv.id = d.pkg_version_id\n"
+            + "JOIN haikudepot.pkg p ON p.id = pv.pkg_id";
+
+    private final DataSource dataSource;
+
+    public PkgSearchIndexServiceImpl(DataSource dataSource) {
+        this.dataSource = Preconditions.checkNotNull(dataSource);
+    }
+
+    @Override
+    public void reindex(Collection<Long> pkgSupplementIds) {
+        Preconditions.checkArgument(null != pkgSupplementIds, "the pkg supplement ids must be provided");
+
+        if (pkgSupplementIds.isEmpty()) {
+            return;
+        }
+
+        long startMs = System.currentTimeMillis();
+        int inserted;
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            // the delete and the insert are in the one transaction so that a concurrent search does
+            // not see the packages missing.
+
+            try (
+                    PreparedStatement deleteStatement = connection.prepareStatement(STATEMENT_DELETE);
+                    PreparedStatement insertStatement = connection.prepareStatement(STATEMENT_INSERT)) {
+
+                Array pkgSupplementIdsArray = connection.createArrayOf("bigint", pkgSupplementIds.toArray());
+                deleteStatement.setArray(1, pkgSupplementIdsArray);
+                insertStatement.setArray(1, pkgSupplementIdsArray);
+
+                deleteStatement.executeUpdate();
+                inserted = insertStatement.executeUpdate();
+                connection.commit();
+            }
+            catch (SQLException se) {
+                connection.rollback();
+                throw se;
+            }
+            finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        catch (SQLException se) {
+            throw new IllegalStateException("unable to reindex the pkg search data", se);
+        }
+
+        LOGGER.debug("did reindex {} pkg search rows for {} pkg supplements in {}ms",
+                inserted, pkgSupplementIds.size(), System.currentTimeMillis() - startMs);
+    }
+
+    @Override
+    public void reindexAll() {
+        long startMs = System.currentTimeMillis();
+        int inserted;
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try (
+                    PreparedStatement deleteStatement = connection.prepareStatement(STATEMENT_DELETE_ALL);
+                    PreparedStatement insertStatement = connection.prepareStatement(STATEMENT_INSERT_ALL)) {
+                deleteStatement.executeUpdate();
+                inserted = insertStatement.executeUpdate();
+                connection.commit();
+            }
+            catch (SQLException se) {
+                connection.rollback();
+                throw se;
+            }
+            finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        catch (SQLException se) {
+            throw new IllegalStateException("unable to reindex all of the pkg search data", se);
+        }
+
+        LOGGER.info("did reindex all {} pkg search rows in {}ms", inserted, System.currentTimeMillis() - startMs);
+    }
+
+    @Override
+    public int reindexDrifted() {
+        long startMs = System.currentTimeMillis();
+        List<Long> pkgSupplementIds = new ArrayList<>();
+
+        try (
+                Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(STATEMENT_SELECT_DRIFTED);
+                ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                pkgSupplementIds.add(resultSet.getLong(1));
+            }
+        }
+        catch (SQLException se) {
+            throw new IllegalStateException("unable to check the pkg search data for drift", se);
+        }
+
+        if (pkgSupplementIds.isEmpty()) {
+            LOGGER.debug("did find no drift in the pkg search data in {}ms", System.currentTimeMillis() - startMs);
+        }
+        else {
+            reindex(pkgSupplementIds);
+            LOGGER.info("did reindex the pkg search data for {} drifted pkg supplements in {}ms",
+                    pkgSupplementIds.size(), System.currentTimeMillis() - startMs);
+        }
+
+        return pkgSupplementIds.size();
+    }
+
+}
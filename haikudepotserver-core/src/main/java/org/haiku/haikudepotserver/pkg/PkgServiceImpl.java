@@ -7,21 +7,25 @@ package org.haiku.haikudepotserver.pkg;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.cayenne.DataRow;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.ObjectId;
-import org.apache.cayenne.access.OptimisticLockException;
 import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.exp.Expression;
 import org.apache.cayenne.query.*;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.haiku.haikudepotserver.dataobjects.*;
+import org.haiku.haikudepotserver.pkg.model.PkgCatalogueService;
 import org.haiku.haikudepotserver.pkg.model.PkgSearchSpecification;
 import org.haiku.haikudepotserver.pkg.model.PkgService;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchResult;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionSearchRow;
 import org.haiku.haikudepotserver.support.*;
 import org.haiku.haikudepotserver.support.cayenne.ExpressionHelper;
 import org.slf4j.Logger;
@@ -53,11 +57,32 @@ public class PkgServiceImpl implements PkgService {
     // TODO; should be injected as a pattern because this should not know about paths for the controller.
     public final static String URL_SEGMENT_PKGDOWNLOAD = "__pkgdownload";
 
+    private final static int SIZE_SEARCH_TOTAL_CACHE = 256;
+
     private final String defaultArchitectureCode;
 
+    /**
+     * <p>When paging through the results of a search, the total is the same for each page so it can be
+     * cached for a short time.  This is keyed by {@link PkgSearchSpecification#getTotalKey()}.  If the
+     * expiry is zero then totals are not cached.</p>
+     */
+
+    private final Cache<String, Long> searchTotalCache;
+
+    private final PkgCatalogueService pkgCatalogueService;
+
     public PkgServiceImpl(
-            @Value("${architecture.default.code}") String defaultArchitectureCode) {
+            PkgCatalogueService pkgCatalogueService,
+            @Value("${architecture.default.code}") String defaultArchitectureCode,
+            @Value("${pkg.search.totalcacheexpiryseconds:0}") long searchTotalCacheExpirySeconds) {
+        this.pkgCatalogueService = Preconditions.checkNotNull(pkgCatalogueService);
         this.defaultArchitectureCode = defaultArchitectureCode;
+        this.searchTotalCache = searchTotalCacheExpirySeconds > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(SIZE_SEARCH_TOTAL_CACHE)
+                        .expireAfterWrite(searchTotalCacheExpirySeconds, TimeUnit.SECONDS)
+                        .build()
+                : null;
     }
 
     // ------------------------------
@@ -227,6 +252,91 @@ public class PkgServiceImpl implements PkgService {
         return (List<PkgVersion>) context.performQuery(query);
     }
 
+    /**
+     * <p>The total is obtained with a window function in the same query as the rows.  If there are no rows
+     * because the offset is beyond the end of the results then the total has to be obtained separately.</p>
+     */
+
+    @Override
+    public PkgVersionSearchResult searchRows(
+            ObjectContext context,
+            PkgSearchSpecification search) {
+
+        Preconditions.checkNotNull(context);
+        Preconditions.checkNotNull(search);
+        Preconditions.checkNotNull(search.getNaturalLanguage());
+        Preconditions.checkState(search.getOffset() >= 0);
+        Preconditions.checkState(search.getLimit() > 0);
+
+        Optional<PkgVersionSearchResult> catalogueResultOptional = pkgCatalogueService.trySearch(search);
+
+        if (catalogueResultOptional.isPresent()) {
+            return catalogueResultOptional.get();
+        }
+
+        long startMs = System.currentTimeMillis();
+        String totalKey = null == searchTotalCache ? null : search.getTotalKey();
+        Long cachedTotal = null == totalKey ? null : searchTotalCache.getIfPresent(totalKey);
+
+        SQLTemplate sqlTemplate = (SQLTemplate) context.getEntityResolver()
+                .getQueryDescriptor("SearchPkgVersions").buildQuery();
+        SQLTemplate query = (SQLTemplate) sqlTemplate.createQuery(ImmutableMap.of(
+                "search", search,
+                "isTotal", false,
+                "isProjection", true,
+                "withTotal", null == cachedTotal,
+                "englishNaturalLanguage", NaturalLanguage.getEnglish(context)
+        ));
+        query.setFetchingDataRows(true);
+
+        List<DataRow> dataRows = (List<DataRow>) context.performQuery(query);
+        long total;
+
+        if (null != cachedTotal) {
+            total = cachedTotal;
+        } else {
+            if (!dataRows.isEmpty()) {
+                total = ((Number) dataRows.get(0).get("total")).longValue();
+            } else {
+                total = 0 == search.getOffset() ? 0L : total(context, search);
+            }
+
+            if (null != totalKey) {
+                searchTotalCache.put(totalKey, total);
+            }
+        }
+
+        LOGGER.debug("did search for {} of {} pkg versions in {}ms; cached total [{}]",
+                dataRows.size(), total, System.currentTimeMillis() - startMs, null != cachedTotal);
+
+        return new PkgVersionSearchResult(
+                dataRows.stream().map(PkgServiceImpl::toPkgVersionSearchRow).collect(Collectors.toList()),
+                total);
+    }
+
+    private static PkgVersionSearchRow toPkgVersionSearchRow(DataRow dataRow) {
+        PkgVersionSearchRow row = new PkgVersionSearchRow();
+        row.setPkgVersionId(((Number) dataRow.get("id")).longValue());
+        row.setMajor((String) dataRow.get("major"));
+        row.setMinor((String) dataRow.get("minor"));
+        row.setMicro((String) dataRow.get("micro"));
+        row.setPreRelease((String) dataRow.get("pre_release"));
+        row.setRevision(Optional.ofNullable((Number) dataRow.get("revision")).map(Number::intValue).orElse(null));
+        row.setCreateTimestamp((Date) dataRow.get("create_timestamp"));
+        row.setViewCounter(((Number) dataRow.get("view_counter")).longValue());
+        row.setPayloadLength(Optional.ofNullable((Number) dataRow.get("payload_length")).map(Number::longValue).orElse(null));
+        row.setPkgName((String) dataRow.get("pkg_name"));
+        row.setPkgModifyTimestamp((Date) dataRow.get("pkg_modify_timestamp"));
+        row.setArchitectureCode((String) dataRow.get("architecture_code"));
+        row.setRepositorySourceCode((String) dataRow.get("repository_source_code"));
+        row.setRepositoryCode((String) dataRow.get("repository_code"));
+        row.setDerivedRating(Optional.ofNullable((Number) dataRow.get("derived_rating")).map(Number::floatValue).orElse(null));
+        row.setHasAnyPkgIcons(Boolean.TRUE.equals(dataRow.get("has_any_pkg_icons")));
+        row.setTitle((String) dataRow.get("title"));
+        row.setSummary((String) dataRow.get("summary"));
+        return row;
+    }
+
     /**
      * <p>This method will provide a total of the package versions.</p>
      */
@@ -421,27 +531,55 @@ public class PkgServiceImpl implements PkgService {
      */
 
     @Override
-    public int deactivatePkgVersionsForPkgAssociatedWithRepositorySource(
+    public int deactivatePkgVersionsForPkgsAssociatedWithRepositorySource(
             ObjectContext context,
-            Pkg pkg,
+            Collection<String> pkgNames,
             final RepositorySource repositorySource) {
 
         Preconditions.checkArgument(null != context, "the context must be provided");
-        Preconditions.checkArgument(null != pkg, "the pkg must be provided");
+        Preconditions.checkArgument(null != pkgNames, "the pkg names must be provided");
         Preconditions.checkArgument(null != repositorySource, "the repository source must be provided");
 
-        int count = 0;
+        if (pkgNames.isEmpty()) {
+            return 0;
+        }
 
-        for (PkgVersion pkgVersion : PkgVersion.getForPkg(context, pkg, repositorySource, false)) { // active only
-            if (pkgVersion.getRepositorySource().equals(repositorySource)) {
-                if (pkgVersion.getActive()) {
-                    pkgVersion.setActive(false);
-                    count++;
-                }
-            }
+        List<PkgVersion> pkgVersions = ObjectSelect.query(PkgVersion.class)
+                .where(PkgVersion.PKG.dot(Pkg.NAME).in(pkgNames))
+                .and(PkgVersion.REPOSITORY_SOURCE.eq(repositorySource))
+                .and(PkgVersion.ACTIVE.isTrue())
+                .select(context);
+
+        pkgVersions.forEach(pv -> pv.setActive(false));
+
+        return pkgVersions.size();
+    }
+
+    @Override
+    public Set<String> fetchImportFingerprintsForRepositorySource(
+            ObjectContext context,
+            RepositorySource repositorySource,
+            boolean requirePayloadLength) {
+
+        Preconditions.checkArgument(null != context, "the context must be provided");
+        Preconditions.checkArgument(null != repositorySource, "the repository source must be provided");
+
+        // only the latest versions are considered; an older version that is still active may be in the
+        // repository data again because the repository has regressed and so it must be imported again
+        // in order that it becomes the latest version.
+
+        Expression expression = PkgVersion.REPOSITORY_SOURCE.eq(repositorySource)
+                .andExp(PkgVersion.ACTIVE.isTrue())
+                .andExp(PkgVersion.IS_LATEST.isTrue())
+                .andExp(PkgVersion.IMPORT_FINGERPRINT.isNotNull());
+
+        if (requirePayloadLength) {
+            expression = expression.andExp(PkgVersion.PAYLOAD_LENGTH.isNotNull());
         }
 
-        return count;
+        return ImmutableSet.copyOf(ObjectSelect.columnQuery(PkgVersion.class, PkgVersion.IMPORT_FINGERPRINT)
+                .where(expression)
+                .select(context));
     }
 
     /**
@@ -599,47 +737,6 @@ public class PkgServiceImpl implements PkgService {
         return didChange;
     }
 
-    /**
-     * <p>This method will increment the view counter on a package version.  If it encounters an optimistic
-     * locking problem then it will pause and it will try again in a moment.  It will attempt this a few
-     * times and then fail with a runtime exception.</p>
-     */
-
-    @Override
-    public void incrementViewCounter(ServerRuntime serverRuntime, ObjectId pkgVersionOid) {
-
-        Preconditions.checkArgument(null != serverRuntime, "the server runtime must be provided");
-        Preconditions.checkArgument(null != pkgVersionOid, "the pkg version oid must be provided");
-        Preconditions.checkArgument(pkgVersionOid.getEntityName().equals(PkgVersion.class.getSimpleName()), "the oid must reference PkgVersion");
-
-        int attempts = 3;
-
-        while (true) {
-            ObjectContext contextEdit = serverRuntime.newContext();
-            PkgVersion pkgVersionEdit = ((List<PkgVersion>) contextEdit.performQuery(new ObjectIdQuery(pkgVersionOid)))
-                    .stream()
-                    .collect(SingleCollector.single());
-            pkgVersionEdit.incrementViewCounter();
-
-            try {
-                contextEdit.commitChanges();
-                LOGGER.info("did increment the view counter for '{}'", pkgVersionEdit.getPkg().toString());
-                return;
-            } catch (OptimisticLockException ole) {
-                contextEdit.invalidateObjects(pkgVersionEdit);
-
-                attempts--;
-
-                if (0 == attempts) {
-                    throw new RuntimeException("unable to increment the view counter for '"+pkgVersionEdit.getPkg().toString()+"' because of an optimistic locking failure; have exhausted attempts", ole);
-                } else {
-                    LOGGER.error("unable to increment the view counter for '{}' because of an optimistic locking failure; will try again...", pkgVersionEdit.getPkg().toString());
-                    Uninterruptibles.sleepUninterruptibly(250 + (System.currentTimeMillis() % 250), TimeUnit.MILLISECONDS);
-                }
-            }
-        }
-    }
-
     @Override
     public Date getLastModifyTimestampSecondAccuracy(ObjectContext context, RepositorySource repositorySource) {
         Preconditions.checkNotNull(context);
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.cayenne.ObjectId;
+import org.haiku.haikudepotserver.dataobjects.PkgVersion;
+import org.haiku.haikudepotserver.pkg.model.PkgVersionViewCounterService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Views of package versions are counted in memory keyed by the package version's id.  Periodically the
+ * counts are written to the database as a single batch of updates that add to the existing value.  This
+ * means that popular packages do not cause optimistic locking failures on the package version and that
+ * the request recording the view does not wait for the database.</p>
+ *
+ * <p>Views that have not yet been written are lost if the application stops abruptly so the loss is
+ * bounded by the flush period.  When the application stops normally, the outstanding views are written.
+ * If the database is not available, the views are retained for the next flush, but only up to a maximum
+ * quantity of package versions; beyond this, views are dropped.</p>
+ */
+
+@Service
+public class PkgVersionViewCounterServiceImpl implements PkgVersionViewCounterService {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(PkgVersionViewCounterServiceImpl.class);
+
+    private final static String STATEMENT_INCREMENT =
+            "UPDATE haikudepot.pkg_version SET view_counter = view_counter + ? WHERE id = ?";
+
+    private final DataSource dataSource;
+
+    private final MetricRegistry metricRegistry;
+
+    private final long flushPeriodMillis;
+
+    private final int maxPendingPkgVersions;
+
+    /**
+     * <p>Maps the id of the package version to the quantity of views that have not been written.  The
+     * increment and the removal of a count is atomic for a given key so no views are lost between the
+     * request threads and the flush.</p>
+     */
+
+    private final ConcurrentHashMap<Long, Long> pendingIncrementsByPkgVersionId = new ConcurrentHashMap<>();
+
+    private final LongAdder pendingIncrements = new LongAdder();
+
+    private final Counter droppedIncrements = new Counter();
+
+    private final Timer flushTimer = new Timer();
+
+    private ScheduledExecutorService scheduledExecutor = null;
+
+    public PkgVersionViewCounterServiceImpl(
+            DataSource dataSource,
+            MetricRegistry metricRegistry,
+            @Value("${pkgversion.viewcounter.flushperiodseconds:30}") long flushPeriodSeconds,
+            @Value("${pkgversion.viewcounter.maxpendingpkgversions:10000}") int maxPendingPkgVersions) {
+        Preconditions.checkArgument(flushPeriodSeconds > 0, "the flush period must be positive");
+        Preconditions.checkArgument(maxPendingPkgVersions > 0, "the max pending pkg versions must be positive");
+        this.dataSource = Preconditions.checkNotNull(dataSource);
+        this.metricRegistry = Preconditions.checkNotNull(metricRegistry);
+        this.flushPeriodMillis = TimeUnit.SECONDS.toMillis(flushPeriodSeconds);
+        this.maxPendingPkgVersions = maxPendingPkgVersions;
+    }
+
+    @PostConstruct
+    public void init() {
+        registerMetrics();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("pkg-version-view-counter-%d")
+                        .setDaemon(true)
+                        .build());
+        scheduledExecutor.scheduleWithFixedDelay(
+                this::tryFlush,
+                flushPeriodMillis,
+                flushPeriodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        if (null != scheduledExecutor) {
+            scheduledExecutor.shutdown();
+
+            try {
+                if (!scheduledExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOGGER.warn("timeout awaiting the view counter flush to stop");
+                }
+            }
+            catch (InterruptedException ie) {
+                LOGGER.warn("interrupted awaiting the view counter flush to stop");
+                Thread.currentThread().interrupt();
+            }
+
+            scheduledExecutor = null;
+        }
+
+        tryFlush();
+        unregisterMetrics();
+    }
+
+    @Override
+    public void increment(ObjectId pkgVersionOid) {
+        Preconditions.checkArgument(null != pkgVersionOid, "the pkg version oid must be provided");
+        Preconditions.checkArgument(pkgVersionOid.getEntityName().equals(PkgVersion.class.getSimpleName()), "the oid must reference PkgVersion");
+
+        Long pkgVersionId = ((Number) pkgVersionOid.getIdSnapshot().get(PkgVersion.ID_PK_COLUMN)).longValue();
+
+        if (pendingIncrementsByPkgVersionId.size() >= maxPendingPkgVersions
+                && !pendingIncrementsByPkgVersionId.containsKey(pkgVersionId)) {
+            droppedIncrements.inc();
+            LOGGER.warn("unable to count a view of pkg version [{}] because there are too many pending", pkgVersionId);
+            return;
+        }
+
+        pendingIncrementsByPkgVersionId.merge(pkgVersionId, 1L, Long::sum);
+        pendingIncrements.increment();
+    }
+
+    @Override
+    public long getPendingIncrements() {
+        return pendingIncrements.sum();
+    }
+
+    private void tryFlush() {
+        try {
+            flush();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to flush the pkg version view counters", th);
+        }
+    }
+
+    /**
+     * <p>The counts are removed from the map before they are written.  If the write fails then they are
+     * put back so that they are able to be written on the next flush.  The updates are applied in the
+     * order of the id so that concurrent flushes from other nodes are not able to deadlock.</p>
+     */
+
+    @Override
+    public synchronized void flush() {
+        if (pendingIncrementsByPkgVersionId.isEmpty()) {
+            return;
+        }
+
+        Map<Long, Long> increments = new TreeMap<>();
+
+        for (Long pkgVersionId : pendingIncrementsByPkgVersionId.keySet()) {
+            Long increment = pendingIncrementsByPkgVersionId.remove(pkgVersionId);
+
+            if (null != increment) {
+                increments.put(pkgVersionId, increment);
+            }
+        }
+
+        long total = increments.values().stream().mapToLong(Long::longValue).sum();
+
+        try (Timer.Context ignored = flushTimer.time()) {
+            write(increments);
+        }
+        catch (SQLException se) {
+            increments.forEach((k, v) -> pendingIncrementsByPkgVersionId.merge(k, v, Long::sum));
+            LOGGER.error("unable to write {} view counts for {} pkg versions; will retry",
+                    total, increments.size(), se);
+            return;
+        }
+
+        pendingIncrements.add(-total);
+        LOGGER.info("did write {} view counts for {} pkg versions", total, increments.size());
+    }
+
+    private void write(Map<Long, Long> increments) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement statement = connection.prepareStatement(STATEMENT_INCREMENT)) {
+                for (Map.Entry<Long, Long> entry : increments.entrySet()) {
+                    statement.setLong(1, entry.getValue());
+                    statement.setLong(2, entry.getKey());
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                connection.commit();
+            }
+            catch (SQLException se) {
+                connection.rollback();
+                throw se;
+            }
+            finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    // ------------------------------
+    // METRICS
+
+    private String metricName(String suffix) {
+        return MetricRegistry.name(PkgVersionViewCounterService.class, suffix);
+    }
+
+    private void registerMetrics() {
+        metricRegistry.register(metricName("pending"), (Gauge<Long>) this::getPendingIncrements);
+        metricRegistry.register(metricName("pendingpkgversions"), (Gauge<Integer>) pendingIncrementsByPkgVersionId::size);
+        metricRegistry.register(metricName("dropped"), droppedIncrements);
+        metricRegistry.register(metricName("flush"), flushTimer);
+    }
+
+    private void unregisterMetrics() {
+        metricRegistry.remove(metricName("pending"));
+        metricRegistry.remove(metricName("pendingpkgversions"));
+        metricRegistry.remove(metricName("dropped"));
+        metricRegistry.remove(metricName("flush"));
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * <p>This is the second tier of the rendered icon and screenshot caches.  It stores rendered images as
+ * files in a directory so that they survive a restart of the application server and so that it is able
+ * to hold many more images than would be sensible to keep in memory.  The total size of the files is
+ * bounded; the images that have been used least recently are removed first.</p>
+ *
+ * <p>The name of each file is made up of the parts of the key; for example the package name, the size
+ * and the icon modify timestamp so that an icon that has been changed will not be found.  The stale
+ * files are removed as more images are added.</p>
+ */
+
+class RenderedImageDiskCache {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(RenderedImageDiskCache.class);
+
+    private final static String SUFFIX = ".png";
+
+    private final static char SEPARATOR = '@';
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    /**
+     * <p>Maps the file names to the length of the file in the order of access.  Guarded by this
+     * object's monitor.</p>
+     */
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * <p>Guarded by this object's monitor.</p>
+     */
+
+    private long totalBytes = 0L;
+
+    RenderedImageDiskCache(File directory, long maxBytes) {
+        Preconditions.checkArgument(null != directory, "the directory must be supplied");
+        Preconditions.checkArgument(maxBytes > 0L, "the max bytes must be positive");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * <p>Loads the files that are already in the directory in the order of their modification so that
+     * the most recently stored are the last to be removed.  Files that are partially written are
+     * removed.</p>
+     */
+
+    synchronized void init() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("unable to create the rendered image directory; " + directory);
+        }
+
+        File[] files = directory.listFiles();
+
+        if (null == files) {
+            throw new IllegalStateException("unable to list the rendered image directory; " + directory);
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        for (File file : files) {
+            if (file.isFile()) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    entries.put(file.getName(), file.length());
+                    totalBytes += file.length();
+                }
+                else {
+                    delete(file);
+                }
+            }
+        }
+
+        trim();
+
+        LOGGER.info("did load {} rendered images ({} bytes) from; {}", entries.size(), totalBytes, directory);
+    }
+
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    synchronized int getCount() {
+        return entries.size();
+    }
+
+    private static String encodeKeyPart(Object keyPart) {
+        Preconditions.checkArgument(null != keyPart, "the key part must be supplied");
+
+        try {
+            return URLEncoder.encode(keyPart.toString(), "UTF-8");
+        }
+        catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException("unable to encode the key part", uee);
+        }
+    }
+
+    private static String fileName(Object... keyParts) {
+        Preconditions.checkArgument(keyParts.length > 0, "at least one key part must be supplied");
+        return Arrays.stream(keyParts)
+                .map(RenderedImageDiskCache::encodeKeyPart)
+                .collect(Collectors.joining(String.valueOf(SEPARATOR))) + SUFFIX;
+    }
+
+    /**
+     * <p>Returns the length of the stored image without reading it.</p>
+     */
+
+    synchronized Optional<Long> tryGetLength(Object... keyParts) {
+        return Optional.ofNullable(entries.get(fileName(keyParts)));
+    }
+
+    Optional<byte[]> tryGet(Object... keyParts) {
+        String fileName = fileName(keyParts);
+
+        synchronized (this) {
+            if (null == entries.get(fileName)) {
+                return Optional.empty();
+            }
+        }
+
+        try {
+            return Optional.of(Files.readAllBytes(new File(directory, fileName).toPath()));
+        }
+        catch (NoSuchFileException nsfe) {
+            remove(fileName);
+            return Optional.empty();
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("unable to read the rendered image; " + fileName, ioe);
+            remove(fileName);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * <p>The data is written to a temporary file first and is then moved into place so that another
+     * thread is not able to read a partially written file.</p>
+     */
+
+    void put(byte[] data, Object... keyParts) {
+        Preconditions.checkArgument(null != data, "the data must be supplied");
+
+        if (data.length > maxBytes) {
+            return;
+        }
+
+        String fileName = fileName(keyParts);
+        File temporaryFile = new File(directory, fileName + "." + UUID.randomUUID().toString() + ".tmp");
+        File file = new File(directory, fileName);
+
+        try {
+            Files.write(temporaryFile.toPath(), data);
+
+            try {
+                Files.move(temporaryFile.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("unable to store the rendered image; " + fileName, ioe);
+            delete(temporaryFile);
+            return;
+        }
+
+        synchronized (this) {
+            Long previousLength = entries.put(fileName, (long) data.length);
+            totalBytes += data.length - (null == previousLength ? 0L : previousLength);
+            trim();
+        }
+    }
+
+    /**
+     * <p>Removes all of the rendered images whose key starts with the supplied part; for example all of
+     * the rendered icons for a package.</p>
+     */
+
+    void evict(Object firstKeyPart) {
+        String prefix = encodeKeyPart(firstKeyPart) + SEPARATOR;
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+
+                if (entry.getKey().startsWith(prefix)) {
+                    iterator.remove();
+                    totalBytes -= entry.getValue();
+                    delete(new File(directory, entry.getKey()));
+                }
+            }
+        }
+    }
+
+    private synchronized void remove(String fileName) {
+        Long length = entries.remove(fileName);
+
+        if (null != length) {
+            totalBytes -= length;
+        }
+    }
+
+    /**
+     * <p>Must be called holding this object's monitor.</p>
+     */
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            totalBytes -= entry.getValue();
+            delete(new File(directory, entry.getKey()));
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("unable to delete the rendered image file; {}", file);
+        }
+    }
+
+}
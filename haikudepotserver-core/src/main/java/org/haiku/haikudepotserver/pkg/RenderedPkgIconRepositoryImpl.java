@@ -5,7 +5,12 @@
 
 package org.haiku.haikudepotserver.pkg;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.io.ByteStreams;
@@ -16,22 +21,62 @@ import org.haiku.haikudepotserver.dataobjects.PkgSupplement;
 import org.haiku.haikudepotserver.dataobjects.auto._PkgIcon;
 import org.haiku.haikudepotserver.graphics.bitmap.PngOptimizationService;
 import org.haiku.haikudepotserver.graphics.hvif.HvifRenderingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Timestamp;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * <p>The rendered icons are cached in two tiers.  The first tier is in memory and is bounded by the
+ * number of bytes of icon data that it holds.  The second tier is on disk and is optional.  It is
+ * able to hold many more icons and it survives a restart.  Both tiers are keyed by the package name,
+ * the size and the icon modify timestamp of the package so that a changed icon is not served from a
+ * cache.</p>
+ */
+
 @Repository
 public class RenderedPkgIconRepositoryImpl implements RenderedPkgIconRepository {
 
+    protected static Logger LOGGER = LoggerFactory.getLogger(RenderedPkgIconRepositoryImpl.class);
+
+    private final static String DIRECTORY_DEFAULT = "haikudepotserver-renderedpkgicons";
+
+    /**
+     * <p>This is an estimate of the memory used by an entry in the memory cache excluding the icon
+     * data.</p>
+     */
+
+    private final static int WEIGHT_ENTRY_OVERHEAD = 128;
+
     private final HvifRenderingService hvifRenderingService;
     private final PngOptimizationService pngOptimizationService;
-    private final Cache<String, Cache<Integer, Optional<byte[]>>> cache;
+    private final MetricRegistry metricRegistry;
+    private final Cache<RenderedPkgIconKey, Optional<byte[]>> cache;
+
+    /**
+     * <p>This is null if the disk cache is not configured.</p>
+     */
+
+    private final RenderedImageDiskCache diskCache;
+
+    private final Counter diskHits = new Counter();
+
+    private final Counter misses = new Counter();
+
+    private final Timer renderTimer = new Timer();
 
     /**
      * <p>Holds a cache of generic icons rather than those that are specific to a given package.</p>
@@ -41,14 +86,25 @@ public class RenderedPkgIconRepositoryImpl implements RenderedPkgIconRepository
 
     private byte[] genericHvif;
 
-    public RenderedPkgIconRepositoryImpl(HvifRenderingService hvifRenderingService, PngOptimizationService pngOptimizationService) {
+    public RenderedPkgIconRepositoryImpl(
+            HvifRenderingService hvifRenderingService,
+            PngOptimizationService pngOptimizationService,
+            MetricRegistry metricRegistry,
+            @Value("${pkg.icon.cache.memory.maxbytes:16777216}") long memoryMaxBytes,
+            @Value("${pkg.icon.cache.disk.maxbytes:268435456}") long diskMaxBytes,
+            @Value("${pkg.icon.cache.disk.directory:}") String diskDirectory) {
+        Preconditions.checkArgument(memoryMaxBytes > 0L, "the memory max bytes must be positive");
         this.hvifRenderingService = hvifRenderingService;
         this.pngOptimizationService = pngOptimizationService;
+        this.metricRegistry = Preconditions.checkNotNull(metricRegistry);
 
         cache = CacheBuilder
                 .newBuilder()
-                .maximumSize(256)
+                .maximumWeight(memoryMaxBytes)
+                .weigher((RenderedPkgIconKey k, Optional<byte[]> v) ->
+                        WEIGHT_ENTRY_OVERHEAD + v.map(d -> d.length).orElse(0))
                 .expireAfterAccess(12, TimeUnit.HOURS)
+                .recordStats()
                 .build();
 
         genericCache = CacheBuilder
@@ -57,26 +113,42 @@ public class RenderedPkgIconRepositoryImpl implements RenderedPkgIconRepository
                 .expireAfterAccess(1, TimeUnit.HOURS)
                 .build();
 
+        if (diskMaxBytes > 0L) {
+            diskCache = new RenderedImageDiskCache(
+                    Strings.isNullOrEmpty(diskDirectory)
+                            ? new File(System.getProperty("java.io.tmpdir"), DIRECTORY_DEFAULT)
+                            : new File(diskDirectory),
+                    diskMaxBytes);
+        }
+        else {
+            diskCache = null;
+        }
     }
 
-    private Cache<Integer, Optional<byte[]>> getOrCreatePkgCache(String name) {
-        try {
-            return cache.get(name, () -> CacheBuilder
-                    .newBuilder()
-                    .maximumSize(10)
-                    .expireAfterAccess(30, TimeUnit.MINUTES)
-                    .build());
-        }
-        catch(Exception e) {
-            throw new RuntimeException("unable to get or create the package to icon cache.", e);
+    @PostConstruct
+    public void init() {
+        if (null != diskCache) {
+            diskCache.init();
         }
+
+        registerMetrics();
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        unregisterMetrics();
     }
 
     @Override
     public void evict(ObjectContext context, PkgSupplement pkgSupplement) {
         Preconditions.checkArgument(null != context, "an object context is required");
         Preconditions.checkArgument(null != pkgSupplement, "a pkg supplement is required");
-        cache.invalidate(pkgSupplement.getBasePkgName());
+        String pkgName = pkgSupplement.getBasePkgName();
+        cache.asMap().keySet().removeIf(k -> k.getPkgName().equals(pkgName));
+
+        if (null != diskCache) {
+            diskCache.evict(pkgName);
+        }
     }
 
     private synchronized byte[] getGenericHvif() {
@@ -116,46 +188,34 @@ public class RenderedPkgIconRepositoryImpl implements RenderedPkgIconRepository
         Preconditions.checkArgument(null != context, "an object context is required");
         Preconditions.checkArgument(null != pkgSupplement, "a pkg supplement is required");
 
-        Cache<Integer, Optional<byte[]>> pkgCache = getOrCreatePkgCache(pkgSupplement.getBasePkgName());
+        String pkgName = pkgSupplement.getBasePkgName();
+        long iconModifyTimestamp = Optional.ofNullable(pkgSupplement.getIconModifyTimestamp())
+                .map(Timestamp::getTime)
+                .orElse(0L);
 
         try {
-            return pkgCache.get(size, () -> {
-
-                // first look for the HVIF icon and render the icon from that.
+            return cache.get(new RenderedPkgIconKey(pkgName, size, iconModifyTimestamp), () -> {
+                if (null != diskCache) {
+                    Optional<byte[]> diskDataOptional = diskCache.tryGet(pkgName, size, iconModifyTimestamp);
 
-                {
-                    MediaType hvifMediaType = MediaType.getByCode(context, MediaType.MEDIATYPE_HAIKUVECTORICONFILE);
-                    Optional<PkgIcon> hvifPkgIconOptional = pkgSupplement.getPkgIcon(hvifMediaType, null);
-
-                    if (hvifPkgIconOptional.isPresent()) {
-                        byte[] hvifData = hvifPkgIconOptional.get().getPkgIconImage().getData();
-                        byte[] pngData = pngOptimizationService.optimize(hvifRenderingService.render(size, hvifData));
-                        return Optional.of(pngData);
+                    if (diskDataOptional.isPresent()) {
+                        diskHits.inc();
+                        return diskDataOptional;
                     }
                 }
 
-                // If there is no HVIF then it is possible to fall back to PNG images.
-
-                {
-                    List<PkgIcon> pkgIconList = pkgSupplement.getPkgIcons()
-                            .stream()
-                            .filter(pi -> pi.getMediaType().getCode().equals(com.google.common.net.MediaType.PNG.toString()))
-                            .sorted(Comparator.comparing(_PkgIcon::getSize))
-                            .collect(Collectors.toList());
+                misses.inc();
+                Optional<byte[]> dataOptional;
 
-                    for(PkgIcon pkgIcon : pkgIconList) {
-                        if(pkgIcon.getSize() >= size) {
-                            return Optional.of(pkgIcon.getPkgIconImage().getData());
-                        }
-                    }
-
-                    if(!pkgIconList.isEmpty()) {
-                        return Optional.of(pkgIconList.get(pkgIconList.size()-1).getPkgIconImage().getData());
-                    }
+                try (Timer.Context ignored = renderTimer.time()) {
+                    dataOptional = renderUncached(size, context, pkgSupplement);
+                }
 
+                if (null != diskCache) {
+                    dataOptional.ifPresent(d -> diskCache.put(d, pkgName, size, iconModifyTimestamp));
                 }
 
-                return Optional.empty();
+                return dataOptional;
             });
         }
         catch(Exception e) {
@@ -164,4 +224,115 @@ public class RenderedPkgIconRepositoryImpl implements RenderedPkgIconRepository
         }
 
     }
+
+    private Optional<byte[]> renderUncached(
+            int size,
+            ObjectContext context,
+            PkgSupplement pkgSupplement) throws IOException {
+
+        // first look for the HVIF icon and render the icon from that.
+
+        {
+            MediaType hvifMediaType = MediaType.getByCode(context, MediaType.MEDIATYPE_HAIKUVECTORICONFILE);
+            Optional<PkgIcon> hvifPkgIconOptional = pkgSupplement.getPkgIcon(hvifMediaType, null);
+
+            if (hvifPkgIconOptional.isPresent()) {
+                byte[] hvifData = hvifPkgIconOptional.get().getPkgIconImage().getData();
+                byte[] pngData = pngOptimizationService.optimize(hvifRenderingService.render(size, hvifData));
+                return Optional.of(pngData);
+            }
+        }
+
+        // If there is no HVIF then it is possible to fall back to PNG images.
+
+        {
+            List<PkgIcon> pkgIconList = pkgSupplement.getPkgIcons()
+                    .stream()
+                    .filter(pi -> pi.getMediaType().getCode().equals(com.google.common.net.MediaType.PNG.toString()))
+                    .sorted(Comparator.comparing(_PkgIcon::getSize))
+                    .collect(Collectors.toList());
+
+            for(PkgIcon pkgIcon : pkgIconList) {
+                if(pkgIcon.getSize() >= size) {
+                    return Optional.of(pkgIcon.getPkgIconImage().getData());
+                }
+            }
+
+            if(!pkgIconList.isEmpty()) {
+                return Optional.of(pkgIconList.get(pkgIconList.size()-1).getPkgIconImage().getData());
+            }
+
+        }
+
+        return Optional.empty();
+    }
+
+    // ------------------------------
+    // METRICS
+
+    private String metricName(String suffix) {
+        return MetricRegistry.name(RenderedPkgIconRepository.class, suffix);
+    }
+
+    private void registerMetrics() {
+        metricRegistry.register(metricName("memoryhits"), (Gauge<Long>) () -> cache.stats().hitCount());
+        metricRegistry.register(metricName("memorybytes"), (Gauge<Long>) () -> cache.asMap().values()
+                .stream()
+                .mapToLong(v -> v.map(d -> d.length).orElse(0))
+                .sum());
+        metricRegistry.register(metricName("diskhits"), diskHits);
+        metricRegistry.register(metricName("misses"), misses);
+        metricRegistry.register(metricName("render"), renderTimer);
+
+        if (null != diskCache) {
+            metricRegistry.register(metricName("diskbytes"), (Gauge<Long>) diskCache::getTotalBytes);
+        }
+    }
+
+    private void unregisterMetrics() {
+        metricRegistry.remove(metricName("memoryhits"));
+        metricRegistry.remove(metricName("memorybytes"));
+        metricRegistry.remove(metricName("diskhits"));
+        metricRegistry.remove(metricName("misses"));
+        metricRegistry.remove(metricName("render"));
+        metricRegistry.remove(metricName("diskbytes"));
+    }
+
+    private static class RenderedPkgIconKey {
+
+        private final String pkgName;
+        private final int size;
+        private final long iconModifyTimestamp;
+
+        RenderedPkgIconKey(String pkgName, int size, long iconModifyTimestamp) {
+            this.pkgName = Preconditions.checkNotNull(pkgName);
+            this.size = size;
+            this.iconModifyTimestamp = iconModifyTimestamp;
+        }
+
+        String getPkgName() {
+            return pkgName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RenderedPkgIconKey that = (RenderedPkgIconKey) o;
+            return size == that.size
+                    && iconModifyTimestamp == that.iconModifyTimestamp
+                    && pkgName.equals(that.pkgName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pkgName, size, iconModifyTimestamp);
+        }
+
+    }
+
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.query.ObjectSelect;
+import org.haiku.haikudepotserver.dataobjects.MediaType;
+import org.haiku.haikudepotserver.dataobjects.PkgIcon;
+import org.haiku.haikudepotserver.dataobjects.PkgScreenshot;
+import org.haiku.haikudepotserver.dataobjects.PkgSupplement;
+import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.pkg.model.RenderedPkgImagePrewarmService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>The prewarming is run on a single thread that belongs to this node so that it does not compete
+ * with the requests for the processors.  If the icons are already in the caches then prewarming them is
+ * cheap.</p>
+ */
+
+@Service
+public class RenderedPkgImagePrewarmServiceImpl implements RenderedPkgImagePrewarmService {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(RenderedPkgImagePrewarmServiceImpl.class);
+
+    private final static int[] PKG_ICON_SIZES = { 16, 32, 64 };
+
+    /**
+     * <p>A new object context is used for each batch of packages so that the icon data that has been
+     * loaded is able to be garbage collected.</p>
+     */
+
+    private final static int PKG_ICON_BATCH_SIZE = 50;
+
+    private final static long AWAIT_JOB_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final ServerRuntime serverRuntime;
+    private final JobService jobService;
+    private final RenderedPkgIconRepository renderedPkgIconRepository;
+    private final RenderedPkgScreenshotRepository renderedPkgScreenshotRepository;
+
+    /**
+     * <p>True if a prewarm of the icons has been queued but has not yet started.</p>
+     */
+
+    private final AtomicBoolean pkgIconsPrewarmQueued = new AtomicBoolean(false);
+
+    private ExecutorService executor = null;
+
+    public RenderedPkgImagePrewarmServiceImpl(
+            ServerRuntime serverRuntime,
+            JobService jobService,
+            RenderedPkgIconRepository renderedPkgIconRepository,
+            RenderedPkgScreenshotRepository renderedPkgScreenshotRepository) {
+        this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
+        this.jobService = Preconditions.checkNotNull(jobService);
+        this.renderedPkgIconRepository = Preconditions.checkNotNull(renderedPkgIconRepository);
+        this.renderedPkgScreenshotRepository = Preconditions.checkNotNull(renderedPkgScreenshotRepository);
+    }
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("rendered-pkg-image-prewarm-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        if (null != executor) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        Preconditions.checkState(null != executor, "the prewarm service is not running");
+        return executor;
+    }
+
+    @Override
+    public void prewarmPkgIcons() {
+        if (pkgIconsPrewarmQueued.compareAndSet(false, true)) {
+            getExecutor().execute(() -> {
+                // a request that arrives while this prewarm is running will queue another because the
+                // icons may have changed in the meantime.
+                pkgIconsPrewarmQueued.set(false);
+
+                try {
+                    prewarmPkgIconsNow();
+                }
+                catch (Throwable th) {
+                    LOGGER.error("unable to pre-warm the rendered icons", th);
+                }
+            });
+        }
+        else {
+            LOGGER.debug("did not queue a pre-warm of the rendered icons as one is already queued");
+        }
+    }
+
+    @Override
+    public void prewarmPkgScreenshots(Collection<String> pkgScreenshotCodes, String afterJobGuid) {
+        Preconditions.checkArgument(null != pkgScreenshotCodes, "the screenshot codes must be supplied");
+
+        if (pkgScreenshotCodes.isEmpty()) {
+            return;
+        }
+
+        List<String> codes = ImmutableList.copyOf(pkgScreenshotCodes);
+
+        getExecutor().execute(() -> {
+            if (null != afterJobGuid) {
+                jobService.awaitJobFinishedUninterruptibly(afterJobGuid, AWAIT_JOB_TIMEOUT_MILLIS);
+            }
+
+            for (String code : codes) {
+                try {
+                    prewarmPkgScreenshotNow(code);
+                }
+                catch (Throwable th) {
+                    LOGGER.error("unable to pre-warm the rendered screenshot [" + code + "]", th);
+                }
+            }
+        });
+    }
+
+    private void prewarmPkgIconsNow() {
+        long startMs = System.currentTimeMillis();
+
+        List<String> pkgNames = ObjectSelect
+                .columnQuery(PkgSupplement.class, PkgSupplement.BASE_PKG_NAME)
+                .where(PkgSupplement.PKG_ICONS
+                        .dot(PkgIcon.MEDIA_TYPE)
+                        .dot(MediaType.CODE)
+                        .eq(MediaType.MEDIATYPE_HAIKUVECTORICONFILE))
+                .distinct()
+                .orderBy(PkgSupplement.BASE_PKG_NAME.asc())
+                .select(serverRuntime.newContext());
+
+        LOGGER.info("will pre-warm the rendered icons for {} pkgs", pkgNames.size());
+
+        ObjectContext context = null;
+
+        for (int i = 0; i < pkgNames.size(); i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                LOGGER.info("did stop pre-warming the rendered icons as the thread was interrupted");
+                return;
+            }
+
+            if (0 == i % PKG_ICON_BATCH_SIZE) {
+                context = serverRuntime.newContext();
+            }
+
+            Optional<PkgSupplement> pkgSupplementOptional =
+                    PkgSupplement.tryGetByBasePkgName(context, pkgNames.get(i));
+
+            if (pkgSupplementOptional.isPresent()) {
+                for (int size : PKG_ICON_SIZES) {
+                    renderedPkgIconRepository.render(size, context, pkgSupplementOptional.get());
+                }
+            }
+        }
+
+        LOGGER.info("did pre-warm the rendered icons for {} pkgs in {}ms",
+                pkgNames.size(), System.currentTimeMillis() - startMs);
+    }
+
+    private void prewarmPkgScreenshotNow(String pkgScreenshotCode) {
+        ObjectContext context = serverRuntime.newContext();
+        Optional<PkgScreenshot> pkgScreenshotOptional = PkgScreenshot.tryGetByCode(context, pkgScreenshotCode);
+
+        if (pkgScreenshotOptional.isPresent()) {
+            renderedPkgScreenshotRepository.prewarm(context, pkgScreenshotOptional.get());
+        }
+        else {
+            LOGGER.debug("did not pre-warm the screenshot [{}] as it no longer exists", pkgScreenshotCode);
+        }
+    }
+
+}
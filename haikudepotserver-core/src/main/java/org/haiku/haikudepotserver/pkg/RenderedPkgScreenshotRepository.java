@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import org.apache.cayenne.ObjectContext;
+import org.haiku.haikudepotserver.dataobjects.PkgScreenshot;
+import org.springframework.stereotype.Repository;
+
+/**
+ * <p>This object will maintain a repository and cache of package's screenshots that have been scaled to
+ * fit within a target width and height.</p>
+ */
+
+@Repository
+public interface RenderedPkgScreenshotRepository {
+
+    /**
+     * <p>Removes any cached scaled images for the nominated screenshot.</p>
+     */
+
+    void evict(String screenshotCode);
+
+    /**
+     * <p>Produces PNG data for the screenshot scaled to fit within the target width and height.  If the
+     * screenshot already fits then the stored data is returned.</p>
+     */
+
+    byte[] render(ObjectContext context, PkgScreenshot screenshot, int targetWidth, int targetHeight);
+
+    /**
+     * <p>Returns the length of the data that {@link #render(ObjectContext, PkgScreenshot, int, int)} would
+     * produce.  Where possible this is answered from the cached metadata so that nothing is rendered.</p>
+     */
+
+    long renderLength(ObjectContext context, PkgScreenshot screenshot, int targetWidth, int targetHeight);
+
+    /**
+     * <p>Renders the screenshot at the sizes that the clients commonly request so that these are already
+     * cached when they are first requested.</p>
+     */
+
+    void prewarm(ObjectContext context, PkgScreenshot screenshot);
+
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.cayenne.ObjectContext;
+import org.haiku.haikudepotserver.dataobjects.PkgScreenshot;
+import org.haiku.haikudepotserver.dataobjects.PkgScreenshotImage;
+import org.haiku.haikudepotserver.graphics.bitmap.PngOptimizationService;
+import org.imgscalr.Scalr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>The scaled screenshots are cached in two tiers in the same way as the rendered icons.  The first
+ * tier is in memory and is bounded by the number of bytes of image data that it holds.  The second tier
+ * is on disk and is optional.  Both tiers are keyed by the screenshot code, the hash of the screenshot
+ * data and the target width and height so that a changed screenshot is not served from a cache.</p>
+ *
+ * <p>The length of each scaled screenshot is also retained separately from the data so that a
+ * <code>HEAD</code> request is able to be answered without rendering or loading the data.</p>
+ */
+
+@Repository
+public class RenderedPkgScreenshotRepositoryImpl implements RenderedPkgScreenshotRepository {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(RenderedPkgScreenshotRepositoryImpl.class);
+
+    private final static String DIRECTORY_DEFAULT = "haikudepotserver-renderedpkgscreenshots";
+
+    /**
+     * <p>This is an estimate of the memory used by an entry in the memory cache excluding the image
+     * data.</p>
+     */
+
+    private final static int WEIGHT_ENTRY_OVERHEAD = 192;
+
+    private final static int LENGTHS_MAXIMUM_SIZE = 16384;
+
+    private final PngOptimizationService pngOptimizationService;
+    private final MetricRegistry metricRegistry;
+    private final Cache<RenderedPkgScreenshotKey, byte[]> cache;
+
+    /**
+     * <p>Holds the length of the scaled screenshots; this is retained for longer than the data.</p>
+     */
+
+    private final Cache<RenderedPkgScreenshotKey, Long> lengthCache;
+
+    /**
+     * <p>This is null if the disk cache is not configured.</p>
+     */
+
+    private final RenderedImageDiskCache diskCache;
+
+    private final List<int[]> prewarmSizes;
+
+    private final Counter diskHits = new Counter();
+
+    private final Counter misses = new Counter();
+
+    private final Timer renderTimer = new Timer();
+
+    public RenderedPkgScreenshotRepositoryImpl(
+            PngOptimizationService pngOptimizationService,
+            MetricRegistry metricRegistry,
+            @Value("${pkg.screenshot.cache.memory.maxbytes:33554432}") long memoryMaxBytes,
+            @Value("${pkg.screenshot.cache.disk.maxbytes:268435456}") long diskMaxBytes,
+            @Value("${pkg.screenshot.cache.disk.directory:}") String diskDirectory,
+            @Value("${pkg.screenshot.cache.prewarmsizes:180x180,320x240,640x480}") String prewarmSizes) {
+        Preconditions.checkArgument(memoryMaxBytes > 0L, "the memory max bytes must be positive");
+        this.pngOptimizationService = Preconditions.checkNotNull(pngOptimizationService);
+        this.metricRegistry = Preconditions.checkNotNull(metricRegistry);
+        this.prewarmSizes = parseSizes(prewarmSizes);
+
+        cache = CacheBuilder
+                .newBuilder()
+                .maximumWeight(memoryMaxBytes)
+                .weigher((RenderedPkgScreenshotKey k, byte[] v) -> WEIGHT_ENTRY_OVERHEAD + v.length)
+                .expireAfterAccess(12, TimeUnit.HOURS)
+                .recordStats()
+                .build();
+
+        lengthCache = CacheBuilder
+                .newBuilder()
+                .maximumSize(LENGTHS_MAXIMUM_SIZE)
+                .build();
+
+        if (diskMaxBytes > 0L) {
+            diskCache = new RenderedImageDiskCache(
+                    Strings.isNullOrEmpty(diskDirectory)
+                            ? new File(System.getProperty("java.io.tmpdir"), DIRECTORY_DEFAULT)
+                            : new File(diskDirectory),
+                    diskMaxBytes);
+        }
+        else {
+            diskCache = null;
+        }
+    }
+
+    /**
+     * <p>Parses sizes in the form <code>180x180,320x240</code>.</p>
+     */
+
+    static List<int[]> parseSizes(String sizes) {
+        return Splitter.on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .splitToList(Strings.nullToEmpty(sizes))
+                .stream()
+                .map(s -> {
+                    List<String> sides = Splitter.on('x').trimResults().splitToList(s);
+
+                    if (2 != sides.size()) {
+                        throw new IllegalStateException("malformed screenshot size [" + s + "]");
+                    }
+
+                    try {
+                        int[] result = new int[] { Integer.parseInt(sides.get(0)), Integer.parseInt(sides.get(1)) };
+
+                        if (result[0] <= 0 || result[1] <= 0) {
+                            throw new IllegalStateException("the screenshot size must be positive [" + s + "]");
+                        }
+
+                        return result;
+                    }
+                    catch (NumberFormatException nfe) {
+                        throw new IllegalStateException("malformed screenshot size [" + s + "]", nfe);
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    @PostConstruct
+    public void init() {
+        if (null != diskCache) {
+            diskCache.init();
+        }
+
+        registerMetrics();
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        unregisterMetrics();
+    }
+
+    @Override
+    public void evict(String screenshotCode) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(screenshotCode), "the screenshot code is required");
+        cache.asMap().keySet().removeIf(k -> k.getScreenshotCode().equals(screenshotCode));
+        lengthCache.asMap().keySet().removeIf(k -> k.getScreenshotCode().equals(screenshotCode));
+
+        if (null != diskCache) {
+            diskCache.evict(screenshotCode);
+        }
+    }
+
+    /**
+     * <p>If the screenshot already fits within the target size then it is not scaled.</p>
+     */
+
+    private static boolean fits(PkgScreenshot screenshot, int targetWidth, int targetHeight) {
+        return screenshot.getWidth() <= targetWidth && screenshot.getHeight() <= targetHeight;
+    }
+
+    @Override
+    public byte[] render(ObjectContext context, PkgScreenshot screenshot, int targetWidth, int targetHeight) {
+        Preconditions.checkArgument(null != context, "an object context is required");
+        Preconditions.checkArgument(null != screenshot, "a screenshot is required");
+        Preconditions.checkArgument(targetHeight > 0, "the target height is <= 0");
+        Preconditions.checkArgument(targetWidth > 0, "the target width is <= 0");
+
+        if (fits(screenshot, targetWidth, targetHeight)) {
+            return getPngData(screenshot);
+        }
+
+        RenderedPkgScreenshotKey key = new RenderedPkgScreenshotKey(
+                screenshot.getCode(), screenshot.getHashSha256(), targetWidth, targetHeight);
+
+        try {
+            byte[] data = cache.get(key, () -> {
+                if (null != diskCache) {
+                    Optional<byte[]> diskDataOptional = diskCache.tryGet(key.getKeyParts());
+
+                    if (diskDataOptional.isPresent()) {
+                        diskHits.inc();
+                        return diskDataOptional.get();
+                    }
+                }
+
+                misses.inc();
+                byte[] renderedData;
+
+                try (Timer.Context ignored = renderTimer.time()) {
+                    renderedData = renderUncached(screenshot, targetWidth, targetHeight);
+                }
+
+                if (null != diskCache) {
+                    diskCache.put(renderedData, key.getKeyParts());
+                }
+
+                return renderedData;
+            });
+
+            lengthCache.put(key, (long) data.length);
+            return data;
+        }
+        catch (Exception e) {
+            throw new RuntimeException("unable to get the rendered screenshot for; " + screenshot.getCode(), e);
+        }
+    }
+
+    @Override
+    public long renderLength(ObjectContext context, PkgScreenshot screenshot, int targetWidth, int targetHeight) {
+        Preconditions.checkArgument(null != context, "an object context is required");
+        Preconditions.checkArgument(null != screenshot, "a screenshot is required");
+
+        if (fits(screenshot, targetWidth, targetHeight)) {
+            return screenshot.getLength();
+        }
+
+        RenderedPkgScreenshotKey key = new RenderedPkgScreenshotKey(
+                screenshot.getCode(), screenshot.getHashSha256(), targetWidth, targetHeight);
+        Long length = lengthCache.getIfPresent(key);
+
+        if (null != length) {
+            return length;
+        }
+
+        if (null != diskCache) {
+            Optional<Long> diskLengthOptional = diskCache.tryGetLength(key.getKeyParts());
+
+            if (diskLengthOptional.isPresent()) {
+                lengthCache.put(key, diskLengthOptional.get());
+                return diskLengthOptional.get();
+            }
+        }
+
+        // this size has not been rendered before; render it now so that it is ready for the subsequent
+        // request for the data.
+
+        return render(context, screenshot, targetWidth, targetHeight).length;
+    }
+
+    @Override
+    public void prewarm(ObjectContext context, PkgScreenshot screenshot) {
+        Preconditions.checkArgument(null != context, "an object context is required");
+        Preconditions.checkArgument(null != screenshot, "a screenshot is required");
+
+        for (int[] size : prewarmSizes) {
+            render(context, screenshot, size[0], size[1]);
+        }
+
+        LOGGER.debug("did prewarm {} sizes for screenshot [{}]", prewarmSizes.size(), screenshot.getCode());
+    }
+
+    private byte[] getPngData(PkgScreenshot screenshot) {
+        PkgScreenshotImage pkgScreenshotImage = screenshot.tryGetPkgScreenshotImage()
+                .orElseThrow(() -> new IllegalStateException(
+                        "the screenshot " + screenshot.getCode() + " is missing a screenshot image"));
+
+        if (!pkgScreenshotImage.getMediaType().getCode().equals(com.google.common.net.MediaType.PNG.toString())) {
+            throw new IllegalStateException("the screenshot system only supports png images at the present time");
+        }
+
+        return pkgScreenshotImage.getData();
+    }
+
+    /**
+     * <p>The scaled image is only produced once for each size and so it is worth optimizing it.</p>
+     */
+
+    private byte[] renderUncached(PkgScreenshot screenshot, int targetWidth, int targetHeight) throws IOException {
+        BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(getPngData(screenshot)));
+        BufferedImage scaledBufferedImage = Scalr.resize(bufferedImage, targetWidth, targetHeight);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(scaledBufferedImage, "png", outputStream);
+        byte[] data = outputStream.toByteArray();
+        byte[] optimizedData = pngOptimizationService.optimize(data);
+        return optimizedData.length < data.length ? optimizedData : data;
+    }
+
+    // ------------------------------
+    // METRICS
+
+    private String metricName(String suffix) {
+        return MetricRegistry.name(RenderedPkgScreenshotRepository.class, suffix);
+    }
+
+    private void registerMetrics() {
+        metricRegistry.register(metricName("memoryhits"), (Gauge<Long>) () -> cache.stats().hitCount());
+        metricRegistry.register(metricName("memorybytes"), (Gauge<Long>) () -> cache.asMap().values()
+                .stream()
+                .mapToLong(v -> v.length)
+                .sum());
+        metricRegistry.register(metricName("diskhits"), diskHits);
+        metricRegistry.register(metricName("misses"), misses);
+        metricRegistry.register(metricName("render"), renderTimer);
+
+        if (null != diskCache) {
+            metricRegistry.register(metricName("diskbytes"), (Gauge<Long>) diskCache::getTotalBytes);
+        }
+    }
+
+    private void unregisterMetrics() {
+        metricRegistry.remove(metricName("memoryhits"));
+        metricRegistry.remove(metricName("memorybytes"));
+        metricRegistry.remove(metricName("diskhits"));
+        metricRegistry.remove(metricName("misses"));
+        metricRegistry.remove(metricName("render"));
+        metricRegistry.remove(metricName("diskbytes"));
+    }
+
+    private static class RenderedPkgScreenshotKey {
+
+        private final String screenshotCode;
+        private final String hashSha256;
+        private final int targetWidth;
+        private final int targetHeight;
+
+        RenderedPkgScreenshotKey(String screenshotCode, String hashSha256, int targetWidth, int targetHeight) {
+            this.screenshotCode = Preconditions.checkNotNull(screenshotCode);
+            this.hashSha256 = Preconditions.checkNotNull(hashSha256);
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+        }
+
+        String getScreenshotCode() {
+            return screenshotCode;
+        }
+
+        /**
+         * <p>The screenshot code comes first so that the disk cache is able to evict by the code.</p>
+         */
+
+        Object[] getKeyParts() {
+            return new Object[] { screenshotCode, hashSha256, targetWidth, targetHeight };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RenderedPkgScreenshotKey that = (RenderedPkgScreenshotKey) o;
+            return targetWidth == that.targetWidth
+                    && targetHeight == that.targetHeight
+                    && screenshotCode.equals(that.screenshotCode)
+                    && hashSha256.equals(that.hashSha256);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(screenshotCode, hashSha256, targetWidth, targetHeight);
+        }
+
+    }
+
+}
@@ -8,25 +8,24 @@ package org.haiku.haikudepotserver.pkg.job;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
 import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.cayenne.DataRow;
 import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.ResultIterator;
+import org.apache.cayenne.access.DataContext;
 import org.apache.cayenne.configuration.server.ServerRuntime;
-import org.apache.cayenne.query.ObjectSelect;
-import org.apache.cayenne.query.PrefetchTreeNode;
 import org.apache.cayenne.query.SQLTemplate;
 import org.apache.commons.lang3.StringUtils;
-import org.haiku.haikudepotserver.dataobjects.*;
+import org.haiku.haikudepotserver.dataobjects.NaturalLanguage;
+import org.haiku.haikudepotserver.dataobjects.RepositorySource;
 import org.haiku.haikudepotserver.job.AbstractJobRunner;
 import org.haiku.haikudepotserver.job.model.JobDataWithByteSink;
 import org.haiku.haikudepotserver.job.model.JobService;
-import org.haiku.haikudepotserver.pkg.FixedPkgLocalizationLookupServiceImpl;
 import org.haiku.haikudepotserver.pkg.model.PkgDumpExportJobSpecification;
-import org.haiku.haikudepotserver.pkg.model.PkgLocalizationLookupService;
 import org.haiku.haikudepotserver.pkg.model.PkgService;
-import org.haiku.haikudepotserver.pkg.model.ResolvedPkgVersionLocalization;
 import org.haiku.haikudepotserver.pkg.model.dumpexport.DumpExportPkg;
 import org.haiku.haikudepotserver.pkg.model.dumpexport.DumpExportPkgCategory;
 import org.haiku.haikudepotserver.pkg.model.dumpexport.DumpExportPkgScreenshot;
@@ -34,18 +33,36 @@ import org.haiku.haikudepotserver.pkg.model.dumpexport.DumpExportPkgVersion;
 import org.haiku.haikudepotserver.support.ArchiveInfo;
 import org.haiku.haikudepotserver.support.DateTimeHelper;
 import org.haiku.haikudepotserver.support.RuntimeInformationService;
+import org.haiku.haikudepotserver.support.VersionCoordinates;
+import org.haiku.haikudepotserver.support.VersionCoordinatesComparator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
-import java.util.Collection;
+import java.lang.reflect.Array;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.GZIPOutputStream;
 
 @Component
@@ -55,20 +72,47 @@ public class PkgDumpExportJobRunner extends AbstractJobRunner<PkgDumpExportJobSp
 
     private final static int BATCH_SIZE = 100;
 
+    private final static int BATCHES_IN_FLIGHT_PER_THREAD = 2;
+
+    /**
+     * <p>The number of rows that the database driver will pull from the cursor at a time.</p>
+     */
+
+    private final static int FETCH_SIZE = 500;
+
+    /**
+     * <p>The watermark that a client supplies for a delta is the data modified timestamp from an earlier
+     * dump.  That timestamp is rounded to the second so the delta overlaps by a second in order that a
+     * package modified in that same second is not missed.</p>
+     */
+
+    private final static long DELTA_OVERLAP_MILLIS = 1000L;
+
     private final ServerRuntime serverRuntime;
     private final RuntimeInformationService runtimeInformationService;
     private final ObjectMapper objectMapper;
     private final PkgService pkgService;
 
+    /**
+     * <p>The threads that are assembling packages work only from rows that have already been read
+     * and so do not hold database connections; the number of threads is limited so that the dump
+     * does not take over the CPUs.</p>
+     */
+
+    private final int maxThreads;
+
     public PkgDumpExportJobRunner(
             ServerRuntime serverRuntime,
             RuntimeInformationService runtimeInformationService,
             ObjectMapper objectMapper,
-            PkgService pkgService) {
+            PkgService pkgService,
+            @Value("${pkg.dumpexport.threads:2}") int maxThreads) {
+        Preconditions.checkArgument(maxThreads > 0, "the max threads must be positive");
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.runtimeInformationService = Preconditions.checkNotNull(runtimeInformationService);
         this.objectMapper = Preconditions.checkNotNull(objectMapper);
         this.pkgService = Preconditions.checkNotNull(pkgService);
+        this.maxThreads = maxThreads;
     }
 
     @Override
@@ -88,21 +132,25 @@ public class PkgDumpExportJobRunner extends AbstractJobRunner<PkgDumpExportJobSp
         ) {
             jsonGenerator.writeStartObject();
             writeInfo(jsonGenerator, specification);
+
+            if (null != specification.getSinceModifyTimestamp()) {
+                jsonGenerator.writeNumberField("sinceModifyTimestamp", specification.getSinceModifyTimestamp());
+            }
+
             writePkgs(jsonGenerator, specification);
             jsonGenerator.writeEndObject();
         }
     }
 
-    private PrefetchTreeNode createPkgVersionPrefetchTree() {
-        PrefetchTreeNode node = PkgVersion.PKG.disjoint();
-        node.merge(PkgVersion.PKG.dot(Pkg.PKG_PROMINENCES).disjoint());
-        node.merge(PkgVersion.PKG.dot(Pkg.PKG_SUPPLEMENT).disjoint());
-        node.merge(PkgVersion.PKG.dot(Pkg.PKG_SUPPLEMENT).dot(PkgSupplement.PKG_SCREENSHOTS).disjoint());
-        node.merge(PkgVersion.PKG.dot(Pkg.PKG_SUPPLEMENT).dot(PkgSupplement.PKG_PKG_CATEGORIES).disjoint());
-        node.merge(PkgVersion.PKG.dot(Pkg.PKG_SUPPLEMENT).dot(PkgSupplement.PKG_CHANGELOGS).disjoint());
-        node.merge(PkgVersion.PKG.dot(Pkg.PKG_USER_RATING_AGGREGATES).disjoint());
-        return node;
-    }
+    /**
+     * <p>The pkg versions to dump are read with a single query that returns one flat row for each
+     * pkg version with everything that the dump requires; the localizations, the derived rating,
+     * the categories and the screenshots.  The rows are read through a server-side cursor so that
+     * only a window of the rows is held in memory at any one time.  The rows for a pkg are
+     * contiguous because the query orders by the pkg's prominence and then name so they are
+     * collected into batches of pkgs that are assembled into the DTOs in parallel and are then
+     * written out in the original order by this thread.</p>
+     */
 
     private void writePkgs(JsonGenerator jsonGenerator, PkgDumpExportJobSpecification specification) throws IOException {
         jsonGenerator.writeFieldName("items");
@@ -118,22 +166,169 @@ public class PkgDumpExportJobRunner extends AbstractJobRunner<PkgDumpExportJobSp
                         "unable to find the repository source ["
                                 + specification.getRepositorySourceCode() + "]"));
 
-        List<String> pkgNames = getPkgNames(context, repositorySource);
+        Date sinceTimestamp = deriveSinceTimestamp(specification);
+
+        Map<String, Object> parameters = createParameters(repositorySource, sinceTimestamp);
+        parameters.put("naturalLanguageCode", naturalLanguage.getCode());
+        SQLTemplate query = createQuery(context, "PkgVersionsForPkgDumpExport", parameters);
+        query.setStatementFetchSize(FETCH_SIZE);
+
+        LOGGER.info("will dump pkg versions with {} threads", maxThreads);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                maxThreads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("pkg-dump-export-%d")
+                        .setDaemon(true)
+                        .build());
+        Deque<Future<List<DumpExportPkg>>> futures = new ArrayDeque<>();
+        AtomicLong assembleNanos = new AtomicLong();
+        Stopwatch readStopwatch = Stopwatch.createUnstarted();
+        Stopwatch writeStopwatch = Stopwatch.createUnstarted();
+        Stopwatch pipelineStopwatch = Stopwatch.createStarted();
+        int pkgCount = 0;
+
+        // the iterated query runs in its own transaction until the iterator is closed; this is
+        // necessary for the Postgres driver to stream the rows from a cursor.  The SQL template is
+        // not a select and so has to be iterated through the data context.
+
+        try (ResultIterator<?> rowIterator = ((DataContext) context).performIteratedQuery(query)) {
+            List<List<DataRow>> batch = new ArrayList<>(BATCH_SIZE);
+            List<DataRow> rowsUnderCommonPkg = new ArrayList<>();
+
+            readStopwatch.start();
+
+            while (rowIterator.hasNextRow()) {
+                DataRow row = (DataRow) rowIterator.nextRow();
+
+                if (!rowsUnderCommonPkg.isEmpty()
+                        && !rowsUnderCommonPkg.get(0).get("pkg_name").equals(row.get("pkg_name"))) {
+                    batch.add(rowsUnderCommonPkg);
+                    rowsUnderCommonPkg = new ArrayList<>();
+
+                    if (batch.size() == BATCH_SIZE) {
+                        readStopwatch.stop();
+                        pkgCount += batch.size();
+                        submitBatch(jsonGenerator, executorService, futures, batch, assembleNanos, writeStopwatch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                        readStopwatch.start();
+                    }
+                }
+
+                rowsUnderCommonPkg.add(row);
+            }
 
-        // iterate through the pkgnames.  This is done in this manner so that if there is (erroneously)
-        // two 'latest' pkg versions under the same pkg for two different architectures then these will
-        // be grouped in the output instead of the same pkg appearing twice.
+            readStopwatch.stop();
 
-        LOGGER.info("will dump pkg versions for {} pkgs", pkgNames.size());
+            if (!rowsUnderCommonPkg.isEmpty()) {
+                batch.add(rowsUnderCommonPkg);
+            }
 
-        Lists.partition(pkgNames, BATCH_SIZE).forEach((subPkgNames) -> {
-            List<PkgVersion> pkgVersions = createPkgVersionSelect(repositorySource, subPkgNames).select(context);
-            writePkgVersions(jsonGenerator, context, pkgVersions, repositorySource, naturalLanguage);
-        });
+            if (!batch.isEmpty()) {
+                pkgCount += batch.size();
+                submitBatch(jsonGenerator, executorService, futures, batch, assembleNanos, writeStopwatch);
+            }
+
+            while (!futures.isEmpty()) {
+                writeBatch(jsonGenerator, futures.removeFirst(), writeStopwatch);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted dumping pkgs");
+        }
+        catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IllegalStateException("unable to assemble pkgs to dump", cause);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        LOGGER.info("did dump {} pkgs in {}ms; read {}ms, assemble {}ms (over {} threads), write {}ms",
+                pkgCount,
+                pipelineStopwatch.elapsed(TimeUnit.MILLISECONDS),
+                readStopwatch.elapsed(TimeUnit.MILLISECONDS),
+                TimeUnit.NANOSECONDS.toMillis(assembleNanos.get()),
+                maxThreads,
+                writeStopwatch.elapsed(TimeUnit.MILLISECONDS));
+
+        // a delta also has to tell the client about those packages that are no longer available.
+
+        if (null != sinceTimestamp) {
+            List<String> removedPkgNames = getRemovedPkgNames(context, repositorySource, sinceTimestamp);
+
+            LOGGER.info("will dump {} removed pkgs", removedPkgNames.size());
+
+            for (String removedPkgName : removedPkgNames) {
+                DumpExportPkg dumpExportPkg = new DumpExportPkg();
+                dumpExportPkg.setName(removedPkgName);
+                dumpExportPkg.setRemoved(true);
+                objectMapper.writeValue(jsonGenerator, dumpExportPkg);
+            }
+        }
 
         jsonGenerator.writeEndArray();
     }
 
+    /**
+     * <p>Only a few batches are in flight at any one time so that the memory used does not grow with
+     * the number of packages; if the limit is reached then the oldest batch is written out before the
+     * new batch is submitted.</p>
+     */
+
+    private void submitBatch(
+            JsonGenerator jsonGenerator,
+            ExecutorService executorService,
+            Deque<Future<List<DumpExportPkg>>> futures,
+            List<List<DataRow>> batch,
+            AtomicLong assembleNanos,
+            Stopwatch writeStopwatch) throws IOException, InterruptedException, ExecutionException {
+        while (futures.size() >= maxThreads * BATCHES_IN_FLIGHT_PER_THREAD) {
+            writeBatch(jsonGenerator, futures.removeFirst(), writeStopwatch);
+        }
+
+        futures.addLast(executorService.submit(() -> {
+            long startNanos = System.nanoTime();
+            List<DumpExportPkg> result = createDumpPkgs(batch);
+            assembleNanos.addAndGet(System.nanoTime() - startNanos);
+            return result;
+        }));
+    }
+
+    private void writeBatch(
+            JsonGenerator jsonGenerator,
+            Future<List<DumpExportPkg>> future,
+            Stopwatch writeStopwatch) throws IOException, InterruptedException, ExecutionException {
+        List<DumpExportPkg> dumpExportPkgs = future.get();
+
+        writeStopwatch.start();
+
+        for (DumpExportPkg dumpExportPkg : dumpExportPkgs) {
+            objectMapper.writeValue(jsonGenerator, dumpExportPkg);
+        }
+
+        writeStopwatch.stop();
+    }
+
+    private Date deriveSinceTimestamp(PkgDumpExportJobSpecification specification) {
+        if (null == specification.getSinceModifyTimestamp()) {
+            return null;
+        }
+
+        // a timestamp so that the time as well as the date is bound into the query.
+        return new Timestamp(specification.getSinceModifyTimestamp() - DELTA_OVERLAP_MILLIS);
+    }
+
     private NaturalLanguage deriveNaturalLanguage(ObjectContext context, PkgDumpExportJobSpecification specification) {
         if (StringUtils.isNotBlank(specification.getNaturalLanguageCode())) {
             return NaturalLanguage.tryGetByCode(context, specification.getNaturalLanguageCode())
@@ -146,33 +341,38 @@ public class PkgDumpExportJobRunner extends AbstractJobRunner<PkgDumpExportJobSp
         return NaturalLanguage.getEnglish(context);
     }
 
-    private ObjectSelect<PkgVersion> createPkgVersionSelect(
-            RepositorySource repositorySource,
-            Collection<String> pkgNames) {
-        return ObjectSelect
-                .query(PkgVersion.class)
-                .where(PkgVersion.ACTIVE.isTrue())
-                .and(PkgVersion.PKG.dot(Pkg.ACTIVE).isTrue())
-                .and(PkgVersion.IS_LATEST.isTrue())
-                .and(PkgVersion.REPOSITORY_SOURCE.eq(repositorySource))
-                .orderBy(PkgVersion.PKG.dot(Pkg.NAME).desc())
-                .and(PkgVersion.PKG.dot(Pkg.NAME).in(pkgNames))
-                .prefetch(createPkgVersionPrefetchTree());
-    }
+    private Map<String, Object> createParameters(RepositorySource repositorySource, Date sinceTimestamp) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("resourceSourceCode", repositorySource.getCode());
 
-    /**
-     * <p>This method will pull down the package names that are to be included.  This will return the
-     * packages in order of their prominence.  This is helpful because the subsequent display of the
-     * packages by the client is most likely going to be in prominence order.</p>
-     */
+        if (null != sinceTimestamp) {
+            parameters.put("sinceTimestamp", sinceTimestamp);
+        }
 
-    private List<String> getPkgNames(ObjectContext context, RepositorySource repositorySource) {
+        return parameters;
+    }
 
+    private SQLTemplate createQuery(ObjectContext context, String queryName, Map<String, Object> parameters) {
         SQLTemplate sqlTemplate = (SQLTemplate) context.getEntityResolver()
-                .getQueryDescriptor("PkgNamesForRepositorySource").buildQuery();
-        SQLTemplate query = (SQLTemplate) sqlTemplate.createQuery(ImmutableMap.of(
-                "resourceSourceCode", repositorySource.getCode()));
+                .getQueryDescriptor(queryName).buildQuery();
+        SQLTemplate query = (SQLTemplate) sqlTemplate.createQuery(parameters);
         query.setFetchingDataRows(true);
+        return query;
+    }
+
+    /**
+     * <p>This will pull down the names of the packages that have been removed since the since
+     * timestamp.</p>
+     */
+
+    private List<String> getRemovedPkgNames(
+            ObjectContext context,
+            RepositorySource repositorySource,
+            Date sinceTimestamp) {
+        SQLTemplate query = createQuery(
+                context,
+                "RemovedPkgNamesForRepositorySource",
+                createParameters(repositorySource, sinceTimestamp));
 
         List<DataRow> dataRows = (List<DataRow>) context.performQuery(query);
 
@@ -182,104 +382,103 @@ public class PkgDumpExportJobRunner extends AbstractJobRunner<PkgDumpExportJobSp
                 .collect(Collectors.toList());
     }
 
-    private void writePkgVersions(
-            JsonGenerator jsonGenerator,
-            ObjectContext context,
-            List<PkgVersion> pkgVersions,
-            RepositorySource repositorySource,
-            NaturalLanguage naturalLanguage) {
-
-        final PkgLocalizationLookupService pkgLocalizationLookupService =
-                new FixedPkgLocalizationLookupServiceImpl(context, pkgVersions, naturalLanguage);
+    /**
+     * <p>This is run on a worker thread.  It only works from the rows that were read from the
+     * database and so does not need a database connection.</p>
+     */
 
-        Map<String, List<PkgVersion>> pkgVersionsUnderCommonPkg = pkgVersions
+    private List<DumpExportPkg> createDumpPkgs(List<List<DataRow>> rowsUnderCommonPkgs) {
+        return rowsUnderCommonPkgs
                 .stream()
-                .collect(Collectors.groupingBy((pv) -> pv.getPkg().getName()));
-
-        pkgVersionsUnderCommonPkg.values().forEach((pvs) -> {
-            try {
-                objectMapper.writeValue(
-                        jsonGenerator,
-                        createDumpPkg(context, pvs, repositorySource, naturalLanguage, pkgLocalizationLookupService));
-            } catch (IOException ioe) {
-                throw new UncheckedIOException(ioe);
-            }
-        });
-
+                .map(this::createDumpPkg)
+                .collect(Collectors.toList());
     }
 
-    private DumpExportPkg createDumpPkg(
-            ObjectContext context,
-            List<PkgVersion> pkgVersionsUnderCommonPkg,
-            RepositorySource repositorySource,
-            NaturalLanguage naturalLanguage,
-            PkgLocalizationLookupService pkgLocalizationLookupService) {
-        Preconditions.checkArgument(null != pkgVersionsUnderCommonPkg && !pkgVersionsUnderCommonPkg.isEmpty());
+    private DumpExportPkg createDumpPkg(List<DataRow> rowsUnderCommonPkg) {
+        Preconditions.checkArgument(null != rowsUnderCommonPkg && !rowsUnderCommonPkg.isEmpty());
 
-        Pkg pkg = pkgVersionsUnderCommonPkg.get(0).getPkg(); // any will do to get the pkg.
+        DataRow row = rowsUnderCommonPkg.get(0); // any will do to get the pkg.
 
         DumpExportPkg dumpExportPkg = new DumpExportPkg();
-        dumpExportPkg.setModifyTimestamp(pkg.getModifyTimestamp().getTime());
-        dumpExportPkg.setName(pkg.getName());
-        dumpExportPkg.setHasChangelog(pkg.getPkgSupplement().getPkgChangelog().isPresent());
-        dumpExportPkg.setProminenceOrdering(pkg.getPkgProminence(repositorySource.getRepository())
-                .map((p) -> p.getProminence().getOrdering()).map(Long::new).orElse(null));
-        dumpExportPkg.setDerivedRating(
-                pkg.getPkgUserRatingAggregate(repositorySource.getRepository())
-                        .map((v) -> v.getDerivedRating().doubleValue()).orElse(null));
+        dumpExportPkg.setModifyTimestamp(((Date) row.get("pkg_modify_timestamp")).getTime());
+        dumpExportPkg.setName((String) row.get("pkg_name"));
+        dumpExportPkg.setHasChangelog((Boolean) row.get("has_changelog"));
+        dumpExportPkg.setProminenceOrdering(Optional.ofNullable((Integer) row.get("prominence_ordering"))
+                .map(Long::new).orElse(null));
+        dumpExportPkg.setDerivedRating(Optional.ofNullable((Float) row.get("derived_rating"))
+                .map(Float::doubleValue).orElse(null));
 
         dumpExportPkg.setPkgCategories(
-                pkg.getPkgSupplement().getPkgPkgCategories().stream().map((ppc) -> {
+                Stream.of(readJsonArray(row, "pkg_category_codes", String[].class)).map((code) -> {
                     DumpExportPkgCategory dumpExportPkgCategory = new DumpExportPkgCategory();
-                    dumpExportPkgCategory.setCode(ppc.getPkgCategory().getCode());
+                    dumpExportPkgCategory.setCode(code);
                     return dumpExportPkgCategory;
                 }).collect(Collectors.toList()));
 
+        // the query has already ordered the screenshots.
         dumpExportPkg.setPkgScreenshots(
-                pkg.getPkgSupplement().getPkgScreenshots().stream().sorted().map((ps) -> {
-                    DumpExportPkgScreenshot dumpExportPkgScreenshot = new DumpExportPkgScreenshot();
-                    dumpExportPkgScreenshot.setCode(ps.getCode());
-                    dumpExportPkgScreenshot.setHeight(ps.getHeight().longValue());
-                    dumpExportPkgScreenshot.setWidth(ps.getWidth().longValue());
-                    dumpExportPkgScreenshot.setLength(ps.getLength().longValue());
-                    dumpExportPkgScreenshot.setOrdering(ps.getOrdering().longValue());
-                    return dumpExportPkgScreenshot;
-                }).collect(Collectors.toList()));
+                Lists.newArrayList(readJsonArray(row, "pkg_screenshots", DumpExportPkgScreenshot[].class)));
 
         dumpExportPkg.setPkgVersions(
-                pkgVersionsUnderCommonPkg
+                rowsUnderCommonPkg
                         .stream()
-                        .sorted()
-                        .map((pv) -> createDumpPkgVersion(context, pv, naturalLanguage, pkgLocalizationLookupService))
+                        .sorted(Comparator
+                                .comparing((DataRow r) -> (String) r.get("architecture_code"))
+                                .thenComparing(this::toVersionCoordinates, new VersionCoordinatesComparator()))
+                        .map(this::createDumpPkgVersion)
                         .collect(Collectors.toList()));
 
         return dumpExportPkg;
     }
 
-    private DumpExportPkgVersion createDumpPkgVersion(
-            ObjectContext context,
-            PkgVersion pkgVersion,
-            NaturalLanguage naturalLanguage,
-            PkgLocalizationLookupService pkgLocalizationLookupService) {
-        DumpExportPkgVersion result = new DumpExportPkgVersion();
+    private VersionCoordinates toVersionCoordinates(DataRow row) {
+        return new VersionCoordinates(
+                (String) row.get("major"),
+                (String) row.get("minor"),
+                (String) row.get("micro"),
+                (String) row.get("pre_release"),
+                (Integer) row.get("revision"));
+    }
+
+    /**
+     * <p>The query aggregates the categories and the screenshots of a pkg into JSON arrays so that
+     * they can be carried in the single row of each pkg version.  There is no array if the pkg has
+     * none of them.</p>
+     */
+
+    private <T> T[] readJsonArray(DataRow row, String key, Class<T[]> arrayClass) {
+        String json = (String) row.get(key);
 
-        result.setMajor(pkgVersion.getMajor());
-        result.setMinor(pkgVersion.getMinor());
-        result.setMicro(pkgVersion.getMicro());
-        result.setRevision(null == pkgVersion.getRevision() ? null : pkgVersion.getRevision().longValue());
-        result.setArchitectureCode(pkgVersion.getArchitecture().getCode());
-        result.setPayloadLength(pkgVersion.getPayloadLength());
+        if (null == json) {
+            return (T[]) Array.newInstance(arrayClass.getComponentType(), 0);
+        }
 
-        ResolvedPkgVersionLocalization resolvedPkgVersionLocalization =
-                pkgLocalizationLookupService.resolvePkgVersionLocalization(context, pkgVersion, null, naturalLanguage);
+        try {
+            return objectMapper.readValue(json, arrayClass);
+        }
+        catch (IOException ioe) {
+            throw new UncheckedIOException("unable to read the [" + key + "] of a pkg to dump", ioe);
+        }
+    }
 
-        result.setDescription(resolvedPkgVersionLocalization.getDescription());
-        result.setSummary(resolvedPkgVersionLocalization.getSummary());
-        result.setTitle(resolvedPkgVersionLocalization.getTitle());
+    private DumpExportPkgVersion createDumpPkgVersion(DataRow row) {
+        DumpExportPkgVersion result = new DumpExportPkgVersion();
+        Integer revision = (Integer) row.get("revision");
+
+        result.setMajor((String) row.get("major"));
+        result.setMinor((String) row.get("minor"));
+        result.setMicro((String) row.get("micro"));
+        result.setRevision(null == revision ? null : revision.longValue());
+        result.setArchitectureCode((String) row.get("architecture_code"));
+        result.setPayloadLength((Long) row.get("payload_length"));
+        result.setDescription((String) row.get("description"));
+        result.setSummary((String) row.get("summary"));
+        result.setTitle((String) row.get("title"));
 
         return result;
     }
 
+
     private void writeInfo(
             JsonGenerator jsonGenerator,
             PkgDumpExportJobSpecification specification) throws IOException {
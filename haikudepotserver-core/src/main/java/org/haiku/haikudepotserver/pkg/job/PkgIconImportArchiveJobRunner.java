@@ -20,11 +20,14 @@ import org.haiku.haikudepotserver.job.model.JobDataWithByteSink;
 import org.haiku.haikudepotserver.job.model.JobDataWithByteSource;
 import org.haiku.haikudepotserver.job.model.JobRunnerException;
 import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
 import org.haiku.haikudepotserver.pkg.model.BadPkgIconException;
 import org.haiku.haikudepotserver.pkg.model.PkgIconImportArchiveJobSpecification;
 import org.haiku.haikudepotserver.pkg.model.PkgIconService;
+import org.haiku.haikudepotserver.pkg.model.RenderedPkgImagePrewarmService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
@@ -75,12 +78,18 @@ public class PkgIconImportArchiveJobRunner extends AbstractJobRunner<PkgIconImpo
 
     private final ServerRuntime serverRuntime;
     private final PkgIconService pkgIconService;
+    private final RenderedPkgImagePrewarmService renderedPkgImagePrewarmService;
+    private final boolean prewarm;
 
     public PkgIconImportArchiveJobRunner(
             ServerRuntime serverRuntime,
-            PkgIconService pkgIconService) {
+            PkgIconService pkgIconService,
+            RenderedPkgImagePrewarmService renderedPkgImagePrewarmService,
+            @Value("${pkg.icon.cache.prewarm:true}") boolean prewarm) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.pkgIconService = Preconditions.checkNotNull(pkgIconService);
+        this.renderedPkgImagePrewarmService = Preconditions.checkNotNull(renderedPkgImagePrewarmService);
+        this.prewarm = prewarm;
     }
 
     @Override
@@ -144,6 +153,13 @@ public class PkgIconImportArchiveJobRunner extends AbstractJobRunner<PkgIconImpo
         })) {
             throw new JobRunnerException("unable to complete job");
         }
+
+        // the imported icons will have been evicted from the rendered icon cache; render them again
+        // so that they are ready to be served.  The other nodes will render them as they are requested.
+
+        if (prewarm) {
+            renderedPkgImagePrewarmService.prewarmPkgIcons();
+        }
     }
 
     /**
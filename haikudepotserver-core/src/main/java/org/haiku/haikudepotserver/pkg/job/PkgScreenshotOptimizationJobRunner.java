@@ -1,11 +1,12 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.haikudepotserver.pkg.job;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.haiku.haikudepotserver.dataobjects.PkgScreenshot;
@@ -15,18 +16,29 @@ import org.haiku.haikudepotserver.job.model.JobService;
 import org.haiku.haikudepotserver.pkg.model.BadPkgScreenshotException;
 import org.haiku.haikudepotserver.pkg.model.PkgScreenshotOptimizationJobSpecification;
 import org.haiku.haikudepotserver.pkg.model.PkgScreenshotService;
+import org.haiku.haikudepotserver.pkg.model.RenderedPkgImagePrewarmService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>This job runner is able to optimize the screenshot images by using the PNG optimizer.  It is triggered
  * from the &quot;PkgScreenshotController&quot; so that the HTTP
  * import of the image can happen quickly, but the optimization can take its time in the background.</p>
+ *
+ * <p>Each screenshot is optimized in its own object context and so the screenshots are able to be optimized
+ * in parallel; one for each processor.  The scaled screenshots are not rendered here because this job
+ * may run on any node; see {@link RenderedPkgImagePrewarmService}.</p>
  */
 
 @Component
@@ -53,31 +65,69 @@ public class PkgScreenshotOptimizationJobRunner extends AbstractJobRunner<PkgScr
         Preconditions.checkArgument(null!=specification);
 
         long startMs = System.currentTimeMillis();
+        int threads = Math.max(1, Math.min(
+                Runtime.getRuntime().availableProcessors(),
+                specification.getPkgScreenshotCodes().size()));
+
+        LOGGER.info("will optimize {} screenshot images with {} threads",
+                specification.getPkgScreenshotCodes().size(), threads);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("pkg-screenshot-optimization-%d")
+                        .setDaemon(true)
+                        .build());
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+
+            for (String pkgScreenshotCode : specification.getPkgScreenshotCodes()) {
+                futures.add(executorService.submit(() -> {
+                    optimizeScreenshot(pkgScreenshotCode);
+                    return null;
+                }));
+            }
 
-        LOGGER.info("will optimize {} screenshot images", specification.getPkgScreenshotCodes().size());
-
-        for (String pkgScreenshotCode : specification.getPkgScreenshotCodes()) {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new JobRunnerException("interrupted optimizing screenshot images", ie);
+        }
+        catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
 
-            ObjectContext context = serverRuntime.newContext();
-            Optional<PkgScreenshot> pkgScreenshotOptional = PkgScreenshot.tryGetByCode(context, pkgScreenshotCode);
+            if (cause instanceof BadPkgScreenshotException) {
+                throw new JobRunnerException("unable to process a screenshot image", cause);
+            }
 
-            if (pkgScreenshotOptional.isPresent()) {
-                try {
-                    if (screenshotService.optimizeScreenshot(context, pkgScreenshotOptional.get())) {
-                        context.commitChanges();
-                    }
-                } catch (IOException ioe) {
-                    throw new UncheckedIOException(ioe);
-                } catch (BadPkgScreenshotException bpse) {
-                    throw new JobRunnerException("unable to process a screenshot image", bpse);
-                }
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
             }
 
-            LOGGER.info(
-                    "did optimize {} screenshot images in {}ms",
-                    specification.getPkgScreenshotCodes().size(),
-                    System.currentTimeMillis() - startMs);
+            throw new IllegalStateException("unable to optimize a screenshot image", cause);
         }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        LOGGER.info(
+                "did optimize {} screenshot images in {}ms",
+                specification.getPkgScreenshotCodes().size(),
+                System.currentTimeMillis() - startMs);
+    }
 
+    private void optimizeScreenshot(String pkgScreenshotCode) throws IOException, BadPkgScreenshotException {
+        ObjectContext context = serverRuntime.newContext();
+        Optional<PkgScreenshot> pkgScreenshotOptional = PkgScreenshot.tryGetByCode(context, pkgScreenshotCode);
+
+        if (pkgScreenshotOptional.isPresent()) {
+            if (screenshotService.optimizeScreenshot(context, pkgScreenshotOptional.get())) {
+                context.commitChanges();
+            }
+        }
     }
 }
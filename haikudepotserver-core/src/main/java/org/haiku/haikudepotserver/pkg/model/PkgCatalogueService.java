@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg.model;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * <p>The package data changes infrequently, but is read very often.  This service maintains an in-memory
+ * snapshot of the data about the latest package versions so that searches are able to be performed without
+ * going to the database.  The database remains the source of truth and the snapshot is replaced as the
+ * data changes.</p>
+ */
+
+public interface PkgCatalogueService {
+
+    /**
+     * <p>Performs the search against the snapshot.  If the snapshot is not able to be used for this search,
+     * for example because it is disabled, has not yet been loaded or the search uses a full-text expression,
+     * then this method will return an empty optional and the search should be performed against the
+     * database.</p>
+     */
+
+    Optional<PkgVersionSearchResult> trySearch(PkgSearchSpecification search);
+
+    /**
+     * <p>Reloads the data for the packages associated with the supplied package supplements and replaces the
+     * snapshot.  This is called after changes to package data have been committed.</p>
+     */
+
+    void refresh(Collection<Long> pkgSupplementIds);
+
+    /**
+     * <p>Reloads all of the data and replaces the snapshot.</p>
+     */
+
+    void refreshAll();
+
+    /**
+     * <p>Each snapshot has a version that increases as it is replaced.  If there is no snapshot then this
+     * will return an empty optional.</p>
+     */
+
+    Optional<Long> tryGetVersion();
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2017, Andrew Lindesay
+ * Copyright 2017-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -20,6 +20,13 @@ public class PkgDumpExportJobSpecification extends AbstractJobSpecification {
 
     private String naturalLanguageCode;
 
+    /**
+     * <p>If this is supplied then only those packages that have been modified since this timestamp are
+     * included in the dump together with those packages that have been removed since this timestamp.</p>
+     */
+
+    private Long sinceModifyTimestamp;
+
     @Override
     public Optional<Long> tryGetTimeToLiveMillis() {
         return Optional.of(TimeUnit.MINUTES.toMillis(TTL_MINUTES));
@@ -41,6 +48,14 @@ public class PkgDumpExportJobSpecification extends AbstractJobSpecification {
         this.naturalLanguageCode = naturalLanguageCode;
     }
 
+    public Long getSinceModifyTimestamp() {
+        return sinceModifyTimestamp;
+    }
+
+    public void setSinceModifyTimestamp(Long sinceModifyTimestamp) {
+        this.sinceModifyTimestamp = sinceModifyTimestamp;
+    }
+
     public boolean isEquivalent(JobSpecification other) {
         if (!super.isEquivalent(other)) {
             return false;
@@ -48,7 +63,8 @@ public class PkgDumpExportJobSpecification extends AbstractJobSpecification {
 
         PkgDumpExportJobSpecification pkgOther = PkgDumpExportJobSpecification.class.cast(other);
         return Objects.equals(pkgOther.getNaturalLanguageCode(), getNaturalLanguageCode())
-                && Objects.equals(pkgOther.getRepositorySourceCode(), getRepositorySourceCode());
+                && Objects.equals(pkgOther.getRepositorySourceCode(), getRepositorySourceCode())
+                && Objects.equals(pkgOther.getSinceModifyTimestamp(), getSinceModifyTimestamp());
     }
 
 }
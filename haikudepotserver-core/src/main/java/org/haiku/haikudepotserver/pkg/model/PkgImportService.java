@@ -1,5 +1,5 @@
 /*
- * Copyright 2016, Andrew Lindesay
+ * Copyright 2016-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -8,6 +8,8 @@ package org.haiku.haikudepotserver.pkg.model;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.ObjectId;
 
+import java.util.List;
+
 public interface PkgImportService {
 
 
@@ -26,4 +28,21 @@ public interface PkgImportService {
             org.haiku.pkg.model.Pkg pkg,
             boolean populatePayloadLength);
 
+    /**
+     * <p>This method will import the packages described by the 'pkgs' parameter.  The existing packages
+     * and package versions are fetched for the whole list with a small number of queries so that a
+     * large repository can be imported in batches without querying the database for every package.
+     * The caller is expected to commit the changes for the batch.</p>
+     * @param pkgs imports into the local database from these package models.
+     * @param repositorySourceObjectId the {@link ObjectId} of the source of the package data.
+     * @param populatePayloadLength is able to signal to the import process that the length of the package should be
+     *                              populated.
+     */
+
+    void importFrom(
+            ObjectContext objectContext,
+            ObjectId repositorySourceObjectId,
+            List<org.haiku.pkg.model.Pkg> pkgs,
+            boolean populatePayloadLength);
+
 }
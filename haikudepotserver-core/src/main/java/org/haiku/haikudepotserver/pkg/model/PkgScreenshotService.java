@@ -34,6 +34,19 @@ public interface PkgScreenshotService {
             PkgScreenshot screenshot,
             int targetWidth,
             int targetHeight) throws IOException;
+
+    /**
+     * <p>This method will return the length of the data that would be written by
+     * {@link #writePkgScreenshotImage(OutputStream, ObjectContext, PkgScreenshot, int, int)}.  Where
+     * possible this is answered without rendering the image.</p>
+     */
+
+    long derivePkgScreenshotImageLength(
+            ObjectContext context,
+            PkgScreenshot screenshot,
+            int targetWidth,
+            int targetHeight);
+
     /**
      * <p>This method will write the PNG data supplied in the input to the package as a screenshot.  Note that the icon
      * must comply with necessary characteristics.  If it is not compliant then an images of
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg.model;
+
+import java.util.Collection;
+
+/**
+ * <p>The package search matches an expression against the name, title and summary of the latest package
+ * versions.  So that this is able to use an index, the text is copied into a dedicated table for each
+ * natural language in which the package is localized.  This service keeps that table up to date.</p>
+ */
+
+public interface PkgSearchIndexService {
+
+    /**
+     * <p>Re-derives the search data for the latest versions of the packages that are associated with the
+     * supplied package supplements.</p>
+     */
+
+    void reindex(Collection<Long> pkgSupplementIds);
+
+    /**
+     * <p>Re-derives all of the search data.</p>
+     */
+
+    void reindexAll();
+
+    /**
+     * <p>Compares the search data with the data that would be derived now and re-derives the search data
+     * only for those packages where the two differ.  This is run periodically to repair any search data
+     * that may have been missed.  Nothing is written if the search data has not drifted.</p>
+     * @return the quantity of package supplements that were re-derived.
+     */
+
+    int reindexDrifted();
+
+}
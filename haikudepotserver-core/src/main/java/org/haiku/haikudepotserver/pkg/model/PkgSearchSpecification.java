@@ -1,5 +1,5 @@
 /*
- * Copyright 2013-2016, Andrew Lindesay
+ * Copyright 2013-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -15,6 +15,8 @@ import org.haiku.haikudepotserver.dataobjects.Repository;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
 /**
  * <p>This model object specifies the parameters of a search into the system for packages.  See the
@@ -104,4 +106,23 @@ public class PkgSearchSpecification extends AbstractSearchSpecification {
         this.daysSinceLatestVersion = daysSinceLatestVersion;
     }
 
+    /**
+     * <p>Returns a key that identifies the set of package versions that this search would find; it
+     * does not include the offset, limit or ordering.  Searches with the same key will have the same
+     * total.</p>
+     */
+
+    public String getTotalKey() {
+        return String.join("|",
+                Objects.toString(getExpression(), ""),
+                Objects.toString(getExpressionType(), ""),
+                Boolean.toString(getIncludeInactive()),
+                null == pkgNames ? "*" : String.join(",", pkgNames),
+                null == repositories ? "" : repositories.stream().map(Repository::getCode).collect(Collectors.joining(",")),
+                null == architectures ? "" : architectures.stream().map(Architecture::getCode).collect(Collectors.joining(",")),
+                null == pkgCategory ? "" : pkgCategory.getCode(),
+                Objects.toString(daysSinceLatestVersion, ""),
+                null == naturalLanguage ? "" : naturalLanguage.getCode());
+    }
+
 }
@@ -6,11 +6,10 @@
 package org.haiku.haikudepotserver.pkg.model;
 
 import org.apache.cayenne.ObjectContext;
-import org.apache.cayenne.ObjectId;
-import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.haiku.haikudepotserver.dataobjects.*;
 import org.haiku.haikudepotserver.support.StoppableConsumer;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -88,6 +87,16 @@ public interface PkgService {
             ObjectContext context,
             PkgSearchSpecification search);
 
+    /**
+     * <p>This method performs the same search as {@link #search(ObjectContext, PkgSearchSpecification)}, but
+     * returns flat rows that carry the data required to present the results.  The total is obtained in the
+     * same query so that the search need not be run a second time to count the results.</p>
+     */
+
+    PkgVersionSearchResult searchRows(
+            ObjectContext context,
+            PkgSearchSpecification search);
+
     /**
      * <p>This method will provide a total of the package versions.</p>
      */
@@ -128,17 +137,28 @@ public interface PkgService {
             String newContent);
 
     /**
-     * <p>This method will deactivate package versions for a package where the package version is related to the
-     * supplied repository.  This is used in the situation where a package was once part of a repository, but has
-     * been removed.</p>
+     * <p>This method will deactivate package versions for the named packages where the package version is related
+     * to the supplied repository source.  This is used in the situation where packages were once part of a
+     * repository, but have been removed.  The package versions are fetched in a single query.</p>
      * @return the quantity of package versions that were deactivated.
      */
 
-    int deactivatePkgVersionsForPkgAssociatedWithRepositorySource(
+    int deactivatePkgVersionsForPkgsAssociatedWithRepositorySource(
             ObjectContext context,
-            Pkg pkg,
+            Collection<String> pkgNames,
             final RepositorySource repositorySource);
 
+    /**
+     * <p>Returns the import fingerprints of the active and latest package versions in the repository source.
+     * A package from the repository data with one of these fingerprints need not be imported again.</p>
+     * @param requirePayloadLength only return the fingerprints of package versions that have a payload length.
+     */
+
+    Set<String> fetchImportFingerprintsForRepositorySource(
+            ObjectContext context,
+            RepositorySource repositorySource,
+            boolean requirePayloadLength);
+
     /**
      * <p>This method will return all of the package names that have package versions that are related to a
      * repository.</p>
@@ -195,14 +215,6 @@ public interface PkgService {
 
     boolean updatePkgCategories(ObjectContext context, Pkg pkg, List<PkgCategory> pkgCategories);
 
-    /**
-     * <p>This method will increment the view counter on a package version.  If it encounters an optimistic
-     * locking problem then it will pause and it will try again in a moment.  It will attempt this a few
-     * times and then fail with a runtime exception.</p>
-     */
-
-    void incrementViewCounter(ServerRuntime serverRuntime, ObjectId pkgVersionOid);
-
     /**
      * <p>This method will return the highest modify timestamp on the {@link PkgVersion} in the database.
      * This also considers the Pkg as well.</p>
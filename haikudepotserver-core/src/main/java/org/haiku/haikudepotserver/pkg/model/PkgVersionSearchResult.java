@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg.model;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+
+/**
+ * <p>This is a page of {@link PkgVersionSearchRow}s together with the total quantity of rows that the search
+ * would find without the offset and limit.</p>
+ */
+
+public class PkgVersionSearchResult {
+
+    private final List<PkgVersionSearchRow> rows;
+
+    private final long total;
+
+    public PkgVersionSearchResult(List<PkgVersionSearchRow> rows, long total) {
+        this.rows = Preconditions.checkNotNull(rows);
+        this.total = total;
+    }
+
+    public List<PkgVersionSearchRow> getRows() {
+        return rows;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+}
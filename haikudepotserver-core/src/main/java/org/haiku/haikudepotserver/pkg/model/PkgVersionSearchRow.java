@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg.model;
+
+import java.util.Date;
+
+/**
+ * <p>This object is a flat row from a search for package versions.  It carries the data that is required to
+ * display the search result so that it is not necessary to fetch the related package, architecture,
+ * repository, user rating, icons and localization for each row.  The title and summary are resolved in the
+ * same way as {@link ResolvedPkgVersionLocalization}.</p>
+ */
+
+public class PkgVersionSearchRow {
+
+    private Long pkgVersionId;
+    private String major;
+    private String minor;
+    private String micro;
+    private String preRelease;
+    private Integer revision;
+    private Date createTimestamp;
+    private Long viewCounter;
+    private Long payloadLength;
+    private String pkgName;
+    private Date pkgModifyTimestamp;
+    private String architectureCode;
+    private String repositorySourceCode;
+    private String repositoryCode;
+    private Float derivedRating;
+    private boolean hasAnyPkgIcons;
+    private String title;
+    private String summary;
+
+    public Long getPkgVersionId() {
+        return pkgVersionId;
+    }
+
+    public void setPkgVersionId(Long pkgVersionId) {
+        this.pkgVersionId = pkgVersionId;
+    }
+
+    public String getMajor() {
+        return major;
+    }
+
+    public void setMajor(String major) {
+        this.major = major;
+    }
+
+    public String getMinor() {
+        return minor;
+    }
+
+    public void setMinor(String minor) {
+        this.minor = minor;
+    }
+
+    public String getMicro() {
+        return micro;
+    }
+
+    public void setMicro(String micro) {
+        this.micro = micro;
+    }
+
+    public String getPreRelease() {
+        return preRelease;
+    }
+
+    public void setPreRelease(String preRelease) {
+        this.preRelease = preRelease;
+    }
+
+    public Integer getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Integer revision) {
+        this.revision = revision;
+    }
+
+    public Date getCreateTimestamp() {
+        return createTimestamp;
+    }
+
+    public void setCreateTimestamp(Date createTimestamp) {
+        this.createTimestamp = createTimestamp;
+    }
+
+    public Long getViewCounter() {
+        return viewCounter;
+    }
+
+    public void setViewCounter(Long viewCounter) {
+        this.viewCounter = viewCounter;
+    }
+
+    public Long getPayloadLength() {
+        return payloadLength;
+    }
+
+    public void setPayloadLength(Long payloadLength) {
+        this.payloadLength = payloadLength;
+    }
+
+    public String getPkgName() {
+        return pkgName;
+    }
+
+    public void setPkgName(String pkgName) {
+        this.pkgName = pkgName;
+    }
+
+    public Date getPkgModifyTimestamp() {
+        return pkgModifyTimestamp;
+    }
+
+    public void setPkgModifyTimestamp(Date pkgModifyTimestamp) {
+        this.pkgModifyTimestamp = pkgModifyTimestamp;
+    }
+
+    public String getArchitectureCode() {
+        return architectureCode;
+    }
+
+    public void setArchitectureCode(String architectureCode) {
+        this.architectureCode = architectureCode;
+    }
+
+    public String getRepositorySourceCode() {
+        return repositorySourceCode;
+    }
+
+    public void setRepositorySourceCode(String repositorySourceCode) {
+        this.repositorySourceCode = repositorySourceCode;
+    }
+
+    public String getRepositoryCode() {
+        return repositoryCode;
+    }
+
+    public void setRepositoryCode(String repositoryCode) {
+        this.repositoryCode = repositoryCode;
+    }
+
+    public Float getDerivedRating() {
+        return derivedRating;
+    }
+
+    public void setDerivedRating(Float derivedRating) {
+        this.derivedRating = derivedRating;
+    }
+
+    public boolean hasAnyPkgIcons() {
+        return hasAnyPkgIcons;
+    }
+
+    public void setHasAnyPkgIcons(boolean hasAnyPkgIcons) {
+        this.hasAnyPkgIcons = hasAnyPkgIcons;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg.model;
+
+import org.apache.cayenne.ObjectId;
+
+/**
+ * <p>This service counts the views of package versions.  Views are gathered up in memory and are written to
+ * the database periodically so that recording a view does not hold up the request that caused it.</p>
+ */
+
+public interface PkgVersionViewCounterService {
+
+    /**
+     * <p>Records a view of the package version.  This method will not block on the database.</p>
+     */
+
+    void increment(ObjectId pkgVersionOid);
+
+    /**
+     * <p>Writes any views that have not yet been written to the database.</p>
+     */
+
+    void flush();
+
+    /**
+     * <p>Returns the quantity of views that have been recorded, but not yet written to the database.</p>
+     */
+
+    long getPendingIncrements();
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.pkg.model;
+
+import java.util.Collection;
+
+/**
+ * <p>The rendered icons and screenshots are cached on each application server node.  This service
+ * renders them ahead of the first request on this node.  This is not done through the job service
+ * because a job may be run by any of the nodes and equivalent jobs coalesce across all of the nodes
+ * so that only one node's caches would be filled.</p>
+ */
+
+public interface RenderedPkgImagePrewarmService {
+
+    /**
+     * <p>Renders the icons of all of the packages at the commonly requested sizes.  This method will not
+     * block; if a prewarm of the icons is already waiting to run then this request is dropped.</p>
+     */
+
+    void prewarmPkgIcons();
+
+    /**
+     * <p>Renders the screenshots at the commonly requested sizes once the nominated job, which may be
+     * running on another node, is no longer queued or started.  This is typically the job that is
+     * optimizing the data of the screenshots; the scaled images are keyed by the hash of the data and
+     * so are rendered after the data has changed.  The job GUID may be null.  This method will not
+     * block.</p>
+     */
+
+    void prewarmPkgScreenshots(Collection<String> pkgScreenshotCodes, String afterJobGuid);
+
+}
@@ -8,6 +8,8 @@ package org.haiku.haikudepotserver.repository.job;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.commons.lang3.ObjectUtils;
@@ -24,6 +26,7 @@ import org.haiku.haikudepotserver.pkg.model.PkgService;
 import org.haiku.haikudepotserver.repository.model.RepositoryHpkrIngressException;
 import org.haiku.haikudepotserver.repository.model.RepositoryHpkrIngressJobSpecification;
 import org.haiku.haikudepotserver.support.FileHelper;
+import org.haiku.haikudepotserver.support.cayenne.StatementCountingJdbcEventLogger;
 import org.haiku.pkg.HpkrFileExtractor;
 import org.haiku.pkg.PkgIterator;
 import org.haiku.pkg.model.Pkg;
@@ -34,6 +37,7 @@ import org.springframework.stereotype.Component;
 
 import java.io.*;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -64,16 +68,20 @@ public class RepositoryHpkrIngressJobRunner extends AbstractJobRunner<Repository
     private final PkgService pkgService;
     private final PkgImportService pkgImportService;
     private final boolean shouldPopulatePayloadLength;
+    private final int batchSize;
 
     public RepositoryHpkrIngressJobRunner(
             ServerRuntime serverRuntime,
             PkgService pkgService,
             PkgImportService pkgImportService,
-            @Value("${repository.import.populatepayloadlength:false}") boolean shouldPopulatePayloadLength) {
+            @Value("${repository.import.populatepayloadlength:false}") boolean shouldPopulatePayloadLength,
+            @Value("${repository.import.batchsize:50}") int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "the batch size must be positive");
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.pkgService = Preconditions.checkNotNull(pkgService);
         this.pkgImportService = Preconditions.checkNotNull(pkgImportService);
         this.shouldPopulatePayloadLength = shouldPopulatePayloadLength;
+        this.batchSize = batchSize;
     }
 
     @Override
@@ -192,6 +200,45 @@ public class RepositoryHpkrIngressJobRunner extends AbstractJobRunner<Repository
                 .findFirst();
     }
 
+    /**
+     * <p>Imports a batch of packages in a fresh context and then commits the batch as a single
+     * unit.  The number of SQL statements issued for the batch is logged so that the cost of
+     * the import can be observed.</p>
+     */
+
+    private void importBatch(
+            RepositorySource repositorySource,
+            List<Pkg> batch) throws RepositoryHpkrIngressException {
+        long batchStartTimeMs = System.currentTimeMillis();
+        StatementCountingJdbcEventLogger.startCounting();
+
+        try {
+            ObjectContext pkgImportContext = serverRuntime.newContext();
+
+            pkgImportService.importFrom(
+                    pkgImportContext,
+                    repositorySource.getObjectId(),
+                    batch,
+                    shouldPopulatePayloadLength);
+
+            try {
+                pkgImportContext.commitChanges();
+            }
+            catch(Throwable th) {
+                throw new RepositoryHpkrIngressException("unable to store batch of packages starting with ["
+                        + batch.get(0).toString() + "]", th);
+            }
+
+            LOGGER.info("did import batch of {} packages for repository source [{}] in {}ms with {} statements",
+                    batch.size(), repositorySource.getCode(),
+                    System.currentTimeMillis() - batchStartTimeMs,
+                    StatementCountingJdbcEventLogger.getCount());
+        }
+        finally {
+            StatementCountingJdbcEventLogger.stopCounting();
+        }
+    }
+
     private void runImportHpkrForRepositorySource(
             ObjectContext mainContext,
             RepositorySource repositorySource) {
@@ -215,66 +262,86 @@ public class RepositoryHpkrIngressJobRunner extends AbstractJobRunner<Repository
             LOGGER.info("did copy {} bytes for repository hpkr [{}] ({}) to temporary file",
                     temporaryFile.length(), repositorySource, url.toString());
 
-            HpkrFileExtractor fileExtractor = new HpkrFileExtractor(temporaryFile);
+            // if the repository data is the same as was last imported then there is nothing to do.
+
+            String hpkrSha256 = Files.asByteSource(temporaryFile).hash(Hashing.sha256()).toString();
+
+            if (hpkrSha256.equals(repositorySource.getLastImportHpkrSha256())) {
+                LOGGER.info("the repository hpkr [{}] is unchanged since the last import; will skip", repositorySource);
+                return;
+            }
 
             long startTimeMs = System.currentTimeMillis();
             LOGGER.info("will process data for repository hpkr {}", repositorySource.getCode());
 
+            // packages that have not changed since they were last imported can be skipped.
+
+            Set<String> existingFingerprints = pkgService.fetchImportFingerprintsForRepositorySource(
+                    mainContext, repositorySource, shouldPopulatePayloadLength);
+            int skippedPkgs = 0;
+
             // import any packages that are in the repository.
 
             Set<String> repositoryImportPkgNames = Sets.newHashSet();
-            PkgIterator pkgIterator = new PkgIterator(fileExtractor.getPackageAttributesIterator());
 
-            while (pkgIterator.hasNext()) {
+            // the heap is memory-mapped because the repository files can be large.
+
+            try (HpkrFileExtractor fileExtractor = new HpkrFileExtractor(temporaryFile, true)) {
+                PkgIterator pkgIterator = new PkgIterator(fileExtractor.getPackageAttributesIterator());
+                List<Pkg> batch = new ArrayList<>(batchSize);
 
-                ObjectContext pkgImportContext = serverRuntime.newContext();
+                while (pkgIterator.hasNext()) {
+                    Pkg pkg = pkgIterator.next();
+                    repositoryImportPkgNames.add(pkg.getName());
 
-                Pkg pkg = pkgIterator.next();
-                repositoryImportPkgNames.add(pkg.getName());
+                    if (existingFingerprints.contains(pkg.getFingerprint())) {
+                        skippedPkgs++;
+                        continue;
+                    }
 
-                pkgImportService.importFrom(
-                        pkgImportContext,
-                        repositorySource.getObjectId(),
-                        pkg,
-                        shouldPopulatePayloadLength);
+                    batch.add(pkg);
 
-                try {
-                    pkgImportContext.commitChanges();
+                    if (batch.size() >= batchSize) {
+                        importBatch(repositorySource, batch);
+                        batch.clear();
+                    }
                 }
-                catch(Throwable th) {
-                    throw new RepositoryHpkrIngressException("unable to store package [" + pkg.toString() + "]", th);
+
+                if (!batch.isEmpty()) {
+                    importBatch(repositorySource, batch);
                 }
             }
 
             // [apl 6.aug.2014] #5
             // Packages may be removed from a repository.  In this case there is no trigger to indicate that the
-            // package version should be removed.  Check all of the packages that have an active version in this
+            // package version should be removed.  Check all of the packages that have a version in this
             // repository and then if the package simply doesn't exist in that repository any more, mark all of
-            // those versions are inactive.
-
-            pkgService.fetchPkgNamesWithAnyPkgVersionAssociatedWithRepositorySource(
-                    mainContext,
-                    repositorySource).forEach((persistedPkgName) -> {
-                if (!repositoryImportPkgNames.contains(persistedPkgName)) {
-
-                    ObjectContext removalContext = serverRuntime.newContext();
-                    RepositorySource removalRepositorySource = RepositorySource.get(
-                            removalContext,
-                            repositorySource.getObjectId());
-
-                    int changes = pkgService.deactivatePkgVersionsForPkgAssociatedWithRepositorySource(
-                            removalContext,
-                            org.haiku.haikudepotserver.dataobjects.Pkg.getByName(removalContext, persistedPkgName),
-                            removalRepositorySource);
-
-                    if (changes > 0) {
-                        removalContext.commitChanges();
-                        LOGGER.info("did remove all versions of package {} from repository source {} because this package is no longer in the repository", persistedPkgName, repositorySource.toString());
-                    }
-
+            // those versions are inactive.  The removed packages are deactivated together.
+
+            Set<String> removedPkgNames = Sets.difference(
+                    pkgService.fetchPkgNamesWithAnyPkgVersionAssociatedWithRepositorySource(
+                            mainContext,
+                            repositorySource),
+                    repositoryImportPkgNames);
+
+            if (!removedPkgNames.isEmpty()) {
+                ObjectContext removalContext = serverRuntime.newContext();
+
+                int changes = pkgService.deactivatePkgVersionsForPkgsAssociatedWithRepositorySource(
+                        removalContext,
+                        removedPkgNames,
+                        RepositorySource.get(removalContext, repositorySource.getObjectId()));
+
+                if (changes > 0) {
+                    removalContext.commitChanges();
+                    LOGGER.info("did remove {} versions of packages {} from repository source {} because these packages are no longer in the repository",
+                            changes, removedPkgNames, repositorySource.toString());
                 }
-            });
+            }
+
+            repositorySource.setLastImportHpkrSha256(hpkrSha256);
 
+            LOGGER.info("did skip {} unchanged packages for repository hpkr {}", skippedPkgs, repositorySource);
             LOGGER.info("did process data for repository hpkr {} in {}ms", repositorySource, System.currentTimeMillis() - startTimeMs);
 
         } catch (Throwable th) {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -17,11 +17,14 @@ import org.springframework.beans.factory.annotation.Value;
 
 import javax.annotation.PostConstruct;
 import java.io.*;
+import java.nio.file.Path;
 import java.util.Optional;
 
 /**
  * <p>An implementation of the {@link DataStorageService}
- * which stores job data to a local temporary directory.</p>
+ * which stores job data to a local temporary directory.  A directory can be specified instead; if
+ * a number of application server nodes are sharing jobs then this directory should be on storage
+ * that is shared between the nodes.</p>
  */
 
 public class LocalDataStorageServiceImpl implements DataStorageService {
@@ -34,21 +37,38 @@ public class LocalDataStorageServiceImpl implements DataStorageService {
 
     private final Boolean isProduction;
 
+    /**
+     * <p>This is optional; if it is not supplied then a directory within the platform's temporary
+     * directory is used.</p>
+     */
+
+    private final String path;
+
     public LocalDataStorageServiceImpl(Boolean isProduction) {
+        this(isProduction, null);
+    }
+
+    public LocalDataStorageServiceImpl(Boolean isProduction, String path) {
         this.isProduction = isProduction;
+        this.path = path;
     }
 
     @PostConstruct
     public void init() {
-        String platformTmpDirPath = System.getProperty("java.io.tmpdir");
-
-        if (Strings.isNullOrEmpty(platformTmpDirPath)) {
-            throw new IllegalStateException("unable to ascertain the java temporary directory");
+        if (!Strings.isNullOrEmpty(path)) {
+            tmpDir = new File(path);
         }
+        else {
+            String platformTmpDirPath = System.getProperty("java.io.tmpdir");
+
+            if (Strings.isNullOrEmpty(platformTmpDirPath)) {
+                throw new IllegalStateException("unable to ascertain the java temporary directory");
+            }
 
-        tmpDir = new File(
-                platformTmpDirPath,
-                PATH_APPTMPDIR + (null == isProduction || !isProduction ? "-test" : ""));
+            tmpDir = new File(
+                    platformTmpDirPath,
+                    PATH_APPTMPDIR + (null == isProduction || !isProduction ? "-test" : ""));
+        }
 
         if (!tmpDir.exists()) {
             if (tmpDir.mkdirs()) {
@@ -84,6 +104,13 @@ public class LocalDataStorageServiceImpl implements DataStorageService {
         return file.exists() ? Optional.of(Files.asByteSource(file)) : Optional.empty();
     }
 
+    @Override
+    public Optional<Path> tryGetPath(String key) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(key));
+        File file = fileForKey(key);
+        return file.exists() ? Optional.of(file.toPath()) : Optional.empty();
+    }
+
     @Override
     public boolean remove(String key) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(key));
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016, Andrew Lindesay
+ * Copyright 2016-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -10,6 +10,7 @@ import com.google.common.io.ByteSource;
 import org.haiku.haikudepotserver.job.model.JobService;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Optional;
 
 /**
@@ -29,6 +30,14 @@ public interface DataStorageService {
 
     Optional<? extends ByteSource> get(String key) throws IOException;
 
+    /**
+     * <p>If the data is stored in a local file then this will return the path to that file so that the
+     * data is able to be read efficiently; for example with random access.  Otherwise it will return an
+     * empty optional.</p>
+     */
+
+    Optional<Path> tryGetPath(String key);
+
     boolean remove(String key);
 
     /**
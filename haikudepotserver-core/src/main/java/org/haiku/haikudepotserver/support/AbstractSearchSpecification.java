@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -16,7 +16,14 @@ import java.util.regex.Pattern;
 public abstract class AbstractSearchSpecification {
 
     public enum ExpressionType {
-        CONTAINS
+        CONTAINS,
+
+        /**
+         * <p>The words of the expression are matched against the words of the data allowing for
+         * different forms of the words in the natural language.  Not all searches support this.</p>
+         */
+
+        FULLTEXT
     }
 
     private String expression;
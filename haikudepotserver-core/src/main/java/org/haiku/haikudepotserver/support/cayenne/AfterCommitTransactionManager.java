@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.support.cayenne;
+
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.cayenne.tx.BaseTransaction;
+import org.apache.cayenne.tx.DefaultTransactionManager;
+import org.apache.cayenne.tx.TransactionFactory;
+import org.apache.cayenne.tx.TransactionListener;
+import org.apache.cayenne.tx.TransactionalOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * <p>When work is performed in an explicit transaction, the changes that are committed from an object
+ * context are only visible to other connections once the whole transaction has committed.  This
+ * transaction manager allows logic to be registered that should run once the outermost transaction on
+ * the current thread has committed; for example to refresh data that is derived from the changes.</p>
+ */
+
+public class AfterCommitTransactionManager extends DefaultTransactionManager {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(AfterCommitTransactionManager.class);
+
+    /**
+     * <p>This is present while an outermost transaction is being performed on the thread.</p>
+     */
+
+    private final static ThreadLocal<List<Runnable>> AFTER_COMMIT_RUNNABLES = new ThreadLocal<>();
+
+    public AfterCommitTransactionManager(
+            @Inject TransactionFactory txFactory,
+            @Inject JdbcEventLogger jdbcEventLogger) {
+        super(txFactory, jdbcEventLogger);
+    }
+
+    /**
+     * <p>If the current thread is performing a transaction then the runnable will be run once that
+     * transaction has committed and true is returned.  If there is no transaction then false is returned
+     * and the caller should run the logic itself.  The runnable is discarded if the transaction fails.</p>
+     */
+
+    public static boolean tryRunAfterCommit(Runnable runnable) {
+        List<Runnable> runnables = AFTER_COMMIT_RUNNABLES.get();
+
+        if (null == runnables || null == BaseTransaction.getThreadTransaction()) {
+            return false;
+        }
+
+        runnables.add(runnable);
+        return true;
+    }
+
+    @Override
+    public <T> T performInTransaction(TransactionalOperation<T> op) {
+        return performAndRunAfterCommit(() -> super.performInTransaction(op));
+    }
+
+    @Override
+    public <T> T performInTransaction(TransactionalOperation<T> op, TransactionListener callback) {
+        return performAndRunAfterCommit(() -> super.performInTransaction(op, callback));
+    }
+
+    private <T> T performAndRunAfterCommit(Supplier<T> supplier) {
+
+        // a nested transaction joins the outer one so there is nothing to do here.
+
+        if (null != AFTER_COMMIT_RUNNABLES.get()) {
+            return supplier.get();
+        }
+
+        List<Runnable> runnables = new ArrayList<>();
+        AFTER_COMMIT_RUNNABLES.set(runnables);
+        T result;
+
+        try {
+            result = supplier.get();
+        }
+        finally {
+            AFTER_COMMIT_RUNNABLES.remove();
+        }
+
+        for (Runnable runnable : runnables) {
+            try {
+                runnable.run();
+            }
+            catch (Throwable th) {
+                LOGGER.error("a problem has arisen running logic after a transaction has committed", th);
+            }
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.support.cayenne;
+
+import com.google.common.base.Preconditions;
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.tx.BaseTransaction;
+import org.apache.cayenne.tx.Transaction;
+import org.haiku.haikudepotserver.dataobjects.Pkg;
+import org.haiku.haikudepotserver.dataobjects.PkgIcon;
+import org.haiku.haikudepotserver.dataobjects.PkgLocalization;
+import org.haiku.haikudepotserver.dataobjects.PkgPkgCategory;
+import org.haiku.haikudepotserver.dataobjects.PkgProminence;
+import org.haiku.haikudepotserver.dataobjects.PkgSupplement;
+import org.haiku.haikudepotserver.dataobjects.PkgUserRatingAggregate;
+import org.haiku.haikudepotserver.dataobjects.PkgVersion;
+import org.haiku.haikudepotserver.dataobjects.PkgVersionLocalization;
+import org.haiku.haikudepotserver.pkg.model.PkgCatalogueService;
+import org.haiku.haikudepotserver.pkg.model.PkgSearchIndexService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * <p>This filter hooks into the Cayenne "transaction" flow in order to find the packages whose data may
+ * have changed.  Once the changes are committed, the search data and the in-memory catalogue for those
+ * packages are refreshed.  This covers the package import as well as the changes made through the
+ * API.  Where the changes are part of a larger transaction, the refresh happens once that transaction
+ * has committed.</p>
+ */
+
+@Component
+public class PkgChangeDataChannelFilter implements DataChannelFilter {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(PkgChangeDataChannelFilter.class);
+
+    private final ServerRuntime serverRuntime;
+
+    private final PkgSearchIndexService pkgSearchIndexService;
+
+    private final PkgCatalogueService pkgCatalogueService;
+
+    /**
+     * <p>Holds the pkg supplements that have changed in the transaction that the current thread is
+     * performing.</p>
+     */
+
+    private final ThreadLocal<DeferredPkgSupplementIds> deferredPkgSupplementIds = new ThreadLocal<>();
+
+    public PkgChangeDataChannelFilter(
+            ServerRuntime serverRuntime,
+            PkgSearchIndexService pkgSearchIndexService,
+            PkgCatalogueService pkgCatalogueService) {
+        this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
+        this.pkgSearchIndexService = Preconditions.checkNotNull(pkgSearchIndexService);
+        this.pkgCatalogueService = Preconditions.checkNotNull(pkgCatalogueService);
+    }
+
+    @PostConstruct
+    public void init() {
+        serverRuntime.getDataDomain().addFilter(this);
+    }
+
+    /**
+     * <p>Objects that are being deleted may already have been disconnected from their related objects so
+     * the related objects may not be found; in this case the object on the other side of the relationship
+     * will also have been modified and will be found through that.</p>
+     */
+
+    private Optional<PkgSupplement> tryDerivePkgSupplement(Object object) {
+        if (object instanceof PkgSupplement) {
+            return Optional.of((PkgSupplement) object);
+        }
+
+        if (object instanceof Pkg) {
+            return Optional.ofNullable(((Pkg) object).getPkgSupplement());
+        }
+
+        if (object instanceof PkgVersion) {
+            return Optional.ofNullable(((PkgVersion) object).getPkg()).map(Pkg::getPkgSupplement);
+        }
+
+        if (object instanceof PkgLocalization) {
+            return Optional.ofNullable(((PkgLocalization) object).getPkgSupplement());
+        }
+
+        if (object instanceof PkgVersionLocalization) {
+            return Optional.ofNullable(((PkgVersionLocalization) object).getPkgVersion())
+                    .map(PkgVersion::getPkg)
+                    .map(Pkg::getPkgSupplement);
+        }
+
+        if (object instanceof PkgPkgCategory) {
+            return Optional.ofNullable(((PkgPkgCategory) object).getPkgSupplement());
+        }
+
+        if (object instanceof PkgIcon) {
+            return Optional.ofNullable(((PkgIcon) object).getPkgSupplement());
+        }
+
+        if (object instanceof PkgProminence) {
+            return Optional.ofNullable(((PkgProminence) object).getPkg()).map(Pkg::getPkgSupplement);
+        }
+
+        if (object instanceof PkgUserRatingAggregate) {
+            return Optional.ofNullable(((PkgUserRatingAggregate) object).getPkg()).map(Pkg::getPkgSupplement);
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * <p>At this point, the commit has happened, but new objects will still have their temporary ids
+     * and the permanent id is available as a replacement.</p>
+     */
+
+    private static Long derivePkgSupplementId(PkgSupplement pkgSupplement) {
+        ObjectId objectId = pkgSupplement.getObjectId();
+
+        if (objectId.isReplacementIdAttached()) {
+            objectId = objectId.createReplacementId();
+        }
+
+        return ((Number) objectId.getIdSnapshot().get(PkgSupplement.ID_PK_COLUMN)).longValue();
+    }
+
+    private Set<PkgSupplement> derivePkgSupplements(ObjectContext context) {
+        Set<PkgSupplement> result = new HashSet<>();
+
+        for (Object object : context.uncommittedObjects()) {
+            tryDerivePkgSupplement(object).ifPresent(result::add);
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>If the changes were committed as part of a larger transaction then they are not yet visible to
+     * the connections that are used to derive the search data and the catalogue.  In this case the pkg
+     * supplements are collected up and are processed together once the transaction has committed.</p>
+     */
+
+    private boolean tryDeferUntilAfterCommit(Set<Long> pkgSupplementIds) {
+        Transaction transaction = BaseTransaction.getThreadTransaction();
+
+        if (null == transaction) {
+            return false;
+        }
+
+        DeferredPkgSupplementIds deferred = deferredPkgSupplementIds.get();
+
+        if (null == deferred || deferred.transaction != transaction) {
+            DeferredPkgSupplementIds newDeferred = new DeferredPkgSupplementIds(transaction);
+
+            if (!AfterCommitTransactionManager.tryRunAfterCommit(() -> {
+                if (deferredPkgSupplementIds.get() == newDeferred) {
+                    deferredPkgSupplementIds.remove();
+                }
+
+                reindexAndRefresh(newDeferred.pkgSupplementIds);
+            })) {
+                return false;
+            }
+
+            deferredPkgSupplementIds.set(newDeferred);
+            deferred = newDeferred;
+        }
+
+        deferred.pkgSupplementIds.addAll(pkgSupplementIds);
+        return true;
+    }
+
+    private void reindexAndRefresh(Set<Long> pkgSupplementIds) {
+        try {
+            pkgSearchIndexService.reindex(pkgSupplementIds);
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to reindex the search data for {} pkg supplements", pkgSupplementIds.size(), th);
+        }
+
+        try {
+            pkgCatalogueService.refresh(pkgSupplementIds);
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to refresh the catalogue for {} pkg supplements", pkgSupplementIds.size(), th);
+        }
+    }
+
+    // --------------
+    // DataChannelFilter
+
+    @Override
+    public void init(DataChannel channel) {
+    }
+
+    @Override
+    public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+        return filterChain.onQuery(originatingContext, query);
+    }
+
+    @Override
+    public GraphDiff onSync(ObjectContext originatingContext, GraphDiff changes, int syncType, DataChannelFilterChain filterChain) {
+        Set<PkgSupplement> pkgSupplements = Collections.emptySet();
+
+        switch (syncType) {
+            case DataChannel.FLUSH_NOCASCADE_SYNC:
+            case DataChannel.FLUSH_CASCADE_SYNC:
+                pkgSupplements = derivePkgSupplements(originatingContext);
+                break;
+        }
+
+        GraphDiff result = filterChain.onSync(originatingContext, changes, syncType);
+
+        if (!pkgSupplements.isEmpty()) {
+            Set<Long> pkgSupplementIds = pkgSupplements
+                    .stream()
+                    .map(PkgChangeDataChannelFilter::derivePkgSupplementId)
+                    .collect(Collectors.toSet());
+
+            if (!tryDeferUntilAfterCommit(pkgSupplementIds)) {
+                reindexAndRefresh(pkgSupplementIds);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>A transaction that has failed will not run the logic after commit so the transaction is
+     * retained here in order that stale pkg supplements are not carried into the next transaction.</p>
+     */
+
+    private static class DeferredPkgSupplementIds {
+
+        private final Transaction transaction;
+
+        private final Set<Long> pkgSupplementIds = new HashSet<>();
+
+        DeferredPkgSupplementIds(Transaction transaction) {
+            this.transaction = Preconditions.checkNotNull(transaction);
+        }
+
+    }
+
+}
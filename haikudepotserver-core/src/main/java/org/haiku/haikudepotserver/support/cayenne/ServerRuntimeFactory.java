@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -10,6 +10,8 @@ import org.apache.cayenne.cache.QueryCache;
 import org.apache.cayenne.configuration.Constants;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.di.MapBuilder;
+import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.cayenne.tx.TransactionManager;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.annotation.Value;
 
@@ -43,6 +45,8 @@ public class ServerRuntimeFactory implements FactoryBean<ServerRuntime> {
                     props.put(Constants.SERVER_OBJECT_RETAIN_STRATEGY_PROPERTY, "weak"); // hard|soft|weak
                     props.put(Constants.SERVER_CONTEXTS_SYNC_PROPERTY, "true");
                     props.put(Constants.QUERY_CACHE_SIZE_PROPERTY, queryCacheSize.toString());
+                    binder.bind(JdbcEventLogger.class).to(StatementCountingJdbcEventLogger.class);
+                    binder.bind(TransactionManager.class).to(AfterCommitTransactionManager.class);
                 })
                 .build();
     }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.support.cayenne;
+
+import org.apache.cayenne.access.translator.ParameterBinding;
+import org.apache.cayenne.configuration.RuntimeProperties;
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.log.Slf4jJdbcEventLogger;
+import org.apache.cayenne.map.DbAttribute;
+
+import java.util.List;
+
+/**
+ * <p>This logger is able to count the SQL statements that Cayenne executes on the current thread.
+ * This is useful in order to report on the efficiency of bulk processes such as the import of a
+ * repository.  Counting is only undertaken between calls to {@link #startCounting()} and
+ * {@link #stopCounting()} on the same thread.</p>
+ *
+ * <p>Cayenne only reports the rows of a batch to the logger if the logger is loggable so, while
+ * counting, the logger presents as loggable.  The actual logging is still only undertaken if the
+ * underlying logger is enabled.</p>
+ */
+
+public class StatementCountingJdbcEventLogger extends Slf4jJdbcEventLogger {
+
+    private final static ThreadLocal<long[]> COUNT = new ThreadLocal<>();
+
+    public StatementCountingJdbcEventLogger(@Inject RuntimeProperties runtimeProperties) {
+        super(runtimeProperties);
+    }
+
+    public static void startCounting() {
+        COUNT.set(new long[1]);
+    }
+
+    /**
+     * <p>Returns the count of statements since counting started on this thread.</p>
+     */
+
+    public static long getCount() {
+        long[] count = COUNT.get();
+        return null == count ? 0L : count[0];
+    }
+
+    public static long stopCounting() {
+        long result = getCount();
+        COUNT.remove();
+        return result;
+    }
+
+    private static void increment() {
+        long[] count = COUNT.get();
+
+        if (null != count) {
+            count[0]++;
+        }
+    }
+
+    @Override
+    public boolean isLoggable() {
+        return super.isLoggable() || null != COUNT.get();
+    }
+
+    @Override
+    public void log(String message) {
+        if (super.isLoggable()) {
+            super.log(message);
+        }
+    }
+
+    @Override
+    public void logGeneratedKey(DbAttribute attribute, Object value) {
+        if (super.isLoggable()) {
+            super.logGeneratedKey(attribute, value);
+        }
+    }
+
+    @Override
+    public void logQuery(String queryStr, List<?> params) {
+        increment();
+
+        if (super.isLoggable()) {
+            super.logQuery(queryStr, params);
+        }
+    }
+
+    @Override
+    public void logQuery(String queryStr, List<DbAttribute> attrs, List<?> params, long time) {
+        increment();
+
+        if (super.isLoggable()) {
+            super.logQuery(queryStr, attrs, params, time);
+        }
+    }
+
+    @Override
+    public void logQuery(String sql, ParameterBinding[] bindings) {
+        increment();
+
+        if (super.isLoggable()) {
+            super.logQuery(sql, bindings);
+        }
+    }
+
+    /**
+     * <p>This is invoked for each row of a batch.</p>
+     */
+
+    @Override
+    public void logQueryParameters(String label, ParameterBinding[] bindings) {
+        increment();
+
+        if (super.isLoggable()) {
+            super.logQueryParameters(label, bindings);
+        }
+    }
+
+    @Override
+    public void logQueryParameters(String label, List<DbAttribute> attrs, List<Object> parameters, boolean isInserting) {
+        increment();
+
+        if (super.isLoggable()) {
+            super.logQueryParameters(label, attrs, parameters, isInserting);
+        }
+    }
+
+    @Override
+    public void logSelectCount(int count, long time) {
+        if (super.isLoggable()) {
+            super.logSelectCount(count, time);
+        }
+    }
+
+    @Override
+    public void logSelectCount(int count, long time, String sql) {
+        if (super.isLoggable()) {
+            super.logSelectCount(count, time, sql);
+        }
+    }
+
+    @Override
+    public void logUpdateCount(int count) {
+        if (super.isLoggable()) {
+            super.logUpdateCount(count);
+        }
+    }
+
+    @Override
+    public void logBeginTransaction(String transactionLabel) {
+        if (super.isLoggable()) {
+            super.logBeginTransaction(transactionLabel);
+        }
+    }
+
+    @Override
+    public void logCommitTransaction(String transactionLabel) {
+        if (super.isLoggable()) {
+            super.logCommitTransaction(transactionLabel);
+        }
+    }
+
+    @Override
+    public void logRollbackTransaction(String transactionLabel) {
+        if (super.isLoggable()) {
+            super.logRollbackTransaction(transactionLabel);
+        }
+    }
+
+}
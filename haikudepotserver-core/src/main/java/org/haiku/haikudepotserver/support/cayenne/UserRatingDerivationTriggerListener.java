@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -13,18 +13,17 @@ import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.reflect.LifecycleCallbackRegistry;
 import org.apache.commons.collections4.CollectionUtils;
 import org.haiku.haikudepotserver.dataobjects.UserRating;
-import org.haiku.haikudepotserver.job.model.JobSnapshot;
-import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationJobSpecification;
-import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationTriggerService;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collections;
 
 /**
  * <p>This listener will detect changes in the user rating entities and will then trigger a process (probably
- * async) that is able to update the derived user rating on the package involved.</p>
+ * async) that is able to update the derived user rating on the package involved.  The triggers are gathered
+ * up by the {@link UserRatingDerivationTriggerService} so that a burst of changes results in a single
+ * job.</p>
  */
 
 @Component
@@ -32,13 +31,13 @@ public class UserRatingDerivationTriggerListener implements LifecycleListener {
 
     private final ServerRuntime serverRuntime;
 
-    private final JobService jobService;
+    private final UserRatingDerivationTriggerService userRatingDerivationTriggerService;
 
     public UserRatingDerivationTriggerListener(
             ServerRuntime serverRuntime,
-            JobService jobService) {
+            UserRatingDerivationTriggerService userRatingDerivationTriggerService) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
-        this.jobService = Preconditions.checkNotNull(jobService);
+        this.userRatingDerivationTriggerService = Preconditions.checkNotNull(userRatingDerivationTriggerService);
     }
 
     @PostConstruct
@@ -58,9 +57,7 @@ public class UserRatingDerivationTriggerListener implements LifecycleListener {
     }
 
     private void triggerUpdateUserRatingDerivationForPkgName(String pkgName) {
-        jobService.submit(
-                new UserRatingDerivationJobSpecification(pkgName),
-                JobSnapshot.COALESCE_STATUSES_QUEUED);
+        userRatingDerivationTriggerService.trigger(Collections.singleton(pkgName));
     }
 
     @Override
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.userrating;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ComparisonChain;
+import org.haiku.haikudepotserver.support.VersionCoordinates;
+import org.haiku.haikudepotserver.support.VersionCoordinatesComparator;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * <p>This object collects the versions and the user ratings for one package in one repository and is then
+ * able to derive the user rating for that package.  The versions and the user ratings can be supplied in
+ * any order; only the latest user rating from each user is retained so that the memory used is bounded by
+ * the number of users who have rated the package rather than by the number of user ratings.</p>
+ */
+
+class UserRatingDerivationAccumulator {
+
+    private final static VersionCoordinatesComparator VERSION_COORDINATES_COMPARATOR =
+            new VersionCoordinatesComparator();
+
+    private final static VersionCoordinatesComparator MAIN_PARTS_VERSION_COORDINATES_COMPARATOR =
+            new VersionCoordinatesComparator(true);
+
+    /**
+     * <p>These are the versions without the pre-release and revision.</p>
+     */
+
+    private final Set<VersionCoordinates> versionCoordinates = new HashSet<>();
+
+    private final Map<Long, Candidate> latestCandidateByUserId = new HashMap<>();
+
+    /**
+     * <p>Records a version of the package that is active.</p>
+     */
+
+    void addVersion(VersionCoordinates coordinates) {
+        Preconditions.checkArgument(null != coordinates, "the coordinates must be supplied");
+        versionCoordinates.add(coordinates.toVersionCoordinatesWithoutPreReleaseOrRevision());
+    }
+
+    /**
+     * <p>Records a user rating from an active user on an active version of the package.  If the user has
+     * already rated a later version of the package then this user rating is discarded.</p>
+     */
+
+    void addUserRating(
+            long userId,
+            VersionCoordinates coordinates,
+            Date createTimestamp,
+            String architectureCode,
+            Short rating) {
+        Preconditions.checkArgument(null != coordinates, "the coordinates must be supplied");
+        Preconditions.checkArgument(null != createTimestamp, "the create timestamp must be supplied");
+        Candidate candidate = new Candidate(coordinates, createTimestamp, architectureCode, rating);
+        latestCandidateByUserId.merge(userId, candidate, (c1, c2) -> c1.compareTo(c2) > 0 ? c1 : c2);
+    }
+
+    /**
+     * <p>Only user ratings on the latest few versions are considered.  The versions back are counted
+     * without regard to the pre-release and revision of each version.  Each user contributes only the
+     * rating from their latest user rating and if that latest user rating has no rating value then that
+     * user contributes nothing.</p>
+     */
+
+    Optional<UserRatingServiceImpl.DerivedUserRating> derive(int versionsBack, int minRatings) {
+        if (versionCoordinates.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<VersionCoordinates> sortedVersionCoordinates = versionCoordinates
+                .stream()
+                .sorted(VERSION_COORDINATES_COMPARATOR)
+                .collect(Collectors.toList());
+
+        VersionCoordinates oldestVersionCoordinates = sortedVersionCoordinates.get(
+                Math.max(0, sortedVersionCoordinates.size() - (versionsBack + 1)));
+
+        List<Short> ratings = latestCandidateByUserId.values()
+                .stream()
+                .filter(c -> MAIN_PARTS_VERSION_COORDINATES_COMPARATOR.compare(
+                        c.coordinates, oldestVersionCoordinates) >= 0)
+                .map(c -> c.rating)
+                .filter(r -> null != r)
+                .collect(Collectors.toList());
+
+        if (ratings.size() >= minRatings) {
+            return Optional.of(new UserRatingServiceImpl.DerivedUserRating(averageAsFloat(ratings), ratings.size()));
+        }
+
+        return Optional.empty();
+    }
+
+    private static float averageAsFloat(Collection<Short> ratings) {
+        Preconditions.checkNotNull(ratings);
+
+        if(ratings.isEmpty()) {
+            return 0f;
+        }
+
+        int sum = 0;
+
+        for(short rating : ratings) {
+            sum += rating;
+        }
+
+        sum *= 100;
+        sum /= ratings.size();
+
+        return ((float) sum) / 100f;
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+
+        private final VersionCoordinates coordinates;
+        private final Date createTimestamp;
+        private final String architectureCode;
+        private final Short rating;
+
+        private Candidate(
+                VersionCoordinates coordinates,
+                Date createTimestamp,
+                String architectureCode,
+                Short rating) {
+            this.coordinates = coordinates;
+            this.createTimestamp = createTimestamp;
+            this.architectureCode = architectureCode;
+            this.rating = rating;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return ComparisonChain.start()
+                    .compare(coordinates, other.coordinates, VERSION_COORDINATES_COMPARATOR)
+                    .compare(createTimestamp, other.createTimestamp)
+                    .compare(architectureCode, other.architectureCode)
+                    .result();
+        }
+
+    }
+
+}
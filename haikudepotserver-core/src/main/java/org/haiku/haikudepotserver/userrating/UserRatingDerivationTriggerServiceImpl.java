@@ -0,0 +1,259 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.userrating;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobSnapshot;
+import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationJobSpecification;
+import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationTriggerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>The first package name to arrive starts a debounce period.  Package names that arrive during that
+ * period are added to the same set and at the end of the period a single job is submitted for all of
+ * them.  If too many packages are pending then it is cheaper to derive the user ratings for all of the
+ * packages and so the set is discarded and a job for all packages is submitted instead.</p>
+ *
+ * <p>Because the job is submitted from the scheduler's thread, the thread that changed the user rating is
+ * not held up when the job service's queue is full.</p>
+ */
+
+@Service
+public class UserRatingDerivationTriggerServiceImpl implements UserRatingDerivationTriggerService {
+
+    protected static Logger LOGGER = LoggerFactory.getLogger(UserRatingDerivationTriggerServiceImpl.class);
+
+    private final JobService jobService;
+
+    private final MetricRegistry metricRegistry;
+
+    private final long debounceMillis;
+
+    private final int maxPendingPkgs;
+
+    /**
+     * <p>Guarded by this object's monitor.</p>
+     */
+
+    private final Set<String> pendingPkgNames = new TreeSet<>();
+
+    /**
+     * <p>Guarded by this object's monitor.  If true then the pending package names have overflowed and
+     * the user ratings for all packages will be derived.</p>
+     */
+
+    private boolean pendingAllPkgs = false;
+
+    /**
+     * <p>Guarded by this object's monitor.</p>
+     */
+
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    private final Counter duplicates = new Counter();
+
+    private final Counter overflows = new Counter();
+
+    private final Counter submissions = new Counter();
+
+    private ScheduledExecutorService scheduledExecutor = null;
+
+    public UserRatingDerivationTriggerServiceImpl(
+            JobService jobService,
+            MetricRegistry metricRegistry,
+            @Value("${userrating.aggregation.debouncemillis:5000}") long debounceMillis,
+            @Value("${userrating.aggregation.maxpendingpkgs:250}") int maxPendingPkgs) {
+        Preconditions.checkArgument(debounceMillis >= 0, "the debounce period must not be negative");
+        Preconditions.checkArgument(maxPendingPkgs > 0, "the max pending pkgs must be positive");
+        this.jobService = Preconditions.checkNotNull(jobService);
+        this.metricRegistry = Preconditions.checkNotNull(metricRegistry);
+        this.debounceMillis = debounceMillis;
+        this.maxPendingPkgs = maxPendingPkgs;
+    }
+
+    @PostConstruct
+    public void init() {
+        registerMetrics();
+        scheduledExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("user-rating-derivation-trigger-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    @PreDestroy
+    public void tearDown() {
+        if (null != scheduledExecutor) {
+            scheduledExecutor.shutdownNow();
+            scheduledExecutor = null;
+        }
+
+        tryFlush();
+        unregisterMetrics();
+    }
+
+    @Override
+    public void trigger(Collection<String> pkgNames) {
+        Preconditions.checkArgument(null != pkgNames, "the pkg names must be provided");
+
+        if (pkgNames.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            for (String pkgName : pkgNames) {
+                if (pendingAllPkgs || !pendingPkgNames.add(pkgName)) {
+                    duplicates.inc();
+                }
+            }
+
+            checkOverflow();
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * <p>Must be called holding this object's monitor.</p>
+     */
+
+    private void checkOverflow() {
+        if (!pendingAllPkgs && pendingPkgNames.size() > maxPendingPkgs) {
+            LOGGER.warn("{} pkgs are pending user rating derivation; will derive for all pkgs instead",
+                    pendingPkgNames.size());
+            pendingPkgNames.clear();
+            pendingAllPkgs = true;
+            overflows.inc();
+        }
+    }
+
+    /**
+     * <p>Must be called holding this object's monitor.</p>
+     */
+
+    private void scheduleFlush() {
+        if (null == scheduledFlush && null != scheduledExecutor) {
+            scheduledFlush = scheduledExecutor.schedule(this::tryFlush, debounceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * <p>If the job was not able to be submitted then the package names that were taken are put back so
+     * that they are submitted with the next flush.</p>
+     */
+
+    private synchronized void restore(UserRatingDerivationJobSpecification specification) {
+        if (specification.appliesToAllPkgs()) {
+            pendingPkgNames.clear();
+            pendingAllPkgs = true;
+        }
+        else if (!pendingAllPkgs) {
+            pendingPkgNames.addAll(specification.getPkgNames());
+            checkOverflow();
+        }
+
+        scheduleFlush();
+    }
+
+    @Override
+    public synchronized int getPendingPkgs() {
+        return pendingPkgNames.size();
+    }
+
+    private void tryFlush() {
+        try {
+            flush();
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to submit the user rating derivation", th);
+        }
+    }
+
+    /**
+     * <p>The pending package names are taken before the job is submitted so that any package names that
+     * arrive while the job is being submitted start a new debounce period.  If the submission fails then
+     * the package names are put back and another flush is scheduled.</p>
+     */
+
+    @Override
+    public void flush() {
+        UserRatingDerivationJobSpecification specification;
+
+        synchronized (this) {
+            if (null != scheduledFlush) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+
+            if (pendingAllPkgs) {
+                specification = new UserRatingDerivationJobSpecification();
+            }
+            else if (!pendingPkgNames.isEmpty()) {
+                specification = new UserRatingDerivationJobSpecification(pendingPkgNames);
+            }
+            else {
+                return;
+            }
+
+            pendingPkgNames.clear();
+            pendingAllPkgs = false;
+        }
+
+        try {
+            jobService.submit(specification, JobSnapshot.COALESCE_STATUSES_QUEUED);
+        }
+        catch (RuntimeException re) {
+            restore(specification);
+            throw re;
+        }
+
+        submissions.inc();
+
+        LOGGER.info("did submit user rating derivation for {}",
+                specification.appliesToAllPkgs()
+                        ? "all pkgs"
+                        : specification.getPkgNames().size() + " pkgs");
+    }
+
+    // ------------------------------
+    // METRICS
+
+    private String metricName(String suffix) {
+        return MetricRegistry.name(UserRatingDerivationTriggerService.class, suffix);
+    }
+
+    private void registerMetrics() {
+        metricRegistry.register(metricName("pendingpkgs"), (Gauge<Integer>) this::getPendingPkgs);
+        metricRegistry.register(metricName("duplicates"), duplicates);
+        metricRegistry.register(metricName("overflows"), overflows);
+        metricRegistry.register(metricName("submissions"), submissions);
+    }
+
+    private void unregisterMetrics() {
+        metricRegistry.remove(metricName("pendingpkgs"));
+        metricRegistry.remove(metricName("duplicates"));
+        metricRegistry.remove(metricName("overflows"));
+        metricRegistry.remove(metricName("submissions"));
+    }
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -7,17 +7,20 @@ package org.haiku.haikudepotserver.userrating;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import org.apache.cayenne.Cayenne;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.exp.ExpressionFactory;
 import org.apache.cayenne.query.EJBQLQuery;
+import org.apache.cayenne.query.ObjectSelect;
 import org.haiku.haikudepotserver.dataobjects.*;
-import org.haiku.haikudepotserver.job.model.JobService;
-import org.haiku.haikudepotserver.job.model.JobSnapshot;
 import org.haiku.haikudepotserver.support.StoppableConsumer;
 import org.haiku.haikudepotserver.support.VersionCoordinates;
-import org.haiku.haikudepotserver.support.VersionCoordinatesComparator;
-import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationJobSpecification;
+import org.haiku.haikudepotserver.userrating.model.UserRatingDerivationTriggerService;
 import org.haiku.haikudepotserver.userrating.model.UserRatingSearchSpecification;
 import org.haiku.haikudepotserver.userrating.model.UserRatingService;
 import org.slf4j.Logger;
@@ -25,6 +28,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
@@ -35,19 +43,52 @@ public class UserRatingServiceImpl implements UserRatingService {
 
     protected static Logger LOGGER = LoggerFactory.getLogger(UserRatingServiceImpl.class);
 
+    private final static int BATCH_SIZE_USER_RATING_AGGREGATES = 100;
+
+    private final static int FETCH_SIZE_USER_RATINGS = 1000;
+
+    private final static String STATEMENT_PKG_VERSIONS = "SELECT DISTINCT\n"
+            + "p.id, r.id, pv.major, pv.minor, pv.micro\n"
+            + "FROM haikudepot.pkg_version pv\n"
+            + "JOIN haikudepot.pkg p ON p.id = pv.pkg_id\n"
+            + "JOIN haikudepot.repository_source rs ON rs.id = pv.repository_source_id\n"
+            + "JOIN haikudepot.repository r ON r.id = rs.repository_id\n"
+            + "WHERE pv.active = true AND r.active = true";
+
+    private final static String STATEMENT_USER_RATINGS = "SELECT\n"
+            + "p.id, r.id, ur.user_id, pv.major, pv.minor, pv.micro, pv.pre_release, pv.revision,\n"
+            + "ur.create_timestamp, a.code, ur.rating\n"
+            + "FROM haikudepot.user_rating ur\n"
+            + "JOIN haikudepot.user u ON u.id = ur.user_id\n"
+            + "JOIN haikudepot.pkg_version pv ON pv.id = ur.pkg_version_id\n"
+            + "JOIN haikudepot.architecture a ON a.id = pv.architecture_id\n"
+            + "JOIN haikudepot.pkg p ON p.id = pv.pkg_id\n"
+            + "JOIN haikudepot.repository_source rs ON rs.id = pv.repository_source_id\n"
+            + "JOIN haikudepot.repository r ON r.id = rs.repository_id\n"
+            + "WHERE ur.active = true AND u.active = true AND pv.active = true AND r.active = true";
+
+    private final static String STATEMENT_USER_RATING_AGGREGATES = "SELECT\n"
+            + "p.id, pura.repository_id, pura.derived_rating, pura.derived_rating_sample_size\n"
+            + "FROM haikudepot.pkg_user_rating_aggregate pura\n"
+            + "JOIN haikudepot.pkg p ON p.id = pura.pkg_id\n"
+            + "WHERE true";
+
     private final ServerRuntime serverRuntime;
+    private final DataSource dataSource;
     private final int userRatingDerivationVersionsBack;
     private final int userRatingsDerivationMinRatings;
-    private final JobService jobService;
+    private final UserRatingDerivationTriggerService userRatingDerivationTriggerService;
 
 
     public UserRatingServiceImpl(
             ServerRuntime serverRuntime,
-            JobService jobService,
+            DataSource dataSource,
+            UserRatingDerivationTriggerService userRatingDerivationTriggerService,
             @Value("${userrating.aggregation.pkg.versionsback:2}") int userRatingDerivationVersionsBack,
             @Value("${userrating.aggregation.pkg.minratings:3}") int userRatingsDerivationMinRatings) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
-        this.jobService = Preconditions.checkNotNull(jobService);
+        this.dataSource = Preconditions.checkNotNull(dataSource);
+        this.userRatingDerivationTriggerService = Preconditions.checkNotNull(userRatingDerivationTriggerService);
         this.userRatingDerivationVersionsBack = userRatingDerivationVersionsBack;
         this.userRatingsDerivationMinRatings = userRatingsDerivationMinRatings;
     }
@@ -236,81 +277,19 @@ public class UserRatingServiceImpl implements UserRatingService {
         return (List<String>) context.performQuery(query);
     }
 
-    private float averageAsFloat(Collection<Short> ratings) {
-        Preconditions.checkNotNull(ratings);
-
-        if(ratings.isEmpty()) {
-            return 0f;
-        }
-
-        int sum = 0;
-
-        for(short rating : ratings) {
-            sum += rating;
-        }
-
-        sum *= 100;
-        sum /= ratings.size();
-
-        return ((float) sum) / 100f;
-    }
-
-    private List<String> getUserNicknamesWhoHaveRatedPkgVersions(ObjectContext context, List<PkgVersion> pkgVersions) {
-        Preconditions.checkNotNull(context);
-        Preconditions.checkNotNull(pkgVersions);
-
-        if(pkgVersions.isEmpty()) {
-            return Collections.emptyList();
-        }
-
-        StringBuilder queryBuilder = new StringBuilder();
-
-        queryBuilder.append("SELECT DISTINCT ur.user.nickname FROM UserRating ur WHERE ur.user.active=true AND ur.active=true");
-        queryBuilder.append(" AND (");
-
-        for(int i=0;i<pkgVersions.size();i++) {
-            if(0!=i) {
-                queryBuilder.append(" OR ");
-            }
-
-            queryBuilder.append("ur.pkgVersion=?"+Integer.toString(i + 1));
-        }
-
-        queryBuilder.append(")");
-
-        EJBQLQuery query = new EJBQLQuery(queryBuilder.toString());
-
-        for(int i=0;i<pkgVersions.size();i++) {
-            query.setParameter(i + 1, pkgVersions.get(i));
-        }
-
-        return context.performQuery(query);
-    }
-
     /**
-     * <p>This method will go through all of the relevant packages and will derive their user ratings.</p>
+     * <p>This method will go through all of the relevant packages and will derive their user ratings.  The
+     * data required is loaded for all of the packages at once and the stored user rating aggregates are then
+     * only changed where the derived user rating differs.</p>
      */
 
     @Override
     public void updateUserRatingDerivationsForAllPkgs() {
-        ObjectContext context = serverRuntime.newContext();
-
-        StringBuilder builder = new StringBuilder();
-        builder.append("SELECT p.name FROM ");
-        builder.append(Pkg.class.getSimpleName());
-        builder.append(" p");
-        builder.append(" WHERE p.active=true");
-        builder.append(" ORDER BY p.name DESC");
-
-        List<String> pkgNames = context.performQuery(new EJBQLQuery(builder.toString()));
-
-        LOGGER.info("will derive and store user ratings for {} packages", pkgNames.size());
-
-        for (String pkgName : pkgNames) {
-            updateUserRatingDerivation(pkgName);
-        }
-
-        LOGGER.info("did derive and store user ratings for {} packages", pkgNames.size());
+        LOGGER.info("will derive and store user ratings for all packages");
+        long startMs = System.currentTimeMillis();
+        int changedPkgs = updateUserRatingDerivationsForPkgIds(null);
+        LOGGER.info("did derive and store user ratings for all packages; {} changed in {}ms",
+                changedPkgs, System.currentTimeMillis() - startMs);
     }
 
     /**
@@ -320,185 +299,257 @@ public class UserRatingServiceImpl implements UserRatingService {
 
     @Override
     public void updateUserRatingDerivation(String pkgName) {
-         Preconditions.checkArgument(!Strings.isNullOrEmpty(pkgName), "the name of the package is required");
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(pkgName), "the name of the package is required");
+        updateUserRatingDerivations(Collections.singleton(pkgName));
+    }
 
-        ObjectContext context = serverRuntime.newContext();
+    /**
+     * <p>This method will update the user rating aggregates for the supplied packages across all
+     * appropriate repositories.</p>
+     */
+
+    @Override
+    public void updateUserRatingDerivations(Collection<String> pkgNames) {
+        Preconditions.checkArgument(null != pkgNames, "the names of the packages are required");
 
-        StringBuilder builder = new StringBuilder();
-        builder.append("SELECT r.code FROM\n");
-        builder.append(Repository.class.getSimpleName());
-        builder.append(" r\n");
-        builder.append("WHERE EXISTS(SELECT pv FROM\n");
-        builder.append(PkgVersion.class.getSimpleName());
-        builder.append(" pv WHERE pv.pkg.name = :name\n");
-        builder.append(" AND pv.repositorySource.repository = r)\n");
-        builder.append("ORDER BY r.code DESC");
+        if (pkgNames.isEmpty()) {
+            return;
+        }
 
-        EJBQLQuery query = new EJBQLQuery(builder.toString());
-        query.setParameter("name", pkgName);
-        List<String> repositoryCodes = (List<String>) context.performQuery(query);
+        ObjectContext context = serverRuntime.newContext();
+        List<Long> pkgIds = ObjectSelect.query(Pkg.class)
+                .where(Pkg.NAME.in(pkgNames))
+                .select(context)
+                .stream()
+                .map(Cayenne::longPKForObject)
+                .collect(Collectors.toList());
+
+        if (pkgIds.size() != pkgNames.size()) {
+            LOGGER.warn("user derivation requested for {} pkgs, but only {} were found",
+                    pkgNames.size(), pkgIds.size());
+        }
 
-        for(String repositoryCode : repositoryCodes) {
-            updateUserRatingDerivation(pkgName, repositoryCode);
+        if (!pkgIds.isEmpty()) {
+            int changedPkgs = updateUserRatingDerivationsForPkgIds(pkgIds);
+            LOGGER.info("did update user ratings for {} pkgs; {} changed", pkgIds.size(), changedPkgs);
         }
     }
 
     /**
-     * <p>This method will update the stored user rating aggregate (average) for the package for the
-     * specified repository.</p>
+     * <p>Derives the user ratings and then brings the stored user rating aggregates into line with them.
+     * If the package ids are null then this is done for all active packages.  The number of packages for
+     * which the user rating aggregates were changed is returned.</p>
      */
 
-    private void updateUserRatingDerivation(String pkgName, String repositoryCode) {
-        Preconditions.checkState(!Strings.isNullOrEmpty(pkgName));
-        Preconditions.checkState(!Strings.isNullOrEmpty(repositoryCode));
-
-        ObjectContext context = serverRuntime.newContext();
-        Pkg pkg = Pkg.tryGetByName(context, pkgName)
-                .orElseThrow(() -> new IllegalStateException("user derivation job submitted, but no pkg was found; " + pkgName));
-        Repository repository = Repository.tryGetByCode(context, repositoryCode)
-                .orElseThrow(() -> new IllegalStateException("user derivation job submitted, but no repository was found; " + repositoryCode));
-
-        long beforeMillis = System.currentTimeMillis();
-        Optional<DerivedUserRating> rating = userRatingDerivation(context, pkg, repository);
+    private int updateUserRatingDerivationsForPkgIds(Collection<Long> pkgIds) {
+        Table<Long, Long, DerivedUserRating> derivedUserRatings = HashBasedTable.create();
+        Table<Long, Long, DerivedUserRating> storedUserRatings = HashBasedTable.create();
+
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            int transactionIsolation = connection.getTransactionIsolation();
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+
+            try {
+                deriveUserRatings(connection, pkgIds).cellSet().forEach(c -> c.getValue()
+                        .derive(userRatingDerivationVersionsBack, userRatingsDerivationMinRatings)
+                        .ifPresent(r -> derivedUserRatings.put(c.getRowKey(), c.getColumnKey(), r)));
+                storedUserRatings.putAll(loadStoredUserRatings(connection, pkgIds));
+                connection.commit();
+            }
+            catch (SQLException se) {
+                connection.rollback();
+                throw se;
+            }
+            finally {
+                connection.setTransactionIsolation(transactionIsolation);
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        catch (SQLException se) {
+            throw new IllegalStateException("unable to derive the user ratings", se);
+        }
 
-        LOGGER.info("calculated the user rating for {} in {} in {}ms", pkg, repository, System.currentTimeMillis() - beforeMillis);
+        Set<Long> changedPkgIds = Sets.union(derivedUserRatings.rowKeySet(), storedUserRatings.rowKeySet())
+                .stream()
+                .filter(id -> !derivedUserRatings.row(id).equals(storedUserRatings.row(id)))
+                .collect(Collectors.toCollection(TreeSet::new));
 
-        if(!rating.isPresent()) {
-            LOGGER.info("unable to establish a user rating for {} in {}", pkg, repository);
-        }
-        else {
-            LOGGER.info(
-                    "user rating established for {} in {}; {} (sample {})",
-                    pkg,
-                    repository,
-                    rating.get().getRating(),
-                    rating.get().getSampleSize());
+        for (List<Long> batchPkgIds : Iterables.partition(changedPkgIds, BATCH_SIZE_USER_RATING_AGGREGATES)) {
+            storeUserRatings(batchPkgIds, derivedUserRatings);
         }
 
-        Optional<PkgUserRatingAggregate> pkgUserRatingAggregateOptional = pkg.getPkgUserRatingAggregate(repository);
+        return changedPkgIds.size();
+    }
+
+    /**
+     * <p>This will store the derived user ratings for the supplied packages in one transaction.  Where there
+     * is no derived user rating then there should also be no stored user rating aggregate.</p>
+     */
 
-        if(rating.isPresent()) {
+    private void storeUserRatings(
+            Collection<Long> pkgIds,
+            Table<Long, Long, DerivedUserRating> derivedUserRatings) {
+        ObjectContext context = serverRuntime.newContext();
+        Map<Long, Repository> repositories = Repository.getAll(context)
+                .stream()
+                .collect(Collectors.toMap(Cayenne::longPKForObject, r -> r));
+        List<Pkg> pkgs = ObjectSelect.query(Pkg.class)
+                .where(ExpressionFactory.inDbExp(Pkg.ID_PK_COLUMN, pkgIds))
+                .prefetch(Pkg.PKG_USER_RATING_AGGREGATES.joint())
+                .select(context);
+
+        for (Pkg pkg : pkgs) {
+            Map<Long, DerivedUserRating> derivedUserRatingsForPkg =
+                    derivedUserRatings.row(Cayenne.longPKForObject(pkg));
+
+            for (PkgUserRatingAggregate pkgUserRatingAggregate : new ArrayList<>(pkg.getPkgUserRatingAggregates())) {
+                if (!derivedUserRatingsForPkg.containsKey(
+                        Cayenne.longPKForObject(pkgUserRatingAggregate.getRepository()))) {
+                    pkg.removeFromPkgUserRatingAggregates(pkgUserRatingAggregate);
+                    context.deleteObject(pkgUserRatingAggregate);
+                }
+            }
 
-            PkgUserRatingAggregate pkgUserRatingAggregate = pkgUserRatingAggregateOptional.orElseGet(() -> {
-                PkgUserRatingAggregate value = context.newObject(PkgUserRatingAggregate.class);
-                value.setRepository(repository);
-                value.setPkg(pkg);
-                return value;
+            derivedUserRatingsForPkg.forEach((repositoryId, rating) -> {
+                Repository repository = repositories.get(repositoryId);
+                PkgUserRatingAggregate pkgUserRatingAggregate = pkg.getPkgUserRatingAggregate(repository)
+                        .orElseGet(() -> {
+                            PkgUserRatingAggregate value = context.newObject(PkgUserRatingAggregate.class);
+                            value.setRepository(repository);
+                            value.setPkg(pkg);
+                            return value;
+                        });
+
+                pkgUserRatingAggregate.setDerivedRating(rating.getRating());
+                pkgUserRatingAggregate.setDerivedRatingSampleSize(rating.getSampleSize());
             });
 
-            pkgUserRatingAggregate.setDerivedRating(rating.get().getRating());
-            pkgUserRatingAggregate.setDerivedRatingSampleSize(rating.get().getSampleSize());
             pkg.setModifyTimestamp();
         }
-        else {
-
-            // if there is no derived user rating then there should also be no database record
-            // for the user rating.
-
-            if(pkgUserRatingAggregateOptional.isPresent()) {
-                pkg.removeFromPkgUserRatingAggregates(pkgUserRatingAggregateOptional.get());
-                context.deleteObject(pkgUserRatingAggregateOptional.get());
-                pkg.setModifyTimestamp();
-            }
-        }
 
         context.commitChanges();
 
-        LOGGER.info("did update user rating for {} in {}", pkg, repository);
+        LOGGER.debug("did store user ratings for {} pkgs", pkgs.size());
     }
 
     /**
-     * <p>This method will calculate the user rating for the package.  It may not be possible to generate a
-     * user rating; in which case, an absent {@link Optional} is returned.</p>
+     * <p>This will read the active versions and the user ratings from active users on those versions.  The
+     * user ratings are streamed through an accumulator for each package and repository.</p>
      */
 
-    Optional<DerivedUserRating> userRatingDerivation(ObjectContext context, Pkg pkg, Repository repository) {
-        Preconditions.checkNotNull(context);
-        Preconditions.checkNotNull(pkg);
-
-        // haul all of the pkg versions into memory first.
-
-        List<PkgVersion> pkgVersions = PkgVersion.getForPkg(context, pkg, repository, false); // active only
-
-        if(!pkgVersions.isEmpty()) {
-
-            final VersionCoordinatesComparator versionCoordinatesComparator = new VersionCoordinatesComparator();
-
-            // convert the package versions into coordinates and sort those.
-
-            List<VersionCoordinates> versionCoordinates = pkgVersions
-                    .stream()
-                    .map(pv -> pv.toVersionCoordinates().toVersionCoordinatesWithoutPreReleaseOrRevision())
-                    .distinct()
-                    .sorted(versionCoordinatesComparator)
-                    .collect(Collectors.toList());
-
-            // work back VERSIONS_BACK from the latest in order to find out where to start fishing out user
-            // ratings from.
-
-            final VersionCoordinates oldestVersionCoordinates;
-
-            if (versionCoordinates.size() < userRatingDerivationVersionsBack + 1) {
-                oldestVersionCoordinates = versionCoordinates.get(0);
+    private Table<Long, Long, UserRatingDerivationAccumulator> deriveUserRatings(
+            Connection connection,
+            Collection<Long> pkgIds) throws SQLException {
+        Table<Long, Long, UserRatingDerivationAccumulator> result = HashBasedTable.create();
+
+        try (PreparedStatement statement = prepareStatement(connection, STATEMENT_PKG_VERSIONS, pkgIds);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                getOrCreateAccumulator(result, resultSet.getLong(1), resultSet.getLong(2))
+                        .addVersion(new VersionCoordinates(
+                                resultSet.getString(3),
+                                resultSet.getString(4),
+                                resultSet.getString(5),
+                                null,
+                                null));
             }
-            else {
-                oldestVersionCoordinates = versionCoordinates.get(versionCoordinates.size()-(userRatingDerivationVersionsBack +1));
+        }
+
+        try (PreparedStatement statement = prepareStatement(connection, STATEMENT_USER_RATINGS, pkgIds)) {
+            statement.setFetchSize(FETCH_SIZE_USER_RATINGS);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    short rating = resultSet.getShort(11);
+                    getOrCreateAccumulator(result, resultSet.getLong(1), resultSet.getLong(2))
+                            .addUserRating(
+                                    resultSet.getLong(3),
+                                    new VersionCoordinates(
+                                            resultSet.getString(4),
+                                            resultSet.getString(5),
+                                            resultSet.getString(6),
+                                            resultSet.getString(7),
+                                            (Integer) resultSet.getObject(8)),
+                                    resultSet.getTimestamp(9),
+                                    resultSet.getString(10),
+                                    resultSet.wasNull() ? null : rating);
+                }
             }
+        }
 
-            // now we need to find all of the package versions that are including this one or newer.
+        return result;
+    }
 
-            {
-                final VersionCoordinatesComparator mainPartsVersionCoordinatesComparator = new VersionCoordinatesComparator(true);
-                pkgVersions = pkgVersions
-                        .stream()
-                        .filter(pv -> mainPartsVersionCoordinatesComparator.compare(pv.toVersionCoordinates(), oldestVersionCoordinates) >= 0)
-                        .collect(Collectors.toList());
+    private Table<Long, Long, DerivedUserRating> loadStoredUserRatings(
+            Connection connection,
+            Collection<Long> pkgIds) throws SQLException {
+        Table<Long, Long, DerivedUserRating> result = HashBasedTable.create();
+
+        try (PreparedStatement statement = prepareStatement(connection, STATEMENT_USER_RATING_AGGREGATES, pkgIds);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                result.put(
+                        resultSet.getLong(1),
+                        resultSet.getLong(2),
+                        new DerivedUserRating(resultSet.getFloat(3), resultSet.getInt(4)));
             }
+        }
 
-            // only one user rating should taken from each user; the latest one.  Get a list of all of the
-            // people who have rated these versions.
+        return result;
+    }
 
-            List<Short> ratings = new ArrayList<>();
-            List<String> userNicknames = getUserNicknamesWhoHaveRatedPkgVersions(context, pkgVersions);
+    private static UserRatingDerivationAccumulator getOrCreateAccumulator(
+            Table<Long, Long, UserRatingDerivationAccumulator> accumulators,
+            long pkgId,
+            long repositoryId) {
+        UserRatingDerivationAccumulator accumulator = accumulators.get(pkgId, repositoryId);
 
-            for(String nickname : userNicknames) {
-                User user = User.getByNickname(context, nickname);
+        if (null == accumulator) {
+            accumulator = new UserRatingDerivationAccumulator();
+            accumulators.put(pkgId, repositoryId, accumulator);
+        }
 
-                List<UserRating> userRatingsForUser = new ArrayList<>(UserRating.getByUserAndPkgVersions(
-                        context, user, pkgVersions));
+        return accumulator;
+    }
 
-                userRatingsForUser.sort((o1, o2) ->
-                        ComparisonChain.start()
-                                .compare(
-                                        o1.getPkgVersion().toVersionCoordinates(),
-                                        o2.getPkgVersion().toVersionCoordinates(),
-                                        versionCoordinatesComparator)
-                                .compare(o1.getCreateTimestamp(), o2.getCreateTimestamp())
-                                .compare(
-                                        o1.getPkgVersion().getArchitecture().getCode(),
-                                        o2.getPkgVersion().getArchitecture().getCode())
-                                .result());
+    /**
+     * <p>If the package ids are supplied then the statement is restricted to those packages and otherwise
+     * to the active packages.</p>
+     */
 
-                if(!userRatingsForUser.isEmpty()) {
-                    UserRating latestUserRatingForUser = userRatingsForUser.get(userRatingsForUser.size()-1);
+    private static PreparedStatement prepareStatement(
+            Connection connection,
+            String sql,
+            Collection<Long> pkgIds) throws SQLException {
+        if (null == pkgIds) {
+            return connection.prepareStatement(sql + " AND p.active = true");
+        }
 
-                    if(null!=latestUserRatingForUser.getRating()) {
-                        ratings.add(latestUserRatingForUser.getRating());
-                    }
-                }
+        PreparedStatement statement = connection.prepareStatement(sql + " AND p.id = ANY(?)");
+        statement.setArray(1, connection.createArrayOf("bigint", pkgIds.toArray()));
+        return statement;
+    }
 
-            }
+    /**
+     * <p>This method will calculate the user rating for the package.  It may not be possible to generate a
+     * user rating; in which case, an absent {@link Optional} is returned.</p>
+     */
 
-            // now generate an average from those ratings found.
+    Optional<DerivedUserRating> userRatingDerivation(ObjectContext context, Pkg pkg, Repository repository) {
+        Preconditions.checkNotNull(context);
+        Preconditions.checkNotNull(pkg);
+        Preconditions.checkNotNull(repository);
 
-            if(ratings.size() >= userRatingsDerivationMinRatings) {
-                return Optional.of(new DerivedUserRating(
-                    averageAsFloat(ratings),
-                    ratings.size()));
-            }
+        try (Connection connection = dataSource.getConnection()) {
+            return Optional.ofNullable(deriveUserRatings(connection, Collections.singleton(Cayenne.longPKForObject(pkg)))
+                    .get(Cayenne.longPKForObject(pkg), Cayenne.longPKForObject(repository)))
+                    .flatMap(a -> a.derive(userRatingDerivationVersionsBack, userRatingsDerivationMinRatings));
+        }
+        catch (SQLException se) {
+            throw new IllegalStateException("unable to derive the user rating for " + pkg, se);
         }
-
-        return Optional.empty();
     }
 
     @Override
@@ -516,9 +567,7 @@ public class UserRatingServiceImpl implements UserRatingService {
         // no longer possible to find out the package that was attached to the
         // user rating.
 
-        jobService.submit(
-                new UserRatingDerivationJobSpecification(pkgName),
-                JobSnapshot.COALESCE_STATUSES_QUEUED);
+        userRatingDerivationTriggerService.trigger(Collections.singleton(pkgName));
     }
 
 
@@ -543,6 +592,19 @@ public class UserRatingServiceImpl implements UserRatingService {
         int getSampleSize() {
             return sampleSize;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            DerivedUserRating that = (DerivedUserRating) o;
+            return Float.compare(that.rating, rating) == 0 && sampleSize == that.sampleSize;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rating, sampleSize);
+        }
     }
 
 }
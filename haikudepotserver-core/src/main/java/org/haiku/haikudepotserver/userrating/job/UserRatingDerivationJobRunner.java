@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -14,6 +14,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Processes the user rating requests for a package and store them into the
  * package entity.
@@ -38,7 +41,13 @@ public class UserRatingDerivationJobRunner
             userRatingService.updateUserRatingDerivationsForAllPkgs();
         }
         else {
-            userRatingService.updateUserRatingDerivation(job.getPkgName());
+            Set<String> pkgNames = new HashSet<>(job.getPkgNames());
+
+            if (null != job.getPkgName()) {
+                pkgNames.add(job.getPkgName());
+            }
+
+            userRatingService.updateUserRatingDerivations(pkgNames);
         }
     }
 
@@ -1,27 +1,34 @@
 /*
- * Copyright 2014-2016, Andrew Lindesay
+ * Copyright 2014-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.haikudepotserver.userrating.model;
 
+import com.google.common.collect.ImmutableSortedSet;
 import org.flywaydb.core.internal.util.ObjectUtils;
 import org.haiku.haikudepotserver.job.model.AbstractJobSpecification;
 import org.haiku.haikudepotserver.job.model.JobSpecification;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * <p>An instance of this job can be submitted in order to get the
  * aggregated user rating re-calculated for the package.  It is possible that the job can also be configured
- * such that the derivation is undertaken not for just one package, but for every package in the system.</p>
+ * such that the derivation is undertaken not for just one package, but for a number of packages or for
+ * every package in the system.</p>
  */
 
 public class UserRatingDerivationJobSpecification extends AbstractJobSpecification {
 
     private String pkgName;
 
+    private Set<String> pkgNames;
+
     public UserRatingDerivationJobSpecification() {
     }
 
@@ -30,6 +37,11 @@ public class UserRatingDerivationJobSpecification extends AbstractJobSpecificati
         this.pkgName = pkgName;
     }
 
+    public UserRatingDerivationJobSpecification(Collection<String> pkgNames) {
+        super();
+        setPkgNames(pkgNames);
+    }
+
     public String getPkgName() {
         return pkgName;
     }
@@ -38,19 +50,28 @@ public class UserRatingDerivationJobSpecification extends AbstractJobSpecificati
         this.pkgName = value;
     }
 
+    public Set<String> getPkgNames() {
+        return null == pkgNames ? Collections.emptySet() : pkgNames;
+    }
+
+    public void setPkgNames(Collection<String> value) {
+        this.pkgNames = null == value ? null : ImmutableSortedSet.copyOf(value);
+    }
+
     public Optional<Long> tryGetTimeToLiveMillis() {
         return Optional.of(TimeUnit.MILLISECONDS.convert(120, TimeUnit.SECONDS)); // only stay around for a short while
     }
 
     public boolean appliesToAllPkgs() {
-        return null==getPkgName();
+        return null==getPkgName() && getPkgNames().isEmpty();
     }
 
     @Override
     public boolean isEquivalent(JobSpecification other) {
         if(super.isEquivalent(other)) {
             UserRatingDerivationJobSpecification other2 = (UserRatingDerivationJobSpecification) other;
-            return ObjectUtils.nullSafeEquals(other2.getPkgName(), getPkgName());
+            return ObjectUtils.nullSafeEquals(other2.getPkgName(), getPkgName())
+                    && other2.getPkgNames().equals(getPkgNames());
         }
 
         return false;
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.userrating.model;
+
+import java.util.Collection;
+
+/**
+ * <p>Changes to user ratings often arrive in bursts.  Rather than submitting a job to derive the user rating
+ * for each change, this service gathers up the names of the affected packages for a short time and then
+ * submits a single job to derive the user ratings for all of them.</p>
+ */
+
+public interface UserRatingDerivationTriggerService {
+
+    /**
+     * <p>Records that the user ratings for the supplied packages should be derived.  This method will not
+     * block on the job service.</p>
+     */
+
+    void trigger(Collection<String> pkgNames);
+
+    /**
+     * <p>Submits a job for any packages that are waiting to have their user ratings derived.</p>
+     */
+
+    void flush();
+
+    /**
+     * <p>Returns the quantity of packages that are waiting to have their user ratings derived.</p>
+     */
+
+    int getPendingPkgs();
+
+}
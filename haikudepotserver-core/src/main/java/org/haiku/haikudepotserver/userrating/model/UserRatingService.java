@@ -1,5 +1,5 @@
 /*
- * Copyright 2016, Andrew Lindesay
+ * Copyright 2016-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -10,6 +10,7 @@ import org.haiku.haikudepotserver.dataobjects.User;
 import org.haiku.haikudepotserver.dataobjects.UserRating;
 import org.haiku.haikudepotserver.support.StoppableConsumer;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -50,6 +51,12 @@ public interface UserRatingService {
 
     void updateUserRatingDerivation(String pkgName);
 
+    /**
+     * <p>This method will update the user rating aggregates for all of the supplied packages together.</p>
+     */
+
+    void updateUserRatingDerivations(Collection<String> pkgNames);
+
     /**
      * <p>This method will delete the {@link UserRating}.</p>
      */
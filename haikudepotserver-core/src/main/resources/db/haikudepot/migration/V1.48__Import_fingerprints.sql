@@ -0,0 +1,4 @@
+-- fingerprints allow the repository import to skip work where the data has not changed.
+
+ALTER TABLE haikudepot.repository_source ADD COLUMN last_import_hpkr_sha256 VARCHAR(64);
+ALTER TABLE haikudepot.pkg_version ADD COLUMN import_fingerprint VARCHAR(64);
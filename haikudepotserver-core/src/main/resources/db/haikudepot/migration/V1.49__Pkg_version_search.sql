@@ -0,0 +1,88 @@
+-- the search on packages matches the expression against the name, title and
+-- summary of the latest package versions.  This table holds that text for
+-- each natural language that has a localization so that the search is able
+-- to use an index rather than scanning every package version.  The data in
+-- this table is derived and is maintained by the application.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm WITH SCHEMA public;
+
+-- each natural language is associated with the Postgres text search
+-- configuration that is used to stem words in that language.
+
+ALTER TABLE haikudepot.natural_language ADD COLUMN text_search_config VARCHAR(64) NOT NULL DEFAULT 'simple';
+
+UPDATE haikudepot.natural_language SET text_search_config = 'danish' WHERE code = 'da';
+UPDATE haikudepot.natural_language SET text_search_config = 'dutch' WHERE code = 'nl';
+UPDATE haikudepot.natural_language SET text_search_config = 'english' WHERE code = 'en';
+UPDATE haikudepot.natural_language SET text_search_config = 'finnish' WHERE code = 'fi';
+UPDATE haikudepot.natural_language SET text_search_config = 'french' WHERE code = 'fr';
+UPDATE haikudepot.natural_language SET text_search_config = 'german' WHERE code = 'de';
+UPDATE haikudepot.natural_language SET text_search_config = 'hungarian' WHERE code = 'hu';
+UPDATE haikudepot.natural_language SET text_search_config = 'italian' WHERE code = 'it';
+UPDATE haikudepot.natural_language SET text_search_config = 'norwegian' WHERE code IN ('no', 'nb', 'nn');
+UPDATE haikudepot.natural_language SET text_search_config = 'portuguese' WHERE code = 'pt';
+UPDATE haikudepot.natural_language SET text_search_config = 'romanian' WHERE code = 'ro';
+UPDATE haikudepot.natural_language SET text_search_config = 'russian' WHERE code = 'ru';
+UPDATE haikudepot.natural_language SET text_search_config = 'spanish' WHERE code = 'es';
+UPDATE haikudepot.natural_language SET text_search_config = 'swedish' WHERE code = 'sv';
+UPDATE haikudepot.natural_language SET text_search_config = 'turkish' WHERE code = 'tr';
+
+-- the search text is the lower-case name, title and summary separated by new
+-- lines so that a match is not able to span the values.
+
+CREATE TABLE haikudepot.pkg_version_search (
+  pkg_version_id BIGINT NOT NULL,
+  natural_language_id BIGINT NOT NULL,
+  search_text VARCHAR(65535) NOT NULL,
+  search_vector TSVECTOR NOT NULL,
+  PRIMARY KEY (pkg_version_id, natural_language_id)
+);
+
+ALTER TABLE haikudepot.pkg_version_search
+  ADD FOREIGN KEY (pkg_version_id)
+    REFERENCES haikudepot.pkg_version (id)
+    DEFERRABLE INITIALLY DEFERRED;
+
+ALTER TABLE haikudepot.pkg_version_search
+  ADD FOREIGN KEY (natural_language_id)
+    REFERENCES haikudepot.natural_language (id)
+    DEFERRABLE INITIALLY DEFERRED;
+
+CREATE INDEX pkg_version_search_idx01 ON
+  haikudepot.pkg_version_search USING GIN (search_text public.gin_trgm_ops);
+
+CREATE INDEX pkg_version_search_idx02 ON
+  haikudepot.pkg_version_search USING GIN (search_vector);
+
+-- populate the search data for the existing packages; this is the same as the
+-- statement that is used by the application to maintain the data.
+
+INSERT INTO haikudepot.pkg_version_search (
+  pkg_version_id, natural_language_id, search_text, search_vector)
+SELECT
+  x.pkg_version_id,
+  x.natural_language_id,
+  LOWER(CONCAT_WS(E'\n', x.name, x.title, x.summary)),
+  SETWEIGHT(TO_TSVECTOR('simple', x.name), 'A')
+    || SETWEIGHT(TO_TSVECTOR(x.text_search_config, COALESCE(x.title, '')), 'A')
+    || SETWEIGHT(TO_TSVECTOR(x.text_search_config, COALESCE(x.summary, '')), 'B')
+FROM (
+  SELECT
+    pv.id AS pkg_version_id,
+    nl.id AS natural_language_id,
+    CAST(nl.text_search_config AS REGCONFIG) AS text_search_config,
+    p.name AS name,
+    COALESCE(pvl_title_lc.content, pl.title) AS title,
+    COALESCE(pvl_summary_lc.content, pl.summary) AS summary
+  FROM haikudepot.pkg_version pv
+  JOIN haikudepot.pkg p ON p.id = pv.pkg_id
+  CROSS JOIN haikudepot.natural_language nl
+  LEFT JOIN haikudepot.pkg_localization pl ON pl.pkg_supplement_id = p.pkg_supplement_id
+    AND pl.natural_language_id = nl.id
+  LEFT JOIN haikudepot.pkg_version_localization pvl ON pvl.pkg_version_id = pv.id
+    AND pvl.natural_language_id = nl.id
+  LEFT JOIN haikudepot.localization_content pvl_title_lc ON pvl_title_lc.id = pvl.title_localization_content_id
+  LEFT JOIN haikudepot.localization_content pvl_summary_lc ON pvl_summary_lc.id = pvl.summary_localization_content_id
+  WHERE pv.is_latest = true
+  AND (pl.id IS NOT NULL OR pvl.id IS NOT NULL OR nl.code = 'en')
+) x;
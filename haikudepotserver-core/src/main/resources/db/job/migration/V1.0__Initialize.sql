@@ -0,0 +1,47 @@
+-- ------------------------------------------------------
+-- SETUP JOB SCHEMA OBJECTS
+-- ------------------------------------------------------
+
+-- Flyway will take care of this.
+-- CREATE SCHEMA job;
+
+-- These tables store the state of jobs and their data so that they
+-- survive a restart of the application server.  The job specification
+-- is stored as JSON together with the name of the class that it came
+-- from.
+
+CREATE TABLE job.job (
+  id BIGINT NOT NULL,
+  guid VARCHAR(64) NOT NULL,
+  job_type_code VARCHAR(255) NOT NULL,
+  owner_user_nickname VARCHAR(32),
+  specification_class_name VARCHAR(1024) NOT NULL,
+  specification_json TEXT NOT NULL,
+  queued_timestamp TIMESTAMP,
+  start_timestamp TIMESTAMP,
+  finish_timestamp TIMESTAMP,
+  fail_timestamp TIMESTAMP,
+  cancel_timestamp TIMESTAMP,
+  progress_percent INTEGER,
+  create_timestamp TIMESTAMP NOT NULL,
+  modify_timestamp TIMESTAMP NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE UNIQUE INDEX job_idx01 ON job.job(guid);
+CREATE SEQUENCE job.job_seq START WITH 1000 INCREMENT BY 10;
+
+CREATE TABLE job.job_data (
+  id BIGINT NOT NULL,
+  guid VARCHAR(64) NOT NULL,
+  job_guid VARCHAR(64),
+  data_type VARCHAR(32) NOT NULL,
+  use_code VARCHAR(255),
+  media_type_code VARCHAR(255),
+  create_timestamp TIMESTAMP NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE UNIQUE INDEX job_data_idx01 ON job.job_data(guid);
+CREATE INDEX job_data_idx02 ON job.job_data(job_guid);
+CREATE SEQUENCE job.job_data_seq START WITH 1000 INCREMENT BY 10;
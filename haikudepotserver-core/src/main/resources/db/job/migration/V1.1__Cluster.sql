@@ -0,0 +1,13 @@
+-- ------------------------------------------------------
+-- ALLOW NODES TO SHARE THE JOBS
+-- ------------------------------------------------------
+
+-- A node claims a queued job by setting the node name.  While a node is
+-- running claimed jobs it will update the heartbeat timestamp so that
+-- the jobs of a node that has disappeared can be detected.
+
+ALTER TABLE job.job ADD COLUMN node_name VARCHAR(255);
+ALTER TABLE job.job ADD COLUMN heartbeat_timestamp TIMESTAMP;
+
+CREATE INDEX job_idx02 ON job.job(queued_timestamp)
+  WHERE node_name IS NULL AND start_timestamp IS NULL;
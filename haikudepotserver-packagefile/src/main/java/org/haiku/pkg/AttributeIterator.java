@@ -8,8 +8,6 @@ package org.haiku.pkg;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
 import org.haiku.pkg.heap.HeapCoordinates;
 import org.haiku.pkg.model.*;
 
@@ -53,7 +51,11 @@ public class AttributeIterator {
 
     private AttributeContext context;
 
-    private BigInteger nextTag = null;
+    /**
+     * <p>A value of -1 indicates that the next tag has not yet been read.</p>
+     */
+
+    private long nextTag = -1;
 
     AttributeIterator(AttributeContext context, long offset) {
         super();
@@ -78,7 +80,7 @@ public class AttributeIterator {
      */
 
     public boolean hasNext() {
-        return 0 != getNextTag().signum();
+        return 0 != getNextTag();
     }
 
     /**
@@ -94,16 +96,16 @@ public class AttributeIterator {
         // first, the LEB128 has to be read in which is the 'tag' defining what sort of attribute this is that
         // we are dealing with.
 
-        BigInteger tag = getNextTag();
+        long tag = getNextTag();
 
         // if we encounter 0 tag then we know that we have finished the list.
 
-        if (0 != tag.signum()) {
+        if (0 != tag) {
 
             int encoding = deriveAttributeTagEncoding(tag);
             int id = deriveAttributeTagId(tag);
 
-            if (id <= 0 || id >= AttributeId.values().length) {
+            if (id < 0 || id >= AttributeId.values().length) {
                 throw new HpkException("illegal id; " + id);
             }
             AttributeId attributeId = AttributeId.values()[id];
@@ -126,7 +128,7 @@ public class AttributeIterator {
                 result.setChildAttributes(readChildAttributes());
             }
 
-            nextTag = null;
+            nextTag = -1;
         }
 
         return result;
@@ -198,33 +200,40 @@ public class AttributeIterator {
     }
 
     private Attribute readStringTable(AttributeId attributeId) {
-        BigInteger index = readUnsignedLeb128();
+        long index = readUnsignedLeb128();
 
-        if (index.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
+        if (index > Integer.MAX_VALUE) {
             throw new IllegalStateException("the string table index is preposterously large");
         }
 
-        return new StringTableRefAttribute(attributeId,index.intValue());
+        return new StringTableRefAttribute(attributeId, (int) index);
     }
 
+    /**
+     * <p>The inline string is terminated with a NUL byte.  Rather than assembling the string a
+     * byte at a time, the terminator is located first and then the string's bytes are read in
+     * bulk.</p>
+     */
+
     private Attribute readStringInline(AttributeId attributeId) {
-        ByteArrayDataOutput assembly = ByteStreams.newDataOutput();
+        long terminatorOffset = context.getHeapReader().indexOf(offset, 0);
 
-        while (true) {
-            int b = context.getHeapReader().readHeap(offset);
-            offset++;
+        if (-1 == terminatorOffset) {
+            throw new HpkException("unterminated inline string at offset " + offset);
+        }
 
-            if (0 != b) {
-                assembly.write(b);
-            }
-            else {
-                return new StringInlineAttribute(
-                        attributeId,
-                        new String(
-                                assembly.toByteArray(),
-                                Charsets.UTF_8));
-            }
+        int length = (int) (terminatorOffset - offset);
+        String value = "";
+
+        if (0 != length) {
+            byte[] buffer = new byte[length];
+            context.getHeapReader().readHeap(buffer, 0, new HeapCoordinates(offset, length));
+            value = new String(buffer, Charsets.UTF_8);
         }
+
+        offset = terminatorOffset + 1;
+
+        return new StringInlineAttribute(attributeId, value);
     }
 
     private Attribute readRaw(int encoding, AttributeId attributeId) {
@@ -239,64 +248,103 @@ public class AttributeIterator {
     }
 
     private Attribute readRawInline(AttributeId attributeId) {
-        BigInteger length = readUnsignedLeb128();
+        long length = readUnsignedLeb128();
 
-        if(length.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
+        if (length > Integer.MAX_VALUE) {
             throw new HpkException("the length of the inline data is too large");
         }
 
-        byte[] buffer = new byte[length.intValue()];
-        context.getHeapReader().readHeap(buffer, 0, new HeapCoordinates(offset,length.intValue()));
-        offset += length.intValue();
+        byte[] buffer = new byte[(int) length];
+
+        if (0 != length) {
+            context.getHeapReader().readHeap(buffer, 0, new HeapCoordinates(offset, length));
+        }
+
+        offset += length;
 
         return new RawInlineAttribute(attributeId, buffer);
     }
 
     private Attribute readRawHeap(AttributeId attributeId) {
-        BigInteger rawLength = readUnsignedLeb128();
-        BigInteger rawOffset = readUnsignedLeb128();
+        long rawLength = readUnsignedLeb128();
+        long rawOffset = readUnsignedLeb128();
 
-        if (rawLength.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
+        if (rawLength > Integer.MAX_VALUE) {
             throw new HpkException("the length of the heap data is too large");
         }
 
-        if (rawOffset.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
+        if (rawOffset > Integer.MAX_VALUE) {
             throw new HpkException("the offset of the heap data is too large");
         }
 
         return new RawHeapAttribute(
                 attributeId,
-                new HeapCoordinates(
-                        rawOffset.longValue(),
-                        rawLength.longValue()));
+                new HeapCoordinates(rawOffset, rawLength));
     }
 
 
-    private int deriveAttributeTagType(BigInteger tag) {
-        return tag.subtract(BigInteger.ONE).shiftRight(7).and(BigInteger.valueOf(0x7L)).intValue();
+    private int deriveAttributeTagType(long tag) {
+        return (int) (((tag - 1) >>> 7) & 0x7L);
     }
 
-    private int deriveAttributeTagId(BigInteger tag) {
-        return tag.subtract(BigInteger.ONE).and(BigInteger.valueOf(0x7FL)).intValue();
+    private int deriveAttributeTagId(long tag) {
+        return (int) ((tag - 1) & 0x7FL);
     }
 
-    private int deriveAttributeTagEncoding(BigInteger tag) {
-        return tag.subtract(BigInteger.ONE).shiftRight(11).and(BigInteger.valueOf(3L)).intValue();
+    private int deriveAttributeTagEncoding(long tag) {
+        return (int) (((tag - 1) >>> 11) & 0x3L);
     }
 
-    private boolean deriveAttributeTagHasChildAttributes(BigInteger tag) {
-        return 0!=tag.subtract(BigInteger.valueOf(1L)).shiftRight(10).and(BigInteger.ONE).intValue();
+    private boolean deriveAttributeTagHasChildAttributes(long tag) {
+        return 0 != (((tag - 1) >>> 10) & 0x1L);
     }
 
-    private BigInteger getNextTag() {
-        if (null == nextTag) {
+    private long getNextTag() {
+        if (-1 == nextTag) {
             nextTag = readUnsignedLeb128();
         }
 
         return nextTag;
     }
 
-    private BigInteger readUnsignedLeb128() {
+    /**
+     * <p>Reads an unsigned LEB128 value into a <code>long</code>.  None of the values in the
+     * attributes are expected to be large enough to exceed a signed <code>long</code> so, if the
+     * value does not fit, the value is decoded again as a {@link BigInteger} in order to report
+     * the problem and an {@link HpkException} is thrown.</p>
+     */
+
+    private long readUnsignedLeb128() {
+        long startOffset = offset;
+        long result = 0L;
+        int shift = 0;
+
+        while (true) {
+            int b = context.getHeapReader().readHeap(offset);
+            offset++;
+
+            long bits = b & 0x7f;
+
+            // beyond a shift of 56, any more bits would not fit into a signed long.
+
+            if (shift > 56 && 0 != bits) {
+                offset = startOffset;
+                throw new HpkException("the unsigned leb128 value ["
+                        + readUnsignedLeb128BigInteger() + "] at offset "
+                        + startOffset + " is too large");
+            }
+
+            result |= bits << shift;
+
+            if (0 == (b & 0x80)) {
+                return result;
+            }
+
+            shift += 7;
+        }
+    }
+
+    private BigInteger readUnsignedLeb128BigInteger() {
         BigInteger result = BigInteger.valueOf(0L);
         int shift = 0;
 
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.haiku.pkg.heap.HeapCodecs;
+import org.haiku.pkg.heap.HeapCompression;
+import org.haiku.pkg.heap.HeapCoordinates;
+import org.haiku.pkg.heap.HpkHeapReader;
+import org.haiku.pkg.model.Attribute;
+import org.haiku.pkg.model.AttributeId;
+import org.haiku.pkg.model.Pkg;
+import org.haiku.pkg.model.RawHeapAttribute;
+import org.haiku.pkg.model.StringInlineAttribute;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <p>This object represents an object that can extract an Hpkg (Haiku Pkg) file; a single package.  It
+ * is able to read the package attributes (the metadata of the package) as well as the TOC (table of
+ * contents) which describes the files in the package.  The data of a single file can be streamed out
+ * of the package; only the chunks of the heap that contain the file's data are decompressed.</p>
+ *
+ * <p>The heap has the TOC and then the package attributes at the end.  Each of these sections starts
+ * with its own string table which is followed by the attributes.</p>
+ */
+
+public class HpkgFileExtractor implements Closeable {
+
+    private File file;
+
+    private HpkgHeader header;
+
+    private HpkHeapReader heapReader;
+
+    private HpkStringTable tocStringTable;
+
+    private HpkStringTable packageAttributesStringTable;
+
+    public HpkgFileExtractor(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param memoryMapped if true then the heap of the file will be memory-mapped rather than
+     *                     read with seek and read operations.
+     */
+
+    public HpkgFileExtractor(File file, boolean memoryMapped) throws IOException {
+
+        super();
+        Preconditions.checkNotNull(file);
+        Preconditions.checkState(file.isFile() && file.exists(), "the file does not exist or is not a file");
+
+        this.file = file;
+        this.header = readHeader();
+
+        try {
+            heapReader = new HpkHeapReader(
+                    file,
+                    header.getHeapCompression(),
+                    header.getHeaderSize(),
+                    header.getHeapChunkSize(), // uncompressed size
+                    header.getHeapSizeCompressed(), // including the compressed chunk lengths.
+                    header.getHeapSizeUncompressed(), // excludes the compressed chunk lengths.
+                    memoryMapped
+            );
+
+            tocStringTable = new HpkStringTable(
+                    heapReader,
+                    getTocOffset(),
+                    header.getTocStringsLength(),
+                    header.getTocStringsCount());
+
+            packageAttributesStringTable = new HpkStringTable(
+                    heapReader,
+                    getPackageAttributesOffset(),
+                    header.getAttributesStringsLength(),
+                    header.getAttributesStringsCount());
+        }
+        catch (Exception e) {
+            close();
+            throw new HpkException("unable to setup the hpkg file extractor",e);
+        }
+        catch (Throwable th) {
+            close();
+            throw new RuntimeException("unable to setup the hpkg file extractor",th);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (null != heapReader) {
+            heapReader.close();
+        }
+    }
+
+    public HpkgHeader getHeader() {
+        return header;
+    }
+
+    private long getPackageAttributesOffset() {
+        return header.getHeapSizeUncompressed() - header.getAttributesLength();
+    }
+
+    private long getTocOffset() {
+        return getPackageAttributesOffset() - header.getTocLength();
+    }
+
+    public AttributeContext getPackageAttributeContext() {
+        AttributeContext context = new AttributeContext();
+        context.setHeapReader(heapReader);
+        context.setStringTable(packageAttributesStringTable);
+        return context;
+    }
+
+    public AttributeIterator getPackageAttributesIterator() {
+        long offset = getPackageAttributesOffset() + header.getAttributesStringsLength();
+        return new AttributeIterator(getPackageAttributeContext(), offset);
+    }
+
+    public AttributeContext getTocContext() {
+        AttributeContext context = new AttributeContext();
+        context.setHeapReader(heapReader);
+        context.setStringTable(tocStringTable);
+        return context;
+    }
+
+    public AttributeIterator getTocIterator() {
+        long offset = getTocOffset() + header.getTocStringsLength();
+        return new AttributeIterator(getTocContext(), offset);
+    }
+
+    /**
+     * <p>In an HPKG file, the package attributes are not contained in a &quot;package&quot; attribute
+     * as they are in an HPKR file.  In order to make use of the same modelling logic, the top-level
+     * attributes are gathered under a synthetic &quot;package&quot; attribute.</p>
+     */
+
+    public Pkg getPkg() {
+        AttributeContext context = getPackageAttributeContext();
+        AttributeIterator attributeIterator = getPackageAttributesIterator();
+        ImmutableList.Builder<Attribute> attributesBuilder = ImmutableList.builder();
+
+        while (attributeIterator.hasNext()) {
+            attributesBuilder.add(attributeIterator.next());
+        }
+
+        List<Attribute> attributes = attributesBuilder.build();
+        String name = attributes.stream()
+                .filter(a -> AttributeId.PACKAGE_NAME == a.getAttributeId())
+                .map(a -> a.getValue(context).toString())
+                .findFirst()
+                .orElseThrow(() -> new PkgException("the package name attribute must be present"));
+
+        Attribute pkgAttribute = new StringInlineAttribute(AttributeId.PACKAGE, name);
+        pkgAttribute.setChildAttributes(attributes);
+        return new PkgFactory().createPackage(context, pkgAttribute);
+    }
+
+    /**
+     * <p>Looks up the directory entry in the TOC for the supplied path such as
+     * <code>data/deskbar/menu/Applications/Foo</code>.  Only the top-level entries of the TOC are
+     * read until the first element of the path is found.</p>
+     */
+
+    public Optional<Attribute> tryGetTocEntry(String path) {
+        Preconditions.checkArgument(null != path && !path.isEmpty(), "the path must be supplied");
+        AttributeContext context = getTocContext();
+        AttributeIterator attributeIterator = getTocIterator();
+        List<String> names = Splitter.on('/').omitEmptyStrings().splitToList(path);
+
+        if (names.isEmpty()) {
+            return Optional.empty();
+        }
+
+        while (attributeIterator.hasNext()) {
+            Attribute attribute = attributeIterator.next();
+
+            if (AttributeId.DIRECTORY_ENTRY == attribute.getAttributeId()
+                    && names.get(0).equals(attribute.getValue(context))) {
+                return tryGetTocEntry(context, attribute, names.subList(1, names.size()));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private Optional<Attribute> tryGetTocEntry(AttributeContext context, Attribute entry, List<String> names) {
+        if (names.isEmpty()) {
+            return Optional.of(entry);
+        }
+
+        return entry.getChildAttributes(AttributeId.DIRECTORY_ENTRY)
+                .stream()
+                .filter(a -> names.get(0).equals(a.getValue(context)))
+                .findFirst()
+                .flatMap(a -> tryGetTocEntry(context, a, names.subList(1, names.size())));
+    }
+
+    /**
+     * <p>Looks up a file attribute such as <code>BEOS:ICON</code> on a TOC entry.</p>
+     */
+
+    public Optional<Attribute> tryGetFileAttribute(Attribute entry, String name) {
+        Preconditions.checkArgument(null != entry, "the entry must be supplied");
+        Preconditions.checkArgument(null != name, "the name must be supplied");
+        AttributeContext context = getTocContext();
+        return entry.getChildAttributes(AttributeId.FILE_ATTRIBUTE)
+                .stream()
+                .filter(a -> name.equals(a.getValue(context)))
+                .findFirst();
+    }
+
+    /**
+     * <p>Writes the data of the supplied TOC entry or file attribute to the output stream.  Data
+     * that is stored in the heap is copied a chunk at a time so that the whole of the data does
+     * not need to be held in memory.</p>
+     */
+
+    public void writeData(Attribute entryOrFileAttribute, OutputStream outputStream) throws IOException {
+        Preconditions.checkArgument(null != entryOrFileAttribute, "the entry or file attribute must be supplied");
+        Preconditions.checkArgument(null != outputStream, "the output stream must be supplied");
+
+        Optional<Attribute> dataAttributeOptional = entryOrFileAttribute.tryGetChildAttribute(AttributeId.DATA);
+
+        if (dataAttributeOptional.isPresent()) {
+            Attribute dataAttribute = dataAttributeOptional.get();
+
+            if (dataAttribute instanceof RawHeapAttribute) {
+                HeapCoordinates coordinates = ((RawHeapAttribute) dataAttribute).getHeapCoordinates();
+                byte[] buffer = new byte[(int) Math.min(header.getHeapChunkSize(), coordinates.getLength())];
+                long offset = coordinates.getOffset();
+                long remaining = coordinates.getLength();
+
+                while (remaining > 0) {
+                    int length = (int) Math.min(buffer.length, remaining);
+                    heapReader.readHeap(buffer, 0, new HeapCoordinates(offset, length));
+                    outputStream.write(buffer, 0, length);
+                    offset += length;
+                    remaining -= length;
+                }
+            }
+            else {
+                outputStream.write((byte[]) dataAttribute.getValue(getTocContext()));
+            }
+        }
+    }
+
+    private HpkgHeader readHeader() throws IOException {
+        Preconditions.checkNotNull(file);
+
+        RandomAccessFile randomAccessFile = null;
+        FileHelper fileHelper = new FileHelper();
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+
+            if (!Arrays.equals(new char[] {'h', 'p', 'k', 'g'}, fileHelper.readMagic(randomAccessFile))) {
+                throw new HpkException("magic incorrect at the start of the hpkg file");
+            }
+
+            HpkgHeader result = new HpkgHeader();
+
+            result.setHeaderSize(fileHelper.readUnsignedShortToInt(randomAccessFile));
+            result.setVersion(fileHelper.readUnsignedShortToInt(randomAccessFile));
+            result.setTotalSize(fileHelper.readUnsignedLongToLong(randomAccessFile));
+            result.setMinorVersion(fileHelper.readUnsignedShortToInt(randomAccessFile));
+
+            int compression = fileHelper.readUnsignedShortToInt(randomAccessFile);
+
+            // heap information
+            try {
+                result.setHeapCompression(HeapCompression.getByCode(compression));
+            }
+            catch (IllegalArgumentException iae) {
+                throw new HpkException("unknown compression setting in header; "+compression);
+            }
+
+            if (!HeapCodecs.isSupported(result.getHeapCompression())) {
+                throw new HpkException("the compression [" + result.getHeapCompression()
+                        + "] of the heap is not supported; a codec may need to be added to the classpath");
+            }
+
+            result.setHeapChunkSize(fileHelper.readUnsignedIntToLong(randomAccessFile));
+            result.setHeapSizeCompressed(fileHelper.readUnsignedLongToLong(randomAccessFile));
+            result.setHeapSizeUncompressed(fileHelper.readUnsignedLongToLong(randomAccessFile));
+
+            // package attributes section
+            result.setAttributesLength(fileHelper.readUnsignedIntToLong(randomAccessFile));
+            result.setAttributesStringsLength(fileHelper.readUnsignedIntToLong(randomAccessFile));
+            result.setAttributesStringsCount(fileHelper.readUnsignedIntToLong(randomAccessFile));
+            randomAccessFile.skipBytes(4); // reserved
+
+            // toc section
+            result.setTocLength(fileHelper.readUnsignedLongToLong(randomAccessFile));
+            result.setTocStringsLength(fileHelper.readUnsignedLongToLong(randomAccessFile));
+            result.setTocStringsCount(fileHelper.readUnsignedLongToLong(randomAccessFile));
+
+            return result;
+        } finally {
+            if (null != randomAccessFile) {
+                try {
+                    randomAccessFile.close();
+                }
+                catch(IOException ioe) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+}
@@ -1,11 +1,12 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.pkg;
 
 import com.google.common.base.Preconditions;
+import org.haiku.pkg.heap.HeapCodecs;
 import org.haiku.pkg.heap.HpkHeapReader;
 import org.haiku.pkg.heap.HeapCompression;
 
@@ -32,6 +33,15 @@ public class HpkrFileExtractor implements Closeable {
     private HpkStringTable attributesStringTable;
 
     public HpkrFileExtractor(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param memoryMapped if true then the heap of the file will be memory-mapped rather than
+     *                     read with seek and read operations.
+     */
+
+    public HpkrFileExtractor(File file, boolean memoryMapped) throws IOException {
 
         super();
         Preconditions.checkNotNull(file);
@@ -47,7 +57,8 @@ public class HpkrFileExtractor implements Closeable {
                     header.getHeaderSize(),
                     header.getHeapChunkSize(), // uncompressed size
                     header.getHeapSizeCompressed(), // including the compressed chunk lengths.
-                    header.getHeapSizeUncompressed() // excludes the compressed chunk lengths.
+                    header.getHeapSizeUncompressed(), // excludes the compressed chunk lengths.
+                    memoryMapped
             );
 
             attributesStringTable = new HpkStringTable(
@@ -74,6 +85,10 @@ public class HpkrFileExtractor implements Closeable {
         }
     }
 
+    public HpkrHeader getHeader() {
+        return header;
+    }
+
     public AttributeContext getAttributeContext() {
         AttributeContext context = new AttributeContext();
         context.setHeapReader(heapReader);
@@ -109,17 +124,16 @@ public class HpkrFileExtractor implements Closeable {
             int compression = fileHelper.readUnsignedShortToInt(randomAccessFile);
 
             // heap information
-            switch (compression) {
-                case 0:
-                    result.setHeapCompression(HeapCompression.NONE);
-                    break;
-
-                case 1:
-                    result.setHeapCompression(HeapCompression.ZLIB);
-                    break;
+            try {
+                result.setHeapCompression(HeapCompression.getByCode(compression));
+            }
+            catch (IllegalArgumentException iae) {
+                throw new HpkException("unknown compression setting in header; "+compression);
+            }
 
-                default:
-                    throw new HpkException("unknown compression setting in header; "+compression);
+            if (!HeapCodecs.isSupported(result.getHeapCompression())) {
+                throw new HpkException("the compression [" + result.getHeapCompression()
+                        + "] of the heap is not supported; a codec may need to be added to the classpath");
             }
 
             result.setHeapChunkSize(fileHelper.readUnsignedIntToLong(randomAccessFile));
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.heap;
+
+/**
+ * <p>This is a service-provider interface for the decompression of the chunks of a heap.  Each
+ * implementation handles one {@link HeapCompression}.  Implementations are discovered with a
+ * {@link java.util.ServiceLoader} so that a codec can be supplied on the classpath without any
+ * change to this module.  See {@link HeapCodecs} for the lookup.</p>
+ *
+ * <p>The codec itself must be stateless and thread-safe; any state required for decompression
+ * should be held in the {@link HeapDecoder} that it creates.</p>
+ */
+
+public interface HeapCodec {
+
+    HeapCompression getCompression();
+
+    /**
+     * <p>Creates a decoder that will be used by one reader.  The caller is responsible for
+     * closing the decoder when it is no longer required.</p>
+     */
+
+    HeapDecoder createDecoder();
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.heap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import org.haiku.pkg.HpkException;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>Provides access to the {@link HeapCodec}s that are available on the classpath.  The zlib and
+ * zstd codecs are provided by this module; others can be supplied by registering an implementation
+ * of {@link HeapCodec} in <code>META-INF/services</code>.</p>
+ */
+
+public class HeapCodecs {
+
+    private static Map<HeapCompression, HeapCodec> codecs;
+
+    private HeapCodecs() {
+    }
+
+    private static synchronized Map<HeapCompression, HeapCodec> getCodecs() {
+        if (null == codecs) {
+            codecs = ImmutableMap.copyOf(StreamSupport.stream(
+                    ServiceLoader.load(HeapCodec.class, HeapCodecs.class.getClassLoader()).spliterator(),
+                    false)
+                    .collect(Collectors.toMap(
+                            HeapCodec::getCompression,
+                            Function.identity(),
+                            (c1, c2) -> c1)));
+        }
+
+        return codecs;
+    }
+
+    public static boolean isSupported(HeapCompression compression) {
+        Preconditions.checkArgument(null != compression, "the compression must be supplied");
+        return HeapCompression.NONE == compression || getCodecs().containsKey(compression);
+    }
+
+    /**
+     * <p>Returns the codec for the compression or throws an {@link HpkException} if no codec is
+     * available.  There is no codec for {@link HeapCompression#NONE}.</p>
+     */
+
+    public static HeapCodec get(HeapCompression compression) {
+        Preconditions.checkArgument(null != compression, "the compression must be supplied");
+        Preconditions.checkArgument(HeapCompression.NONE != compression, "no codec is required for uncompressed heaps");
+        HeapCodec codec = getCodecs().get(compression);
+
+        if (null == codec) {
+            throw new HpkException("no heap codec is available for the compression [" + compression + "]");
+        }
+
+        return codec;
+    }
+
+}
@@ -1,11 +1,38 @@
 /*
- * Copyright 2013, Andrew Lindesay
+ * Copyright 2013-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.pkg.heap;
 
+import java.util.stream.Stream;
+
+/**
+ * <p>The compression that has been applied to the chunks of a heap.  The code is the value that is
+ * found in the header of the file.  The decompression of the chunks is performed by a
+ * {@link HeapCodec}.</p>
+ */
+
 public enum HeapCompression {
-    NONE,
-    ZLIB
+    NONE(0),
+    ZLIB(1),
+    ZSTD(2);
+
+    private final int code;
+
+    HeapCompression(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static HeapCompression getByCode(int code) {
+        return Stream.of(values())
+                .filter(c -> c.code == code)
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("unknown heap compression code; " + code));
+    }
+
 }
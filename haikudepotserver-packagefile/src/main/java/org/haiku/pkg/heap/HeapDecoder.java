@@ -0,0 +1,33 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.heap;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Created by a {@link HeapCodec}, an instance of this class is able to decompress chunks of a
+ * heap one at a time.  It is expected that the decoder will retain and re-use any buffers or
+ * native resources between chunks.  Instances are not thread-safe.</p>
+ */
+
+public interface HeapDecoder extends Closeable {
+
+    /**
+     * <p>Decompresses all of the remaining data in the input into the output buffer.</p>
+     *
+     * @param input the compressed data of a single chunk.
+     * @param output the buffer into which the uncompressed data is written from the start.
+     * @param outputLength the expected uncompressed length of the chunk.
+     * @return the quantity of bytes that were written into the output.
+     */
+
+    int decode(ByteBuffer input, byte[] output, int outputLength);
+
+    @Override
+    void close();
+
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -27,4 +27,12 @@ public interface HeapReader {
 
     int readHeap(long offset);
 
+    /**
+     * <p>This method will search forward from the supplied offset for the first byte in the heap that
+     * has the supplied value.  It returns the offset of that byte or -1 if the value does not occur
+     * before the end of the heap.</p>
+     */
+
+    long indexOf(long offset, int value);
+
 }
\ No newline at end of file
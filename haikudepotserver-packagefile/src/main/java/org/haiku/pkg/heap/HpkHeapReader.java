@@ -6,9 +6,6 @@
 package org.haiku.pkg.heap;
 
 import com.google.common.base.Preconditions;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import org.haiku.pkg.HpkException;
 import org.haiku.pkg.FileHelper;
 
@@ -16,17 +13,40 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * <P>An instance of this class is able to read the heap's chunks that are in HPK format.  Note
  * that this class will also take responsibility for caching the chunks so that a subsequent
  * read from the same chunk will not require a re-fault from disk.</P>
+ *
+ * <p>The absolute file offsets of the chunks are computed once up-front so that locating a
+ * chunk is a constant-time operation.  The buffers used to hold the uncompressed chunks, the
+ * buffer used to hold the compressed data and the {@link HeapDecoder} are all allocated once
+ * and then re-used for the life of the reader.  This means that streaming through a large
+ * heap runs in linear time with flat allocation.</p>
+ *
+ * <p>The reader may optionally memory-map the heap from the file rather than seeking and
+ * reading.  This avoids copying the compressed data into the Java heap at all.</p>
+ *
+ * <p>The decompression of the chunks is delegated to the {@link HeapCodec} for the heap's
+ * compression.</p>
+ *
+ * <p>Instances of this class are not thread-safe.</p>
  */
 
 public class HpkHeapReader implements Closeable, HeapReader {
 
+    /**
+     * <p>The number of uncompressed chunks that are retained at any one time.  The attributes and
+     * the string table are generally read in a forward direction so only a handful of chunks need
+     * to be held in order to avoid re-inflating chunks.</p>
+     */
+
+    private final static int CHUNK_CACHE_SIZE = 8;
+
     private final HeapCompression compression;
 
     private final long heapOffset;
@@ -37,12 +57,29 @@ public class HpkHeapReader implements Closeable, HeapReader {
 
     private final long uncompressedSize; // excluding the shorts for the chunks' compressed sizes
 
-    private LoadingCache<Integer,byte[]> heapChunkUncompressedCache;
-
     private int[] heapChunkCompressedLengths;
 
+    /**
+     * <p>This is a prefix-sum of the compressed lengths of the chunks such that the element at
+     * <code>i</code> is the absolute file offset of the chunk <code>i</code>.</p>
+     */
+
+    private long[] heapChunkAbsoluteFileOffsets;
+
+    private ChunkSlot[] chunkSlots;
+
+    private ChunkSlot lastChunkSlot;
+
+    private long chunkSlotUseCounter = 0;
+
+    private byte[] compressedBuffer;
+
+    private HeapDecoder decoder;
+
     private RandomAccessFile randomAccessFile;
 
+    private MappedByteBuffer mappedHeap;
+
     private FileHelper fileHelper = new FileHelper();
 
     public HpkHeapReader(
@@ -52,6 +89,22 @@ public class HpkHeapReader implements Closeable, HeapReader {
             final long chunkSize,
             final long compressedSize,
             final long uncompressedSize) {
+        this(file, compression, heapOffset, chunkSize, compressedSize, uncompressedSize, false);
+    }
+
+    /**
+     * @param memoryMapped if true, the heap will be memory-mapped from the file rather than
+     *                     being read with seek and read operations.
+     */
+
+    public HpkHeapReader(
+            final File file,
+            final HeapCompression compression,
+            final long heapOffset,
+            final long chunkSize,
+            final long compressedSize,
+            final long uncompressedSize,
+            final boolean memoryMapped) {
 
         super();
 
@@ -71,23 +124,28 @@ public class HpkHeapReader implements Closeable, HeapReader {
         try {
             randomAccessFile = new RandomAccessFile(file,"r");
 
-            heapChunkCompressedLengths = new int[getHeapChunkCount()];
+            if (memoryMapped) {
+                mappedHeap = randomAccessFile.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, heapOffset, compressedSize);
+            }
+
+            int count = getHeapChunkCount();
+
+            heapChunkCompressedLengths = new int[count];
             populateChunkCompressedLengths(heapChunkCompressedLengths);
 
-            heapChunkUncompressedCache = CacheBuilder
-                    .newBuilder()
-                    .maximumSize(3)
-                    .build(new CacheLoader<Integer, byte[]>() {
-                        @Override
-                        public byte[] load(@SuppressWarnings("NullableProblems") Integer key) throws Exception {
-                            Preconditions.checkNotNull(key);
-
-                            // TODO: best to avoid continuously allocating new byte buffers
-                            byte[] result = new byte[getHeapChunkUncompressedLength(key)];
-                            readHeapChunk(key,result);
-                            return result;
-                        }
-                    });
+            heapChunkAbsoluteFileOffsets = new long[count];
+            populateChunkAbsoluteFileOffsets(heapChunkAbsoluteFileOffsets);
+
+            chunkSlots = new ChunkSlot[Math.min(CHUNK_CACHE_SIZE, count)];
+
+            for (int i = 0; i < chunkSlots.length; i++) {
+                chunkSlots[i] = new ChunkSlot();
+            }
+
+            if (HeapCompression.NONE != compression) {
+                decoder = HeapCodecs.get(compression).createDecoder();
+            }
         }
         catch (Exception e) {
             close();
@@ -102,6 +160,13 @@ public class HpkHeapReader implements Closeable, HeapReader {
 
     @Override
     public void close() {
+        if (null != decoder) {
+            decoder.close();
+            decoder = null;
+        }
+
+        mappedHeap = null;
+
         if (null != randomAccessFile) {
             try {
                 randomAccessFile.close();
@@ -178,31 +243,89 @@ public class HpkHeapReader implements Closeable, HeapReader {
         }
     }
 
+    /**
+     * <p>Once the compressed lengths are known, the absolute offsets of each of the chunks can
+     * be worked out in a single pass.</p>
+     */
+
+    private void populateChunkAbsoluteFileOffsets(long[] offsets) {
+        Preconditions.checkNotNull(offsets);
+
+        long offset = heapOffset; // heap comes after the header.
+
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset;
+            offset += getHeapChunkCompressedLength(i);
+        }
+    }
+
     private boolean isHeapChunkCompressed(int index) {
         return getHeapChunkCompressedLength(index) < getHeapChunkUncompressedLength(index);
     }
 
     private long getHeapChunkAbsoluteFileOffset(int index) {
-        long result = heapOffset; // heap comes after the header.
+        return heapChunkAbsoluteFileOffsets[index];
+    }
+
+    /**
+     * <p>This will return the uncompressed data for the chunk; either from a slot that is
+     * already holding the chunk or by loading the chunk into the least recently used slot.</p>
+     */
+
+    private byte[] getHeapChunkUncompressed(int index) {
+        ChunkSlot slot = lastChunkSlot;
+
+        if (null == slot || slot.index != index) {
+            slot = null;
+            ChunkSlot leastRecentlyUsedSlot = chunkSlots[0];
+
+            for (ChunkSlot chunkSlot : chunkSlots) {
+                if (chunkSlot.index == index) {
+                    slot = chunkSlot;
+                    break;
+                }
+
+                if (chunkSlot.lastUse < leastRecentlyUsedSlot.lastUse) {
+                    leastRecentlyUsedSlot = chunkSlot;
+                }
+            }
 
-        for (int i = 0; i < index; i++) {
-            result += getHeapChunkCompressedLength(i);
+            if (null == slot) {
+                slot = leastRecentlyUsedSlot;
+                slot.index = ChunkSlot.INDEX_NONE;
+
+                if (null == slot.data) {
+                    slot.data = new byte[(int) chunkSize];
+                }
+
+                try {
+                    readHeapChunk(index, slot.data);
+                }
+                catch (IOException ioe) {
+                    throw new HpkException("unable to read heap chunk " + index, ioe);
+                }
+
+                slot.index = index;
+            }
+
+            slot.lastUse = ++chunkSlotUseCounter;
+            lastChunkSlot = slot;
         }
 
-        return result;
+        return slot.data;
     }
 
     /**
-     * <p>This will read from the current offset into the supplied buffer until the supplied buffer is completely
-     * filledup.</p>
+     * <p>This will read from the current offset into the supplied buffer until the supplied
+     * length of the buffer is completely filled up.</p>
      */
 
-    private void readFully(byte[] buffer) throws IOException {
+    private void readFully(byte[] buffer, int length) throws IOException {
         Preconditions.checkNotNull(buffer);
         int total = 0;
 
-        while (total < buffer.length) {
-            int read = randomAccessFile.read(buffer,total,buffer.length - total);
+        while (total < length) {
+            int read = randomAccessFile.read(buffer,total,length - total);
 
             if (-1 == read) {
                 throw new HpkException("unexpected end of file when reading a chunk");
@@ -214,74 +337,78 @@ public class HpkHeapReader implements Closeable, HeapReader {
 
     /**
      * <p>This will read a chunk of the heap into the supplied buffer.  It is assumed that the buffer will be
-     * of the correct length for the uncompressed heap chunk size.</p>
+     * at least the length of the uncompressed heap chunk size.</p>
      */
 
     private void readHeapChunk(int index, byte[] buffer) throws IOException {
 
-        randomAccessFile.seek(getHeapChunkAbsoluteFileOffset(index));
         int chunkUncompressedLength = getHeapChunkUncompressedLength(index);
+        int chunkCompressedLength = getHeapChunkCompressedLength(index);
 
-        if (isHeapChunkCompressed(index) || HeapCompression.NONE == compression) {
-
-            switch(compression) {
-                case NONE:
-                    throw new IllegalStateException();
-
-                case ZLIB:
-                {
-                    byte[] deflatedBuffer = new byte[getHeapChunkCompressedLength(index)];
-                    readFully(deflatedBuffer);
-
-                    Inflater inflater = new Inflater();
-                    inflater.setInput(deflatedBuffer);
+        if (null == mappedHeap) {
+            randomAccessFile.seek(getHeapChunkAbsoluteFileOffset(index));
+        }
 
-                    try {
-                        int read;
+        if (isHeapChunkCompressed(index) || HeapCompression.NONE == compression) {
 
-                        if (chunkUncompressedLength != (read = inflater.inflate(buffer))) {
+            if (HeapCompression.NONE == compression) {
+                throw new IllegalStateException();
+            }
 
-                            // the last chunk size uncompressed may be smaller than the chunk size,
-                            // so don't throw an exception if this happens.
+            ByteBuffer input;
 
-                            if (index < getHeapChunkCount() - 1) {
-                                String message = String.format("a compressed heap chunk inflated to %d bytes; was expecting %d",read,chunkUncompressedLength);
+            if (null != mappedHeap) {
+                input = sliceMappedHeap(index);
+            }
+            else {
+                if (null == compressedBuffer || compressedBuffer.length < chunkCompressedLength) {
+                    compressedBuffer = new byte[(int) chunkSize];
+                }
 
-                                if (inflater.needsInput()) {
-                                    message += "; needs input";
-                                }
+                readFully(compressedBuffer, chunkCompressedLength);
+                input = ByteBuffer.wrap(compressedBuffer, 0, chunkCompressedLength);
+            }
 
-                                if (inflater.needsDictionary()) {
-                                    message += "; needs dictionary";
-                                }
+            int read;
 
-                                throw new HpkException(message);
-                            }
-                        }
+            try {
+                read = decoder.decode(input, buffer, chunkUncompressedLength);
+            }
+            catch (HpkException he) {
+                throw new HpkException("unable to decompress heap chunk " + index, he);
+            }
 
-                        if (!inflater.finished()) {
-                            throw new HpkException(String.format("incomplete inflation of input data while reading chunk %d",index));
-                        }
-                    }
-                    catch (DataFormatException dfe) {
-                        throw new HpkException("unable to inflate (decompress) heap chunk "+index,dfe);
-                    }
-                }
-                break;
+            // the last chunk size uncompressed may be smaller than the chunk size,
+            // so don't throw an exception if this happens.
 
-                default:
-                    throw new IllegalStateException("unsupported compression; "+compression);
+            if (chunkUncompressedLength != read && index < getHeapChunkCount() - 1) {
+                throw new HpkException(String.format(
+                        "a compressed heap chunk %d decompressed to %d bytes; was expecting %d",
+                        index, read, chunkUncompressedLength));
             }
         }
         else {
-            int read;
-
-            if (chunkUncompressedLength != (read = randomAccessFile.read(buffer, 0, chunkUncompressedLength))) {
-                throw new HpkException(String.format("problem reading chunk %d of heap; only read %d of %d bytes",index,read,buffer.length));
+            if (null != mappedHeap) {
+                sliceMappedHeap(index).get(buffer, 0, chunkUncompressedLength);
+            }
+            else {
+                readFully(buffer, chunkUncompressedLength);
             }
         }
     }
 
+    /**
+     * <p>Returns a view onto the mapped heap that covers the compressed data of the chunk.</p>
+     */
+
+    private ByteBuffer sliceMappedHeap(int index) {
+        int position = (int) (getHeapChunkAbsoluteFileOffset(index) - heapOffset);
+        ByteBuffer result = mappedHeap.duplicate();
+        result.limit(position + getHeapChunkCompressedLength(index));
+        result.position(position);
+        return result;
+    }
+
     @Override
     public int readHeap(long offset) {
         Preconditions.checkState(offset >= 0);
@@ -289,11 +416,37 @@ public class HpkHeapReader implements Closeable, HeapReader {
 
         int chunkIndex = (int) (offset / chunkSize);
         int chunkOffset = (int) (offset - (chunkIndex * chunkSize));
-        byte[] chunkData = heapChunkUncompressedCache.getUnchecked(chunkIndex);
+        byte[] chunkData = getHeapChunkUncompressed(chunkIndex);
 
         return chunkData[chunkOffset] & 0xff;
     }
 
+    @Override
+    public long indexOf(long offset, int value) {
+        Preconditions.checkState(offset >= 0);
+
+        byte b = (byte) value;
+
+        // scan directly over the uncompressed data of each chunk in turn.
+
+        while (offset < uncompressedSize) {
+            int chunkIndex = (int) (offset / chunkSize);
+            int chunkOffset = (int) (offset - (chunkIndex * chunkSize));
+            int chunkUncompressedLength = getHeapChunkUncompressedLength(chunkIndex);
+            byte[] chunkData = getHeapChunkUncompressed(chunkIndex);
+
+            for (int i = chunkOffset; i < chunkUncompressedLength; i++) {
+                if (chunkData[i] == b) {
+                    return offset + (i - chunkOffset);
+                }
+            }
+
+            offset += chunkUncompressedLength - chunkOffset;
+        }
+
+        return -1;
+    }
+
     @Override
     public void readHeap(byte[] buffer, int bufferOffset, HeapCoordinates coordinates) {
 
@@ -302,39 +455,46 @@ public class HpkHeapReader implements Closeable, HeapReader {
         Preconditions.checkState(bufferOffset < buffer.length);
         Preconditions.checkState(coordinates.getOffset() >= 0);
         Preconditions.checkState(coordinates.getOffset() < uncompressedSize);
-        Preconditions.checkState(coordinates.getOffset()+coordinates.getLength() < uncompressedSize);
+        Preconditions.checkState(coordinates.getOffset()+coordinates.getLength() <= uncompressedSize);
 
-        // first figure out how much to read from this chunk
+        long offset = coordinates.getOffset();
+        long remaining = coordinates.getLength();
 
-        int chunkIndex = (int) (coordinates.getOffset() / chunkSize);
-        int chunkOffset = (int) (coordinates.getOffset() - (chunkIndex * chunkSize));
-        int chunkLength;
-        int chunkUncompressedLength = getHeapChunkUncompressedLength(chunkIndex);
+        // copy out of each of the chunks that the coordinates span in turn.
 
-        if (chunkOffset + coordinates.getLength() > chunkUncompressedLength) {
-            chunkLength = (chunkUncompressedLength - chunkOffset);
-        }
-        else {
-            chunkLength = (int) coordinates.getLength();
+        while (remaining > 0) {
+            int chunkIndex = (int) (offset / chunkSize);
+            int chunkOffset = (int) (offset - (chunkIndex * chunkSize));
+            int chunkLength = (int) Math.min(
+                    remaining,
+                    getHeapChunkUncompressedLength(chunkIndex) - chunkOffset);
+
+            System.arraycopy(
+                    getHeapChunkUncompressed(chunkIndex), chunkOffset,
+                    buffer, bufferOffset,
+                    chunkLength);
+
+            offset += chunkLength;
+            bufferOffset += chunkLength;
+            remaining -= chunkLength;
         }
 
-        // now read it in.
+    }
 
-        byte[] chunkData = heapChunkUncompressedCache.getUnchecked(chunkIndex);
+    /**
+     * <p>Holds one uncompressed chunk.  The data buffer is retained when the slot is re-used
+     * for another chunk.</p>
+     */
 
-        System.arraycopy(chunkData,chunkOffset,buffer,bufferOffset,chunkLength);
+    private static class ChunkSlot {
 
-        // if we need to get some more data from the next chunk then call again.
-        // TODO - recursive approach may not be too good when more data is involved; probably ok for hpkr though.
+        private final static int INDEX_NONE = -1;
 
-        if (chunkLength < coordinates.getLength()) {
-            readHeap(
-                    buffer,
-                    bufferOffset + chunkLength,
-                    new HeapCoordinates(
-                            coordinates.getOffset() + chunkLength,
-                            coordinates.getLength() - chunkLength));
-        }
+        private int index = INDEX_NONE;
+
+        private long lastUse = 0;
+
+        private byte[] data;
 
     }
 
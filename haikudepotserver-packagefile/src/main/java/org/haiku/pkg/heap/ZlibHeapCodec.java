@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.heap;
+
+import org.haiku.pkg.HpkException;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Decompresses heap chunks that have been compressed with zlib using the JDK's
+ * {@link Inflater}.</p>
+ */
+
+public class ZlibHeapCodec implements HeapCodec {
+
+    @Override
+    public HeapCompression getCompression() {
+        return HeapCompression.ZLIB;
+    }
+
+    @Override
+    public HeapDecoder createDecoder() {
+        return new ZlibHeapDecoder();
+    }
+
+    private static class ZlibHeapDecoder implements HeapDecoder {
+
+        private final Inflater inflater = new Inflater();
+
+        @Override
+        public int decode(ByteBuffer input, byte[] output, int outputLength) {
+            inflater.reset();
+            inflater.setInput(input);
+
+            try {
+                int read = inflater.inflate(output, 0, outputLength);
+
+                if (!inflater.finished()) {
+                    String message = String.format(
+                            "incomplete inflation of input data; inflated %d bytes of %d", read, outputLength);
+
+                    if (inflater.needsInput()) {
+                        message += "; needs input";
+                    }
+
+                    if (inflater.needsDictionary()) {
+                        message += "; needs dictionary";
+                    }
+
+                    throw new HpkException(message);
+                }
+
+                return read;
+            }
+            catch (DataFormatException dfe) {
+                throw new HpkException("unable to inflate (decompress) heap chunk", dfe);
+            }
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+
+    }
+
+}
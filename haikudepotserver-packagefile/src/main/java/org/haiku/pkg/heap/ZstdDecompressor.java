@@ -0,0 +1,1193 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.heap;
+
+import com.google.common.base.Preconditions;
+import org.haiku.pkg.HpkException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>This is a decompressor for data in the zstd format as described in RFC 8878.  Each chunk of a
+ * heap is compressed into one or more zstd frames and this class is able to decompress those frames
+ * into a buffer.  Because the whole of the output is held in the buffer, the window of the frame is
+ * the output itself and so no separate window buffer is required.  Dictionaries are not
+ * supported.</p>
+ *
+ * <p>The tables that are used for decompression are allocated once and are then re-used so an
+ * instance should be retained for decompressing many chunks.  Instances are not thread-safe.</p>
+ */
+
+final class ZstdDecompressor {
+
+    private final static int MAGIC = 0xFD2FB528;
+
+    private final static int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+
+    private final static int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    private final static int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private final static int BLOCK_TYPE_RAW = 0;
+    private final static int BLOCK_TYPE_RLE = 1;
+    private final static int BLOCK_TYPE_COMPRESSED = 2;
+
+    private final static int LITERALS_TYPE_RAW = 0;
+    private final static int LITERALS_TYPE_RLE = 1;
+    private final static int LITERALS_TYPE_COMPRESSED = 2;
+
+    private final static int TABLE_MODE_PREDEFINED = 0;
+    private final static int TABLE_MODE_RLE = 1;
+    private final static int TABLE_MODE_FSE = 2;
+
+    private final static int HUFFMAN_MAX_BITS = 11;
+
+    private final static int HUFFMAN_WEIGHTS_MAX_ACCURACY_LOG = 6;
+
+    private final static int LITERALS_LENGTH_MAX_SYMBOL = 35;
+    private final static int MATCH_LENGTH_MAX_SYMBOL = 52;
+    private final static int OFFSET_MAX_SYMBOL = 31;
+
+    private final static int LITERALS_LENGTH_MAX_ACCURACY_LOG = 9;
+    private final static int MATCH_LENGTH_MAX_ACCURACY_LOG = 9;
+    private final static int OFFSET_MAX_ACCURACY_LOG = 8;
+
+    private final static int[] LITERALS_LENGTH_BASELINES = {
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+            16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096,
+            8192, 16384, 32768, 65536 };
+
+    private final static int[] LITERALS_LENGTH_EXTRA_BITS = {
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12,
+            13, 14, 15, 16 };
+
+    private final static int[] MATCH_LENGTH_BASELINES = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+            19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+            35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051,
+            4099, 8195, 16387, 32771, 65539 };
+
+    private final static int[] MATCH_LENGTH_EXTRA_BITS = {
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11,
+            12, 13, 14, 15, 16 };
+
+    private final static FseTable PREDEFINED_LITERALS_LENGTH_TABLE = FseTable.createPredefined(6, new short[] {
+            4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+            -1, -1, -1, -1 });
+
+    private final static FseTable PREDEFINED_MATCH_LENGTH_TABLE = FseTable.createPredefined(6, new short[] {
+            1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1,
+            -1, -1, -1, -1, -1 });
+
+    private final static FseTable PREDEFINED_OFFSET_TABLE = FseTable.createPredefined(5, new short[] {
+            1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1 });
+
+    private byte[] input;
+
+    /**
+     * <p>The position of the next byte to be read from the {@link #input}.</p>
+     */
+
+    private int position;
+
+    private byte[] inputCopy;
+
+    private final byte[] literals = new byte[MAX_BLOCK_SIZE];
+
+    private final byte[] huffmanSymbols = new byte[1 << HUFFMAN_MAX_BITS];
+
+    private final byte[] huffmanNumBits = new byte[1 << HUFFMAN_MAX_BITS];
+
+    private int huffmanMaxBits = 0;
+
+    private final int[] huffmanWeights = new int[256];
+
+    private final FseTable huffmanWeightsTable = new FseTable(HUFFMAN_WEIGHTS_MAX_ACCURACY_LOG);
+
+    private final FseTable literalsLengthOwnTable = new FseTable(LITERALS_LENGTH_MAX_ACCURACY_LOG);
+
+    private final FseTable matchLengthOwnTable = new FseTable(MATCH_LENGTH_MAX_ACCURACY_LOG);
+
+    private final FseTable offsetOwnTable = new FseTable(OFFSET_MAX_ACCURACY_LOG);
+
+    private FseTable literalsLengthTable;
+
+    private FseTable matchLengthTable;
+
+    private FseTable offsetTable;
+
+    private final short[] normalizedCounts = new short[256];
+
+    private final int[] repeatOffsets = new int[3];
+
+    private final BackwardBitReader bitReader = new BackwardBitReader();
+
+    /**
+     * <p>Decompresses all of the frames in the input into the output.</p>
+     *
+     * @return the quantity of bytes that were written into the output.
+     */
+
+    int decompress(ByteBuffer inputBuffer, byte[] output, int outputLength) {
+        Preconditions.checkArgument(null != inputBuffer, "the input must be supplied");
+        Preconditions.checkArgument(null != output, "the output must be supplied");
+        Preconditions.checkArgument(outputLength >= 0 && outputLength <= output.length, "bad output length");
+
+        int limit;
+
+        if (inputBuffer.hasArray()) {
+            input = inputBuffer.array();
+            position = inputBuffer.arrayOffset() + inputBuffer.position();
+            limit = inputBuffer.arrayOffset() + inputBuffer.limit();
+        }
+        else {
+            int length = inputBuffer.remaining();
+
+            if (null == inputCopy || inputCopy.length < length) {
+                inputCopy = new byte[length];
+            }
+
+            inputBuffer.duplicate().get(inputCopy, 0, length);
+            input = inputCopy;
+            position = 0;
+            limit = length;
+        }
+
+        inputBuffer.position(inputBuffer.limit());
+
+        try {
+            int out = 0;
+
+            while (position < limit) {
+                require(4, limit);
+                int magic = readIntLE(position);
+
+                if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+                    require(8, limit);
+                    long skipLength = readIntLE(position + 4) & 0xffffffffL;
+
+                    if (skipLength > limit - position - 8) {
+                        throw new HpkException("truncated zstd skippable frame");
+                    }
+
+                    position += 8 + (int) skipLength;
+                }
+                else {
+                    if (magic != MAGIC) {
+                        throw new HpkException(String.format("bad zstd frame magic number; 0x%08x", magic));
+                    }
+
+                    position += 4;
+                    out = decompressFrame(limit, output, out, outputLength);
+                }
+            }
+
+            return out;
+        }
+        finally {
+            input = null;
+        }
+    }
+
+    private int decompressFrame(int limit, byte[] output, int out, int outputLength) {
+        require(1, limit);
+        int descriptor = input[position++] & 0xff;
+        int contentSizeFlag = descriptor >>> 6;
+        boolean singleSegment = 0 != (descriptor & 0x20);
+        boolean hasChecksum = 0 != (descriptor & 0x04);
+        int dictionaryIdFlag = descriptor & 0x03;
+
+        if (0 != (descriptor & 0x08)) {
+            throw new HpkException("the reserved bit is set in the zstd frame header");
+        }
+
+        // the window is the whole of the output so its size is not required.
+
+        if (!singleSegment) {
+            require(1, limit);
+            position++;
+        }
+
+        int dictionaryIdLength = 0 == dictionaryIdFlag ? 0 : 1 << (dictionaryIdFlag - 1);
+        require(dictionaryIdLength, limit);
+
+        if (0 != readLE(position, dictionaryIdLength)) {
+            throw new HpkException("zstd frames that require a dictionary are not supported");
+        }
+
+        position += dictionaryIdLength;
+
+        int contentSizeLength = 0 == contentSizeFlag ? (singleSegment ? 1 : 0) : 1 << contentSizeFlag;
+        long contentSize = -1;
+
+        if (0 != contentSizeLength) {
+            require(contentSizeLength, limit);
+            contentSize = readLE(position, contentSizeLength);
+
+            if (2 == contentSizeLength) {
+                contentSize += 256;
+            }
+
+            position += contentSizeLength;
+        }
+
+        int frameStart = out;
+        boolean lastBlock;
+
+        repeatOffsets[0] = 1;
+        repeatOffsets[1] = 4;
+        repeatOffsets[2] = 8;
+        huffmanMaxBits = 0;
+        literalsLengthTable = null;
+        matchLengthTable = null;
+        offsetTable = null;
+
+        do {
+            require(3, limit);
+            int blockHeader = (int) readLE(position, 3);
+            position += 3;
+            lastBlock = 0 != (blockHeader & 1);
+            int blockType = (blockHeader >>> 1) & 0x3;
+            int blockSize = blockHeader >>> 3;
+
+            switch (blockType) {
+                case BLOCK_TYPE_RAW:
+                    require(blockSize, limit);
+                    requireOutput(out, blockSize, outputLength);
+                    System.arraycopy(input, position, output, out, blockSize);
+                    position += blockSize;
+                    out += blockSize;
+                    break;
+
+                case BLOCK_TYPE_RLE:
+                    require(1, limit);
+                    requireOutput(out, blockSize, outputLength);
+                    Arrays.fill(output, out, out + blockSize, input[position++]);
+                    out += blockSize;
+                    break;
+
+                case BLOCK_TYPE_COMPRESSED:
+                    if (blockSize > MAX_BLOCK_SIZE) {
+                        throw new HpkException("the zstd block is larger than the maximum block size");
+                    }
+
+                    require(blockSize, limit);
+                    out = decompressBlock(position + blockSize, output, out, outputLength, frameStart);
+                    break;
+
+                default:
+                    throw new HpkException("reserved zstd block type");
+            }
+        }
+        while (!lastBlock);
+
+        if (-1 != contentSize && contentSize != out - frameStart) {
+            throw new HpkException(String.format(
+                    "the zstd frame decompressed to %d bytes; was expecting %d", out - frameStart, contentSize));
+        }
+
+        if (hasChecksum) {
+            require(4, limit);
+            int expectedChecksum = readIntLE(position);
+            position += 4;
+
+            if ((int) xxHash64(output, frameStart, out - frameStart) != expectedChecksum) {
+                throw new HpkException("the checksum of the zstd frame does not match");
+            }
+        }
+
+        return out;
+    }
+
+    // ------------------------------
+    // BLOCK
+
+    private int decompressBlock(int blockLimit, byte[] output, int out, int outputLength, int frameStart) {
+
+        // literals section
+
+        require(1, blockLimit);
+        int literalsHeader = input[position] & 0xff;
+        int literalsType = literalsHeader & 0x3;
+        int sizeFormat = (literalsHeader >>> 2) & 0x3;
+        byte[] literalsData;
+        int literalsStart;
+        int literalsLength;
+
+        if (LITERALS_TYPE_RAW == literalsType || LITERALS_TYPE_RLE == literalsType) {
+            int headerLength;
+
+            switch (sizeFormat) {
+                case 1:
+                    headerLength = 2;
+                    require(headerLength, blockLimit);
+                    literalsLength = (literalsHeader >>> 4) + ((input[position + 1] & 0xff) << 4);
+                    break;
+                case 3:
+                    headerLength = 3;
+                    require(headerLength, blockLimit);
+                    literalsLength = (literalsHeader >>> 4) + ((input[position + 1] & 0xff) << 4)
+                            + ((input[position + 2] & 0xff) << 12);
+                    break;
+                default:
+                    headerLength = 1;
+                    literalsLength = literalsHeader >>> 3;
+                    break;
+            }
+
+            if (literalsLength > MAX_BLOCK_SIZE) {
+                throw new HpkException("the zstd literals are larger than the maximum block size");
+            }
+
+            position += headerLength;
+
+            if (LITERALS_TYPE_RAW == literalsType) {
+                require(literalsLength, blockLimit);
+                literalsData = input;
+                literalsStart = position;
+                position += literalsLength;
+            }
+            else {
+                require(1, blockLimit);
+                Arrays.fill(literals, 0, literalsLength, input[position++]);
+                literalsData = literals;
+                literalsStart = 0;
+            }
+        }
+        else {
+            int headerLength;
+            int compressedLength;
+            boolean fourStreams = 0 != sizeFormat;
+
+            switch (sizeFormat) {
+                case 2: {
+                    headerLength = 4;
+                    require(headerLength, blockLimit);
+                    long combined = readLE(position, 4);
+                    literalsLength = (int) ((combined >>> 4) & 0x3fff);
+                    compressedLength = (int) ((combined >>> 18) & 0x3fff);
+                    break;
+                }
+                case 3: {
+                    headerLength = 5;
+                    require(headerLength, blockLimit);
+                    long combined = readLE(position, 5);
+                    literalsLength = (int) ((combined >>> 4) & 0x3ffff);
+                    compressedLength = (int) ((combined >>> 22) & 0x3ffff);
+                    break;
+                }
+                default: {
+                    headerLength = 3;
+                    require(headerLength, blockLimit);
+                    long combined = readLE(position, 3);
+                    literalsLength = (int) ((combined >>> 4) & 0x3ff);
+                    compressedLength = (int) ((combined >>> 14) & 0x3ff);
+                    break;
+                }
+            }
+
+            if (literalsLength > MAX_BLOCK_SIZE) {
+                throw new HpkException("the zstd literals are larger than the maximum block size");
+            }
+
+            position += headerLength;
+            require(compressedLength, blockLimit);
+            int literalsLimit = position + compressedLength;
+
+            if (LITERALS_TYPE_COMPRESSED == literalsType) {
+                readHuffmanTable(literalsLimit);
+            }
+            else {
+                if (0 == huffmanMaxBits) {
+                    throw new HpkException("the zstd literals re-use a huffman table that is not present");
+                }
+            }
+
+            decodeHuffmanLiterals(literalsLimit, literalsLength, fourStreams);
+            position = literalsLimit;
+            literalsData = literals;
+            literalsStart = 0;
+        }
+
+        // sequences section
+
+        require(1, blockLimit);
+        int sequencesCount = input[position++] & 0xff;
+
+        if (sequencesCount >= 128) {
+            if (sequencesCount < 255) {
+                require(1, blockLimit);
+                sequencesCount = ((sequencesCount - 128) << 8) + (input[position++] & 0xff);
+            }
+            else {
+                require(2, blockLimit);
+                sequencesCount = (int) readLE(position, 2) + 0x7f00;
+                position += 2;
+            }
+        }
+
+        if (0 == sequencesCount) {
+            if (position != blockLimit) {
+                throw new HpkException("unexpected data after the zstd literals");
+            }
+
+            requireOutput(out, literalsLength, outputLength);
+            System.arraycopy(literalsData, literalsStart, output, out, literalsLength);
+            return out + literalsLength;
+        }
+
+        require(1, blockLimit);
+        int modes = input[position++] & 0xff;
+
+        if (0 != (modes & 0x3)) {
+            throw new HpkException("the reserved bits are set in the zstd sequence modes");
+        }
+
+        literalsLengthTable = selectSequenceTable(
+                modes >>> 6, literalsLengthTable, literalsLengthOwnTable, PREDEFINED_LITERALS_LENGTH_TABLE,
+                LITERALS_LENGTH_MAX_SYMBOL, blockLimit);
+        offsetTable = selectSequenceTable(
+                (modes >>> 4) & 0x3, offsetTable, offsetOwnTable, PREDEFINED_OFFSET_TABLE,
+                OFFSET_MAX_SYMBOL, blockLimit);
+        matchLengthTable = selectSequenceTable(
+                (modes >>> 2) & 0x3, matchLengthTable, matchLengthOwnTable, PREDEFINED_MATCH_LENGTH_TABLE,
+                MATCH_LENGTH_MAX_SYMBOL, blockLimit);
+
+        return executeSequences(
+                blockLimit, sequencesCount,
+                literalsData, literalsStart, literalsLength,
+                output, out, outputLength, frameStart);
+    }
+
+    private int executeSequences(
+            int blockLimit,
+            int sequencesCount,
+            byte[] literalsData,
+            int literalsStart,
+            int literalsLength,
+            byte[] output,
+            int out,
+            int outputLength,
+            int frameStart) {
+
+        BackwardBitReader bits = bitReader;
+        bits.init(position, blockLimit);
+
+        FseTable llTable = literalsLengthTable;
+        FseTable ofTable = offsetTable;
+        FseTable mlTable = matchLengthTable;
+        int llState = bits.read(llTable.accuracyLog);
+        int ofState = bits.read(ofTable.accuracyLog);
+        int mlState = bits.read(mlTable.accuracyLog);
+        int literalsPosition = literalsStart;
+        int literalsLimit = literalsStart + literalsLength;
+
+        for (int i = 0; i < sequencesCount; i++) {
+            int offsetCode = ofTable.symbols[ofState] & 0xff;
+            int matchLengthCode = mlTable.symbols[mlState] & 0xff;
+            int literalsLengthCode = llTable.symbols[llState] & 0xff;
+
+            long offsetValue = (1L << offsetCode) + bits.read(offsetCode);
+            int matchLength = MATCH_LENGTH_BASELINES[matchLengthCode]
+                    + bits.read(MATCH_LENGTH_EXTRA_BITS[matchLengthCode]);
+            int sequenceLiteralsLength = LITERALS_LENGTH_BASELINES[literalsLengthCode]
+                    + bits.read(LITERALS_LENGTH_EXTRA_BITS[literalsLengthCode]);
+            int offset = resolveOffset(offsetValue, sequenceLiteralsLength);
+
+            if (i < sequencesCount - 1) {
+                llState = llTable.baselines[llState] + bits.read(llTable.numBits[llState]);
+                mlState = mlTable.baselines[mlState] + bits.read(mlTable.numBits[mlState]);
+                ofState = ofTable.baselines[ofState] + bits.read(ofTable.numBits[ofState]);
+            }
+
+            if (sequenceLiteralsLength > literalsLimit - literalsPosition) {
+                throw new HpkException("a zstd sequence has more literals than are available");
+            }
+
+            requireOutput(out, sequenceLiteralsLength + matchLength, outputLength);
+            System.arraycopy(literalsData, literalsPosition, output, out, sequenceLiteralsLength);
+            literalsPosition += sequenceLiteralsLength;
+            out += sequenceLiteralsLength;
+
+            if (offset > out - frameStart) {
+                throw new HpkException("a zstd match refers to data before the start of the frame");
+            }
+
+            int from = out - offset;
+
+            if (offset >= matchLength) {
+                System.arraycopy(output, from, output, out, matchLength);
+            }
+            else {
+                for (int j = 0; j < matchLength; j++) {
+                    output[out + j] = output[from + j];
+                }
+            }
+
+            out += matchLength;
+        }
+
+        if (!bits.isFinished()) {
+            throw new HpkException("the zstd sequences bit stream was not fully consumed");
+        }
+
+        int remainingLiteralsLength = literalsLimit - literalsPosition;
+        requireOutput(out, remainingLiteralsLength, outputLength);
+        System.arraycopy(literalsData, literalsPosition, output, out, remainingLiteralsLength);
+        position = blockLimit;
+        return out + remainingLiteralsLength;
+    }
+
+    /**
+     * <p>Offset values of three or less refer to the recently used offsets; see RFC 8878 section
+     * 3.1.2.5.</p>
+     */
+
+    private int resolveOffset(long offsetValue, int literalsLength) {
+        int offset;
+
+        if (offsetValue > 3) {
+            if (offsetValue - 3 > Integer.MAX_VALUE) {
+                throw new HpkException("the zstd offset is too large");
+            }
+
+            offset = (int) (offsetValue - 3);
+            repeatOffsets[2] = repeatOffsets[1];
+            repeatOffsets[1] = repeatOffsets[0];
+            repeatOffsets[0] = offset;
+        }
+        else {
+            int index = (int) offsetValue - 1 + (0 == literalsLength ? 1 : 0);
+
+            if (0 == index) {
+                offset = repeatOffsets[0];
+            }
+            else {
+                offset = 3 == index ? repeatOffsets[0] - 1 : repeatOffsets[index];
+
+                if (1 != index) {
+                    repeatOffsets[2] = repeatOffsets[1];
+                }
+
+                repeatOffsets[1] = repeatOffsets[0];
+                repeatOffsets[0] = offset;
+            }
+        }
+
+        if (offset <= 0) {
+            throw new HpkException("bad zstd offset; " + offset);
+        }
+
+        return offset;
+    }
+
+    private FseTable selectSequenceTable(
+            int mode,
+            FseTable previousTable,
+            FseTable ownTable,
+            FseTable predefinedTable,
+            int maxSymbol,
+            int limit) {
+        switch (mode) {
+            case TABLE_MODE_PREDEFINED:
+                return predefinedTable;
+
+            case TABLE_MODE_RLE: {
+                require(1, limit);
+                int symbol = input[position++] & 0xff;
+
+                if (symbol > maxSymbol) {
+                    throw new HpkException("the zstd rle symbol is out of range; " + symbol);
+                }
+
+                ownTable.buildRle(symbol);
+                return ownTable;
+            }
+
+            case TABLE_MODE_FSE:
+                position = readFseTable(position, limit, maxSymbol, ownTable);
+                return ownTable;
+
+            default:
+                if (null == previousTable) {
+                    throw new HpkException("a zstd sequence table is repeated, but there is no previous table");
+                }
+
+                return previousTable;
+        }
+    }
+
+    // ------------------------------
+    // FSE
+
+    /**
+     * <p>Reads the normalized counts of the symbols from a forward bit stream and builds the table from
+     * them; see RFC 8878 section 4.1.1.</p>
+     *
+     * @return the position of the byte that follows the description of the table.
+     */
+
+    private int readFseTable(int start, int limit, int maxSymbol, FseTable table) {
+        long availableBits = (limit - start) * 8L;
+        long bitOffset = 0;
+
+        if (availableBits < 4) {
+            throw new HpkException("truncated zstd fse table description");
+        }
+
+        int accuracyLog = (int) readForwardBits(start, limit, bitOffset, 4) + 5;
+        bitOffset += 4;
+
+        if (accuracyLog > table.maxAccuracyLog) {
+            throw new HpkException("the zstd fse table accuracy is too high; " + accuracyLog);
+        }
+
+        int remaining = 1 << accuracyLog;
+        int symbol = 0;
+
+        while (remaining > 0 && symbol <= maxSymbol) {
+            int bits = 32 - Integer.numberOfLeadingZeros(remaining + 1);
+            int value = (int) readForwardBits(start, limit, bitOffset, bits);
+            bitOffset += bits;
+            int lowerMask = (1 << (bits - 1)) - 1;
+            int threshold = (1 << bits) - 1 - (remaining + 1);
+
+            if ((value & lowerMask) < threshold) {
+                bitOffset--;
+                value &= lowerMask;
+            }
+            else if (value > lowerMask) {
+                value -= threshold;
+            }
+
+            int probability = value - 1;
+            remaining -= Math.abs(probability);
+            normalizedCounts[symbol++] = (short) probability;
+
+            if (0 == probability) {
+                int repeat;
+
+                do {
+                    repeat = (int) readForwardBits(start, limit, bitOffset, 2);
+                    bitOffset += 2;
+
+                    for (int i = 0; i < repeat && symbol <= maxSymbol; i++) {
+                        normalizedCounts[symbol++] = 0;
+                    }
+                }
+                while (3 == repeat);
+            }
+
+            if (bitOffset > availableBits) {
+                throw new HpkException("truncated zstd fse table description");
+            }
+        }
+
+        if (0 != remaining) {
+            throw new HpkException("corrupt zstd fse table description");
+        }
+
+        table.build(normalizedCounts, symbol, accuracyLog);
+        return start + (int) ((bitOffset + 7) / 8);
+    }
+
+    /**
+     * <p>Reads bits from a little-endian forward bit stream.  Bits beyond the limit are read as zero;
+     * the caller checks for overflow.</p>
+     */
+
+    private long readForwardBits(int start, int limit, long bitOffset, int count) {
+        int byteIndex = start + (int) (bitOffset >>> 3);
+        long word = 0;
+
+        for (int i = 0; i < 8 && byteIndex + i < limit; i++) {
+            word |= (input[byteIndex + i] & 0xffL) << (8 * i);
+        }
+
+        return (word >>> (bitOffset & 7)) & ((1L << count) - 1);
+    }
+
+    // ------------------------------
+    // HUFFMAN
+
+    /**
+     * <p>Reads the description of the huffman tree for the literals; see RFC 8878 section 4.2.1.</p>
+     */
+
+    private void readHuffmanTable(int limit) {
+        require(1, limit);
+        int header = input[position++] & 0xff;
+        int count;
+
+        if (header >= 128) {
+            count = header - 127;
+            int length = (count + 1) / 2;
+            require(length, limit);
+
+            for (int i = 0; i < count; i++) {
+                int b = input[position + i / 2] & 0xff;
+                huffmanWeights[i] = 0 == (i & 1) ? b >>> 4 : b & 0xf;
+            }
+
+            position += length;
+        }
+        else {
+            require(header, limit);
+            count = decodeHuffmanWeights(position, position + header);
+            position += header;
+        }
+
+        buildHuffmanTable(count);
+    }
+
+    private int decodeHuffmanWeights(int start, int limit) {
+        FseTable table = huffmanWeightsTable;
+        int streamStart = readFseTable(start, limit, 255, table);
+        BackwardBitReader bits = bitReader;
+        bits.init(streamStart, limit);
+
+        int state1 = bits.read(table.accuracyLog);
+        int state2 = bits.read(table.accuracyLog);
+        int count = 0;
+
+        while (true) {
+            if (count > huffmanWeights.length - 3) {
+                throw new HpkException("too many zstd huffman weights");
+            }
+
+            huffmanWeights[count++] = table.symbols[state1] & 0xff;
+            state1 = table.baselines[state1] + bits.read(table.numBits[state1]);
+
+            if (bits.isOverflowed()) {
+                huffmanWeights[count++] = table.symbols[state2] & 0xff;
+                break;
+            }
+
+            huffmanWeights[count++] = table.symbols[state2] & 0xff;
+            state2 = table.baselines[state2] + bits.read(table.numBits[state2]);
+
+            if (bits.isOverflowed()) {
+                huffmanWeights[count++] = table.symbols[state1] & 0xff;
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * <p>The weight of the last symbol is not stored; it is derived such that the weights add up to a
+     * power of two.  The decoding table is indexed by the next {@link #huffmanMaxBits} bits of the
+     * stream.  The symbols with the lowest weight have the longest codes and are placed first.</p>
+     */
+
+    private void buildHuffmanTable(int count) {
+        int weightSum = 0;
+
+        for (int i = 0; i < count; i++) {
+            int weight = huffmanWeights[i];
+
+            if (weight > HUFFMAN_MAX_BITS) {
+                throw new HpkException("the zstd huffman weight is too large; " + weight);
+            }
+
+            if (0 != weight) {
+                weightSum += 1 << (weight - 1);
+            }
+        }
+
+        if (0 == weightSum) {
+            throw new HpkException("the zstd huffman weights are all zero");
+        }
+
+        int maxBits = 32 - Integer.numberOfLeadingZeros(weightSum);
+        int leftOver = (1 << maxBits) - weightSum;
+
+        if (maxBits > HUFFMAN_MAX_BITS || 0 != (leftOver & (leftOver - 1)) || count >= huffmanWeights.length) {
+            throw new HpkException("corrupt zstd huffman weights");
+        }
+
+        huffmanWeights[count++] = 32 - Integer.numberOfLeadingZeros(leftOver);
+
+        int[] rankCounts = new int[HUFFMAN_MAX_BITS + 2];
+
+        for (int i = 0; i < count; i++) {
+            if (0 != huffmanWeights[i]) {
+                rankCounts[maxBits + 1 - huffmanWeights[i]]++;
+            }
+        }
+
+        int[] rankStarts = new int[HUFFMAN_MAX_BITS + 2];
+
+        for (int numBits = maxBits; numBits >= 1; numBits--) {
+            rankStarts[numBits - 1] = rankStarts[numBits] + rankCounts[numBits] * (1 << (maxBits - numBits));
+        }
+
+        for (int symbol = 0; symbol < count; symbol++) {
+            int weight = huffmanWeights[symbol];
+
+            if (0 != weight) {
+                int numBits = maxBits + 1 - weight;
+                int start = rankStarts[numBits];
+                int length = 1 << (maxBits - numBits);
+                Arrays.fill(huffmanSymbols, start, start + length, (byte) symbol);
+                Arrays.fill(huffmanNumBits, start, start + length, (byte) numBits);
+                rankStarts[numBits] += length;
+            }
+        }
+
+        huffmanMaxBits = maxBits;
+    }
+
+    private void decodeHuffmanLiterals(int limit, int literalsLength, boolean fourStreams) {
+        if (!fourStreams) {
+            decodeHuffmanStream(position, limit, 0, literalsLength);
+            return;
+        }
+
+        require(6, limit);
+        int stream1Start = position + 6;
+        int stream2Start = stream1Start + (int) readLE(position, 2);
+        int stream3Start = stream2Start + (int) readLE(position + 2, 2);
+        int stream4Start = stream3Start + (int) readLE(position + 4, 2);
+        int segmentLength = (literalsLength + 3) / 4;
+
+        if (stream4Start >= limit || segmentLength * 3 > literalsLength) {
+            throw new HpkException("corrupt zstd huffman streams");
+        }
+
+        decodeHuffmanStream(stream1Start, stream2Start, 0, segmentLength);
+        decodeHuffmanStream(stream2Start, stream3Start, segmentLength, segmentLength * 2);
+        decodeHuffmanStream(stream3Start, stream4Start, segmentLength * 2, segmentLength * 3);
+        decodeHuffmanStream(stream4Start, limit, segmentLength * 3, literalsLength);
+    }
+
+    private void decodeHuffmanStream(int start, int limit, int literalsStart, int literalsLimit) {
+        BackwardBitReader bits = bitReader;
+        bits.init(start, limit);
+        int maxBits = huffmanMaxBits;
+
+        for (int i = literalsStart; i < literalsLimit; i++) {
+            int index = (int) bits.peek(maxBits);
+            literals[i] = huffmanSymbols[index];
+            bits.skip(huffmanNumBits[index]);
+        }
+
+        if (!bits.isFinished()) {
+            throw new HpkException("the zstd huffman stream was not fully consumed");
+        }
+    }
+
+    // ------------------------------
+    // SUPPORT
+
+    private void require(int length, int limit) {
+        if (length < 0 || length > limit - position) {
+            throw new HpkException("truncated zstd data");
+        }
+    }
+
+    private static void requireOutput(int out, int length, int outputLength) {
+        if (length > outputLength - out) {
+            throw new HpkException("the zstd data decompresses to more than " + outputLength + " bytes");
+        }
+    }
+
+    private int readIntLE(int offset) {
+        return (input[offset] & 0xff)
+                | ((input[offset + 1] & 0xff) << 8)
+                | ((input[offset + 2] & 0xff) << 16)
+                | ((input[offset + 3] & 0xff) << 24);
+    }
+
+    private long readLE(int offset, int length) {
+        long result = 0;
+
+        for (int i = 0; i < length; i++) {
+            result |= (input[offset + i] & 0xffL) << (8 * i);
+        }
+
+        return result;
+    }
+
+    private final static long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private final static long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private final static long PRIME64_3 = 0x165667B19E3779F9L;
+    private final static long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private final static long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    /**
+     * <p>The checksum of a frame is the lower 32 bits of the XXH64 hash of the decompressed data with
+     * a seed of zero.</p>
+     */
+
+    static long xxHash64(byte[] data, int offset, int length) {
+        int p = offset;
+        int end = offset + length;
+        long hash;
+
+        if (length >= 32) {
+            long v1 = PRIME64_1 + PRIME64_2;
+            long v2 = PRIME64_2;
+            long v3 = 0;
+            long v4 = -PRIME64_1;
+
+            while (p <= end - 32) {
+                v1 = xxHashRound(v1, readLongLE(data, p));
+                v2 = xxHashRound(v2, readLongLE(data, p + 8));
+                v3 = xxHashRound(v3, readLongLE(data, p + 16));
+                v4 = xxHashRound(v4, readLongLE(data, p + 24));
+                p += 32;
+            }
+
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = xxHashMergeRound(hash, v1);
+            hash = xxHashMergeRound(hash, v2);
+            hash = xxHashMergeRound(hash, v3);
+            hash = xxHashMergeRound(hash, v4);
+        }
+        else {
+            hash = PRIME64_5;
+        }
+
+        hash += length;
+
+        while (p <= end - 8) {
+            hash ^= xxHashRound(0, readLongLE(data, p));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+            p += 8;
+        }
+
+        if (p <= end - 4) {
+            long word = (data[p] & 0xffL)
+                    | ((data[p + 1] & 0xffL) << 8)
+                    | ((data[p + 2] & 0xffL) << 16)
+                    | ((data[p + 3] & 0xffL) << 24);
+            hash ^= word * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            p += 4;
+        }
+
+        while (p < end) {
+            hash ^= (data[p] & 0xffL) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+            p++;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long xxHashRound(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * PRIME64_2, 31) * PRIME64_1;
+    }
+
+    private static long xxHashMergeRound(long accumulator, long value) {
+        return (accumulator ^ xxHashRound(0, value)) * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long readLongLE(byte[] data, int offset) {
+        long result = 0;
+
+        for (int i = 0; i < 8; i++) {
+            result |= (data[offset + i] & 0xffL) << (8 * i);
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>A bit stream that is read from the end towards the start.  The last byte of the stream holds
+     * a marker bit above which there is only padding.  Reading beyond the start of the stream yields
+     * zero bits; this is required by some of the decoding and is otherwise detected by checking that
+     * the stream is finished.</p>
+     */
+
+    private final class BackwardBitReader {
+
+        private int start;
+
+        private int limit;
+
+        /**
+         * <p>The quantity of bits that remain to be read; this is negative if more bits have been read
+         * than were present.</p>
+         */
+
+        private long bitPosition;
+
+        void init(int start, int limit) {
+            if (start >= limit || limit > input.length) {
+                throw new HpkException("empty zstd bit stream");
+            }
+
+            int lastByte = input[limit - 1] & 0xff;
+
+            if (0 == lastByte) {
+                throw new HpkException("the zstd bit stream has no end marker");
+            }
+
+            this.start = start;
+            this.limit = limit;
+            this.bitPosition = (limit - start - 1) * 8L + (31 - Integer.numberOfLeadingZeros(lastByte));
+        }
+
+        long peek(int count) {
+            if (0 == count) {
+                return 0;
+            }
+
+            long startBit = bitPosition - count;
+
+            if (startBit >= 0) {
+                long word = load(start + (int) (startBit >>> 3));
+                return (word >>> (startBit & 7)) & ((1L << count) - 1);
+            }
+
+            if (bitPosition <= 0) {
+                return 0;
+            }
+
+            return (load(start) & ((1L << bitPosition) - 1)) << -startBit;
+        }
+
+        void skip(int count) {
+            bitPosition -= count;
+        }
+
+        int read(int count) {
+            int result = (int) peek(count);
+            bitPosition -= count;
+            return result;
+        }
+
+        boolean isOverflowed() {
+            return bitPosition < 0;
+        }
+
+        boolean isFinished() {
+            return 0 == bitPosition;
+        }
+
+        private long load(int offset) {
+            if (offset + 8 <= limit) {
+                return readLongLE(input, offset);
+            }
+
+            long result = 0;
+
+            for (int i = 0; offset + i < limit; i++) {
+                result |= (input[offset + i] & 0xffL) << (8 * i);
+            }
+
+            return result;
+        }
+
+    }
+
+    /**
+     * <p>A decoding table for finite state entropy; see RFC 8878 section 4.1.</p>
+     */
+
+    private final static class FseTable {
+
+        private final int maxAccuracyLog;
+
+        private int accuracyLog;
+
+        private final byte[] symbols;
+
+        private final byte[] numBits;
+
+        private final int[] baselines;
+
+        private final int[] symbolNext = new int[256];
+
+        FseTable(int maxAccuracyLog) {
+            this.maxAccuracyLog = maxAccuracyLog;
+            this.symbols = new byte[1 << maxAccuracyLog];
+            this.numBits = new byte[1 << maxAccuracyLog];
+            this.baselines = new int[1 << maxAccuracyLog];
+        }
+
+        static FseTable createPredefined(int accuracyLog, short[] normalizedCounts) {
+            FseTable result = new FseTable(accuracyLog);
+            result.build(normalizedCounts, normalizedCounts.length, accuracyLog);
+            return result;
+        }
+
+        void buildRle(int symbol) {
+            accuracyLog = 0;
+            symbols[0] = (byte) symbol;
+            numBits[0] = 0;
+            baselines[0] = 0;
+        }
+
+        /**
+         * <p>Symbols with a count of -1 have a probability of less than one and are placed at the end
+         * of the table.  The other symbols are spread through the table.</p>
+         */
+
+        void build(short[] normalizedCounts, int symbolCount, int accuracyLog) {
+            int size = 1 << accuracyLog;
+            int highThreshold = size;
+
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                if (-1 == normalizedCounts[symbol]) {
+                    symbols[--highThreshold] = (byte) symbol;
+                    symbolNext[symbol] = 1;
+                }
+                else {
+                    symbolNext[symbol] = normalizedCounts[symbol];
+                }
+            }
+
+            int mask = size - 1;
+            int step = (size >>> 1) + (size >>> 3) + 3;
+            int tablePosition = 0;
+
+            for (int symbol = 0; symbol < symbolCount; symbol++) {
+                for (int i = 0; i < normalizedCounts[symbol]; i++) {
+                    symbols[tablePosition] = (byte) symbol;
+
+                    do {
+                        tablePosition = (tablePosition + step) & mask;
+                    }
+                    while (tablePosition >= highThreshold);
+                }
+            }
+
+            if (0 != tablePosition) {
+                throw new HpkException("corrupt zstd fse table");
+            }
+
+            for (int i = 0; i < size; i++) {
+                int symbol = symbols[i] & 0xff;
+                int nextState = symbolNext[symbol]++;
+                int bits = accuracyLog - (31 - Integer.numberOfLeadingZeros(nextState));
+                numBits[i] = (byte) bits;
+                baselines[i] = (nextState << bits) - size;
+            }
+
+            this.accuracyLog = accuracyLog;
+        }
+
+    }
+
+}
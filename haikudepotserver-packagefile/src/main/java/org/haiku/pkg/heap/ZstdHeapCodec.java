@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.heap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Decompresses heap chunks that have been compressed with zstd.  The decompression is undertaken
+ * in Java by {@link ZstdDecompressor} so that no native library is required.</p>
+ */
+
+public class ZstdHeapCodec implements HeapCodec {
+
+    @Override
+    public HeapCompression getCompression() {
+        return HeapCompression.ZSTD;
+    }
+
+    @Override
+    public HeapDecoder createDecoder() {
+        return new ZstdHeapDecoder();
+    }
+
+    private static class ZstdHeapDecoder implements HeapDecoder {
+
+        private final ZstdDecompressor decompressor = new ZstdDecompressor();
+
+        @Override
+        public int decode(ByteBuffer input, byte[] output, int outputLength) {
+            return decompressor.decompress(input, output, outputLength);
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
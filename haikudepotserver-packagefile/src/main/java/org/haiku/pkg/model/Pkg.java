@@ -1,11 +1,14 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.pkg.model;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.util.Collections;
 import java.util.List;
@@ -85,6 +88,48 @@ public class Pkg {
         return homePageUrl;
     }
 
+    /**
+     * <p>Returns a SHA-256 hash, as hex, of the data in this package.  This can be used to detect if a package
+     * has changed between two imports of a repository without comparing all of the data in the package.
+     * Note that the bytes of the attributes in the HPKR file are not hashed because string values may be
+     * references into a string table that is specific to the file.</p>
+     */
+
+    public String getFingerprint() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, name);
+        putString(hasher, null == version ? null : version.getMajor());
+        putString(hasher, null == version ? null : version.getMinor());
+        putString(hasher, null == version ? null : version.getMicro());
+        putString(hasher, null == version ? null : version.getPreRelease());
+        hasher.putInt(null == version || null == version.getRevision() ? -1 : version.getRevision());
+        putString(hasher, null == architecture ? null : architecture.name());
+        putString(hasher, vendor);
+        hasher.putInt(getCopyrights().size());
+        getCopyrights().forEach(c -> putString(hasher, c));
+        hasher.putInt(getLicenses().size());
+        getLicenses().forEach(l -> putString(hasher, l));
+        putString(hasher, summary);
+        putString(hasher, description);
+        putString(hasher, null == homePageUrl ? null : homePageUrl.getUrlType().name());
+        putString(hasher, null == homePageUrl ? null : homePageUrl.getUrl());
+        putString(hasher, null == homePageUrl ? null : homePageUrl.getName());
+        return hasher.hash().toString();
+    }
+
+    /**
+     * <p>The length is put before the string so that adjacent values are not able to run into each other.</p>
+     */
+
+    private static void putString(Hasher hasher, String value) {
+        if (null == value) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length());
+            hasher.putString(value, Charsets.UTF_8);
+        }
+    }
+
     @SuppressWarnings("StringBufferReplaceableByString")
     @Override
     public String toString() {
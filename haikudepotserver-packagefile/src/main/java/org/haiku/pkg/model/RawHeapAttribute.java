@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -25,6 +25,10 @@ public class RawHeapAttribute extends RawAttribute {
         this.heapCoordinates = heapCoordinates;
     }
 
+    public HeapCoordinates getHeapCoordinates() {
+        return heapCoordinates;
+    }
+
     @SuppressWarnings("RedundantIfStatement")
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.tool;
+
+import org.haiku.pkg.HpkrFileExtractor;
+import org.haiku.pkg.HpkrHeader;
+import org.haiku.pkg.heap.HeapCoordinates;
+import org.haiku.pkg.heap.HpkHeapReader;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * <p>Given an HPKR file, this small program will repeatedly decompress the whole of the heap and will
+ * then report the throughput of the decompression.  This is handy for comparing the
+ * {@link org.haiku.pkg.heap.HeapCodec}s for the different compressions on real repository files.
+ * Some warm-up iterations are run first so that the JIT has a chance to compile the code paths
+ * before the timed iterations.</p>
+ */
+
+public class HeapDecodeBenchmarkTool implements Runnable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(HeapDecodeBenchmarkTool.class);
+
+    @Option(name = "-f", required = true, usage = "the HPKR file is required")
+    private File hpkrFile;
+
+    @Option(name = "-w", usage = "the quantity of warm-up iterations")
+    private int warmUpIterations = 5;
+
+    @Option(name = "-i", usage = "the quantity of timed iterations")
+    private int iterations = 20;
+
+    @Option(name = "-m", usage = "memory-map the heap")
+    private boolean memoryMapped = false;
+
+    public static void main(String[] args) {
+        HeapDecodeBenchmarkTool main = new HeapDecodeBenchmarkTool();
+        CmdLineParser parser = new CmdLineParser(main);
+
+        try {
+            parser.parseArgument(args);
+            main.run();
+        }
+        catch (CmdLineException cle) {
+            throw new IllegalStateException("unable to parse arguments",cle);
+        }
+    }
+
+    public void run() {
+        try {
+            HpkrHeader header;
+
+            try (HpkrFileExtractor hpkrFileExtractor = new HpkrFileExtractor(hpkrFile)) {
+                header = hpkrFileExtractor.getHeader();
+            }
+
+            for (int i = 0; i < warmUpIterations; i++) {
+                decodeHeap(header);
+            }
+
+            long startNanos = System.nanoTime();
+
+            for (int i = 0; i < iterations; i++) {
+                decodeHeap(header);
+            }
+
+            long elapsedNanos = System.nanoTime() - startNanos;
+            double uncompressedMegabytes = (header.getHeapSizeUncompressed() * (double) iterations) / (1024 * 1024);
+            double elapsedSeconds = elapsedNanos / 1_000_000_000.0;
+
+            LOGGER.info("codec [{}]; {} iterations of {} bytes in {}ms; {} MB/s",
+                    header.getHeapCompression(),
+                    iterations,
+                    header.getHeapSizeUncompressed(),
+                    elapsedNanos / 1_000_000,
+                    String.format("%.2f", uncompressedMegabytes / elapsedSeconds));
+        }
+        catch (Throwable th) {
+            LOGGER.error("unable to benchmark the heap decode", th);
+        }
+    }
+
+    /**
+     * <p>A new reader is used for each iteration so that none of the chunks are already
+     * cached.</p>
+     */
+
+    private void decodeHeap(HpkrHeader header) {
+        try (HpkHeapReader heapReader = new HpkHeapReader(
+                hpkrFile,
+                header.getHeapCompression(),
+                header.getHeaderSize(),
+                header.getHeapChunkSize(),
+                header.getHeapSizeCompressed(),
+                header.getHeapSizeUncompressed(),
+                memoryMapped)) {
+            byte[] buffer = new byte[(int) header.getHeapChunkSize()];
+            long offset = 0;
+
+            while (offset < header.getHeapSizeUncompressed()) {
+                long length = Math.min(buffer.length, header.getHeapSizeUncompressed() - offset);
+                heapReader.readHeap(buffer, 0, new HeapCoordinates(offset, length));
+                offset += length;
+            }
+        }
+    }
+
+}
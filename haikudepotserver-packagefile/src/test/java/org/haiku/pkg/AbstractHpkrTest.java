@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -14,7 +14,14 @@ import java.io.*;
 
 abstract class AbstractHpkrTest {
 
-    private static final String RESOURCE_TEST = "/repo.hpkr";
+    static final String RESOURCE_TEST = "/repo.hpkr";
+
+    /**
+     * <p>This is the same repository as {@link #RESOURCE_TEST}, but with the chunks of the heap
+     * compressed with zstd rather than zlib.</p>
+     */
+
+    static final String RESOURCE_TEST_ZSTD = "/repo-zstd.hpkr";
 
     private TemporaryFolder temporaryFolder = new TemporaryFolder();
 
@@ -29,21 +36,25 @@ abstract class AbstractHpkrTest {
      */
 
     File prepareTestFile() throws IOException {
+        return prepareTestFile(RESOURCE_TEST);
+    }
+
+    File prepareTestFile(String resource) throws IOException {
         File temporaryFile;
 
-        try (InputStream inputStream = getClass().getResourceAsStream(RESOURCE_TEST)) {
+        try (InputStream inputStream = getClass().getResourceAsStream(resource)) {
 
             if (null == inputStream) {
-                Assert.fail("unable to find the resource [" + RESOURCE_TEST + "]");
+                Assert.fail("unable to find the resource [" + resource + "]");
             }
 
-            temporaryFile = getTemporaryFolder().newFile("repo-test.hpkr");
+            temporaryFile = getTemporaryFolder().newFile();
 
             try (OutputStream fileOutputStream = new FileOutputStream(temporaryFile)) {
                 ByteStreams.copy(inputStream, fileOutputStream);
             } catch (IOException ioe) {
                 throw new IOException(
-                        "unable to copy [" + RESOURCE_TEST + "] to a temporary file ["
+                        "unable to copy [" + resource + "] to a temporary file ["
                                 + temporaryFile.getAbsolutePath() + "]", ioe);
             }
         }
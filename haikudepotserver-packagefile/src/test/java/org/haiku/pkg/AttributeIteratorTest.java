@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg;
+
+import org.haiku.pkg.heap.HeapCoordinates;
+import org.haiku.pkg.heap.HeapReader;
+import org.haiku.pkg.model.Attribute;
+import org.haiku.pkg.model.AttributeId;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AttributeIteratorTest {
+
+    /**
+     * <p>This is the LEB128 tag for a {@link AttributeId#PACKAGE_NAME} that is an inline
+     * string without any child attributes.</p>
+     */
+
+    private final static byte[] TAG_PACKAGE_NAME_INLINE = new byte[] { (byte) 0x90, 0x03 };
+
+    @Test
+    public void testInlineStrings() {
+        byte[] heap = new byte[] {
+                TAG_PACKAGE_NAME_INLINE[0], TAG_PACKAGE_NAME_INLINE[1],
+                'n', 'c', 'u', 'r', 's', 'e', 's', 0,
+                TAG_PACKAGE_NAME_INLINE[0], TAG_PACKAGE_NAME_INLINE[1],
+                0,
+                0 // end of the attributes
+        };
+
+        AttributeIterator attributeIterator = createAttributeIterator(heap);
+
+        // ---------------------------------
+        Attribute attribute0 = attributeIterator.next();
+        Attribute attribute1 = attributeIterator.next();
+        // ---------------------------------
+
+        assertThat(attribute0.getAttributeId()).isEqualTo(AttributeId.PACKAGE_NAME);
+        assertThat(attribute0.getValue(attributeIterator.getContext())).isEqualTo("ncurses");
+        assertThat(attribute1.getAttributeId()).isEqualTo(AttributeId.PACKAGE_NAME);
+        assertThat(attribute1.getValue(attributeIterator.getContext())).isEqualTo("");
+        assertThat(attributeIterator.hasNext()).isFalse();
+        assertThat(attributeIterator.getOffset()).isEqualTo(heap.length);
+    }
+
+    /**
+     * <p>A tag that is too large to fit into a long should be reported as an error rather
+     * than silently overflowing.</p>
+     */
+
+    @Test(expected = HpkException.class)
+    public void testOversizedLeb128() {
+        byte[] heap = new byte[] {
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x01,
+                0
+        };
+
+        // ---------------------------------
+        createAttributeIterator(heap).hasNext();
+        // ---------------------------------
+    }
+
+    private AttributeIterator createAttributeIterator(byte[] heap) {
+        AttributeContext context = new AttributeContext();
+        context.setHeapReader(new ByteArrayHeapReader(heap));
+        return new AttributeIterator(context, 0);
+    }
+
+    private static class ByteArrayHeapReader implements HeapReader {
+
+        private final byte[] heap;
+
+        ByteArrayHeapReader(byte[] heap) {
+            this.heap = heap;
+        }
+
+        @Override
+        public void readHeap(byte[] buffer, int bufferOffset, HeapCoordinates coordinates) {
+            System.arraycopy(
+                    heap, (int) coordinates.getOffset(),
+                    buffer, bufferOffset,
+                    (int) coordinates.getLength());
+        }
+
+        @Override
+        public int readHeap(long offset) {
+            return heap[(int) offset] & 0xff;
+        }
+
+        @Override
+        public long indexOf(long offset, int value) {
+            for (int i = (int) offset; i < heap.length; i++) {
+                if (heap[i] == (byte) value) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.haiku.pkg.model.Attribute;
+import org.haiku.pkg.model.Pkg;
+import org.haiku.pkg.model.PkgArchitecture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.zip.Deflater;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * <p>There is no HPKG file in the test resources so this test will assemble a small HPKG file with
+ * a single zlib-compressed chunk in its heap and will then read it back.</p>
+ */
+
+public class HpkgFileExtractorTest {
+
+    private final static int ID_DIRECTORY_ENTRY = 0;
+    private final static int ID_FILE_ATTRIBUTE = 11;
+    private final static int ID_DATA = 13;
+    private final static int ID_PACKAGE_NAME = 15;
+    private final static int ID_PACKAGE_SUMMARY = 16;
+    private final static int ID_PACKAGE_DESCRIPTION = 17;
+    private final static int ID_PACKAGE_VENDOR = 18;
+    private final static int ID_PACKAGE_ARCHITECTURE = 21;
+    private final static int ID_PACKAGE_VERSION_MAJOR = 22;
+    private final static int ID_PACKAGE_VERSION_MINOR = 23;
+
+    private final static int TYPE_UINT = 2;
+    private final static int TYPE_STRING = 3;
+    private final static int TYPE_RAW = 4;
+
+    private final static int ENCODING_INLINE = 0;
+    private final static int ENCODING_HEAP = 1;
+
+    private final static int CHUNK_SIZE = 64 * 1024;
+
+    private final static String DATA_FILE = Strings.repeat("hvif", 100);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testGetPkg() throws Exception {
+        try (HpkgFileExtractor extractor = new HpkgFileExtractor(prepareTestFile())) {
+
+            // ---------------------------------
+            Pkg pkg = extractor.getPkg();
+            // ---------------------------------
+
+            assertThat(pkg.getName()).isEqualTo("testpkg");
+            assertThat(pkg.getVendor()).isEqualTo("Haiku");
+            assertThat(pkg.getSummary()).isEqualTo("A summary");
+            assertThat(pkg.getDescription()).isEqualTo("A description");
+            assertThat(pkg.getArchitecture()).isEqualTo(PkgArchitecture.X86_64);
+            assertThat(pkg.getVersion().getMajor()).isEqualTo("1");
+            assertThat(pkg.getVersion().getMinor()).isEqualTo("2");
+        }
+    }
+
+    @Test
+    public void testWriteData() throws Exception {
+        try (HpkgFileExtractor extractor = new HpkgFileExtractor(prepareTestFile(), true)) {
+
+            // ---------------------------------
+            Optional<Attribute> entryOptional = extractor.tryGetTocEntry("apps/Foo");
+            // ---------------------------------
+
+            assertThat(entryOptional.isPresent()).isTrue();
+            assertThat(extractor.tryGetTocEntry("apps/Bar").isPresent()).isFalse();
+
+            ByteArrayOutputStream fileData = new ByteArrayOutputStream();
+            extractor.writeData(entryOptional.get(), fileData);
+            assertThat(new String(fileData.toByteArray(), Charsets.US_ASCII)).isEqualTo(DATA_FILE);
+
+            Optional<Attribute> iconAttributeOptional = extractor.tryGetFileAttribute(entryOptional.get(), "BEOS:ICON");
+            assertThat(iconAttributeOptional.isPresent()).isTrue();
+
+            ByteArrayOutputStream iconData = new ByteArrayOutputStream();
+            extractor.writeData(iconAttributeOptional.get(), iconData);
+            assertThat(new String(iconData.toByteArray(), Charsets.US_ASCII)).isEqualTo("ncif");
+        }
+    }
+
+    private File prepareTestFile() throws IOException {
+        byte[] fileData = DATA_FILE.getBytes(Charsets.US_ASCII);
+
+        ByteArrayOutputStream toc = new ByteArrayOutputStream();
+        toc.write(0); // empty string table
+        int tocStringsLength = toc.size();
+        writeTag(toc, ID_DIRECTORY_ENTRY, TYPE_STRING, ENCODING_INLINE, true);
+        writeString(toc, "apps");
+        writeTag(toc, ID_DIRECTORY_ENTRY, TYPE_STRING, ENCODING_INLINE, true);
+        writeString(toc, "Foo");
+        writeTag(toc, ID_DATA, TYPE_RAW, ENCODING_HEAP, false);
+        writeUnsignedLeb128(toc, fileData.length);
+        writeUnsignedLeb128(toc, 0);
+        writeTag(toc, ID_FILE_ATTRIBUTE, TYPE_STRING, ENCODING_INLINE, true);
+        writeString(toc, "BEOS:ICON");
+        writeTag(toc, ID_DATA, TYPE_RAW, ENCODING_INLINE, false);
+        writeUnsignedLeb128(toc, 4);
+        toc.write("ncif".getBytes(Charsets.US_ASCII));
+        toc.write(0); // end of the file attribute's children
+        toc.write(0); // end of Foo's children
+        toc.write(0); // end of apps' children
+        toc.write(0); // end of the TOC
+
+        ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+        attributes.write(0); // empty string table
+        int attributesStringsLength = attributes.size();
+        writeTag(attributes, ID_PACKAGE_NAME, TYPE_STRING, ENCODING_INLINE, false);
+        writeString(attributes, "testpkg");
+        writeTag(attributes, ID_PACKAGE_VENDOR, TYPE_STRING, ENCODING_INLINE, false);
+        writeString(attributes, "Haiku");
+        writeTag(attributes, ID_PACKAGE_SUMMARY, TYPE_STRING, ENCODING_INLINE, false);
+        writeString(attributes, "A summary");
+        writeTag(attributes, ID_PACKAGE_DESCRIPTION, TYPE_STRING, ENCODING_INLINE, false);
+        writeString(attributes, "A description");
+        writeTag(attributes, ID_PACKAGE_ARCHITECTURE, TYPE_UINT, ENCODING_INLINE, false);
+        attributes.write(PkgArchitecture.X86_64.ordinal()); // 8 bit
+        writeTag(attributes, ID_PACKAGE_VERSION_MAJOR, TYPE_STRING, ENCODING_INLINE, true);
+        writeString(attributes, "1");
+        writeTag(attributes, ID_PACKAGE_VERSION_MINOR, TYPE_STRING, ENCODING_INLINE, false);
+        writeString(attributes, "2");
+        attributes.write(0); // end of the major version's children
+        attributes.write(0); // end of the attributes
+
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        heap.write(fileData);
+        heap.write(toc.toByteArray());
+        heap.write(attributes.toByteArray());
+        byte[] heapUncompressed = heap.toByteArray();
+
+        // a single chunk means that there are no chunk lengths stored after the heap.
+
+        byte[] heapCompressed = new byte[CHUNK_SIZE];
+        Deflater deflater = new Deflater();
+        deflater.setInput(heapUncompressed);
+        deflater.finish();
+        int heapCompressedLength = deflater.deflate(heapCompressed);
+        deflater.end();
+        assertThat(heapCompressedLength).isLessThan(heapUncompressed.length);
+
+        int headerSize = 80;
+        File file = temporaryFolder.newFile("test.hpkg");
+
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            output.write("hpkg".getBytes(Charsets.US_ASCII));
+            output.writeShort(headerSize);
+            output.writeShort(2); // version
+            output.writeLong(headerSize + heapCompressedLength); // total size
+            output.writeShort(0); // minor version
+            output.writeShort(1); // zlib
+            output.writeInt(CHUNK_SIZE);
+            output.writeLong(heapCompressedLength);
+            output.writeLong(heapUncompressed.length);
+            output.writeInt(attributes.size());
+            output.writeInt(attributesStringsLength);
+            output.writeInt(0); // attributes strings count
+            output.writeInt(0); // reserved
+            output.writeLong(toc.size());
+            output.writeLong(tocStringsLength);
+            output.writeLong(0); // toc strings count
+            assertThat(output.size()).isEqualTo(headerSize);
+            output.write(heapCompressed, 0, heapCompressedLength);
+        }
+
+        return file;
+    }
+
+    private void writeTag(ByteArrayOutputStream output, int id, int type, int encoding, boolean hasChildren) {
+        writeUnsignedLeb128(output, ((encoding << 11) | ((hasChildren ? 1 : 0) << 10) | (type << 7) | id) + 1);
+    }
+
+    private void writeString(ByteArrayOutputStream output, String value) throws IOException {
+        output.write(value.getBytes(Charsets.UTF_8));
+        output.write(0);
+    }
+
+    private void writeUnsignedLeb128(ByteArrayOutputStream output, long value) {
+        do {
+            int b = (int) (value & 0x7f);
+            value >>>= 7;
+            output.write(0 == value ? b : b | 0x80);
+        } while (0 != value);
+    }
+
+}
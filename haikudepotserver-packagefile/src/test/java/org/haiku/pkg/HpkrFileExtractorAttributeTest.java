@@ -1,16 +1,20 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.pkg;
 
+import org.haiku.pkg.heap.HeapCompression;
+import org.haiku.pkg.heap.HeapCoordinates;
+import org.haiku.pkg.heap.HpkHeapReader;
 import org.haiku.pkg.model.Attribute;
 import org.haiku.pkg.model.AttributeId;
 import org.junit.Test;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import static org.fest.assertions.Assertions.assertThat;
 
@@ -24,10 +28,76 @@ public class HpkrFileExtractorAttributeTest extends AbstractHpkrTest {
 
     @Test
     public void testRepo() throws Exception {
+        assertRepo(false);
+    }
+
+    /**
+     * <p>The same as {@link #testRepo()}, but the heap is read by memory-mapping it.</p>
+     */
 
-        File hpkrFile = prepareTestFile();
+    @Test
+    public void testRepoMemoryMapped() throws Exception {
+        assertRepo(true);
+    }
+
+    /**
+     * <p>The same as {@link #testRepo()}, but the chunks of the heap are compressed with zstd.</p>
+     */
+
+    @Test
+    public void testRepoZstd() throws Exception {
+        assertRepo(RESOURCE_TEST_ZSTD, false);
+    }
+
+    @Test
+    public void testRepoZstdMemoryMapped() throws Exception {
+        assertRepo(RESOURCE_TEST_ZSTD, true);
+    }
+
+    /**
+     * <p>The whole of the uncompressed heap of the zstd file should be the same as that of the zlib
+     * file.</p>
+     */
+
+    @Test
+    public void testRepoZstdHeapMatchesZlib() throws Exception {
+        byte[] zlibHeap = readHeap(prepareTestFile(RESOURCE_TEST), HeapCompression.ZLIB);
+        byte[] zstdHeap = readHeap(prepareTestFile(RESOURCE_TEST_ZSTD), HeapCompression.ZSTD);
+        assertThat(zstdHeap.length).isEqualTo(zlibHeap.length);
+        assertThat(Arrays.equals(zstdHeap, zlibHeap)).isTrue();
+    }
+
+    private byte[] readHeap(File hpkrFile, HeapCompression expectedCompression) throws Exception {
+        HpkrHeader header;
 
         try (HpkrFileExtractor hpkrFileExtractor = new HpkrFileExtractor(hpkrFile)) {
+            header = hpkrFileExtractor.getHeader();
+        }
+
+        assertThat(header.getHeapCompression()).isEqualTo(expectedCompression);
+
+        try (HpkHeapReader heapReader = new HpkHeapReader(
+                hpkrFile,
+                header.getHeapCompression(),
+                header.getHeaderSize(),
+                header.getHeapChunkSize(),
+                header.getHeapSizeCompressed(),
+                header.getHeapSizeUncompressed())) {
+            byte[] heap = new byte[(int) header.getHeapSizeUncompressed()];
+            heapReader.readHeap(heap, 0, new HeapCoordinates(0, heap.length));
+            return heap;
+        }
+    }
+
+    private void assertRepo(boolean memoryMapped) throws Exception {
+        assertRepo(RESOURCE_TEST, memoryMapped);
+    }
+
+    private void assertRepo(String resource, boolean memoryMapped) throws Exception {
+
+        File hpkrFile = prepareTestFile(resource);
+
+        try (HpkrFileExtractor hpkrFileExtractor = new HpkrFileExtractor(hpkrFile, memoryMapped)) {
             Attribute ncursesSourceAttribute = null;
 
             AttributeIterator attributeIterator = hpkrFileExtractor.getPackageAttributesIterator();
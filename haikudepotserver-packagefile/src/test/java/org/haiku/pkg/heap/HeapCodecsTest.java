@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.heap;
+
+import com.google.common.io.ByteStreams;
+import org.haiku.pkg.HpkException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class HeapCodecsTest {
+
+    private static final String RESOURCE_ZSTD_SAMPLE = "/sample-zstd.zst";
+
+    @Test
+    public void testGetByCode() {
+        assertThat(HeapCompression.getByCode(0)).isEqualTo(HeapCompression.NONE);
+        assertThat(HeapCompression.getByCode(1)).isEqualTo(HeapCompression.ZLIB);
+        assertThat(HeapCompression.getByCode(2)).isEqualTo(HeapCompression.ZSTD);
+    }
+
+    @Test
+    public void testZlib() {
+        byte[] uncompressed = "The quick brown fox jumps over the lazy dog; the quick brown fox"
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] compressed = new byte[256];
+        Deflater deflater = new Deflater();
+        deflater.setInput(uncompressed);
+        deflater.finish();
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+
+        byte[] output = new byte[uncompressed.length];
+
+        // ---------------------------------
+        int read;
+
+        try (HeapDecoder decoder = HeapCodecs.get(HeapCompression.ZLIB).createDecoder()) {
+            read = decoder.decode(ByteBuffer.wrap(compressed, 0, compressedLength), output, output.length);
+        }
+        // ---------------------------------
+
+        assertThat(read).isEqualTo(uncompressed.length);
+        assertThat(Arrays.equals(output, uncompressed)).isTrue();
+    }
+
+    /**
+     * <p>The resource contains a skippable frame followed by a zstd frame that has a checksum and
+     * that is made up of a compressed block, an RLE block and a raw block.  The uncompressed data
+     * is generated by {@link #createZstdSampleContent()}.</p>
+     */
+
+    @Test
+    public void testZstd() throws IOException {
+        byte[] compressed = readResource(RESOURCE_ZSTD_SAMPLE);
+        byte[] uncompressed = createZstdSampleContent();
+        byte[] output = new byte[uncompressed.length];
+
+        // ---------------------------------
+        int read;
+
+        try (HeapDecoder decoder = HeapCodecs.get(HeapCompression.ZSTD).createDecoder()) {
+            read = decoder.decode(ByteBuffer.wrap(compressed), output, output.length);
+        }
+        // ---------------------------------
+
+        assertThat(read).isEqualTo(uncompressed.length);
+        assertThat(Arrays.equals(output, uncompressed)).isTrue();
+    }
+
+    /**
+     * <p>The decoder may be handed a buffer that is not backed by an array when the heap is
+     * memory-mapped.</p>
+     */
+
+    @Test
+    public void testZstdDirectBuffer() throws IOException {
+        byte[] compressed = readResource(RESOURCE_ZSTD_SAMPLE);
+        ByteBuffer input = ByteBuffer.allocateDirect(compressed.length);
+        input.put(compressed);
+        input.flip();
+        byte[] uncompressed = createZstdSampleContent();
+        byte[] output = new byte[uncompressed.length];
+
+        // ---------------------------------
+        int read;
+
+        try (HeapDecoder decoder = HeapCodecs.get(HeapCompression.ZSTD).createDecoder()) {
+            read = decoder.decode(input, output, output.length);
+        }
+        // ---------------------------------
+
+        assertThat(read).isEqualTo(uncompressed.length);
+        assertThat(Arrays.equals(output, uncompressed)).isTrue();
+    }
+
+    @Test
+    public void testZstdBadChecksum() throws IOException {
+        byte[] compressed = readResource(RESOURCE_ZSTD_SAMPLE);
+        compressed[compressed.length - 1] ^= 0x01;
+        byte[] output = new byte[createZstdSampleContent().length];
+
+        try (HeapDecoder decoder = HeapCodecs.get(HeapCompression.ZSTD).createDecoder()) {
+            decoder.decode(ByteBuffer.wrap(compressed), output, output.length);
+            Assert.fail("expected the checksum to be rejected");
+        }
+        catch (HpkException he) {
+            assertThat(he.getMessage()).contains("checksum");
+        }
+    }
+
+    @Test
+    public void testZstdOutputTooSmall() throws IOException {
+        byte[] compressed = readResource(RESOURCE_ZSTD_SAMPLE);
+        byte[] output = new byte[createZstdSampleContent().length - 1];
+
+        try (HeapDecoder decoder = HeapCodecs.get(HeapCompression.ZSTD).createDecoder()) {
+            decoder.decode(ByteBuffer.wrap(compressed), output, output.length);
+            Assert.fail("expected the output to be too small");
+        }
+        catch (HpkException he) {
+            assertThat(he.getMessage()).contains("decompresses to more than");
+        }
+    }
+
+    /**
+     * <p>This is a known value from the reference implementation of XXH64.</p>
+     */
+
+    @Test
+    public void testXxHash64() {
+        assertThat(ZstdDecompressor.xxHash64(new byte[0], 0, 0)).isEqualTo(0xEF46DB3751D8E999L);
+    }
+
+    private byte[] readResource(String resource) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(resource)) {
+            if (null == inputStream) {
+                Assert.fail("unable to find the resource [" + resource + "]");
+            }
+
+            return ByteStreams.toByteArray(inputStream);
+        }
+    }
+
+    /**
+     * <p>Some text-like data filling one block, followed by one block of a single repeated byte,
+     * followed by some pseudo-random data that does not compress.</p>
+     */
+
+    private static byte[] createZstdSampleContent() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        for (int i = 0; outputStream.size() < 128 * 1024; i++) {
+            byte[] line = String.format("pkg%d-%d.%d.%d\n", i, i % 7, i % 13, i % 3)
+                    .getBytes(StandardCharsets.US_ASCII);
+            outputStream.write(line, 0, line.length);
+        }
+
+        byte[] result = new byte[(128 * 1024 * 2) + 50000];
+        System.arraycopy(outputStream.toByteArray(), 0, result, 0, 128 * 1024);
+        Arrays.fill(result, 128 * 1024, 128 * 1024 * 2, (byte) 0x2a);
+        int x = 1;
+
+        for (int i = 128 * 1024 * 2; i < result.length; i++) {
+            x = (x * 1103515245 + 12345) & 0x7fffffff;
+            result[i] = (byte) (x >>> 16);
+        }
+
+        return result;
+    }
+
+}
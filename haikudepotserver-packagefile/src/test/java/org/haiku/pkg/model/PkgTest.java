@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.pkg.model;
+
+import com.google.common.collect.ImmutableList;
+import org.fest.assertions.Assertions;
+import org.junit.Test;
+
+public class PkgTest {
+
+    private Pkg createPkg(String summary, String description) {
+        return new Pkg(
+                "testpkg",
+                new PkgVersion("1", "2", null, null, 3),
+                PkgArchitecture.X86_64,
+                "Haiku",
+                ImmutableList.of("Copyright 2019"),
+                ImmutableList.of("MIT"),
+                summary,
+                description,
+                new PkgUrl("http://www.haiku-os.org", PkgUrlType.HOMEPAGE));
+    }
+
+    @Test
+    public void testGetFingerprint_same() {
+        Assertions.assertThat(createPkg("A summary", "A description").getFingerprint())
+                .isEqualTo(createPkg("A summary", "A description").getFingerprint());
+    }
+
+    @Test
+    public void testGetFingerprint_changed() {
+        Assertions.assertThat(createPkg("A summary", "A description").getFingerprint())
+                .isNotEqualTo(createPkg("A summary", "Another description").getFingerprint());
+    }
+
+    /**
+     * <p>Checks that the value moving from one field to the next is detected.</p>
+     */
+
+    @Test
+    public void testGetFingerprint_shifted() {
+        Assertions.assertThat(createPkg("ab", "c").getFingerprint())
+                .isNotEqualTo(createPkg("a", "bc").getFingerprint());
+        Assertions.assertThat(createPkg(null, "c").getFingerprint())
+                .isNotEqualTo(createPkg("", "c").getFingerprint());
+    }
+
+}
@@ -1,18 +1,24 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.haikudepotserver.config;
 
 import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.codahale.metrics.health.HealthCheckRegistry;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.commons.lang.StringUtils;
+import org.haiku.haikudepotserver.job.DatabaseJobServiceImpl;
+import org.haiku.haikudepotserver.job.DatabaseJobStore;
+import org.haiku.haikudepotserver.job.JobLaneDefinition;
 import org.haiku.haikudepotserver.job.LocalJobServiceImpl;
+import org.haiku.haikudepotserver.job.TransientJobStore;
 import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobStore;
 import org.haiku.haikudepotserver.repository.controller.RepositoryController;
 import org.haiku.haikudepotserver.security.RepositoryAuthenticationFilter;
 import org.haiku.haikudepotserver.security.model.AuthenticationService;
@@ -23,6 +29,7 @@ import org.haiku.haikudepotserver.support.HttpRequestClientIdentifierSupplier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.core.io.ClassPathResource;
@@ -54,16 +61,106 @@ public class AppConfig {
         return new HttpRequestClientIdentifierSupplier();
     }
 
+    /**
+     * <p>The jobs are divided into lanes so that a long-running import will not hold up
+     * the production of exports or spreadsheets.  Jobs that import data into the system
+     * run one-at-a-time so that they do not compete to modify the same data.</p>
+     *
+     * <p>If the application server is deployed as a number of nodes then the jobs are shared
+     * between the nodes through the database.</p>
+     */
+
     @Bean
+    @DependsOn({"jobManagedDatabase"})
     public JobService jobService(
-            DataStorageService dataStorageService) {
-        return new LocalJobServiceImpl(dataStorageService);
+            ServerRuntime serverRuntime,
+            ObjectMapper objectMapper,
+            DataStorageService dataStorageService,
+            MetricRegistry metricRegistry,
+            JobStore jobStore,
+            @Value("${jobservice.clustered:false}") Boolean clustered,
+            @Value("${jobservice.lane.queuesize:32}") Integer queueSize,
+            @Value("${jobservice.lane.default.concurrency:1}") Integer defaultConcurrency,
+            @Value("${jobservice.lane.export.concurrency:2}") Integer exportConcurrency,
+            @Value("${jobservice.lane.spreadsheet.concurrency:2}") Integer spreadsheetConcurrency) {
+        List<JobLaneDefinition> laneDefinitions = createJobLaneDefinitions(
+                queueSize, defaultConcurrency, exportConcurrency, spreadsheetConcurrency);
+
+        if (clustered) {
+            return new DatabaseJobServiceImpl(
+                    serverRuntime, dataStorageService, objectMapper, laneDefinitions, metricRegistry);
+        }
+
+        return new LocalJobServiceImpl(dataStorageService, laneDefinitions, metricRegistry, jobStore);
+    }
+
+    private List<JobLaneDefinition> createJobLaneDefinitions(
+            Integer queueSize,
+            Integer defaultConcurrency,
+            Integer exportConcurrency,
+            Integer spreadsheetConcurrency) {
+        return ImmutableList.of(
+                new JobLaneDefinition(
+                        "ingest",
+                        ImmutableList.of(
+                                "repositoryhpkringress",
+                                "pkgversionpayloadlengthpopulation",
+                                "pkgcategorycoverageimportspreadsheet",
+                                "pkgiconimportarchive",
+                                "pkgscreenshotimportarchive"),
+                        1,
+                        queueSize),
+                new JobLaneDefinition(
+                        "export",
+                        ImmutableList.of(
+                                "pkgdumpexport",
+                                "referencedumpexport",
+                                "repositorydumpexport",
+                                "pkgiconexportarchive",
+                                "pkgscreenshotexportarchive"),
+                        exportConcurrency,
+                        queueSize),
+                new JobLaneDefinition(
+                        "spreadsheet",
+                        ImmutableList.of(
+                                "authorizationrulesspreadsheet",
+                                "pkgcategorycoverageexportspreadsheet",
+                                "pkgiconspreadsheet",
+                                "pkglocalizationcoverageexportspreadsheet",
+                                "pkgprominenceanduserratingspreadsheet",
+                                "pkgscreenshotspreadsheet",
+                                "pkgversionlocalizationcoverageexportspreadsheet",
+                                "userratingspreadsheet"),
+                        spreadsheetConcurrency,
+                        queueSize),
+                JobLaneDefinition.createDefault(defaultConcurrency, queueSize));
+    }
+
+    /**
+     * <p>By default the jobs are stored into the database so that they survive the application
+     * server being restarted.</p>
+     */
+
+    @Bean
+    public JobStore jobStore(
+            ServerRuntime serverRuntime,
+            ObjectMapper objectMapper,
+            @Value("${jobservice.store:database}") String store) {
+        switch (store) {
+            case "database":
+                return new DatabaseJobStore(serverRuntime, objectMapper);
+            case "transient":
+                return new TransientJobStore();
+            default:
+                throw new IllegalStateException("unknown job store; " + store);
+        }
     }
 
     @Bean
     public DataStorageService dataStorageService(
-            @Value("${deployment.isproduction:false}") Boolean isProduction) {
-        return new LocalDataStorageServiceImpl(isProduction);
+            @Value("${deployment.isproduction:false}") Boolean isProduction,
+            @Value("${datastorage.local.path:}") String path) {
+        return new LocalDataStorageServiceImpl(isProduction, path);
     }
 
     @Bean
@@ -6,8 +6,10 @@
 package org.haiku.haikudepotserver.job.controller;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 import org.apache.cayenne.ObjectContext;
@@ -19,6 +21,7 @@ import org.haiku.haikudepotserver.security.AuthenticationFilter;
 import org.haiku.haikudepotserver.security.model.AuthorizationService;
 import org.haiku.haikudepotserver.security.model.Permission;
 import org.haiku.haikudepotserver.support.web.AbstractController;
+import org.haiku.haikudepotserver.support.web.ByteRange;
 import org.haiku.haikudepotserver.support.web.JobDataWriteListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,14 +36,22 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.Date;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
@@ -86,27 +97,27 @@ public class JobController extends AbstractController {
 
     /**
      * <p>This is helper-code that can be used to check to see if the data is stale and
-     * will then enqueue the job, run it and then redirect the user to the data
-     * download.</p>
+     * will otherwise redirect the user to the newest complete artifact for the job.  If the
+     * artifact is stale then it will be rebuilt in the background and the client will be
+     * redirected to the stale artifact in the meantime.</p>
      * @param response is the HTTP response to send the redirect to.
      * @param ifModifiedSinceHeader is the inbound header from the client.
-     * @param lastModifyTimestamp is the actual last modified date for the data.
-     * @param jobSpecification is the job that would be run if the data is newer than in the
-     *                         inbound header.
+     * @param lastModifyTimestampSupplier provides the actual last modified date for the data.
+     * @param jobSpecificationSupplier provides the job that would be run to build the artifact.
      */
 
     public static void handleRedirectToJobData(
             HttpServletResponse response,
-            JobService jobService,
+            JobArtifactService jobArtifactService,
             String ifModifiedSinceHeader,
-            Date lastModifyTimestamp,
-            JobSpecification jobSpecification) throws IOException {
+            Supplier<Date> lastModifyTimestampSupplier,
+            Supplier<? extends JobSpecification> jobSpecificationSupplier) throws IOException {
 
         if (!Strings.isNullOrEmpty(ifModifiedSinceHeader)) {
             try {
                 Date requestModifyTimestamp = new Date(Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(ifModifiedSinceHeader)).toEpochMilli());
 
-                if (requestModifyTimestamp.getTime() >= lastModifyTimestamp.getTime()) {
+                if (requestModifyTimestamp.getTime() >= lastModifyTimestampSupplier.get().getTime()) {
                     response.setStatus(HttpStatus.NOT_MODIFIED.value());
                     return;
                 }
@@ -117,16 +128,25 @@ public class JobController extends AbstractController {
             }
         }
 
-        // what happens here is that we get the report and if it is too old, delete it and try again.
-
-        JobSnapshot jobSnapshot = getJobSnapshotStartedAfter(jobService, lastModifyTimestamp, jobSpecification);
-        Set<String> jobDataGuids = jobSnapshot.getDataGuids();
+        JobSnapshot jobSnapshot = jobArtifactService.getArtifact(
+                jobSpecificationSupplier, lastModifyTimestampSupplier);
+        Set<String> jobDataGuids = jobSnapshot.getGeneratedDataGuids();
 
         if (1 != jobDataGuids.size()) {
             throw new IllegalStateException("found [" + jobDataGuids.size() + "] job data guids related to the job ["
                     + jobSnapshot.getGuid() + "] - was expecting 1");
         }
 
+        // if the artifact is stale then the client is told that the data is as old as the start of the
+        // job so that it will ask again for the data later.
+
+        Date lastModifyTimestamp = lastModifyTimestampSupplier.get();
+
+        if (jobSnapshot.getStartTimestamp().getTime() < lastModifyTimestamp.getTime()) {
+            lastModifyTimestamp = new Date(TimeUnit.SECONDS.toMillis(
+                    TimeUnit.MILLISECONDS.toSeconds(jobSnapshot.getStartTimestamp().getTime())));
+        }
+
         String lastModifiedValue = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(
                 lastModifyTimestamp.toInstant(), ZoneOffset.UTC));
         String destinationLocationUrl = UriComponentsBuilder.newInstance()
@@ -140,25 +160,6 @@ public class JobController extends AbstractController {
         response.sendRedirect(destinationLocationUrl);
     }
 
-    private static JobSnapshot getJobSnapshotStartedAfter(
-            JobService jobService,
-            Date lastModifyTimestamp,
-            JobSpecification jobSpecification) {
-        for (int i = 0; i < 3; i++) {
-            String jobGuid = jobService.immediate(jobSpecification, true);
-            JobSnapshot jobSnapshot = jobService.tryGetJob(jobGuid)
-                    .orElseThrow(() -> new IllegalStateException("unable to obtain the job snapshot having run it immediate prior."));
-
-            if (jobSnapshot.getStartTimestamp().getTime() >= lastModifyTimestamp.getTime()) {
-                return jobSnapshot;
-            }
-
-            jobService.removeJob(jobGuid); // remove the stale one.
-        }
-
-        throw new IllegalStateException("unable to find a job snapshot started after [" + lastModifyTimestamp + "]");
-    }
-
     /**
      * <p>This URL can be used to supply data that can be used with a job to be run as an input to the
      * job.  A GUID is returned in the header {@link #HEADER_DATAGUID} that can be later used to refer
@@ -205,7 +206,10 @@ public class JobController extends AbstractController {
     }
 
     /**
-     * <p>This URL can be used to download job data that has resulted from a job being run.</p>
+     * <p>This URL can be used to download job data that has resulted from a job being run.  The response
+     * carries the length of the data and an entity tag so that a client is able to make a conditional
+     * request.  A client is also able to request a single range of the data in order to resume a
+     * download.</p>
      */
 
     @RequestMapping(value = "/" + SEGMENT_JOBDATA + "/{" + KEY_GUID + "}/" + SEGMENT_DOWNLOAD, method = RequestMethod.GET)
@@ -247,7 +251,7 @@ public class JobController extends AbstractController {
             LOGGER.debug("access to job [{}] allowed for unauthenticated access", job.toString());
         }
 
-        JobDataWithByteSource jobDataWithByteSink = jobService.tryObtainData(guid).orElseThrow(() -> {
+        JobDataWithByteSource jobDataWithByteSource = jobService.tryObtainData(guid).orElseThrow(() -> {
             LOGGER.warn("requested job data {} not found", guid);
             return new JobDataAuthorizationFailure();
         });
@@ -255,7 +259,39 @@ public class JobController extends AbstractController {
         // finally access has been checked and the logic can move onto actual
         // delivery of the material.
 
-        JobData jobData = jobDataWithByteSink.getJobData();
+        JobData jobData = jobDataWithByteSource.getJobData();
+        Optional<Path> pathOptional = jobDataWithByteSource.tryGetPath();
+        long length = pathOptional.isPresent()
+                ? Files.size(pathOptional.get())
+                : jobDataWithByteSource.getByteSource().size();
+
+        // the data for a guid does not change so the guid and the length make a strong entity tag.
+
+        String entityTag = "\"" + guid + "-" + length + "\"";
+        long lastModifiedSeconds = TimeUnit.MILLISECONDS.toSeconds(jobData.getCreateTimestamp().getTime());
+
+        response.setHeader(HttpHeaders.ETAG, entityTag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, TimeUnit.SECONDS.toMillis(lastModifiedSeconds));
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+        if (isNotModified(request, entityTag, lastModifiedSeconds)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        Optional<ByteRange> byteRangeOptional;
+
+        try {
+            byteRangeOptional = isRangeApplicable(request, entityTag, lastModifiedSeconds)
+                    ? ByteRange.tryParse(request.getHeader(HttpHeaders.RANGE), length)
+                    : Optional.empty();
+        }
+        catch (ByteRange.RangeNotSatisfiableException rnse) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, ByteRange.toUnsatisfiableContentRange(length));
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
 
         if(!Strings.isNullOrEmpty(jobData.getMediaTypeCode())) {
             response.setContentType(jobData.getMediaTypeCode());
@@ -264,21 +300,121 @@ public class JobController extends AbstractController {
             response.setContentType(MediaType.OCTET_STREAM.toString());
         }
 
-        response.setContentType(MediaType.CSV_UTF_8.toString());
         response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename="+ jobService.deriveDataFilename(guid));
-        response.setDateHeader(HttpHeaders.EXPIRES, 0);
-        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+        long offset = 0L;
+        long sendLength = length;
+
+        if (byteRangeOptional.isPresent()) {
+            ByteRange byteRange = byteRangeOptional.get();
+            offset = byteRange.getFirst();
+            sendLength = byteRange.getLength();
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, byteRange.toContentRange(length));
+        }
+
+        response.setContentLengthLong(sendLength);
+
+        // the data is opened once and positioned at the start of the data to send.
+
+        ReadableByteChannel channel = openChannel(jobDataWithByteSource, offset);
 
         // now switch to async for the delivery of the data.
 
-        AsyncContext async = request.startAsync();
-        async.setTimeout(TIMEOUT_DOWNLOAD_MILLIS);
-        ServletOutputStream outputStream = response.getOutputStream();
-        outputStream.setWriteListener(new JobDataWriteListener(
-                guid, jobService, async, outputStream));
+        try {
+            AsyncContext async = request.startAsync();
+            async.setTimeout(TIMEOUT_DOWNLOAD_MILLIS);
+            ServletOutputStream outputStream = response.getOutputStream();
+            outputStream.setWriteListener(new JobDataWriteListener(
+                    guid, channel, sendLength, async, outputStream));
+        }
+        catch (RuntimeException | IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        LOGGER.info("did start async stream job data; {} ({} bytes from {})", guid, sendLength, offset);
 
-        LOGGER.info("did start async stream job data; {}", guid);
+    }
 
+    private static ReadableByteChannel openChannel(
+            JobDataWithByteSource jobDataWithByteSource,
+            long offset) throws IOException {
+        Optional<Path> pathOptional = jobDataWithByteSource.tryGetPath();
+
+        if (pathOptional.isPresent()) {
+            FileChannel fileChannel = FileChannel.open(pathOptional.get(), StandardOpenOption.READ);
+            fileChannel.position(offset);
+            return fileChannel;
+        }
+
+        InputStream inputStream = jobDataWithByteSource.getByteSource().openBufferedStream();
+
+        try {
+            ByteStreams.skipFully(inputStream, offset);
+        }
+        catch (IOException ioe) {
+            inputStream.close();
+            throw ioe;
+        }
+
+        return Channels.newChannel(inputStream);
+    }
+
+    /**
+     * <p>The entity tag takes precedence over the modification date if the client has supplied both.</p>
+     */
+
+    private static boolean isNotModified(
+            HttpServletRequest request,
+            String entityTag,
+            long lastModifiedSeconds) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+
+        if (!Strings.isNullOrEmpty(ifNoneMatch)) {
+            return Splitter.on(',').trimResults().splitToList(ifNoneMatch)
+                    .stream()
+                    .anyMatch(t -> t.equals("*") || t.equals(entityTag) || t.equals("W/" + entityTag));
+        }
+
+        return tryGetDateHeaderSeconds(request, HttpHeaders.IF_MODIFIED_SINCE)
+                .filter(s -> s >= lastModifiedSeconds)
+                .isPresent();
+    }
+
+    /**
+     * <p>If the client supplies an &quot;If-Range&quot; header then the range is only applied if the data
+     * has not changed; otherwise the whole of the data is sent.</p>
+     */
+
+    private static boolean isRangeApplicable(
+            HttpServletRequest request,
+            String entityTag,
+            long lastModifiedSeconds) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+
+        if (Strings.isNullOrEmpty(ifRange)) {
+            return true;
+        }
+
+        if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(entityTag);
+        }
+
+        return tryGetDateHeaderSeconds(request, HttpHeaders.IF_RANGE)
+                .filter(s -> s == lastModifiedSeconds)
+                .isPresent();
+    }
+
+    private static Optional<Long> tryGetDateHeaderSeconds(HttpServletRequest request, String headerName) {
+        try {
+            long value = request.getDateHeader(headerName);
+            return -1L == value ? Optional.empty() : Optional.of(TimeUnit.MILLISECONDS.toSeconds(value));
+        }
+        catch (IllegalArgumentException iae) {
+            LOGGER.warn("bad [{}] header on request -- will ignore", headerName);
+            return Optional.empty();
+        }
     }
 
     @ResponseStatus(value= HttpStatus.UNAUTHORIZED, reason="access to job data denied")
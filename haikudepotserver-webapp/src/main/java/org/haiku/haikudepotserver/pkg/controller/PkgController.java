@@ -11,22 +11,24 @@ import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.haiku.haikudepotserver.dataobjects.RepositorySource;
 import org.haiku.haikudepotserver.job.controller.JobController;
-import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobArtifactService;
 import org.haiku.haikudepotserver.pkg.model.PkgDumpExportJobSpecification;
 import org.haiku.haikudepotserver.pkg.model.PkgService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Date;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 @RequestMapping(path = { "__pkg" })
@@ -36,18 +38,22 @@ public class PkgController {
 
     private final static String KEY_REPOSITORYSOURCECODE = "repositorySourceCode";
     private final static String KEY_NATURALLANGUAGECODE = "naturalLanguageCode";
+    private final static String KEY_SINCEMODIFYTIMESTAMP = "sinceModifyTimestamp";
 
     private final ServerRuntime serverRuntime;
-    private final JobService jobService;
+    private final JobArtifactService jobArtifactService;
     private final PkgService pkgService;
+    private final long deltaMaxAgeMillis;
 
     public PkgController(
             ServerRuntime serverRuntime,
-            JobService jobService,
-            PkgService pkgService) {
+            JobArtifactService jobArtifactService,
+            PkgService pkgService,
+            @Value("${pkg.dumpexport.delta.maxagedays:30}") int deltaMaxAgeDays) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
-        this.jobService = Preconditions.checkNotNull(jobService);
+        this.jobArtifactService = Preconditions.checkNotNull(jobArtifactService);
         this.pkgService = Preconditions.checkNotNull(pkgService);
+        this.deltaMaxAgeMillis = TimeUnit.DAYS.toMillis(deltaMaxAgeDays);
     }
 
     /**
@@ -57,6 +63,10 @@ public class PkgController {
      *
      * <p>The primary client for this is the Haiku desktop application &quot;Haiku Depot&quot;.
      * This API deprecates and older JSON-RPC API for obtaining bulk data.</p>
+     *
+     * <p>If the client supplies the data modified timestamp from a dump that it already has then the
+     * dump will only contain the packages that have changed since then together with the packages that
+     * have been removed.  If the timestamp is too old then the full dump is returned instead.</p>
      */
 
     // TODO; observe the natural language code
@@ -66,6 +76,7 @@ public class PkgController {
             HttpServletResponse response,
             @PathVariable(value = KEY_NATURALLANGUAGECODE) String naturalLanguageCode,
             @PathVariable(value = KEY_REPOSITORYSOURCECODE) String repositorySourceCode,
+            @RequestParam(value = KEY_SINCEMODIFYTIMESTAMP, required = false) Long sinceModifyTimestamp,
             @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) String ifModifiedSinceHeader)
             throws IOException {
 
@@ -78,19 +89,48 @@ public class PkgController {
             LOGGER.info("repository source [" + repositorySourceCode + "] not found");
             response.setStatus(HttpStatus.NOT_FOUND.value());
         } else {
-            Date lastModifiedTimestamp = pkgService.getLastModifyTimestampSecondAccuracy(
-                    objectContext, repositorySourceOptional.get());
-            PkgDumpExportJobSpecification specification = new PkgDumpExportJobSpecification();
-            specification.setNaturalLanguageCode(naturalLanguageCode);
-            specification.setRepositorySourceCode(repositorySourceCode);
-
             JobController.handleRedirectToJobData(
                     response,
-                    jobService,
+                    jobArtifactService,
                     ifModifiedSinceHeader,
-                    lastModifiedTimestamp,
-                    specification);
+                    () -> {
+                        ObjectContext context = serverRuntime.newContext();
+                        return pkgService.getLastModifyTimestampSecondAccuracy(
+                                context, RepositorySource.getByCode(context, repositorySourceCode));
+                    },
+                    () -> {
+                        PkgDumpExportJobSpecification specification = new PkgDumpExportJobSpecification();
+                        specification.setNaturalLanguageCode(naturalLanguageCode);
+                        specification.setRepositorySourceCode(repositorySourceCode);
+                        specification.setSinceModifyTimestamp(deriveSinceModifyTimestamp(sinceModifyTimestamp));
+                        return specification;
+                    });
+        }
+    }
+
+    /**
+     * <p>Each delta is built once as a job artifact and is then shared by all of the clients that supply
+     * the same timestamp.  The timestamp is the data modified timestamp of a published dump and so the
+     * number of different deltas is bounded by the number of dumps that were published within the
+     * maximum age.  A timestamp that is too old, in the future or that is not on a whole second (and so
+     * could not have come from a dump) is ignored and the full dump is used.</p>
+     */
+
+    private Long deriveSinceModifyTimestamp(Long sinceModifyTimestamp) {
+        if (null == sinceModifyTimestamp) {
+            return null;
+        }
+
+        long nowMillis = System.currentTimeMillis();
+
+        if (sinceModifyTimestamp > nowMillis
+                || nowMillis - sinceModifyTimestamp > deltaMaxAgeMillis
+                || 0 != sinceModifyTimestamp % TimeUnit.SECONDS.toMillis(1)) {
+            LOGGER.info("delta since [{}] is out of range -- will provide the full dump", sinceModifyTimestamp);
+            return null;
         }
+
+        return sinceModifyTimestamp;
     }
 
 }
@@ -15,7 +15,7 @@ import org.haiku.haikudepotserver.dataobjects.Pkg;
 import org.haiku.haikudepotserver.dataobjects.PkgIcon;
 import org.haiku.haikudepotserver.dataobjects.PkgSupplement;
 import org.haiku.haikudepotserver.job.controller.JobController;
-import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobArtifactService;
 import org.haiku.haikudepotserver.pkg.RenderedPkgIconRepository;
 import org.haiku.haikudepotserver.pkg.model.PkgIconExportArchiveJobSpecification;
 import org.haiku.haikudepotserver.pkg.model.PkgIconService;
@@ -56,18 +56,18 @@ public class PkgIconController extends AbstractController {
 
     private final ServerRuntime serverRuntime;
     private final PkgIconService pkgIconService;
-    private final JobService jobService;
+    private final JobArtifactService jobArtifactService;
     private final RenderedPkgIconRepository renderedPkgIconRepository;
     private final long startupMillis;
 
     public PkgIconController(
             ServerRuntime serverRuntime,
             PkgIconService pkgIconService,
-            JobService jobService,
+            JobArtifactService jobArtifactService,
             RenderedPkgIconRepository renderedPkgIconRepository) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.pkgIconService = Preconditions.checkNotNull(pkgIconService);
-        this.jobService = Preconditions.checkNotNull(jobService);
+        this.jobArtifactService = Preconditions.checkNotNull(jobArtifactService);
         this.renderedPkgIconRepository = Preconditions.checkNotNull(renderedPkgIconRepository);
         startupMillis = System.currentTimeMillis();
     }
@@ -86,10 +86,10 @@ public class PkgIconController extends AbstractController {
             throws IOException {
         JobController.handleRedirectToJobData(
                 response,
-                jobService,
+                jobArtifactService,
                 ifModifiedSinceHeader,
-                pkgIconService.getLastPkgIconModifyTimestampSecondAccuracy(serverRuntime.newContext()),
-                new PkgIconExportArchiveJobSpecification());
+                () -> pkgIconService.getLastPkgIconModifyTimestampSecondAccuracy(serverRuntime.newContext()),
+                PkgIconExportArchiveJobSpecification::new);
     }
 
     @RequestMapping(value = "/" + SEGMENT_GENERICPKGICON, method = RequestMethod.HEAD)
@@ -7,7 +7,6 @@ package org.haiku.haikudepotserver.pkg.controller;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.io.ByteStreams;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
 import org.apache.cayenne.ObjectContext;
@@ -20,10 +19,10 @@ import org.haiku.haikudepotserver.job.model.JobSnapshot;
 import org.haiku.haikudepotserver.pkg.model.BadPkgScreenshotException;
 import org.haiku.haikudepotserver.pkg.model.PkgScreenshotOptimizationJobSpecification;
 import org.haiku.haikudepotserver.pkg.model.PkgScreenshotService;
+import org.haiku.haikudepotserver.pkg.model.RenderedPkgImagePrewarmService;
 import org.haiku.haikudepotserver.pkg.model.SizeLimitReachedException;
 import org.haiku.haikudepotserver.security.model.AuthorizationService;
 import org.haiku.haikudepotserver.security.model.Permission;
-import org.haiku.haikudepotserver.support.ByteCounterOutputStream;
 import org.haiku.haikudepotserver.support.web.AbstractController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +33,7 @@ import org.springframework.web.bind.annotation.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Optional;
 
 @Controller
@@ -62,16 +62,19 @@ public class PkgScreenshotController extends AbstractController {
     private PkgScreenshotService pkgScreenshotService;
     private JobService jobService;
     private AuthorizationService authorizationService;
+    private RenderedPkgImagePrewarmService renderedPkgImagePrewarmService;
 
     public PkgScreenshotController(
             ServerRuntime serverRuntime,
             PkgScreenshotService pkgScreenshotService,
             JobService jobService,
-            AuthorizationService authorizationService) {
+            AuthorizationService authorizationService,
+            RenderedPkgImagePrewarmService renderedPkgImagePrewarmService) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.pkgScreenshotService = Preconditions.checkNotNull(pkgScreenshotService);
         this.jobService = Preconditions.checkNotNull(jobService);
         this.authorizationService = Preconditions.checkNotNull(authorizationService);
+        this.renderedPkgImagePrewarmService = Preconditions.checkNotNull(renderedPkgImagePrewarmService);
     }
 
     private void handleHeadOrGet(
@@ -111,9 +114,10 @@ public class PkgScreenshotController extends AbstractController {
 
         switch (requestMethod) {
             case HEAD:
-                ByteCounterOutputStream byteCounter = new ByteCounterOutputStream(ByteStreams.nullOutputStream());
-                pkgScreenshotService.writePkgScreenshotImage(byteCounter, context, screenshot, targetWidth, targetHeight);
-                response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(byteCounter.getCounter()));
+                response.setHeader(
+                        HttpHeaders.CONTENT_LENGTH,
+                        Long.toString(pkgScreenshotService.derivePkgScreenshotImageLength(
+                                context, screenshot, targetWidth, targetHeight)));
                 break;
 
             case GET:
@@ -252,11 +256,14 @@ public class PkgScreenshotController extends AbstractController {
 
         context.commitChanges();
 
-        // trigger optimization of the screenshot image.
+        // trigger optimization of the screenshot image.  The job may run on another node so the scaled
+        // images are rendered into this node's cache once the job has finished.
 
-        jobService.submit(
+        String optimizationJobGuid = jobService.submit(
                 new PkgScreenshotOptimizationJobSpecification(screenshotCode),
                 JobSnapshot.COALESCE_STATUSES_QUEUED_STARTED);
+        renderedPkgImagePrewarmService.prewarmPkgScreenshots(
+                Collections.singleton(screenshotCode), optimizationJobGuid);
 
         response.setHeader(HEADER_SCREENSHOTCODE, screenshotCode);
         response.setStatus(HttpServletResponse.SC_OK);
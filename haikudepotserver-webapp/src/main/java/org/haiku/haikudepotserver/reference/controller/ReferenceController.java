@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -12,7 +12,7 @@ import org.haiku.haikudepotserver.dataobjects.Country;
 import org.haiku.haikudepotserver.dataobjects.NaturalLanguage;
 import org.haiku.haikudepotserver.dataobjects.PkgCategory;
 import org.haiku.haikudepotserver.job.controller.JobController;
-import org.haiku.haikudepotserver.job.model.JobService;
+import org.haiku.haikudepotserver.job.model.JobArtifactService;
 import org.haiku.haikudepotserver.reference.model.ReferenceDumpExportJobSpecification;
 import org.haiku.haikudepotserver.support.cayenne.GeneralQueryHelper;
 import org.haiku.haikudepotserver.support.web.AbstractController;
@@ -32,11 +32,11 @@ public class ReferenceController extends AbstractController {
     private final static String KEY_NATURALLANGUAGECODE = "naturalLanguageCode";
 
     private final ServerRuntime serverRuntime;
-    private final JobService jobService;
+    private final JobArtifactService jobArtifactService;
 
-    public ReferenceController(ServerRuntime serverRuntime, JobService jobService) {
+    public ReferenceController(ServerRuntime serverRuntime, JobArtifactService jobArtifactService) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
-        this.jobService = Preconditions.checkNotNull(jobService);
+        this.jobArtifactService = Preconditions.checkNotNull(jobArtifactService);
     }
 
     /**
@@ -53,17 +53,18 @@ public class ReferenceController extends AbstractController {
             @PathVariable(value = KEY_NATURALLANGUAGECODE) String naturalLanguageCode,
             @RequestHeader(value = HttpHeaders.IF_MODIFIED_SINCE, required = false) String ifModifiedSinceHeader)
             throws IOException {
-        ReferenceDumpExportJobSpecification specification = new ReferenceDumpExportJobSpecification();
-        specification.setNaturalLanguageCode(naturalLanguageCode);
-
         JobController.handleRedirectToJobData(
                 response,
-                jobService,
+                jobArtifactService,
                 ifModifiedSinceHeader,
-                GeneralQueryHelper.getLastModifyTimestampSecondAccuracy(
+                () -> GeneralQueryHelper.getLastModifyTimestampSecondAccuracy(
                         serverRuntime.newContext(),
                         Country.class, NaturalLanguage.class, PkgCategory.class),
-                specification);
+                () -> {
+                    ReferenceDumpExportJobSpecification specification = new ReferenceDumpExportJobSpecification();
+                    specification.setNaturalLanguageCode(naturalLanguageCode);
+                    return specification;
+                });
     }
 
 }
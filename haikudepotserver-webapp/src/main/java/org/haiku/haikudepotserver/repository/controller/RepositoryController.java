@@ -1,5 +1,5 @@
 /*
- * Copyright 2018, Andrew Lindesay
+ * Copyright 2018-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
@@ -12,6 +12,7 @@ import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.haiku.haikudepotserver.dataobjects.Repository;
 import org.haiku.haikudepotserver.dataobjects.RepositorySource;
 import org.haiku.haikudepotserver.job.controller.JobController;
+import org.haiku.haikudepotserver.job.model.JobArtifactService;
 import org.haiku.haikudepotserver.job.model.JobService;
 import org.haiku.haikudepotserver.job.model.JobSnapshot;
 import org.haiku.haikudepotserver.repository.model.RepositoryDumpExportJobSpecification;
@@ -57,14 +58,17 @@ public class RepositoryController extends AbstractController {
 
     private final ServerRuntime serverRuntime;
     private final JobService jobService;
+    private final JobArtifactService jobArtifactService;
     private final RepositoryService repositoryService;
 
     public RepositoryController(
             ServerRuntime serverRuntime,
             JobService jobService,
+            JobArtifactService jobArtifactService,
             RepositoryService repositoryService) {
         this.serverRuntime = Preconditions.checkNotNull(serverRuntime);
         this.jobService = Preconditions.checkNotNull(jobService);
+        this.jobArtifactService = Preconditions.checkNotNull(jobArtifactService);
         this.repositoryService = Preconditions.checkNotNull(repositoryService);
     }
 
@@ -87,10 +91,10 @@ public class RepositoryController extends AbstractController {
 
         JobController.handleRedirectToJobData(
                 response,
-                jobService,
+                jobArtifactService,
                 ifModifiedSinceHeader,
-                repositoryService.getLastRepositoryModifyTimestampSecondAccuracy(serverRuntime.newContext()),
-                new RepositoryDumpExportJobSpecification());
+                () -> repositoryService.getLastRepositoryModifyTimestampSecondAccuracy(serverRuntime.newContext()),
+                RepositoryDumpExportJobSpecification::new);
     }
 
     /**
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.support.web;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>This is a single range of bytes from an HTTP &quot;Range&quot; header.  Only a single range is
+ * supported; a header with more than one range is treated as though there were no header and so the
+ * whole of the data would be sent.</p>
+ */
+
+public class ByteRange {
+
+    private final static Pattern PATTERN_RANGE = Pattern.compile("^\\s*bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)\\s*$");
+
+    private final long first;
+
+    private final long last;
+
+    private ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * <p>The offset of the first byte of the range.</p>
+     */
+
+    public long getFirst() {
+        return first;
+    }
+
+    /**
+     * <p>The offset of the last byte of the range; this is inclusive.</p>
+     */
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * <p>Returns the value for the &quot;Content-Range&quot; header of a response for this range.</p>
+     */
+
+    public String toContentRange(long totalLength) {
+        return "bytes " + first + "-" + last + "/" + totalLength;
+    }
+
+    public static String toUnsatisfiableContentRange(long totalLength) {
+        return "bytes */" + totalLength;
+    }
+
+    /**
+     * <p>Parses the header value against data of the supplied length.  If the header is absent or is not
+     * a single range then an empty optional is returned.  If the range is not able to be satisfied with
+     * data of the supplied length then a {@link RangeNotSatisfiableException} is thrown.</p>
+     */
+
+    public static Optional<ByteRange> tryParse(String headerValue, long totalLength) {
+        Preconditions.checkArgument(totalLength >= 0L, "the total length must not be negative");
+
+        if (Strings.isNullOrEmpty(headerValue)) {
+            return Optional.empty();
+        }
+
+        Matcher matcher = PATTERN_RANGE.matcher(headerValue);
+
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+
+        String firstValue = matcher.group(1);
+        String lastValue = matcher.group(2);
+
+        try {
+            if (firstValue.isEmpty()) {
+
+                // this is a suffix range; the last n bytes.
+
+                if (lastValue.isEmpty()) {
+                    return Optional.empty();
+                }
+
+                long suffixLength = Long.parseLong(lastValue);
+
+                if (0L == suffixLength || 0L == totalLength) {
+                    throw new RangeNotSatisfiableException();
+                }
+
+                return Optional.of(new ByteRange(Math.max(0L, totalLength - suffixLength), totalLength - 1));
+            }
+
+            long first = Long.parseLong(firstValue);
+            long last = lastValue.isEmpty() ? totalLength - 1 : Math.min(Long.parseLong(lastValue), totalLength - 1);
+
+            if (!lastValue.isEmpty() && Long.parseLong(lastValue) < first) {
+                return Optional.empty(); // syntactically invalid so ignored
+            }
+
+            if (first >= totalLength) {
+                throw new RangeNotSatisfiableException();
+            }
+
+            return Optional.of(new ByteRange(first, last));
+        }
+        catch (NumberFormatException nfe) {
+            return Optional.empty(); // numbers too large to be a real range
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "bytes=" + first + "-" + last;
+    }
+
+    public static class RangeNotSatisfiableException extends RuntimeException {
+    }
+
+}
@@ -1,14 +1,12 @@
 /*
- * Copyright 2016, Andrew Lindesay
+ * Copyright 2016-2019, Andrew Lindesay
  * Distributed under the terms of the MIT License.
  */
 
 package org.haiku.haikudepotserver.support.web;
 
-import com.google.common.io.ByteSource;
+import com.google.common.base.Preconditions;
 import org.haiku.haikudepotserver.job.controller.JobController;
-import org.haiku.haikudepotserver.job.model.JobDataWithByteSource;
-import org.haiku.haikudepotserver.job.model.JobService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,83 +14,85 @@ import javax.servlet.AsyncContext;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Optional;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 /**
- * <p>This is used to stream data produced from a job out through a servlet 3.1 async response.</p>
+ * <p>This is used to stream data produced from a job out through a servlet 3.1 async response.  The data
+ * is read from a channel that is opened once for the whole response and that is already positioned at the
+ * start of the data to send.  Each write to the output stream is only made once the output stream is
+ * ready so that the container's thread is never blocked.</p>
  */
 
 public class JobDataWriteListener implements WriteListener {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(JobController.class);
 
-    private final static int BUFFER_SIZE = 16 * 1024;
+    private final static int BUFFER_SIZE = 64 * 1024;
 
     private final String jobDataGuid;
-    private final JobService jobService;
+    private final ReadableByteChannel channel;
     private final AsyncContext async;
     private final ServletOutputStream outputStream;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
 
-    private int payloadOffset = 0;
-    private byte[] subPayloadBuffer = new byte[BUFFER_SIZE];
+    private long remaining;
 
     public JobDataWriteListener(
             String jobDataGuid,
-            JobService jobService,
+            ReadableByteChannel channel,
+            long length,
             AsyncContext async,
             ServletOutputStream outputStream)
     {
+        Preconditions.checkArgument(length >= 0L, "the length must not be negative");
         this.jobDataGuid = jobDataGuid;
-        this.jobService = jobService;
-        this.async = async;
-        this.outputStream = outputStream;
+        this.channel = Preconditions.checkNotNull(channel);
+        this.remaining = length;
+        this.async = Preconditions.checkNotNull(async);
+        this.outputStream = Preconditions.checkNotNull(outputStream);
     }
 
     @Override
     public void onWritePossible() throws IOException {
-        Optional<JobDataWithByteSource> jobDataWithByteSourceOptional = jobService.tryObtainData(jobDataGuid);
-
-        if (!jobDataWithByteSourceOptional.isPresent()) {
-            LOGGER.error("unable to find the job data for; " + jobDataGuid);
-            async.complete();
-        } else {
-            ByteSource byteSource = jobDataWithByteSourceOptional.get().getByteSource();
-
-            while (payloadOffset >= 0 && outputStream.isReady()) {
-                ByteSource subPayloadByteStream = byteSource.slice(payloadOffset, BUFFER_SIZE);
-                int subPayloadBufferFillLength = readToBuffer(subPayloadByteStream);
-
-                if (0 == subPayloadBufferFillLength) {
-                    async.complete();
-                    LOGGER.info("did complete async stream job data; {}", jobDataGuid);
-                    payloadOffset = -1;
-                } else {
-                    outputStream.write(subPayloadBuffer, 0, subPayloadBufferFillLength);
-                    payloadOffset += subPayloadBufferFillLength;
-                }
+        while (remaining > 0L && outputStream.isReady()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+
+            int read = channel.read(buffer);
+
+            if (-1 == read) {
+                LOGGER.error("the job data ended {} bytes before it was expected to; {}", remaining, jobDataGuid);
+                complete();
+                return;
             }
-        }
-    }
 
-    private int readToBuffer(ByteSource byteSource) throws IOException {
-        try (InputStream inputStream = byteSource.openStream()) {
-            int lastBytesRead;
-            int bufferUpto = 0;
+            outputStream.write(buffer.array(), 0, read);
+            remaining -= read;
+        }
 
-            do {
-                lastBytesRead = inputStream.read(subPayloadBuffer, bufferUpto, subPayloadBuffer.length - bufferUpto);
-                bufferUpto += -1 != lastBytesRead ? lastBytesRead : 0;
-            } while (bufferUpto < subPayloadBuffer.length && -1 != lastBytesRead);
+        if (0L == remaining) {
+            remaining = -1L;
+            complete();
+            LOGGER.info("did complete async stream job data; {}", jobDataGuid);
+        }
+    }
 
-            return bufferUpto;
+    private void complete() {
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            LOGGER.warn("unable to close the channel for job data; " + jobDataGuid, ioe);
         }
+
+        async.complete();
     }
 
     @Override
     public void onError(Throwable t) {
         LOGGER.error("an error has arisen writing async data; " + jobDataGuid, t);
-        async.complete();
+        complete();
     }
 
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019, Andrew Lindesay
+ * Distributed under the terms of the MIT License.
+ */
+
+package org.haiku.haikudepotserver.support.web;
+
+import org.fest.assertions.Assertions;
+import org.junit.Test;
+
+import java.util.Optional;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testTryParse_firstAndLast() {
+        // ---------------------------------
+        Optional<ByteRange> result = ByteRange.tryParse("bytes=10-19", 100);
+        // ---------------------------------
+
+        Assertions.assertThat(result.get().getFirst()).isEqualTo(10L);
+        Assertions.assertThat(result.get().getLast()).isEqualTo(19L);
+        Assertions.assertThat(result.get().getLength()).isEqualTo(10L);
+        Assertions.assertThat(result.get().toContentRange(100)).isEqualTo("bytes 10-19/100");
+    }
+
+    @Test
+    public void testTryParse_openEnded() {
+        // ---------------------------------
+        Optional<ByteRange> result = ByteRange.tryParse("bytes=90-", 100);
+        // ---------------------------------
+
+        Assertions.assertThat(result.get().getFirst()).isEqualTo(90L);
+        Assertions.assertThat(result.get().getLast()).isEqualTo(99L);
+    }
+
+    @Test
+    public void testTryParse_lastBeyondLength() {
+        // ---------------------------------
+        Optional<ByteRange> result = ByteRange.tryParse("bytes=50-500", 100);
+        // ---------------------------------
+
+        Assertions.assertThat(result.get().getLast()).isEqualTo(99L);
+    }
+
+    @Test
+    public void testTryParse_suffix() {
+        // ---------------------------------
+        Optional<ByteRange> result = ByteRange.tryParse("bytes=-30", 100);
+        // ---------------------------------
+
+        Assertions.assertThat(result.get().getFirst()).isEqualTo(70L);
+        Assertions.assertThat(result.get().getLast()).isEqualTo(99L);
+    }
+
+    /**
+     * <p>Multiple ranges and malformed values are ignored so that the whole of the data is sent.</p>
+     */
+
+    @Test
+    public void testTryParse_ignored() {
+        Assertions.assertThat(ByteRange.tryParse(null, 100).isPresent()).isFalse();
+        Assertions.assertThat(ByteRange.tryParse("bytes=0-4,10-14", 100).isPresent()).isFalse();
+        Assertions.assertThat(ByteRange.tryParse("bytes=20-10", 100).isPresent()).isFalse();
+        Assertions.assertThat(ByteRange.tryParse("items=0-4", 100).isPresent()).isFalse();
+        Assertions.assertThat(ByteRange.tryParse("bytes=-", 100).isPresent()).isFalse();
+    }
+
+    @Test(expected = ByteRange.RangeNotSatisfiableException.class)
+    public void testTryParse_unsatisfiable() {
+        ByteRange.tryParse("bytes=100-", 100);
+    }
+
+}